@@ -4,8 +4,7 @@ import java.nio.ByteBuffer;
 import java.io.IOException;
 import java.io.FileInputStream;
 import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.ScheduledFuture;
 import java.net.DatagramPacket;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
@@ -20,12 +19,13 @@ import cc.clayman.net.*;
 import cc.clayman.terminal.ChunkDisplay;
 import cc.clayman.terminal.SVCChunkDisplay;
 import cc.clayman.util.Verbose;
+import cc.clayman.util.Execution;
 
 // Collect packets using UDPChunkStreamer
 
 public class BPPListen {
 
-    static UDPReceiver receiver = null;
+    static PacketReceiver<DatagramPacket> receiver = null;
     static UDPChunkStreamer streamer = null;
 
     static int count = 0;
@@ -61,7 +61,20 @@ public class BPPListen {
             while (argc < args.length) {  // allow for port at end
                 String arg0 = args[argc];
 
-                if (arg0.equals("-p")) {
+                if (arg0.equals("-m")) {
+                    // Transport
+                    argc++;
+
+                    String val = args[argc];
+
+                    if (Transport.isValid(val)) {
+                        Transport.setType(val);
+                    } else {
+                        System.err.println("Transport: illegal arg. Expected -m udp|shm");
+                        System.exit(1);
+                    }
+
+                } else if (arg0.equals("-p")) {
                     // Port
                     argc++;
 
@@ -115,7 +128,7 @@ public class BPPListen {
     }
 
     static void usage() {
-        System.err.println("BPPListen [-p port] [-c cols]");
+        System.err.println("BPPListen [-p port] [-c cols] [-m udp|shm]");
         System.exit(1);
     }
 
@@ -125,7 +138,7 @@ public class BPPListen {
 
         if (inetAddr == null) {
             // Setup UDP Receiver
-            receiver = new UDPReceiver(udpPort);
+            receiver = Transport.newReceiver(udpPort);
         } else {
             // got an inetAddr
             if (inetAddr.isMulticastAddress()) {
@@ -136,7 +149,7 @@ public class BPPListen {
                 }
 
             } else {
-                receiver = new UDPReceiver(new InetSocketAddress(inetAddr, udpPort));
+                receiver = Transport.newReceiver(new InetSocketAddress(inetAddr, udpPort));
             }
         }
                   
@@ -151,15 +164,10 @@ public class BPPListen {
         lastTime = System.currentTimeMillis();
 
         // Wait for 5 secs before ending
-        TimerTask timerTask = new TimedCount(streamer, noTrafficEndTimerDuration);
+        TimedCount timerTask = new TimedCount(streamer, noTrafficEndTimerDuration);
 
-        Timer timer = null;
-
-        // if there is no timer, start one
-        if (timer == null) {
-            timer = new Timer();
-            timer.schedule(timerTask, 1000, 1000);
-        }
+        // run it every second
+        ScheduledFuture<?> timer = Execution.scheduleAtFixedRate(timerTask, 1000, 1000);
         
 
         while (streamer.hasNext()) {
@@ -180,7 +188,7 @@ public class BPPListen {
 
         }
 
-        timer.cancel();
+        timer.cancel(false);
 
         // stop receiver
         streamer.stop();
@@ -212,7 +220,7 @@ public class BPPListen {
     
 
     // set up timer to count throughput
-    private static class TimedCount extends TimerTask {
+    private static class TimedCount implements Runnable {
         boolean running = true;
         ChunkStreamer streamer;
         // time to wait - in seconds - for no traffic
@@ -251,7 +259,6 @@ public class BPPListen {
             }
         }
 
-        @Override
         public boolean cancel() {
             if (running) {
                 running = false;
@@ -260,11 +267,6 @@ public class BPPListen {
             return running;
         }
 
-        @Override
-        public long scheduledExecutionTime() {
-            return 0;
-        }
-
     }
 
 
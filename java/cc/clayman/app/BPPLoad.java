@@ -0,0 +1,353 @@
+package cc.clayman.app;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.FileInputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+
+import cc.clayman.bpp.BPP;
+import cc.clayman.chunk.*;
+import cc.clayman.trace.*;
+import cc.clayman.util.Verbose;
+
+/**
+ * BPPLoad is a load generator.
+ * It reads and chunks a video file once into an in-memory PacketTrace,
+ * then replays it as many independent BPP streams.
+ * Each stream has its own sequence space, start packet, start time,
+ * and destination port.  All the streams are paced on a small
+ * number of TraceScheduler threads.
+ */
+public class BPPLoad {
+
+    // Default is STDIN
+    static String filename = "-";
+
+    // A packet trace file, made by BPPTrace
+    static String traceFilename = null;
+
+    // send host
+    static String host = "localhost";
+    // send port of first stream
+    static int udpPort = 6799;
+    // port increment between streams
+    static int portIncrement = 1;
+
+    static int streams = 1;               // no of streams
+    static int workers = 2;               // no of scheduler threads
+    static int loops = 1;                 // no of times to play the trace, 0 is forever
+    static int stagger = 0;               // stagger (in milliseconds) between stream starts
+    static boolean socketPerStream = false;  // one socket for each stream
+
+    static int packetsPerSecond = 0;      // no of packets per second
+    static int packetSize = 1500;         // packet size
+    static int nalsPerFrame = 3;          // no of NALs per frame
+    static int videoKbps = 1094;          // the bandwidth of the video file
+    static int threshold = 5;             // default threshold
+
+    static ChunkSizeCalculator calculator = null;
+
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            usage();
+        } else if (args.length >= 1) {
+            // have flags too
+
+            int argc = 0;
+
+            while (argc < args.length) {
+                String arg0 = args[argc];
+
+                if (arg0.equals("-f")) {
+                    // Input filename
+                    argc++;
+                    filename = args[argc];
+
+                } else if (arg0.equals("-t")) {
+                    // Trace filename
+                    argc++;
+                    traceFilename = args[argc];
+
+                } else if (arg0.equals("-h")) {
+                    // Host
+                    argc++;
+                    host = args[argc];
+
+                } else if (arg0.equals("-p")) {
+                    // Port
+                    argc++;
+
+                    String val = args[argc];
+                    udpPort = Integer.parseInt(val);
+
+                } else if (arg0.equals("-i")) {
+                    // Port increment
+                    argc++;
+
+                    String val = args[argc];
+                    portIncrement = Integer.parseInt(val);
+
+                } else if (arg0.equals("-n")) {
+                    // No of streams
+                    argc++;
+
+                    String val = args[argc];
+                    streams = Integer.parseInt(val);
+
+                } else if (arg0.equals("-w")) {
+                    // No of scheduler threads
+                    argc++;
+
+                    String val = args[argc];
+                    workers = Integer.parseInt(val);
+
+                } else if (arg0.equals("-l")) {
+                    // No of loops
+                    argc++;
+
+                    String val = args[argc];
+                    loops = Integer.parseInt(val);
+
+                } else if (arg0.equals("-S")) {
+                    // Stagger between starts
+                    argc++;
+
+                    String val = args[argc];
+                    stagger = Integer.parseInt(val);
+
+                } else if (arg0.equals("-k")) {
+                    // A socket per stream
+                    socketPerStream = true;
+
+                } else if (arg0.equals("-z")) {
+                    // packet size
+                    argc++;
+
+                    String val = args[argc];
+                    packetSize = Integer.parseInt(val);
+
+                } else if (arg0.equals("-r")) {
+                    // Packet sending rate - packets per second
+                    argc++;
+
+                    String val = args[argc];
+                    packetsPerSecond = Integer.parseInt(val);
+
+                } else if (arg0.equals("-N")) {
+                    // nals per frame
+                    argc++;
+
+                    String val = args[argc];
+                    nalsPerFrame = Integer.parseInt(val);
+
+                } else if (arg0.equals("-B")) {
+                    // bandwidth of video in kbps
+                    argc++;
+
+                    String val = args[argc];
+                    videoKbps = Integer.parseInt(val);
+
+                } else if (arg0.equals("-T")) {
+                    // threshold for significance values
+                    argc++;
+
+                    String val = args[argc];
+                    threshold = Integer.parseInt(val);
+
+                } else if (arg0.startsWith("-P")) {
+
+                    if (arg0.equals("-Pe")) {
+                        calculator = new EvenSplit();
+                    } else if (arg0.equals("-Pd")) {
+                        calculator = new DynamicSplit();
+                    } else if (arg0.equals("-Pi")) {
+                        calculator = new InOrder();
+                    } else if (arg0.equals("-Pf")) {
+                        calculator = new InOrderPacked();
+                    } else {
+                        // Unknown packing option
+                    }
+
+                } else if (arg0.startsWith("-v")) {
+                    if (arg0.equals("-v")) {
+                        Verbose.level = 1;
+                    } else  if (arg0.equals("-vv")) {
+                        Verbose.level = 2;
+                    } else  if (arg0.equals("-vvv")) {
+                        Verbose.level = 3;
+                    }
+
+                } else {
+                    usage();
+                }
+
+                argc++;
+            }
+
+        } else {
+            usage();
+        }
+
+        if (Verbose.level >= 2) {
+            System.err.println("Send host: " + host);
+            System.err.println("First port: " + udpPort);
+            System.err.println("Port increment: " + portIncrement);
+            System.err.println("Streams: " + streams);
+            System.err.println("Workers: " + workers);
+            System.err.println("Loops: " + loops);
+            System.err.println("Stagger: " + stagger);
+            System.err.println("NALs per frame: " + nalsPerFrame);
+            System.err.println("Packet size: " + packetSize);
+            System.err.println("Threshold: " + threshold);
+            System.err.println("Video kbps: " + videoKbps);
+        }
+
+        try {
+            processFile(filename);
+        } catch (IOException ioe) {
+            ioe.printStackTrace();
+        } catch (InterruptedException ie) {
+        }
+    }
+
+    static void usage() {
+        System.err.println("BPPLoad [-f [-|filename]|-t tracefile] [-h host] [-p port] [-i portIncrement] [-n streams] [-w workers] [-l loops] [-S stagger] [-k] [-r rate] [-z packetSize] [-N nals] [-B bandwidth] [-T threshold] [-Pe|-Pd|-Pi|-Pf]");
+        System.exit(1);
+    }
+
+    protected static void processFile(String filename) throws IOException, InterruptedException {
+        PacketTrace trace = null;
+
+        if (traceFilename != null) {
+            // Map a pre-built trace
+            trace = new MappedPacketTrace(traceFilename);
+        } else {
+            InputStream in = null;
+
+            if (filename.equals("-")) {
+                in = System.in;
+            } else {
+                in = new FileInputStream(filename);
+            }
+
+            // Load the content once
+            PacketTraceBuilder builder = new PacketTraceBuilder()
+                .setPacketSize(packetSize)
+                .setNALsPerFrame(nalsPerFrame)
+                .setVideoKbps(videoKbps)
+                .setPacketsPerSecond(packetsPerSecond)
+                .setThreshold(threshold)
+                .setChunkSizeCalculator(calculator);
+
+            trace = builder.build(in);
+        }
+
+        System.err.println("BPPLoad: " + trace);
+
+        if (trace.size() == 0) {
+            return;
+        }
+
+        InetAddress inetAddr = host.equals("localhost") ? InetAddress.getLocalHost() : InetAddress.getByName(host);
+
+        // Setup the schedulers
+        TraceScheduler[] schedulers = new TraceScheduler[workers];
+        DatagramChannel[] channels = new DatagramChannel[workers];
+
+        for (int w=0; w<workers; w++) {
+            schedulers[w] = new TraceScheduler(w);
+
+            if (! socketPerStream) {
+                // one socket per scheduler
+                channels[w] = DatagramChannel.open();
+            }
+        }
+
+        ArrayList<DatagramChannel> allChannels = new ArrayList<DatagramChannel>();
+
+        // Start a bit in the future so every stream has a clean start
+        long startTime = System.nanoTime() + 100000000L;
+
+        for (int s=0; s<streams; s++) {
+            int w = s % workers;
+
+            DatagramChannel channel;
+
+            if (socketPerStream) {
+                channel = DatagramChannel.open();
+                allChannels.add(channel);
+            } else {
+                channel = channels[w];
+            }
+
+            InetSocketAddress destination = new InetSocketAddress(inetAddr, udpPort + (s * portIncrement));
+
+            // spread the start packets across the trace
+            int startIndex = (int)(((long)s * trace.size()) / streams);
+
+            TraceStream stream = new TraceStream(s, trace, channel, destination, startIndex, startTime + ((long)s * stagger * 1000000L), loops);
+
+            schedulers[w].add(stream);
+        }
+
+        for (int w=0; w<workers; w++) {
+            schedulers[w].start();
+        }
+
+        // Report once a second
+        long lastPackets = 0;
+        long lastVolume = 0;
+        int seconds = 0;
+        boolean running = true;
+
+        while (running) {
+            Thread.sleep(1000);
+            seconds++;
+
+            long packets = 0;
+            long volume = 0;
+            long errors = 0;
+            long latenessTotal = 0;
+            long latenessMax = 0;
+            int active = 0;
+            running = false;
+
+            for (int w=0; w<workers; w++) {
+                packets += schedulers[w].getPacketCount();
+                volume += schedulers[w].getVolume();
+                errors += schedulers[w].getErrorCount();
+                latenessTotal += schedulers[w].getLatenessTotal();
+                latenessMax = Math.max(latenessMax, schedulers[w].getLatenessMax());
+
+                if (schedulers[w].isRunning()) {
+                    active += schedulers[w].size();
+                    running = true;
+                }
+            }
+
+            long avgLate = packets == 0 ? 0 : latenessTotal / packets;
+
+            // second, streams, packets/s, bits/s, avg late (us), max late (us), errors
+            System.out.printf("LOAD: %6d%8d%10d%12d%8d%8d%6d\n", seconds, active, (packets - lastPackets), (volume - lastVolume) * 8, avgLate / 1000, latenessMax / 1000, errors);
+
+            lastPackets = packets;
+            lastVolume = volume;
+        }
+
+        for (int w=0; w<workers; w++) {
+            schedulers[w].join();
+
+            if (channels[w] != null) {
+                channels[w].close();
+            }
+        }
+
+        for (DatagramChannel channel : allChannels) {
+            channel.close();
+        }
+    }
+
+}
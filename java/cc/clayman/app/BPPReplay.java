@@ -0,0 +1,213 @@
+package cc.clayman.app;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.locks.LockSupport;
+
+import cc.clayman.trace.*;
+import cc.clayman.util.Verbose;
+
+/**
+ * BPPReplay sends a packet trace file made by BPPTrace.
+ * The trace is memory-mapped, and packets are sent straight
+ * from the mapping, so the sender only does pacing and system calls.
+ * A run can start at any packet, or at any time offset, using the index.
+ */
+public class BPPReplay {
+
+    // The trace file
+    static String traceFilename = null;
+
+    // send host
+    static String host = "localhost";
+    // send port
+    static int udpPort = 6799;
+
+    static int startPacket = 0;           // first packet to send
+    static float startSecond = -1;        // or the time to start from
+    static int count = 0;                 // no of packets to send, 0 is to the end
+    static int loops = 1;                 // no of times to play the trace, 0 is forever
+
+    // Parking is not precise, so spin for the last part of a wait
+    static final long SPIN_NANOS = 50000;   // 50 us
+
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            usage();
+        } else if (args.length >= 1) {
+            // have flags too
+
+            int argc = 0;
+
+            while (argc < args.length) {
+                String arg0 = args[argc];
+
+                if (arg0.equals("-f")) {
+                    // Trace filename
+                    argc++;
+                    traceFilename = args[argc];
+
+                } else if (arg0.equals("-h")) {
+                    // Host
+                    argc++;
+                    host = args[argc];
+
+                } else if (arg0.equals("-p")) {
+                    // Port
+                    argc++;
+
+                    String val = args[argc];
+                    udpPort = Integer.parseInt(val);
+
+                } else if (arg0.equals("-S")) {
+                    // Start packet
+                    argc++;
+
+                    String val = args[argc];
+                    startPacket = Integer.parseInt(val);
+
+                } else if (arg0.equals("-t")) {
+                    // Start time, in seconds
+                    argc++;
+
+                    String val = args[argc];
+                    startSecond = Float.parseFloat(val);
+
+                } else if (arg0.equals("-n")) {
+                    // No of packets
+                    argc++;
+
+                    String val = args[argc];
+                    count = Integer.parseInt(val);
+
+                } else if (arg0.equals("-l")) {
+                    // No of loops
+                    argc++;
+
+                    String val = args[argc];
+                    loops = Integer.parseInt(val);
+
+                } else if (arg0.startsWith("-v")) {
+                    if (arg0.equals("-v")) {
+                        Verbose.level = 1;
+                    } else  if (arg0.equals("-vv")) {
+                        Verbose.level = 2;
+                    } else  if (arg0.equals("-vvv")) {
+                        Verbose.level = 3;
+                    }
+
+                } else {
+                    usage();
+                }
+
+                argc++;
+            }
+
+        } else {
+            usage();
+        }
+
+        if (traceFilename == null) {
+            usage();
+        }
+
+        try {
+            replay();
+        } catch (IOException ioe) {
+            ioe.printStackTrace();
+        }
+    }
+
+    static void usage() {
+        System.err.println("BPPReplay -f tracefile [-h host] [-p port] [-S startPacket|-t startSecond] [-n count] [-l loops]");
+        System.exit(1);
+    }
+
+    protected static void replay() throws IOException {
+        MappedPacketTrace trace = new MappedPacketTrace(traceFilename);
+
+        if (Verbose.level >= 1) {
+            System.err.println("BPPReplay: " + trace);
+        }
+
+        int size = trace.size();
+
+        if (size == 0) {
+            trace.close();
+            return;
+        }
+
+        if (startSecond >= 0) {
+            // use the index to find where to start
+            startPacket = trace.find((long)(startSecond * 1000000000L));
+        }
+
+        if (startPacket >= size) {
+            System.err.println("BPPReplay: start packet " + startPacket + " is beyond the end of the trace: " + size);
+            trace.close();
+            return;
+        }
+
+        InetAddress inetAddr = host.equals("localhost") ? InetAddress.getLocalHost() : InetAddress.getByName(host);
+        InetSocketAddress destination = new InetSocketAddress(inetAddr, udpPort);
+
+        // not connected, so an ICMP port unreachable does not stop the run
+        DatagramChannel channel = DatagramChannel.open();
+
+        ByteBuffer view = trace.newView();
+
+        long duration = trace.getDuration();
+        long base = trace.getSendOffset(startPacket);
+        long startTime = System.nanoTime();
+
+        int sent = 0;
+        long volume = 0;
+        int loop = 0;
+
+        while (loops == 0 || loop < loops) {
+            int first = (loop == 0 ? startPacket : 0);
+
+            for (int p=first; p<size; p++) {
+                if (count > 0 && sent >= count) {
+                    break;
+                }
+
+                // absolute send time
+                long due = startTime + ((long)loop * duration) + trace.getSendOffset(p) - base;
+
+                long wait;
+                while ((wait = due - System.nanoTime()) > 0) {
+                    if (wait > SPIN_NANOS) {
+                        LockSupport.parkNanos(wait - SPIN_NANOS);
+                    } else {
+                        Thread.onSpinWait();
+                    }
+                }
+
+                ByteBuffer packet = trace.getPacket(p, view);
+                volume += packet.remaining();
+
+                channel.send(packet, destination);
+                sent++;
+
+                if (Verbose.level >= 2) {
+                    System.err.println("BPPReplay: " + sent + " packet " + p + " offset " + trace.getSendOffset(p));
+                }
+            }
+
+            if (count > 0 && sent >= count) {
+                break;
+            }
+
+            loop++;
+        }
+
+        channel.close();
+        trace.close();
+
+        System.err.println("BPPReplay: sent " + sent + " packets " + volume + " bytes");
+    }
+}
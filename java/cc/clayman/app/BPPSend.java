@@ -4,7 +4,6 @@ import java.nio.ByteBuffer;
 import java.io.IOException;
 import java.io.FileInputStream;
 import java.util.List;
-import java.util.regex.*;
 
 import cc.clayman.bpp.BPP;
 import cc.clayman.bpp.BPPFunction;
@@ -14,6 +13,7 @@ import cc.clayman.processor.MultiNALProcessor;
 import cc.clayman.net.*;
 import cc.clayman.terminal.ChunkDisplay;
 import cc.clayman.terminal.SVCChunkDisplay;
+import cc.clayman.util.Clock;
 import cc.clayman.util.Verbose;
 
 /**
@@ -30,7 +30,7 @@ public class BPPSend {
     // send port
     static int udpPort = 6799;
 
-    static UDPSender sender = null;
+    static PacketSender sender = null;
     static float sleep = 7.0f;            // default sleep (in milliseconds) between chunks
     static boolean adaptiveSleep = true;  // show we do adaptive sleep
     static int packetsPerSecond = 0;      // no of packets per second
@@ -40,6 +40,8 @@ public class BPPSend {
     static int videoKbps = 1094;          // the bandwidth of the video file
     static int threshold = 5;             // default threshold
     static int fnSpec = BPP.Function.NONE;    // No special functions called in network node
+    static int command = BPP.Command.WASH;            // What the network node does
+    static int condition = BPP.Condition.LIMITEDFN;   // When it does it
 
     static ChunkPacketizer packetizer = null;
     static ChunkSizeCalculator calculator = null;
@@ -67,6 +69,19 @@ public class BPPSend {
                     argc++;
                     host = args[argc];
 
+                } else if (arg0.equals("-m")) {
+                    // Transport
+                    argc++;
+
+                    String val = args[argc];
+
+                    if (Transport.isValid(val)) {
+                        Transport.setType(val);
+                    } else {
+                        System.err.println("Transport: illegal arg. Expected -m udp|shm");
+                        System.exit(1);
+                    }
+
                 } else if (arg0.equals("-p")) {
                     // Port
                     argc++;
@@ -157,33 +172,32 @@ public class BPPSend {
 
 
                 } else if (arg0.startsWith("-F")) {
-                    if (arg0.startsWith("-Fr")) {
-                        // RelaxThreshold functions
-                        
-                        // check if arg looks like -Fr:value
-                            
-                        // we need to split the arg and grab the period
-                        String regexp = "-Fr:(\\d)";
-                        Pattern pattern = Pattern.compile(regexp);
-                        Matcher matcher = pattern.matcher(arg0);
-                        
-                        if (matcher.matches()) {
-                            String group1 = matcher.group(1);
-
-                            int arg = Integer.parseInt(group1);
+                    // Functions, run in the network node
+                    // -Fr:arg RelaxThreshold, -Fl:layer TrimToLayer, -Fc:bytes CapBytes
+                    BPPFunction fn = BPPFunction.parse(arg0.substring(2));
 
-                            fnSpec = new BPPFunction.RelaxThreshold(arg).representation();
+                    if (fn != null) {
+                        fnSpec = fn.representation();
 
-                        } else {
-                            System.err.println("Function spec: illegal arg. Expected -Fr:arg e.g. -Fr:1");
-                            System.exit(1);
-                        }
                     } else {
-                        System.err.println("Function spec: illegal arg. Expected -Fr:1");
+                        System.err.println("Function spec: illegal arg. Expected -Fr:arg, -Fl:layer, or -Fc:bytes e.g. -Fr:1");
                         System.exit(1);
+                    }
+
+                } else if (arg0.equals("-X")) {
+                    // command and condition
+                    argc++;
 
+                    String[] parts = args[argc].split(":");
+
+                    command = BPP.Command.valueOf(parts[0]);
+                    condition = parts.length > 1 ? BPP.Condition.valueOf(parts[1]) : BPP.Condition.LIMITEDFN;
+
+                    if (command < 0 || condition < 0 || parts.length > 2) {
+                        System.err.println("Command: illegal arg. Expected -X none|drop|wash|flush[:limited|always|never|limitedfn] e.g. -X flush:always");
+                        System.exit(1);
                     }
-                    
+
                 } else if (arg0.startsWith("-v")) {
                     if (arg0.equals("-v")) {
                         Verbose.level = 1;
@@ -213,6 +227,7 @@ public class BPPSend {
             System.err.println("Sleep: " + sleep);
             System.err.println("Adaptive Sleep: " + (adaptiveSleep ? "ON" : "OFF"));
             System.err.println("Threshold: " + threshold);
+            System.err.println("Command: " + command + " condition: " + condition + " function: " + BPPFunction.lookup(BPPFunction.newTable(), fnSpec));
             System.err.println("Video kbps: " + videoKbps);
             System.err.println("Columns: " + columns);
         }
@@ -225,7 +240,7 @@ public class BPPSend {
     }
 
     static void usage() {
-        System.err.println("BPPSend [-f [-|filename]] [-h host]  [-p port] [-s sleep|-r rate|-a] [-z packetSize] [-N nals] [-B bandwidth] [-T threshold] [-Pe|-Pd|-Pi|-Pf]");
+        System.err.println("BPPSend [-f [-|filename]] [-h host]  [-p port] [-s sleep|-r rate|-a] [-z packetSize] [-N nals] [-B bandwidth] [-T threshold] [-Pe|-Pd|-Pi|-Pf] [-Fr:arg|-Fl:layer|-Fc:bytes] [-X command[:condition]] [-m udp|shm]");
         System.exit(1);
     }
 
@@ -242,7 +257,7 @@ public class BPPSend {
         SVCChunkInfo chunk = null;
         
         // Setup UDP Sender
-        sender = new UDPSender(host, udpPort);
+        sender = Transport.newSender(host, udpPort);
         sender.start();
         
         // Configure ChunkPacketizer
@@ -282,7 +297,7 @@ public class BPPSend {
         }
 
         // set secondStart
-        secondStart = System.currentTimeMillis();
+        secondStart = Clock.SYSTEM.millis();
 
         // use default sleep
         float lastSleep = sleep;
@@ -308,13 +323,13 @@ public class BPPSend {
             // This is used by the network node to drop chunks
             
             // now send it
-            sender.sendPayload(packetizer.convert(count, BPP.Command.WASH, BPP.Condition.LIMITEDFN, threshold, fnSpec, chunk));
+            sender.sendPayload(packetizer.convert(count, command, condition, threshold, fnSpec, chunk));
 
             // sleep a bit
             try {
                 if (adaptiveSleep) {
 
-                    long now = System.currentTimeMillis();
+                    long now = Clock.SYSTEM.millis();
                     long timeOffset = now - secondStart;
                     float secondPart = (float)timeOffset / 1000;
 
@@ -0,0 +1,195 @@
+package cc.clayman.app;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.FileInputStream;
+
+import cc.clayman.bpp.BPP;
+import cc.clayman.bpp.BPPFunction;
+import cc.clayman.chunk.*;
+import cc.clayman.trace.*;
+import cc.clayman.util.Verbose;
+
+/**
+ * BPPTrace converts a video file into a packet trace file offline.
+ * The trace holds the exact BPPSVCPacketizer output that BPPSend would send,
+ * plus the intended send offset of each packet.
+ * It can then be sent with BPPReplay or BPPLoad.
+ */
+public class BPPTrace {
+
+    // Default is STDIN
+    static String filename = "-";
+
+    // Output trace file
+    static String traceFilename = null;
+
+    static int packetsPerSecond = 0;      // no of packets per second
+    static int packetSize = 1500;         // packet size
+    static int nalsPerFrame = 3;          // no of NALs per frame
+    static int videoKbps = 1094;          // the bandwidth of the video file
+    static int threshold = 5;             // default threshold
+    static int fnSpec = BPP.Function.NONE;    // No special functions called in network node
+    static int command = BPP.Command.WASH;            // What the network node does
+    static int condition = BPP.Condition.LIMITEDFN;   // When it does it
+
+    static ChunkSizeCalculator calculator = null;
+
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            usage();
+        } else if (args.length >= 1) {
+            // have flags too
+
+            int argc = 0;
+
+            while (argc < args.length) {
+                String arg0 = args[argc];
+
+                if (arg0.equals("-f")) {
+                    // Input filename
+                    argc++;
+                    filename = args[argc];
+
+                } else if (arg0.equals("-o")) {
+                    // Output trace filename
+                    argc++;
+                    traceFilename = args[argc];
+
+                } else if (arg0.equals("-z")) {
+                    // packet size
+                    argc++;
+
+                    String val = args[argc];
+                    packetSize = Integer.parseInt(val);
+
+                } else if (arg0.equals("-s")) {
+                    // Sleep (in milliseconds) between chunks
+                    argc++;
+
+                    String val = args[argc];
+                    packetsPerSecond = (int)(1000f / Float.parseFloat(val));
+
+                } else if (arg0.equals("-r")) {
+                    // Packet sending rate - packets per second
+                    argc++;
+
+                    String val = args[argc];
+                    packetsPerSecond = Integer.parseInt(val);
+
+                } else if (arg0.equals("-N")) {
+                    // nals per frame
+                    argc++;
+
+                    String val = args[argc];
+                    nalsPerFrame = Integer.parseInt(val);
+
+                } else if (arg0.equals("-B")) {
+                    // bandwidth of video in kbps
+                    argc++;
+
+                    String val = args[argc];
+                    videoKbps = Integer.parseInt(val);
+
+                } else if (arg0.equals("-T")) {
+                    // threshold for significance values
+                    argc++;
+
+                    String val = args[argc];
+                    threshold = Integer.parseInt(val);
+
+                } else if (arg0.startsWith("-P")) {
+
+                    if (arg0.equals("-Pe")) {
+                        calculator = new EvenSplit();
+                    } else if (arg0.equals("-Pd")) {
+                        calculator = new DynamicSplit();
+                    } else if (arg0.equals("-Pi")) {
+                        calculator = new InOrder();
+                    } else if (arg0.equals("-Pf")) {
+                        calculator = new InOrderPacked();
+                    } else {
+                        // Unknown packing option
+                    }
+
+                } else if (arg0.startsWith("-F")) {
+                    // Functions, run in the network node
+                    BPPFunction fn = BPPFunction.parse(arg0.substring(2));
+
+                    if (fn != null) {
+                        fnSpec = fn.representation();
+                    } else {
+                        System.err.println("Function spec: illegal arg. Expected -Fr:arg, -Fl:layer, or -Fc:bytes e.g. -Fr:1");
+                        System.exit(1);
+                    }
+
+                } else if (arg0.equals("-X")) {
+                    // command and condition
+                    argc++;
+
+                    String[] parts = args[argc].split(":");
+
+                    command = BPP.Command.valueOf(parts[0]);
+                    condition = parts.length > 1 ? BPP.Condition.valueOf(parts[1]) : BPP.Condition.LIMITEDFN;
+
+                    if (command < 0 || condition < 0 || parts.length > 2) {
+                        System.err.println("Command: illegal arg. Expected -X none|drop|wash|flush[:limited|always|never|limitedfn] e.g. -X flush:always");
+                        System.exit(1);
+                    }
+
+                } else if (arg0.startsWith("-v")) {
+                    if (arg0.equals("-v")) {
+                        Verbose.level = 1;
+                    } else  if (arg0.equals("-vv")) {
+                        Verbose.level = 2;
+                    } else  if (arg0.equals("-vvv")) {
+                        Verbose.level = 3;
+                    }
+
+                } else {
+                    usage();
+                }
+
+                argc++;
+            }
+
+        } else {
+            usage();
+        }
+
+        if (traceFilename == null) {
+            usage();
+        }
+
+        try {
+            InputStream in = filename.equals("-") ? System.in : new FileInputStream(filename);
+
+            PacketTraceBuilder builder = new PacketTraceBuilder()
+                .setPacketSize(packetSize)
+                .setNALsPerFrame(nalsPerFrame)
+                .setVideoKbps(videoKbps)
+                .setPacketsPerSecond(packetsPerSecond)
+                .setThreshold(threshold)
+                .setCommand(command, condition)
+                .setFunction(fnSpec)
+                .setChunkSizeCalculator(calculator);
+
+            PacketTraceFileWriter writer = new PacketTraceFileWriter(traceFilename);
+
+            int count = builder.build(in, writer);
+
+            writer.close();
+
+            System.err.println("BPPTrace: wrote " + count + " packets to " + traceFilename + " (" + writer.size() + " in trace)");
+
+        } catch (IOException ioe) {
+            ioe.printStackTrace();
+        }
+    }
+
+    static void usage() {
+        System.err.println("BPPTrace [-f [-|filename]] -o tracefile [-s sleep|-r rate] [-z packetSize] [-N nals] [-B bandwidth] [-T threshold] [-Pe|-Pd|-Pi|-Pf] [-Fr:arg|-Fl:layer|-Fc:bytes] [-X command[:condition]]");
+        System.exit(1);
+    }
+
+}
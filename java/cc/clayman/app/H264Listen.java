@@ -5,8 +5,7 @@ import java.io.IOException;
 import java.io.FileOutputStream;
 import java.io.OutputStream;
 import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.ScheduledFuture;
 import java.net.DatagramPacket;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
@@ -20,6 +19,7 @@ import cc.clayman.processor.UDPChunkStreamer;
 import cc.clayman.processor.BufferingUDPChunkStreamer;
 import cc.clayman.net.*;
 import cc.clayman.util.Verbose;
+import cc.clayman.util.Execution;
 
 
 // Use the MultiNALRebuilder to create an H264 stream,
@@ -27,7 +27,7 @@ import cc.clayman.util.Verbose;
 
 public class H264Listen {
 
-    static UDPReceiver receiver = null;
+    static PacketReceiver<DatagramPacket> receiver = null;
     static UDPChunkStreamer streamer = null;
     static MissingNALAnalyser analyser  = null;
 
@@ -91,6 +91,19 @@ public class H264Listen {
 
                     
 
+                } else if (arg0.equals("-m")) {
+                    // Transport
+                    argc++;
+
+                    String val = args[argc];
+
+                    if (Transport.isValid(val)) {
+                        Transport.setType(val);
+                    } else {
+                        System.err.println("Transport: illegal arg. Expected -m udp|shm");
+                        System.exit(1);
+                    }
+
                 } else if (arg0.equals("-p")) {
                     // Port
                     argc++;
@@ -145,7 +158,7 @@ public class H264Listen {
     }
 
     static void usage() {
-        System.err.println("H264Listen [-f [-|filename]] [-h host] [-p port]");
+        System.err.println("H264Listen [-f [-|filename]] [-h host] [-p port] [-m udp|shm]");
         System.exit(1);
     }
 
@@ -155,7 +168,7 @@ public class H264Listen {
 
         if (inetAddr == null) {
             // Setup UDP Receiver
-            receiver = new UDPReceiver(udpPort);
+            receiver = Transport.newReceiver(udpPort);
         } else {
             // got an inetAddr
             if (inetAddr.isMulticastAddress()) {
@@ -166,7 +179,7 @@ public class H264Listen {
                 }
 
             } else {
-                receiver = new UDPReceiver(new InetSocketAddress(inetAddr, udpPort));
+                receiver = Transport.newReceiver(new InetSocketAddress(inetAddr, udpPort));
             }
         }
                   
@@ -214,15 +227,10 @@ public class H264Listen {
         lastTime = System.currentTimeMillis();
 
         // Wait for 5 secs before ending
-        TimerTask timerTask = new TimedCount(streamer, noTrafficEndTimerDuration);
+        TimedCount timerTask = new TimedCount(streamer, noTrafficEndTimerDuration);
 
-        Timer timer = null;
-
-        // if there is no timer, start one
-        if (timer == null) {
-            timer = new Timer();
-            timer.schedule(timerTask, 1000, 1000);
-        }
+        // run it every second
+        ScheduledFuture<?> timer = Execution.scheduleAtFixedRate(timerTask, 1000, 1000);
 
 
         while (analyser.hasNext()) {
@@ -244,7 +252,7 @@ public class H264Listen {
             outputStream.close();
         }
 
-        timer.cancel();
+        timer.cancel(false);
 
         // stop receiver
         analyser.stop();
@@ -283,7 +291,7 @@ public class H264Listen {
     
     
     // set up timer to count throughput
-    private static class TimedCount extends TimerTask {
+    private static class TimedCount implements Runnable {
         boolean running = true;
         ChunkStreamer streamer;
         // time to wait - in seconds - for no traffic
@@ -322,7 +330,6 @@ public class H264Listen {
             }
         }
 
-        @Override
         public boolean cancel() {
             if (running) {
                 running = false;
@@ -331,11 +338,6 @@ public class H264Listen {
             return running;
         }
 
-        @Override
-        public long scheduledExecutionTime() {
-            return 0;
-        }
-
     }
 
 
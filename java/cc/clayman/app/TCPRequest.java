@@ -5,8 +5,7 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.FileOutputStream;
 import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.ScheduledFuture;
 import java.net.InetSocketAddress;
 import java.net.InetAddress;
 import java.net.DatagramPacket;
@@ -20,6 +19,7 @@ import cc.clayman.net.*;
 import cc.clayman.terminal.ChunkDisplay;
 import cc.clayman.terminal.SVCChunkDisplay;
 import cc.clayman.util.Verbose;
+import cc.clayman.util.Execution;
 
 // A TCP receiver 
 
@@ -168,16 +168,11 @@ public class TCPRequest {
         // Timer stuff
         startTime = System.currentTimeMillis();
         lastTime = System.currentTimeMillis();
-        Timer timer = null;
-
         // set up timer to count throughput
-        TimerTask timerTask = new TimedCount(noTrafficEndTimerDuration);
+        TimedCount timerTask = new TimedCount(noTrafficEndTimerDuration);
 
-        // if there is no timer, start one
-        if (timer == null) {
-            timer = new Timer();
-            timer.schedule(timerTask, 1000, 1000);
-        }
+        // run it every second
+        ScheduledFuture<?> timer = Execution.scheduleAtFixedRate(timerTask, 1000, 1000);
 
         TemporalLayerModel model = new TemporalLayerModelGOB16();
 
@@ -373,7 +368,7 @@ public class TCPRequest {
             System.err.println("end of loop");
         }
 
-        timer.cancel();
+        timer.cancel(false);
 
         if (outputStream != null) {
             outputStream.close();
@@ -446,7 +441,7 @@ public class TCPRequest {
     }
     
     // set up timer to count throughput
-    private static class TimedCount extends TimerTask {
+    private static class TimedCount implements Runnable {
         boolean running = true;
         // time to wait - in seconds - for no traffic
         int timeOut;
@@ -482,7 +477,6 @@ public class TCPRequest {
             }
         }
 
-        @Override
         public boolean cancel() {
             if (running) {
                 running = false;
@@ -491,11 +485,6 @@ public class TCPRequest {
             return running;
         }
 
-        @Override
-        public long scheduledExecutionTime() {
-            return 0;
-        }
-
     }
 
     protected static void printChunk(SVCChunkInfo chunk, int count, int total, int payloadSize) {
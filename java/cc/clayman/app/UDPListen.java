@@ -5,8 +5,7 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.FileOutputStream;
 import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.ScheduledFuture;
 import java.net.DatagramPacket;
 
 import cc.clayman.h264.*;
@@ -16,12 +15,13 @@ import cc.clayman.net.*;
 import cc.clayman.terminal.ChunkDisplay;
 import cc.clayman.terminal.SVCChunkDisplay;
 import cc.clayman.util.Verbose;
+import cc.clayman.util.Execution;
 
 // A UDP receiver 
 
 public class UDPListen {
 
-    static UDPReceiver receiver = null;
+    static PacketReceiver<DatagramPacket> receiver = null;
 
     static int count = 0;
     static int total = 0;
@@ -61,6 +61,19 @@ public class UDPListen {
                     argc++;
                     filename = args[argc];
 
+                } else if (arg0.equals("-m")) {
+                    // Transport
+                    argc++;
+
+                    String val = args[argc];
+
+                    if (Transport.isValid(val)) {
+                        Transport.setType(val);
+                    } else {
+                        System.err.println("Transport: illegal arg. Expected -m udp|shm");
+                        System.exit(1);
+                    }
+
                 } else if (arg0.equals("-p")) {
                     // Port
                     argc++;
@@ -117,7 +130,7 @@ public class UDPListen {
 
 
     static void usage() {
-        System.err.println("UDPListen [-f [-|filename]] [-c cols] [-p port] [-D duration]");
+        System.err.println("UDPListen [-f [-|filename]] [-c cols] [-p port] [-D duration] [-m udp|shm]");
         System.exit(1);
     }
 
@@ -126,7 +139,7 @@ public class UDPListen {
         DatagramPacket packet;
 
         // Setup UDP Receiver
-        receiver = new UDPReceiver(udpPort);
+        receiver = Transport.newReceiver(udpPort);
         receiver.start();
 
         // open file - maybe
@@ -154,16 +167,11 @@ public class UDPListen {
         // Timer stuff
         startTime = System.currentTimeMillis();
         lastTime = System.currentTimeMillis();
-        Timer timer = null;
-
         // set up timer to count throughput
-        TimerTask timerTask = new TimedCount(noTrafficEndTimerDuration);
+        TimedCount timerTask = new TimedCount(noTrafficEndTimerDuration);
 
-        // if there is no timer, start one
-        if (timer == null) {
-            timer = new Timer();
-            timer.schedule(timerTask, 1000, 1000);
-        }
+        // run it every second
+        ScheduledFuture<?> timer = Execution.scheduleAtFixedRate(timerTask, 1000, 1000);
 
         TemporalLayerModel model = new TemporalLayerModelGOB16();
 
@@ -347,7 +355,7 @@ public class UDPListen {
             System.err.println("end of loop");
         }
 
-        timer.cancel();
+        timer.cancel(false);
 
         if (outputStream != null) {
             outputStream.close();
@@ -420,7 +428,7 @@ public class UDPListen {
     }
     
     // set up timer to count throughput
-    private static class TimedCount extends TimerTask {
+    private static class TimedCount implements Runnable {
         boolean running = true;
         // time to wait - in seconds - for no traffic
         int timeOut;
@@ -456,7 +464,6 @@ public class UDPListen {
             }
         }
 
-        @Override
         public boolean cancel() {
             if (running) {
                 running = false;
@@ -465,11 +472,6 @@ public class UDPListen {
             return running;
         }
 
-        @Override
-        public long scheduledExecutionTime() {
-            return 0;
-        }
-
     }
 
     protected static void printChunk(SVCChunkInfo chunk, int count, int total, int payloadSize) {
@@ -11,6 +11,7 @@ import cc.clayman.processor.*;
 import cc.clayman.net.*;
 import cc.clayman.terminal.ChunkDisplay;
 import cc.clayman.terminal.SVCChunkDisplay;
+import cc.clayman.util.Clock;
 import cc.clayman.util.Verbose;
 
 // A UDP sender
@@ -25,7 +26,7 @@ public class UDPSend {
     // send port
     static int udpPort = 6799;
 
-    static UDPSender sender = null;
+    static PacketSender sender = null;
     static float sleep = 7.0f;       // default sleep (in milliseconds) between chunks
     static ChunkPacketizer packetizer = null;
     static int columns = 80;         // default no of cols on terminal
@@ -56,6 +57,19 @@ public class UDPSend {
                         argc++;
                         host = args[argc];
 
+                } else if (arg0.equals("-m")) {
+                    // Transport
+                    argc++;
+
+                    String val = args[argc];
+
+                    if (Transport.isValid(val)) {
+                        Transport.setType(val);
+                    } else {
+                        System.err.println("Transport: illegal arg. Expected -m udp|shm");
+                        System.exit(1);
+                    }
+
                 } else if (arg0.equals("-p")) {
                     // Port
                     argc++;
@@ -126,7 +140,7 @@ public class UDPSend {
     }
 
     static void usage() {
-        System.err.println("UDPSend  [-f [-|filename]] [-s sleep] [-z packetSize] [-h host] [-p port] [-B bandwidth]");
+        System.err.println("UDPSend  [-f [-|filename]] [-s sleep] [-z packetSize] [-h host] [-p port] [-B bandwidth] [-m udp|shm]");
         System.exit(1);
     }
 
@@ -139,7 +153,7 @@ public class UDPSend {
         long secondStart = 0;   // when did the second start
 
         // Setup UDP Sender
-        sender = new UDPSender(host, udpPort);
+        sender = Transport.newSender(host, udpPort);
         sender.start();
         
 
@@ -210,7 +224,7 @@ public class UDPSend {
             */
 
             try {
-                long now = System.currentTimeMillis();
+                long now = Clock.SYSTEM.millis();
                 long timeOffset = now - secondStart;
                 float secondPart = (float)timeOffset / 1000;
 
@@ -51,6 +51,9 @@ public class BPP {
 
     public static final int METADATA_BLOCK_SIZE = 6;
 
+    // The chunk count field is 5 bits
+    public static final int MAX_CHUNK_COUNT = 31;
+
     /**
      * A structure for the BPPHeader, so we can group the values.
      */
@@ -93,6 +96,24 @@ public class BPP {
         public boolean [] lastFragment = null;
         public boolean [] isDropped = null;
         public byte [] type = null;
+
+        public MetadataBlock() {
+        }
+
+        /**
+         * A MetadataBlock with arrays for size chunks,
+         * which can be reused for many packets.
+         */
+        public MetadataBlock(int size) {
+            nalCount = new int[size];
+            nalNo = new int[size];
+            fragments = new int[size];
+            contentSizes = new int[size];
+            significance = new int[size];
+            lastFragment = new boolean[size];
+            isDropped = new boolean[size];
+            type = new byte[size];
+        }
     }
 
     /**
@@ -102,7 +123,20 @@ public class BPP {
         public static final int NONE = 0x000;           // 000 Do nothing to the packet
         public static final int DROP = 0x001;           // 001 Drop the packet
         public static final int WASH = 0x002;           // 010 Wash some chunks
-        public static final int FLUSH = 0x003;          // 011 Wash all the chunks
+        public static final int FLUSH = 0x003;          // 011 Wash all the chunks, except the base layer
+
+        /**
+         * The Command with a name, e.g. flush, or -1 if there is none
+         */
+        public static int valueOf(String name) {
+            switch (name.toLowerCase()) {
+            case "none": return NONE;
+            case "drop": return DROP;
+            case "wash": return WASH;
+            case "flush": return FLUSH;
+            default: return -1;
+            }
+        }
     }
 
     /**
@@ -116,14 +150,32 @@ public class BPP {
         public static final int LIMITEDFN  = 0x007;     // 111 If bandwidth is limited
                                                         // and nothing washed, then
                                                         // run fn on the threshold value
+
+        /**
+         * The Condition with a name, e.g. always, or -1 if there is none
+         */
+        public static int valueOf(String name) {
+            switch (name.toLowerCase()) {
+            case "limited": return LIMITED;
+            case "always": return ALWAYS;
+            case "never": return NEVER;
+            case "limitedfn": return LIMITEDFN;
+            default: return -1;
+            }
+        }
     }
 
     /**
      * An inner class, to hold the Function bits.
+     * A function is 6 bits, so there can be 64 of them.
      */
     public static final class Function {
         public static final int NONE   = 0x000;                 // 000 None 
         public static final int RELAX_THRESHOLD   = 0x001;      // 001 If we should relax the threshold
+        public static final int TRIM_TO_LAYER   = 0x002;        // 010 Trim the layers above a layer
+        public static final int CAP_BYTES   = 0x003;            // 011 Trim the packet to a no of bytes
+
+        public static final int COUNT = 64;                    // The no of functions
     }
     
 }
@@ -7,9 +7,51 @@ package cc.clayman.bpp;
 
 /*
  * A representation of a BPP function
+ *
+ * A function is carried in a packet as 6 bits for the function
+ * and 8 bits for the arg, and is run at a network node
+ * on the chunks of the packet.
+ *
+ * A network node keeps a table of the functions, from newTable(),
+ * indexed by the 6 bit function, and lookup() sets the arg of
+ * the one in the table, so nothing is allocated for a packet.
+ * A function that is not in the table does nothing.
  */
 
 public abstract class BPPFunction {
+    /**
+     * What a function can do to a packet at a network node
+     */
+    public interface Context {
+        /**
+         * The chunks of the packet.
+         * The chunks trimmed so far are marked as dropped.
+         */
+        public BPP.MetadataBlock getMetadata();
+
+        /**
+         * Is the packet VCL, where chunk N carries layer N
+         */
+        public boolean isVCL();
+
+        /**
+         * The length of the packet, before it was trimmed
+         */
+        public int getPacketLength();
+
+        /**
+         * Try and trim need bytes, from the chunks above a threshold
+         * @return the no of bytes trimmed
+         */
+        public int trim(int threshold, int need);
+
+        /**
+         * Relax the threshold by an amount, and try and trim need bytes
+         * @return the no of bytes trimmed
+         */
+        public int relaxThreshold(int by, int need);
+    }
+
     /**
      * Get a 14 bit respresentation of the function and args
      */
@@ -26,26 +68,76 @@ public abstract class BPPFunction {
     public abstract void setArg(int val);
 
     /**
-     * Convert a 14 bit respresentation to the function 
-     * Try 6 bits for the function and 8 bits for the arg
+     * Run the function on a packet, which needs need bytes trimmed
+     * @return the no of bytes trimmed
+     */
+    public abstract int run(Context context, int need);
+
+    /**
+     * A table of the functions, indexed by the 6 bit function.
+     * The functions that are not known are None.
+     */
+    public static BPPFunction[] newTable() {
+        BPPFunction[] table = new BPPFunction[BPP.Function.COUNT];
+        BPPFunction none = new None();
+
+        for (int f = 0; f < table.length; f++) {
+            table[f] = none;
+        }
+
+        table[BPP.Function.RELAX_THRESHOLD] = new RelaxThreshold();
+        table[BPP.Function.TRIM_TO_LAYER] = new TrimToLayer();
+        table[BPP.Function.CAP_BYTES] = new CapBytes();
+
+        return table;
+    }
+
+    /**
+     * Look up the function of a 14 bit respresentation in a table,
+     * and set its arg
      */
-    public static BPPFunction convert(int bits) {
-        int fnBits = ((bits & 0x3FFF) >> 8) & 0x3F;
+    public static BPPFunction lookup(BPPFunction[] table, int bits) {
+        BPPFunction fn = table[((bits & 0x3FFF) >> 8) & 0x3F];
+
+        fn.setArg(bits & 0xFF);
+
+        return fn;
+    }
+
+    /**
+     * A function from a spec, as given to a sender.
+     * r:n relaxes the threshold by n, l:n trims to layer n,
+     * and c:bytes caps the packet at bytes.
+     * @return the function, or null if the spec is not valid
+     */
+    public static BPPFunction parse(String spec) {
+        String[] parts = spec.split(":");
+
+        if (parts.length != 2) {
+            return null;
+        }
 
+        int arg;
 
-        //System.err.printf("BPPFunction convert bits = 0x%05X fnBits = 0x%02X\n", bits, fnBits);
+        try {
+            arg = Integer.parseInt(parts[1]);
+        } catch (NumberFormatException nfe) {
+            return null;
+        }
+
+        if (arg < 0) {
+            return null;
+        }
 
-        if (fnBits == BPP.Function.NONE) {
-            // allocation a function
-            return new None();
+        if (parts[0].equals("r") && arg <= 15) {
+            return new RelaxThreshold(arg);
 
-        } else if (fnBits == BPP.Function.RELAX_THRESHOLD) {
-            // allocation a function
-            BPPFunction fn = new RelaxThreshold();
-            // get the function to process the args
-            fn.setArg(bits & 0xFF);
+        } else if (parts[0].equals("l") && arg < BPP.MAX_CHUNK_COUNT) {
+            return new TrimToLayer(arg);
+
+        } else if (parts[0].equals("c") && arg <= 0xFF * CapBytes.UNIT) {
+            return CapBytes.ofBytes(arg);
 
-            return fn;
         } else {
             return null;
         }
@@ -54,7 +146,7 @@ public abstract class BPPFunction {
 
     public static final class None extends BPPFunction {
         public None() {}
-        
+
         public int representation() {
             return 0;
         }
@@ -66,6 +158,10 @@ public abstract class BPPFunction {
         public void setArg(int val) {
         }
 
+        public int run(Context context, int need) {
+            return 0;
+        }
+
         public String toString() {
             return "None()";
         }
@@ -75,7 +171,7 @@ public abstract class BPPFunction {
         public int arg = 0;
 
         public RelaxThreshold() {}
-        
+
         public RelaxThreshold(int arg) {
             this.arg = arg;
         }
@@ -92,10 +188,130 @@ public abstract class BPPFunction {
             arg = val;
         }
 
+        // Relax the threshold by the arg, and trim some more
+        public int run(Context context, int need) {
+            return context.relaxThreshold(arg, need);
+        }
+
         public String toString() {
             return "RelaxThreshold(" + arg + ")";
         }
     }
 
+    /**
+     * Trim every chunk of a VCL packet above a layer,
+     * whatever its significance.
+     * Layer 0 is the base layer, so TrimToLayer(0) only keeps the base layer.
+     */
+    public static final class TrimToLayer extends BPPFunction {
+        public int arg = 0;
+
+        public TrimToLayer() {}
+
+        public TrimToLayer(int arg) {
+            this.arg = arg;
+        }
+
+        public int representation() {
+            return ((BPP.Function.TRIM_TO_LAYER & 0x03F) << 8) | (arg & 0xFF);
+        }
+
+        public int getArg() {
+            return arg;
+        }
+
+        public void setArg(int val) {
+            arg = val;
+        }
+
+        public int run(Context context, int need) {
+            if (! context.isVCL()) {
+                // only VCL packets have layers
+                return 0;
+            }
+
+            BPP.MetadataBlock mb = context.getMetadata();
+
+            int trimmed = 0;
+
+            for (int c = arg + 1; c < mb.chunkCount; c++) {
+                if (! mb.isDropped[c]) {
+                    mb.isDropped[c] = true;
+                    trimmed += mb.contentSizes[c];
+                }
+            }
+
+            return trimmed;
+        }
+
+        public String toString() {
+            return "TrimToLayer(" + arg + ")";
+        }
+    }
+
+    /**
+     * Trim a packet to at most a no of bytes, whatever the significance
+     * of its chunks, as the network node selects them.
+     * The arg is the no of bytes in units of 64, so up to 16320.
+     */
+    public static final class CapBytes extends BPPFunction {
+        // The unit of the arg, in bytes
+        public static final int UNIT = 64;
+
+        public int arg = 0;
+
+        public CapBytes() {}
+
+        public CapBytes(int arg) {
+            this.arg = arg;
+        }
+
+        // A CapBytes for a no of bytes, rounded down to the unit
+        public static CapBytes ofBytes(int bytes) {
+            return new CapBytes(bytes / UNIT);
+        }
+
+        public int representation() {
+            return ((BPP.Function.CAP_BYTES & 0x03F) << 8) | (arg & 0xFF);
+        }
+
+        public int getArg() {
+            return arg;
+        }
+
+        public void setArg(int val) {
+            arg = val;
+        }
+
+        // Get the cap, in bytes
+        public int getBytes() {
+            return arg * UNIT;
+        }
+
+        public int run(Context context, int need) {
+            BPP.MetadataBlock mb = context.getMetadata();
+
+            int size = context.getPacketLength();
+
+            for (int c = 0; c < mb.chunkCount; c++) {
+                if (mb.isDropped[c]) {
+                    size -= mb.contentSizes[c];
+                }
+            }
+
+            int over = size - getBytes();
+
+            if (over > 0) {
+                return context.trim(0, over);
+            } else {
+                return 0;
+            }
+        }
+
+        public String toString() {
+            return "CapBytes(" + getBytes() + ")";
+        }
+    }
+
 
 }
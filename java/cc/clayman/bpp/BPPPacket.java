@@ -134,6 +134,19 @@ public class BPPPacket {
         return bufPos;
     }
 
+    /**
+     * Rewrite only the sequence no in the command block of a packet,
+     * leaving the rest of the packet untouched.
+     */
+    public final static void writeSequence(byte[] packetBytes, int sequence) {
+        int bufPos = BPP.BLOCK_HEADER_SIZE;
+
+        packetBytes[bufPos+3] = (byte)(((sequence & 0xFF000000) >> 24) & 0xFF);
+        packetBytes[bufPos+4] = (byte)(((sequence & 0x00FF0000) >> 16) & 0xFF);
+        packetBytes[bufPos+5] = (byte)(((sequence & 0x0000FF00) >> 8) & 0xFF);
+        packetBytes[bufPos+6] = (byte)(((sequence & 0x000000FF) >> 0) & 0xFF);
+    }
+
     /**
      * Get the metadata block from the packetBytes into a BPP.MetadataBlock
      * @return buffer position after filling header
@@ -315,4 +328,62 @@ public class BPPPacket {
         return bufPos;
     }
 
+    /**
+     * Remove the dropped chunks from a packet, in place.
+     * The OFi bit is set and CSi is cleared for each dropped chunk
+     * in the metadata block, and the content of the other chunks
+     * is moved down over the dropped content.
+     * Nothing else in the packet is rewritten.
+     * @param packetBytes the packet
+     * @param packetLength the length of the packet
+     * @param mb the MetadataBlock of the packet, with isDropped set for chunks to remove
+     * @param contentStartPos the start of each chunk's content
+     * @return the new length of the packet
+     */
+    public final static int compactContent(byte[] packetBytes, int packetLength, BPP.MetadataBlock mb, int[] contentStartPos) {
+        int chunkCount = mb.chunkCount;
+
+        if (chunkCount == 0) {
+            return packetLength;
+        }
+
+        int metaPos = BPP.BLOCK_HEADER_SIZE + BPP.COMMAND_BLOCK_SIZE;
+
+        // where the content goes
+        int dest = contentStartPos[0];
+
+        for (int c=0; c<chunkCount; c++) {
+            if (mb.isDropped[c]) {
+                // set OFi
+                packetBytes[metaPos+5] |= (byte)0x80;
+
+                // clear CSi
+                packetBytes[metaPos+2] &= (byte)0xFC;
+                packetBytes[metaPos+3] = 0;
+                packetBytes[metaPos+4] &= (byte)0x0F;
+
+            } else {
+                int size = mb.contentSizes[c];
+
+                if (dest != contentStartPos[c]) {
+                    System.arraycopy(packetBytes, contentStartPos[c], packetBytes, dest, size);
+                }
+
+                dest += size;
+            }
+
+            metaPos += BPP.METADATA_BLOCK_SIZE;
+        }
+
+        // anything after the last chunk
+        int end = contentStartPos[chunkCount-1] + mb.contentSizes[chunkCount-1];
+
+        if (end < packetLength) {
+            System.arraycopy(packetBytes, end, packetBytes, dest, packetLength - end);
+            dest += packetLength - end;
+        }
+
+        return dest;
+    }
+
 }
@@ -0,0 +1,139 @@
+// LoopbackChannel.java
+// Date: Oct 2026
+
+package cc.clayman.net;
+
+import java.net.DatagramPacket;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * An in-JVM channel between a LoopbackSender and a LoopbackReceiver.
+ * Channels are found by port number, so the apps can be wired up
+ * in the same way as with UDP, but with no sockets.
+ *
+ * The queue is lock-free.  A waiting receiver parks,
+ * and is unparked by the sender when a packet is added.
+ */
+public class LoopbackChannel {
+    // All the channels, by port
+    static final ConcurrentHashMap<Integer, LoopbackChannel> channels = new ConcurrentHashMap<Integer, LoopbackChannel>();
+
+    // The port
+    final int port;
+
+    // The queue of packets
+    final ConcurrentLinkedQueue<DatagramPacket> queue = new ConcurrentLinkedQueue<DatagramPacket>();
+
+    // A receiver waiting for a packet
+    volatile Thread waiter = null;
+
+    // Has the sender closed the channel
+    volatile boolean closed = false;
+
+    LoopbackChannel(int port) {
+        this.port = port;
+    }
+
+    /**
+     * Get the channel for a port, creating it if needed.
+     */
+    public static LoopbackChannel get(int port) {
+        return channels.computeIfAbsent(port, p -> new LoopbackChannel(p));
+    }
+
+    /**
+     * Remove the channel for a port.
+     */
+    public static void remove(int port) {
+        channels.remove(port);
+    }
+
+    /**
+     * Add a packet, and wake up the receiver.
+     */
+    public void offer(DatagramPacket packet) {
+        queue.offer(packet);
+
+        Thread t = waiter;
+        if (t != null) {
+            LockSupport.unpark(t);
+        }
+    }
+
+    /**
+     * Take a packet, waiting up to timeout nanoseconds.
+     * A timeout of 0 means wait until there is one, or the channel is closed.
+     * @return null if there is no packet
+     */
+    public DatagramPacket take(long timeout) {
+        DatagramPacket packet = queue.poll();
+
+        if (packet != null) {
+            return packet;
+        }
+
+        long deadline = System.nanoTime() + timeout;
+
+        waiter = Thread.currentThread();
+
+        try {
+            while (true) {
+                // check again, now we are registered as the waiter
+                packet = queue.poll();
+
+                if (packet != null || closed || Thread.currentThread().isInterrupted()) {
+                    return packet;
+                }
+
+                if (timeout == 0) {
+                    LockSupport.park(this);
+                } else {
+                    long remaining = deadline - System.nanoTime();
+
+                    if (remaining <= 0) {
+                        return null;
+                    }
+
+                    LockSupport.parkNanos(this, remaining);
+                }
+            }
+        } finally {
+            waiter = null;
+        }
+    }
+
+    /**
+     * Close the channel.  The receiver sees EOF once the queue is empty.
+     */
+    public void close() {
+        closed = true;
+
+        Thread t = waiter;
+        if (t != null) {
+            LockSupport.unpark(t);
+        }
+    }
+
+    /**
+     * Has the channel been closed
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Is the queue empty
+     */
+    public boolean isEmpty() {
+        return queue.isEmpty();
+    }
+
+    /**
+     * The port
+     */
+    public int getPort() {
+        return port;
+    }
+}
@@ -0,0 +1,103 @@
+// LoopbackReceiver.java
+// Date: Oct 2026
+
+package cc.clayman.net;
+
+import java.net.DatagramPacket;
+
+import cc.clayman.util.Verbose;
+
+/**
+ * Receive packets from a LoopbackSender in the same JVM.
+ * As the sender is in the same JVM, there is no need to guess
+ * when the traffic has finished.  The receiver sees EOF
+ * when the sender is stopped and all the packets have been taken.
+ */
+public class LoopbackReceiver implements PacketReceiver<DatagramPacket> {
+    // Port
+    int port;
+
+    // The channel
+    LoopbackChannel channel = null;
+
+    boolean running = false;
+
+    // Caller thread
+    Thread caller;
+
+    /**
+     * Construct a LoopbackReceiver.
+     */
+    public LoopbackReceiver(int port) {
+        this.port = port;
+    }
+
+    /**
+     * Start the receiver
+     */
+    public boolean start() {
+        channel = LoopbackChannel.get(port);
+        running = true;
+        return true;
+    }
+
+    /**
+     * Stop the receiver
+     */
+    public boolean stop() {
+        running = false;
+
+        if (caller != null) {
+            caller.interrupt();
+        }
+
+        LoopbackChannel.remove(port);
+
+        return true;
+    }
+
+    /**
+     * Get a DatagramPacket from the receiver.
+     * Waits until there is a packet, or the sender has stopped.
+     */
+    public DatagramPacket getPacket() {
+        caller = Thread.currentThread();
+
+        if (! running) {
+            System.err.println("LoopbackReceiver: getPacket() not running");
+            return null;
+        }
+
+        DatagramPacket packet = channel.take(0);
+
+        if (packet == null) {
+            // EOF or stopped
+            Thread.interrupted();
+
+            if (Verbose.level >= 2) {
+                System.err.println("LoopbackReceiver: no packet, EOF = " + isEOF());
+            }
+        }
+
+        return packet;
+    }
+
+    /**
+     * Is the receiver running
+     */
+    public boolean isRunning() {
+        return running && ! isEOF();
+    }
+
+    /**
+     * Has the receiver reached EOF
+     */
+    public boolean isEOF() {
+        return channel != null && channel.isClosed() && channel.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "loopback:" + port;
+    }
+}
@@ -0,0 +1,114 @@
+// LoopbackSender.java
+// Date: Oct 2026
+
+package cc.clayman.net;
+
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Send packets to a LoopbackReceiver in the same JVM.
+ * Packets are handed over on a LoopbackChannel, with no copying.
+ *
+ * Each sender has its own source port, as a UDP socket would,
+ * and the packets come from the loopback address,
+ * so a receiver can tell the flows of different senders apart.
+ */
+public class LoopbackSender implements PacketSender {
+    // The first source port, and the next one to give out
+    static final int FIRST_SOURCE_PORT = 49152;
+    static final AtomicInteger nextSourcePort = new AtomicInteger(FIRST_SOURCE_PORT);
+
+    // Port
+    int port;
+
+    // The source address and port of the packets
+    InetAddress sourceAddress = InetAddress.getLoopbackAddress();
+    int sourcePort;
+
+    // The channel
+    LoopbackChannel channel = null;
+
+    // counter
+    int seqNo = 0;
+
+    /**
+     * A LoopbackSender needs a port for the end point.
+     */
+    public LoopbackSender(int port) {
+        this.port = port;
+        this.sourcePort = nextSourcePort();
+    }
+
+    // The next source port, from the ephemeral range
+    static int nextSourcePort() {
+        return FIRST_SOURCE_PORT + (nextSourcePort.getAndIncrement() - FIRST_SOURCE_PORT) % (65536 - FIRST_SOURCE_PORT);
+    }
+
+    /**
+     * Start the sender
+     */
+    public boolean start() {
+        channel = LoopbackChannel.get(port);
+        return true;
+    }
+
+    /**
+     * Stop the sender.
+     * The receiver will see EOF.
+     */
+    public boolean stop() {
+        if (channel != null) {
+            channel.close();
+        }
+        return true;
+    }
+
+    /**
+     * Get the port no.
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * Get the source port of the packets.
+     */
+    public int getSourcePort() {
+        return sourcePort;
+    }
+
+    /**
+     * @return 0 if something goes wrong
+     * @return 1 normally
+     */
+    public int sendPayload(byte[] payload) {
+        return sendPayload(new DatagramPacket(payload, payload.length));
+    }
+
+    /**
+     * @return 0 if something goes wrong
+     * @return 1 normally
+     */
+    public int sendPayload(DatagramPacket packet) {
+        if (channel == null || channel.isClosed()) {
+            return 0;
+        }
+
+        // where it came from, as the receiver sees it
+        packet.setAddress(sourceAddress);
+        packet.setPort(sourcePort);
+
+        channel.offer(packet);
+
+        seqNo++;
+
+        return 1;
+    }
+
+    @Override
+    public String toString() {
+        return "loopback:" + port;
+    }
+}
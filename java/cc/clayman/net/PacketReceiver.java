@@ -0,0 +1,38 @@
+// PacketReceiver.java
+// Date: Oct 2026
+
+package cc.clayman.net;
+
+/**
+ * The receiving end of a transport.
+ * getPacket() blocks until there is a packet, and returns null
+ * when the transport has nothing more to pass on.
+ * The type of packet is DatagramPacket for datagram transports,
+ * and ByteBuffer for TCP.
+ */
+public interface PacketReceiver<T> {
+    /**
+     * Start the receiver
+     */
+    public boolean start();
+
+    /**
+     * Stop the receiver
+     */
+    public boolean stop();
+
+    /**
+     * Get a packet from the receiver
+     */
+    public T getPacket();
+
+    /**
+     * Is the receiver running
+     */
+    public boolean isRunning();
+
+    /**
+     * Has the receiver reached EOF
+     */
+    public boolean isEOF();
+}
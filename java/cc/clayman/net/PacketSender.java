@@ -0,0 +1,37 @@
+// PacketSender.java
+// Date: Oct 2026
+
+package cc.clayman.net;
+
+import java.net.DatagramPacket;
+
+/**
+ * The sending end of a transport.
+ * Payloads are queued by sendPayload() and sent by the transport.
+ */
+public interface PacketSender {
+    /**
+     * Start the sender
+     */
+    public boolean start();
+
+    /**
+     * Stop the sender
+     */
+    public boolean stop();
+
+    /**
+     * Send a payload.
+     * @return 0 if something goes wrong
+     * @return 1 normally
+     */
+    public int sendPayload(byte[] payload);
+
+    /**
+     * Send the data in a DatagramPacket.
+     * The packet belongs to the sender after this call.
+     * @return 0 if something goes wrong
+     * @return 1 normally
+     */
+    public int sendPayload(DatagramPacket packet);
+}
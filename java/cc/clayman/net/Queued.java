@@ -0,0 +1,25 @@
+// Queued.java
+// Date: Oct 2026
+
+package cc.clayman.net;
+
+/**
+ * A sender which holds packets in a queue before they go out.
+ * The values can be read from any thread.
+ */
+public interface Queued {
+    /**
+     * Get the no of packets in the queue
+     */
+    public int getQueueLength();
+
+    /**
+     * Get the no of bytes in the queue
+     */
+    public int getQueueBytes();
+
+    /**
+     * Get the no of packets dropped as the queue was full
+     */
+    public long getPacketsDropped();
+}
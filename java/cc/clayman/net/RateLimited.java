@@ -0,0 +1,19 @@
+// RateLimited.java
+// Date: Oct 2026
+
+package cc.clayman.net;
+
+/**
+ * A sender which sends at a rate, which can be adjusted.
+ */
+public interface RateLimited {
+    /**
+     * Set the rate, in bits per second
+     */
+    public void setRate(int bitsPerSecond);
+
+    /**
+     * Get the rate, in bits per second
+     */
+    public int getRate();
+}
@@ -0,0 +1,70 @@
+// ReusePortUDPReceiver.java
+// Date: Oct 2026
+
+package cc.clayman.net;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+
+/**
+ * Receive a DatagramPacket over UDP, on a socket bound with SO_REUSEPORT.
+ * Many of these can listen on the same port, and the kernel
+ * hashes each flow onto one of the sockets, so each flow
+ * always goes to the same receiver.
+ */
+public class ReusePortUDPReceiver extends UDPReceiver implements Runnable {
+
+    /**
+     * Construct a ReusePortUDPReceiver.
+     */
+    public ReusePortUDPReceiver(int port) {
+        super(port);
+    }
+
+    /**
+     * Construct a ReusePortUDPReceiver.
+     */
+    public ReusePortUDPReceiver(InetSocketAddress addr) {
+        super(addr);
+    }
+
+    /**
+     * Is SO_REUSEPORT available on this platform
+     */
+    public static boolean isSupported() {
+        try (DatagramSocket s = new DatagramSocket(null)) {
+            return s.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+        } catch (IOException ioe) {
+            return false;
+        }
+    }
+
+    /**
+     * Set up the socket for the given addr/port, with SO_REUSEPORT,
+     * and also a pre-prepared DatagramPacket.
+     */
+    protected boolean connect() throws IOException {
+        socket = new DatagramSocket(null);
+
+        try {
+            socket.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+
+            if (this.address == null)
+                socket.bind(new InetSocketAddress(port));
+            else
+                socket.bind(new InetSocketAddress(address, port));
+
+        } catch (IOException | UnsupportedOperationException e) {
+            System.err.println("ReusePortUDPReceiver: cannot bind port " + port + " with SO_REUSEPORT " + e);
+            socket.close();
+            throw new IOException(e);
+        }
+
+	// allocate an emtpy packet for use later
+	packet = newPacket();
+
+        return true;
+    }
+}
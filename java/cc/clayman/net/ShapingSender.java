@@ -0,0 +1,214 @@
+// ShapingSender.java
+// Date: Oct 2026
+
+package cc.clayman.net;
+
+import java.net.DatagramPacket;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import cc.clayman.util.Verbose;
+import cc.clayman.util.Execution;
+
+/**
+ * A PacketSender that paces packets into another PacketSender
+ * with a TokenBucket, so the packets go out at the rate,
+ * with bursts of no more than the bucket depth.
+ * The queue has a byte budget, and a packet that would take it
+ * over the budget is dropped.
+ */
+public class ShapingSender implements PacketSender, RateLimited, Queued, Runnable {
+    // Default budget
+    public final static int DEFAULT_BUDGET = 256 * 1024;
+
+    // Where packets go
+    PacketSender sender;
+
+    // The bucket
+    TokenBucket bucket;
+
+    // A queue of DatagramPackets
+    LinkedBlockingQueue<DatagramPacket> packetQueue = new LinkedBlockingQueue<DatagramPacket>();
+
+    // The bytes in the queue
+    AtomicInteger queueBytes = new AtomicInteger(0);
+
+    // The byte budget of the queue
+    int budget;
+
+    // The Thread
+    Execution.Task myThread;
+
+    // are we running
+    volatile boolean running = false;
+
+    // counts
+    long packetsOut = 0;
+    long delayed = 0;     // packets that had to wait for tokens
+    volatile long packetsDropped = 0;
+
+    /**
+     * Construct a ShapingSender in front of a PacketSender,
+     * with the default budget.
+     * @param sender where packets go
+     * @param rateBits the rate, in bits per second
+     * @param depth the bucket depth, in bytes
+     */
+    public ShapingSender(PacketSender sender, int rateBits, int depth) {
+        this(sender, rateBits, depth, DEFAULT_BUDGET);
+    }
+
+    /**
+     * Construct a ShapingSender in front of a PacketSender.
+     * @param sender where packets go
+     * @param rateBits the rate, in bits per second
+     * @param depth the bucket depth, in bytes
+     * @param budget the byte budget of the queue
+     */
+    public ShapingSender(PacketSender sender, int rateBits, int depth, int budget) {
+        this.sender = sender;
+        this.bucket = new TokenBucket(rateBits, depth);
+        this.budget = budget;
+    }
+
+    /**
+     * Start the sender
+     */
+    public boolean start() {
+        if (! sender.start()) {
+            return false;
+        }
+
+        running = true;
+
+        myThread = Execution.start(this, "ShapingSender");
+
+        return true;
+    }
+
+    /**
+     * Stop the sender.
+     * The queued packets are sent first.
+     */
+    public boolean stop() {
+        running = false;
+
+        try {
+            if (myThread != null) {
+                myThread.join();
+            }
+        } catch (InterruptedException ie) {
+        }
+
+        if (Verbose.level >= 1) {
+            System.err.println("ShapingSender: out " + packetsOut + " delayed " + delayed + " dropped " + packetsDropped);
+        }
+
+        return sender.stop();
+    }
+
+    /**
+     * Send a payload, at the rate
+     */
+    public int sendPayload(byte[] payload) {
+        return sendPayload(new DatagramPacket(payload, payload.length));
+    }
+
+    /**
+     * Send a packet, at the rate.
+     * If the queue would go over the budget the packet is dropped.
+     * Only the forwarding thread sends, so the check is not racy.
+     */
+    public int sendPayload(DatagramPacket packet) {
+        int length = packet.getLength();
+
+        if (queueBytes.get() + length > budget) {
+            // tail drop
+            packetsDropped++;
+
+            if (Verbose.level >= 2) {
+                System.err.println("ShapingSender: dropped " + length + " queue " + queueBytes.get());
+            }
+
+            return 0;
+        }
+
+        try {
+            queueBytes.addAndGet(length);
+            packetQueue.put(packet);
+            return 1;
+        } catch (InterruptedException ie) {
+            queueBytes.addAndGet(-length);
+            return 0;
+        }
+    }
+
+    /**
+     * The main run loop.
+     * It takes a packet off the queue, waits for the tokens,
+     * and passes it to the sender.
+     */
+    public void run() {
+        while (running || ! packetQueue.isEmpty()) {
+            try {
+                DatagramPacket packet = packetQueue.poll(100, TimeUnit.MILLISECONDS);
+
+                if (packet == null) {
+                    continue;
+                }
+
+                queueBytes.addAndGet(-packet.getLength());
+
+                long wait = bucket.take(packet.getLength());
+
+                if (wait > 0) {
+                    delayed++;
+
+                    do {
+                        LockSupport.parkNanos(wait);
+                    } while ((wait = bucket.take(packet.getLength())) > 0);
+                }
+
+                packetsOut++;
+                sender.sendPayload(packet);
+
+            } catch (InterruptedException ie) {
+                if (Verbose.level >= 2) {
+                    System.err.println("ShapingSender: InterruptedException " + ie);
+                }
+            }
+        }
+    }
+
+    // Set the rate, in bits per second
+    public void setRate(int bits) {
+        bucket.setRate(bits);
+    }
+
+    // Get the rate, in bits per second
+    public int getRate() {
+        return bucket.getRate();
+    }
+
+    // Get the no of packets waiting
+    public int getQueueLength() {
+        return packetQueue.size();
+    }
+
+    // Get the no of bytes waiting
+    public int getQueueBytes() {
+        return queueBytes.get();
+    }
+
+    // Get the no of packets dropped, as the queue was over budget
+    public long getPacketsDropped() {
+        return packetsDropped;
+    }
+
+    // Get the byte budget of the queue
+    public int getBudget() {
+        return budget;
+    }
+}
@@ -0,0 +1,305 @@
+// ShmRing.java
+// Date: Oct 2026
+
+package cc.clayman.net;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A single-producer / single-consumer ring of packets
+ * in a memory-mapped file, so that a sender and a receiver
+ * on the same host can pass packets without going through the network stack.
+ *
+ * The layout of the file is:
+ * <pre>
+ *   0   magic, capacity
+ *   64  head - the write position, only written by the producer
+ *   128 tail - the read position, only written by the consumer
+ *   192 producer closed flag
+ *   200 consumer closed flag
+ *   256 the ring of records
+ * </pre>
+ * head and tail are on their own cache lines.
+ * They are ever increasing byte positions, and the index into the ring
+ * is the position modulo the capacity.
+ * Each record is a 4 byte length, then the packet, padded to 4 bytes.
+ * A length of -1 is a wrap marker, which means the next record
+ * is at the start of the ring.
+ *
+ * The producer writes a record and then publishes head with a release store.
+ * The consumer reads head with an acquire load, reads the record,
+ * and then publishes tail with a release store.
+ * A side that has to wait spins, then yields, then parks for
+ * increasing amounts of time.  There are no locks or futexes.
+ */
+public class ShmRing {
+    // 'BPPR'
+    public static final int MAGIC = 0x42505052;
+
+    // Positions in the header
+    static final int MAGIC_POS = 0;
+    static final int CAPACITY_POS = 4;
+    static final int HEAD_POS = 64;
+    static final int TAIL_POS = 128;
+    static final int PRODUCER_CLOSED_POS = 192;
+    static final int CONSUMER_CLOSED_POS = 200;
+
+    // Where the records start
+    static final int DATA_START = 256;
+
+    // The wrap marker
+    static final int WRAP = -1;
+
+    // Default capacity
+    public static final int DEFAULT_CAPACITY = 4 * 1024 * 1024;
+
+    // Wait strategy
+    static final int SPIN_LIMIT = 100;
+    static final int YIELD_LIMIT = 200;
+    static final long MAX_PARK_NANOS = 1000000;  // 1 ms
+
+    // VarHandle for ordered access to the longs in the buffer
+    static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    // The file
+    File file;
+
+    // The mapped file
+    MappedByteBuffer buffer;
+
+    // The size of the ring
+    int capacity;
+
+    /**
+     * Open a ring on a file.
+     * The file is created if needed.
+     * The capacity is only used when the ring is created.
+     */
+    public ShmRing(File file, int capacity) throws IOException {
+        this.file = file;
+
+        if ((capacity & 3) != 0) {
+            throw new IllegalArgumentException("ShmRing: capacity must be a multiple of 4: " + capacity);
+        }
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+
+            if (channel.size() >= DATA_START) {
+                // look for an existing ring
+                MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, DATA_START);
+                header.order(ByteOrder.nativeOrder());
+
+                if (header.getInt(MAGIC_POS) == MAGIC) {
+                    capacity = header.getInt(CAPACITY_POS);
+                }
+            }
+
+            this.capacity = capacity;
+
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, DATA_START + capacity);
+            buffer.order(ByteOrder.nativeOrder());
+
+            if (buffer.getInt(MAGIC_POS) != MAGIC) {
+                buffer.putInt(CAPACITY_POS, capacity);
+                reset();
+                buffer.putInt(MAGIC_POS, MAGIC);
+            }
+        }
+    }
+
+    /**
+     * Reset the ring to empty.
+     * Only the consumer should do this, before any packets are sent.
+     */
+    public void reset() {
+        LONGS.setRelease(buffer, HEAD_POS, 0L);
+        LONGS.setRelease(buffer, TAIL_POS, 0L);
+        LONGS.setRelease(buffer, PRODUCER_CLOSED_POS, 0L);
+        LONGS.setRelease(buffer, CONSUMER_CLOSED_POS, 0L);
+    }
+
+    /**
+     * The largest packet that will fit
+     */
+    public int maxPacketSize() {
+        return capacity / 2 - 4;
+    }
+
+    /**
+     * Write a packet into the ring.
+     * Waits if the ring is full.
+     * @return false if the consumer has closed the ring
+     */
+    public boolean write(byte[] data, int offset, int length) {
+        if (length > maxPacketSize()) {
+            throw new IllegalArgumentException("ShmRing: packet of size " + length + " > max size " + maxPacketSize());
+        }
+
+        int recordSize = 4 + ((length + 3) & ~3);
+
+        long head = (long)LONGS.getOpaque(buffer, HEAD_POS);
+        int index = (int)(head % capacity);
+        int toEnd = capacity - index;
+
+        // a record that doesn't fit at the end goes at the start
+        int needed = (recordSize > toEnd) ? toEnd + recordSize : recordSize;
+
+        int attempt = 0;
+
+        while (capacity - (head - (long)LONGS.getAcquire(buffer, TAIL_POS)) < needed) {
+            if (isConsumerClosed()) {
+                return false;
+            }
+
+            idle(attempt++);
+        }
+
+        if (recordSize > toEnd) {
+            // wrap
+            buffer.putInt(DATA_START + index, WRAP);
+            head += toEnd;
+            index = 0;
+        }
+
+        buffer.put(DATA_START + index + 4, data, offset, length);
+        buffer.putInt(DATA_START + index, length);
+
+        // publish
+        LONGS.setRelease(buffer, HEAD_POS, head + recordSize);
+
+        return true;
+    }
+
+    /**
+     * Read a packet from the ring into the data.
+     * Waits until there is a packet, the producer closes the ring,
+     * or the calling thread is interrupted.
+     * @return the length of the packet, or -1 if there is no packet
+     */
+    public int read(byte[] data) {
+        long tail = (long)LONGS.getOpaque(buffer, TAIL_POS);
+
+        int attempt = 0;
+
+        while (true) {
+            long head = (long)LONGS.getAcquire(buffer, HEAD_POS);
+
+            if (tail == head) {
+                // empty
+                if (isProducerClosed()) {
+                    // the producer may have published its last packet
+                    // just before it closed, so look again
+                    if (tail == (long)LONGS.getAcquire(buffer, HEAD_POS)) {
+                        return -1;
+                    } else {
+                        continue;
+                    }
+                }
+
+                if (Thread.currentThread().isInterrupted()) {
+                    return -1;
+                }
+
+                idle(attempt++);
+                continue;
+            }
+
+            int index = (int)(tail % capacity);
+            int length = buffer.getInt(DATA_START + index);
+
+            if (length == WRAP) {
+                // skip to the start
+                tail += capacity - index;
+                continue;
+            }
+
+            if (length > data.length) {
+                throw new IllegalArgumentException("ShmRing: packet of size " + length + " > buffer size " + data.length);
+            }
+
+            buffer.get(DATA_START + index + 4, data, 0, length);
+
+            // release the space
+            LONGS.setRelease(buffer, TAIL_POS, tail + 4 + ((length + 3) & ~3));
+
+            return length;
+        }
+    }
+
+    /**
+     * Is the ring empty
+     */
+    public boolean isEmpty() {
+        return (long)LONGS.getAcquire(buffer, HEAD_POS) == (long)LONGS.getAcquire(buffer, TAIL_POS);
+    }
+
+    /**
+     * The producer has finished
+     */
+    public void closeProducer() {
+        LONGS.setRelease(buffer, PRODUCER_CLOSED_POS, 1L);
+    }
+
+    /**
+     * The consumer has finished
+     */
+    public void closeConsumer() {
+        LONGS.setRelease(buffer, CONSUMER_CLOSED_POS, 1L);
+    }
+
+    /**
+     * Has the producer finished
+     */
+    public boolean isProducerClosed() {
+        return (long)LONGS.getAcquire(buffer, PRODUCER_CLOSED_POS) != 0;
+    }
+
+    /**
+     * Has the consumer finished
+     */
+    public boolean isConsumerClosed() {
+        return (long)LONGS.getAcquire(buffer, CONSUMER_CLOSED_POS) != 0;
+    }
+
+    /**
+     * The capacity of the ring
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * The file
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Wait a bit.
+     * Spin first, then yield, then park for longer and longer.
+     */
+    static void idle(int attempt) {
+        if (attempt < SPIN_LIMIT) {
+            Thread.onSpinWait();
+        } else if (attempt < YIELD_LIMIT) {
+            Thread.yield();
+        } else {
+            int shift = Math.min(attempt - YIELD_LIMIT, 10);
+            LockSupport.parkNanos(Math.min(1000L << shift, MAX_PARK_NANOS));
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "shm:" + file;
+    }
+}
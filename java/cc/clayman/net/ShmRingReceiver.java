@@ -0,0 +1,142 @@
+// ShmRingReceiver.java
+// Date: Oct 2026
+
+package cc.clayman.net;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.util.Arrays;
+
+import cc.clayman.util.Verbose;
+
+/**
+ * Receive packets from a ShmRingSender on the same host,
+ * by reading them from a ShmRing.
+ * The receiver owns the ring, so it should be started
+ * before the sender, as with UDP.
+ * The receiver sees EOF when the sender is stopped
+ * and all the packets have been taken.
+ *
+ * Each packet is read into one buffer, and copied into a new one
+ * of its length when it is handed out, so the packet belongs to
+ * the caller, who can queue it for as long as it likes.
+ */
+public class ShmRingReceiver implements PacketReceiver<DatagramPacket> {
+    // The largest packet, as for UDP
+    public static final int MAX_PACKET_SIZE = 65536;
+
+    // The ring file
+    File file;
+
+    // The ring
+    ShmRing ring = null;
+
+    boolean running = false;
+
+    // Caller thread
+    Thread caller;
+
+    // The buffer each packet is read into
+    byte[] buffer = null;
+
+    /**
+     * Construct a ShmRingReceiver, given the file of the ring.
+     */
+    public ShmRingReceiver(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Start the receiver
+     */
+    public boolean start() {
+        try {
+            ring = new ShmRing(file, ShmRing.DEFAULT_CAPACITY);
+
+            // clear out anything left from an earlier run
+            ring.reset();
+
+            buffer = new byte[Math.min(ring.maxPacketSize(), MAX_PACKET_SIZE)];
+
+            running = true;
+            return true;
+        } catch (IOException ioe) {
+            System.err.println("ShmRingReceiver: can't open " + file + " " + ioe);
+            return false;
+        }
+    }
+
+    /**
+     * Stop the receiver
+     */
+    public boolean stop() {
+        running = false;
+
+        if (ring != null) {
+            ring.closeConsumer();
+        }
+
+        if (caller != null) {
+            caller.interrupt();
+        }
+
+        file.delete();
+
+        return true;
+    }
+
+    /*
+     * Create a new packet, with a copy of the data
+     */
+    protected DatagramPacket newPacket(byte[] data, int length) {
+        return new DatagramPacket(Arrays.copyOf(data, length), length);
+    }
+
+    /**
+     * Get a DatagramPacket from the receiver.
+     * Waits until there is a packet, or the sender has stopped.
+     */
+    public DatagramPacket getPacket() {
+        caller = Thread.currentThread();
+
+        if (! running) {
+            System.err.println("ShmRingReceiver: getPacket() not running");
+            return null;
+        }
+
+        int length = ring.read(buffer);
+
+        if (length < 0) {
+            // EOF or stopped
+            Thread.interrupted();
+
+            if (Verbose.level >= 2) {
+                System.err.println("ShmRingReceiver: no packet, EOF = " + isEOF());
+            }
+
+            return null;
+        }
+
+        return newPacket(buffer, length);
+    }
+
+    /**
+     * Is the receiver running
+     */
+    public boolean isRunning() {
+        return running && ! isEOF();
+    }
+
+    /**
+     * Has the receiver reached EOF
+     */
+    public boolean isEOF() {
+        return ring != null && ring.isProducerClosed() && ring.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "shm:" + file;
+    }
+}
@@ -0,0 +1,91 @@
+// ShmRingSender.java
+// Date: Oct 2026
+
+package cc.clayman.net;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.DatagramPacket;
+
+/**
+ * Send packets to a ShmRingReceiver on the same host,
+ * by writing them into a ShmRing.
+ * Packets are written by the calling thread, so there is no
+ * queue or extra thread, and a full ring holds up the caller.
+ */
+public class ShmRingSender implements PacketSender {
+    // The ring file
+    File file;
+
+    // The ring
+    ShmRing ring = null;
+
+    // counter
+    int seqNo = 0;
+
+    /**
+     * A ShmRingSender needs the file of the ring.
+     */
+    public ShmRingSender(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Start the sender
+     */
+    public boolean start() {
+        try {
+            ring = new ShmRing(file, ShmRing.DEFAULT_CAPACITY);
+            return true;
+        } catch (IOException ioe) {
+            System.err.println("ShmRingSender: can't open " + file + " " + ioe);
+            return false;
+        }
+    }
+
+    /**
+     * Stop the sender.
+     * The receiver will see EOF.
+     */
+    public boolean stop() {
+        if (ring != null) {
+            ring.closeProducer();
+        }
+        return true;
+    }
+
+    /**
+     * @return 0 if something goes wrong
+     * @return 1 normally
+     */
+    public int sendPayload(byte[] payload) {
+        return send(payload, 0, payload.length);
+    }
+
+    /**
+     * @return 0 if something goes wrong
+     * @return 1 normally
+     */
+    public int sendPayload(DatagramPacket packet) {
+        return send(packet.getData(), packet.getOffset(), packet.getLength());
+    }
+
+    protected int send(byte[] data, int offset, int length) {
+        if (ring == null) {
+            return 0;
+        }
+
+        if (ring.write(data, offset, length)) {
+            seqNo++;
+            return 1;
+        } else {
+            System.err.println("ShmRingSender: receiver has gone for packet " + (seqNo+1));
+            return 0;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "shm:" + file;
+    }
+}
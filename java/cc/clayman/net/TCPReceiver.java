@@ -19,12 +19,13 @@ import java.util.concurrent.LinkedBlockingQueue;
 
 import cc.clayman.net.IP;
 import cc.clayman.util.Verbose;
+import cc.clayman.util.Execution;
 
 /**
  * Receive bytes over the network using TCP as a transport.
  * Convert into a ByteBuffer
  */
-public class TCPReceiver implements Runnable {
+public class TCPReceiver implements Runnable, PacketReceiver<ByteBuffer> {
     /*
      * The socket doing the listening
      */
@@ -48,7 +49,7 @@ public class TCPReceiver implements Runnable {
     /*
      * My thread.
      */
-    Thread myThread;
+    Execution.Task myThread;
 
     boolean running = false;
 
@@ -132,8 +133,7 @@ public class TCPReceiver implements Runnable {
             connect();
         
             // Run in Thread
-            myThread = new Thread(this);
-            myThread.start();
+            myThread = Execution.start(this, "TCPReceiver-" + port);
 
             running = true;
             return true;
@@ -8,6 +8,7 @@ package cc.clayman.net;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.InetAddress;
+import java.net.DatagramPacket;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.net.ServerSocket;
@@ -18,6 +19,7 @@ import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 
 import cc.clayman.util.Verbose;
+import cc.clayman.util.Execution;
 
 /**
  * Take a payload as byte[] and send them over the network using TCP as a transport.
@@ -25,7 +27,7 @@ import cc.clayman.util.Verbose;
  * The TCPSender listens on a ServerSocket for one incoming connection,
  * and then sends the bytes back to the caller.  Then it stops.
  */
-public class TCPSender implements Runnable {
+public class TCPSender implements Runnable, PacketSender {
 
     // Host
     String host;
@@ -56,7 +58,7 @@ public class TCPSender implements Runnable {
     LinkedBlockingQueue<ByteBuffer> packetQueue = new LinkedBlockingQueue<ByteBuffer>();
 
     // The Thread
-    Thread myThread;
+    Execution.Task myThread;
 
     // are we running
     boolean running = false;
@@ -132,8 +134,7 @@ public class TCPSender implements Runnable {
             connect();
         
             // Run in Thread
-            myThread = new Thread(this);
-            myThread.start();
+            myThread = Execution.start(this, "TCPSender-" + port);
 
             return true;
         } catch (Exception e) {
@@ -305,6 +306,18 @@ public class TCPSender implements Runnable {
         }
     }
 
+    /**
+     * Send the data in a DatagramPacket.
+     * @return 0 if something goes wrong
+     * @return 1 normally
+     */
+    public int sendPayload(DatagramPacket packet) {
+        byte[] payload = new byte[packet.getLength()];
+        System.arraycopy(packet.getData(), packet.getOffset(), payload, 0, packet.getLength());
+
+        return sendPayload(payload);
+    }
+
     /**
      * TO String
      */
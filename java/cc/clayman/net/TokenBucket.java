@@ -0,0 +1,80 @@
+// TokenBucket.java
+// Date: Oct 2026
+
+package cc.clayman.net;
+
+/**
+ * A token bucket, with a rate in bits per second,
+ * and a depth in bytes.
+ * Tokens are bytes, and are added continuously, from System.nanoTime().
+ * A packet can go when there are enough tokens for it,
+ * or a full bucket for a packet bigger than the depth.
+ * It is used by one thread, but the rate can be set from any thread.
+ */
+public class TokenBucket {
+    // The rate, in bits per second
+    volatile int rateBits;
+
+    // The depth, in bytes
+    int depth;
+
+    // The tokens, in bytes
+    double tokens;
+
+    // When the tokens were last added
+    long last;
+
+    /**
+     * Construct a TokenBucket, which starts full.
+     * @param rateBits the rate, in bits per second
+     * @param depth the depth, in bytes
+     */
+    public TokenBucket(int rateBits, int depth) {
+        this.rateBits = rateBits;
+        this.depth = depth;
+        this.tokens = depth;
+        this.last = System.nanoTime();
+    }
+
+    /**
+     * Try and take the tokens for a packet.
+     * @return 0 if the tokens were taken,
+     * or the no of nanoseconds until there will be enough
+     */
+    public long take(int size) {
+        long now = System.nanoTime();
+
+        // add the tokens since last time
+        double bytesPerNano = rateBits / 8e9;
+
+        tokens = Math.min(depth, tokens + (now - last) * bytesPerNano);
+        last = now;
+
+        int needed = Math.min(size, depth);
+
+        if (tokens >= needed) {
+            tokens -= size;
+            return 0;
+        } else if (bytesPerNano <= 0) {
+            // no rate, so wait a while
+            return 1000000;
+        } else {
+            return (long)Math.ceil((needed - tokens) / bytesPerNano);
+        }
+    }
+
+    // Set the rate, in bits per second
+    public void setRate(int bits) {
+        rateBits = bits;
+    }
+
+    // Get the rate, in bits per second
+    public int getRate() {
+        return rateBits;
+    }
+
+    // Get the depth, in bytes
+    public int getDepth() {
+        return depth;
+    }
+}
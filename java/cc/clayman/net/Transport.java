@@ -0,0 +1,120 @@
+// Transport.java
+// Date: Oct 2026
+
+package cc.clayman.net;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+
+/**
+ * Create the senders and receivers for the selected transport.
+ * The apps and forwarders ask the Transport for their end points,
+ * rather than creating a UDPSender or UDPReceiver directly.
+ *
+ * The transport is selected with setType(), or with the
+ * system property bpp.transport.  The default is udp.
+ * The shm rings are files called bpp-PORT.ring in /dev/shm,
+ * or in the system property bpp.shm.dir.
+ */
+public class Transport {
+    // UDP sockets
+    public static final String UDP = "udp";
+
+    // In-JVM loopback
+    public static final String MEM = "mem";
+
+    // Shared memory ring, between processes on the same host
+    public static final String SHM = "shm";
+
+    // The selected transport
+    static String type = System.getProperty("bpp.transport", UDP);
+
+    // The directory for shm rings
+    static String shmDir = System.getProperty("bpp.shm.dir", new File("/dev/shm").isDirectory() ? "/dev/shm" : System.getProperty("java.io.tmpdir"));
+
+    /**
+     * Select the transport
+     */
+    public static void setType(String t) {
+        if (! isValid(t)) {
+            throw new IllegalArgumentException("Transport: unknown type " + t);
+        }
+
+        type = t;
+    }
+
+    /**
+     * Get the selected transport
+     */
+    public static String getType() {
+        return type;
+    }
+
+    /**
+     * Is this a known transport
+     */
+    public static boolean isValid(String t) {
+        return UDP.equals(t) || MEM.equals(t) || SHM.equals(t);
+    }
+
+    /**
+     * Create a PacketSender to host / port
+     */
+    public static PacketSender newSender(String host, int port) throws UnknownHostException, IOException {
+        return newSender(type, host, port);
+    }
+
+    /**
+     * Create a PacketSender for a transport to host / port
+     */
+    public static PacketSender newSender(String t, String host, int port) throws UnknownHostException, IOException {
+        if (MEM.equals(t)) {
+            return new LoopbackSender(port);
+        } else if (SHM.equals(t)) {
+            return new ShmRingSender(shmFile(port));
+        } else {
+            return new UDPSender(host, port);
+        }
+    }
+
+    /**
+     * Create a PacketReceiver on a port
+     */
+    public static PacketReceiver<DatagramPacket> newReceiver(int port) {
+        return newReceiver(type, port);
+    }
+
+    /**
+     * Create a PacketReceiver for a transport on a port
+     */
+    public static PacketReceiver<DatagramPacket> newReceiver(String t, int port) {
+        if (MEM.equals(t)) {
+            return new LoopbackReceiver(port);
+        } else if (SHM.equals(t)) {
+            return new ShmRingReceiver(shmFile(port));
+        } else {
+            return new UDPReceiver(port);
+        }
+    }
+
+    /**
+     * Create a PacketReceiver on an address
+     */
+    public static PacketReceiver<DatagramPacket> newReceiver(InetSocketAddress addr) {
+        if (UDP.equals(type)) {
+            return new UDPReceiver(addr);
+        } else {
+            return newReceiver(type, addr.getPort());
+        }
+    }
+
+    /**
+     * The file for the shm ring for a port
+     */
+    public static File shmFile(int port) {
+        return new File(shmDir, "bpp-" + port + ".ring");
+    }
+}
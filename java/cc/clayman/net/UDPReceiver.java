@@ -18,11 +18,12 @@ import java.util.concurrent.TimeUnit;
 
 import cc.clayman.net.IP;
 import cc.clayman.util.Verbose;
+import cc.clayman.util.Execution;
 
 /**
  * Receive a DatagramPacket over the network using UDP as a transport.
  */
-public class UDPReceiver implements Runnable {
+public class UDPReceiver implements Runnable, PacketReceiver<DatagramPacket> {
     /*
      * The socket doing the listening
      */
@@ -46,7 +47,7 @@ public class UDPReceiver implements Runnable {
     /*
      * My thread.
      */
-    Thread myThread;
+    Execution.Task myThread;
 
     boolean running = false;
 
@@ -151,8 +152,7 @@ public class UDPReceiver implements Runnable {
             connect();
         
             // Run in Thread
-            myThread = new Thread(this);
-            myThread.start();
+            myThread = Execution.start(this, "UDPReceiver-" + port);
 
             running = true;
             return true;
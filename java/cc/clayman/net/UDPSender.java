@@ -15,12 +15,13 @@ import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 
 import cc.clayman.util.Verbose;
+import cc.clayman.util.Execution;
 
 
 /**
  * Take a payload as byte[] and send them over the network using UDP as a transport.
  */
-public class UDPSender implements Runnable {
+public class UDPSender implements Runnable, PacketSender {
 
     // Host
     String host;
@@ -48,7 +49,7 @@ public class UDPSender implements Runnable {
     LinkedBlockingQueue<DatagramPacket> packetQueue = new LinkedBlockingQueue<DatagramPacket>();
 
     // The Thread
-    Thread myThread;
+    Execution.Task myThread;
 
     // are we running
     boolean running = false;
@@ -111,8 +112,7 @@ public class UDPSender implements Runnable {
             connect();
         
             // Run in Thread
-            myThread = new Thread(this);
-            myThread.start();
+            myThread = Execution.start(this, "UDPSender-" + port);
 
             return true;
         } catch (Exception e) {
@@ -6,12 +6,13 @@
 package cc.clayman.processor;
 
 import java.util.ArrayList;
+import java.net.DatagramPacket;
 
 import cc.clayman.chunk.ChunkInfo;
 import cc.clayman.chunk.ChunkStreamer;
 import cc.clayman.net.ChunkDepacketizer;
 import cc.clayman.net.BPPDepacketizer;
-import cc.clayman.net.UDPReceiver;
+import cc.clayman.net.PacketReceiver;
 import cc.clayman.util.Verbose;
 
 /*
@@ -28,9 +29,9 @@ public class BufferingUDPChunkStreamer extends UDPChunkStreamer implements Chunk
      * A UDPChunkStreamer takes a UDPReceiver and returns a ChunkInfo
      * on each call
      * Buffer size is 3 by default
-     * @param receiver a UDPReceiver
+     * @param receiver a PacketReceiver, such as a UDPReceiver
      */
-    public BufferingUDPChunkStreamer(UDPReceiver receiver) {
+    public BufferingUDPChunkStreamer(PacketReceiver<DatagramPacket> receiver) {
         super(receiver);
         allocateBuffer();
     }
@@ -38,10 +39,10 @@ public class BufferingUDPChunkStreamer extends UDPChunkStreamer implements Chunk
     /**
      * A UDPChunkStreamer takes a UDPReceiver and returns a ChunkInfo
      * on each call
-     * @param receiver a UDPReceiver
+     * @param receiver a PacketReceiver, such as a UDPReceiver
      * @param depacketizer a ChunkDepacketizer
      */
-    public BufferingUDPChunkStreamer(UDPReceiver receiver, ChunkDepacketizer depacketizer) {
+    public BufferingUDPChunkStreamer(PacketReceiver<DatagramPacket> receiver, ChunkDepacketizer depacketizer) {
         super(receiver, depacketizer);
         allocateBuffer();
     }
@@ -49,10 +50,10 @@ public class BufferingUDPChunkStreamer extends UDPChunkStreamer implements Chunk
     /**
      * A UDPChunkStreamer takes a UDPReceiver and returns a ChunkInfo
      * on each call
-     * @param receiver a UDPReceiver
+     * @param receiver a PacketReceiver, such as a UDPReceiver
      * @param bufferSize 
      */
-    public BufferingUDPChunkStreamer(UDPReceiver receiver, int bufferSize) {
+    public BufferingUDPChunkStreamer(PacketReceiver<DatagramPacket> receiver, int bufferSize) {
         super(receiver);
         this.bufferSize = bufferSize;
         allocateBuffer();
@@ -61,11 +62,11 @@ public class BufferingUDPChunkStreamer extends UDPChunkStreamer implements Chunk
     /**
      * A UDPChunkStreamer takes a UDPReceiver and returns a ChunkInfo
      * on each call
-     * @param receiver a UDPReceiver
+     * @param receiver a PacketReceiver, such as a UDPReceiver
      * @param depacketizer a ChunkDepacketizer
      * @param bufferSize 
      */
-    public BufferingUDPChunkStreamer(UDPReceiver receiver, ChunkDepacketizer depacketizer, int bufferSize) {
+    public BufferingUDPChunkStreamer(PacketReceiver<DatagramPacket> receiver, ChunkDepacketizer depacketizer, int bufferSize) {
         super(receiver, depacketizer);
         this.bufferSize = bufferSize;
         allocateBuffer();
@@ -40,6 +40,9 @@ public class MissingNALAnalyser implements Iterator<NAL> {
 
     boolean [] droppedLayer = null;
 
+    // The quality layer of the last NAL returned, or -1 if it is not video
+    int lastQualityLayer = -1;
+
     int count = 0;
     int total = 0;
     
@@ -205,6 +208,8 @@ public class MissingNALAnalyser implements Iterator<NAL> {
                             //    System.err.println("RETURN qualityLayer: " + qualityLayer + " droppedLayer[" + qualityLayer + "] = " + droppedLayer[qualityLayer]);
                             //}
                             
+                            lastQualityLayer = qualityLayer;
+
                             // increase qualityLayer for next time
                             qualityLayer = (qualityLayer + 1) % noOfVCLs;
 
@@ -234,6 +239,7 @@ public class MissingNALAnalyser implements Iterator<NAL> {
                         prevIsNonVCL = true;
                         // reset qualityLayer
                         qualityLayer = 0;
+                        lastQualityLayer = -1;
 
                         //if (Verbose.level >= 1) {
                         //    System.err.println("RETURN qualityLayer: " + qualityLayer + " NOT VIDEO");
@@ -252,6 +258,21 @@ public class MissingNALAnalyser implements Iterator<NAL> {
     }
 
 
+    /**
+     * The quality layer of the last NAL returned by next(),
+     * or -1 if it is not a video NAL
+     */
+    public int getQualityLayer() {
+        return lastQualityLayer;
+    }
+
+    /**
+     * The no of VCLs seen so far, which is the no of frames
+     */
+    public int getVCLCount() {
+        return vclCount;
+    }
+
     private void resetDroppedLayer(boolean [] droppedLayer) {
         for (int i=0; i < noOfVCLs; i++) {
             droppedLayer[i] = false;
@@ -11,14 +11,14 @@ import cc.clayman.chunk.ChunkInfo;
 import cc.clayman.chunk.ChunkStreamer;
 import cc.clayman.net.ChunkDepacketizer;
 import cc.clayman.net.BPPDepacketizer;
-import cc.clayman.net.UDPReceiver;
+import cc.clayman.net.PacketReceiver;
 
 /*
  * The reads packets from a UDPReceiver and returns ChunkInfo objects.
  */
 public class UDPChunkStreamer implements ChunkStreamer {
     // The UDP receiver
-    UDPReceiver receiver = null;
+    PacketReceiver<DatagramPacket> receiver = null;
 
     // A received packet
     DatagramPacket packet = null;
@@ -30,9 +30,9 @@ public class UDPChunkStreamer implements ChunkStreamer {
     /**
      * A UDPChunkStreamer takes a UDPReceiver and returns a ChunkInfo
      * on each call
-     * @param receiver a UDPReceiver
+     * @param receiver a PacketReceiver, such as a UDPReceiver
      */
-    public UDPChunkStreamer(UDPReceiver receiver) {
+    public UDPChunkStreamer(PacketReceiver<DatagramPacket> receiver) {
         this.receiver = receiver;
         depacketizer = new BPPDepacketizer();
     }
@@ -40,10 +40,10 @@ public class UDPChunkStreamer implements ChunkStreamer {
     /**
      * A UDPChunkStreamer takes a UDPReceiver and returns a ChunkInfo
      * on each call
-     * @param receiver a UDPReceiver
+     * @param receiver a PacketReceiver, such as a UDPReceiver
      * @param depacketizer a ChunkDepacketizer
      */
-    public UDPChunkStreamer(UDPReceiver receiver, ChunkDepacketizer depacketizer) {
+    public UDPChunkStreamer(PacketReceiver<DatagramPacket> receiver, ChunkDepacketizer depacketizer) {
         this.receiver = receiver;
         this.depacketizer = depacketizer;
     }
@@ -0,0 +1,165 @@
+// MappedPacketTrace.java
+// Date: Oct 2026
+
+package cc.clayman.trace;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A PacketTrace read from a packet trace file, by memory-mapping
+ * the data file and its index.
+ * Packets are returned as slices of the mapping, so nothing is copied.
+ * See PacketTraceFile for the layout.
+ */
+public class MappedPacketTrace implements PacketTrace, Closeable {
+    FileChannel dataChannel;
+    FileChannel indexChannel;
+
+    MappedByteBuffer data;
+    MappedByteBuffer index;
+
+    // No of packets
+    int count = 0;
+
+    /**
+     * Map a trace file.
+     */
+    public MappedPacketTrace(String filename) throws IOException {
+        dataChannel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ);
+        indexChannel = FileChannel.open(Paths.get(PacketTraceFile.indexName(filename)), StandardOpenOption.READ);
+
+        if (dataChannel.size() > Integer.MAX_VALUE || indexChannel.size() > Integer.MAX_VALUE) {
+            throw new IOException("MappedPacketTrace: " + filename + " is too big to map");
+        }
+
+        data = dataChannel.map(FileChannel.MapMode.READ_ONLY, 0, dataChannel.size());
+        index = indexChannel.map(FileChannel.MapMode.READ_ONLY, 0, indexChannel.size());
+
+        if (data.limit() < PacketTraceFile.HEADER_SIZE || data.getInt(0) != PacketTraceFile.DATA_MAGIC || data.getInt(4) != PacketTraceFile.VERSION) {
+            throw new IOException("MappedPacketTrace: " + filename + " is not a packet trace");
+        }
+
+        if (index.limit() < PacketTraceFile.HEADER_SIZE || index.getInt(0) != PacketTraceFile.INDEX_MAGIC || index.getInt(4) != PacketTraceFile.VERSION) {
+            throw new IOException("MappedPacketTrace: " + PacketTraceFile.indexName(filename) + " is not a packet trace index");
+        }
+
+        count = (index.limit() - PacketTraceFile.HEADER_SIZE) / PacketTraceFile.INDEX_ENTRY_SIZE;
+    }
+
+    /**
+     * The number of packets in the trace.
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Get the intended send offset of packet n, in nanoseconds.
+     */
+    public long getSendOffset(int n) {
+        return index.getLong(PacketTraceFile.HEADER_SIZE + (n * PacketTraceFile.INDEX_ENTRY_SIZE) + 8);
+    }
+
+    /**
+     * Get the position of the record for packet n in the data file.
+     */
+    protected int getRecordPosition(int n) {
+        return (int)index.getLong(PacketTraceFile.HEADER_SIZE + (n * PacketTraceFile.INDEX_ENTRY_SIZE));
+    }
+
+    /**
+     * Get the length of packet n.
+     */
+    public int getLength(int n) {
+        return data.getInt(getRecordPosition(n) + 8);
+    }
+
+    /**
+     * Get packet n as a read-only slice of the mapping.
+     */
+    public ByteBuffer getPacket(int n) {
+        int pos = getRecordPosition(n);
+        int length = data.getInt(pos + 8);
+
+        return data.slice(pos + PacketTraceFile.RECORD_HEADER_SIZE, length).asReadOnlyBuffer();
+    }
+
+    /**
+     * Set a view of the mapping to cover packet n.
+     * The view must have come from newView().
+     * This allocates nothing, so it can be used on every packet.
+     */
+    public ByteBuffer getPacket(int n, ByteBuffer view) {
+        int pos = getRecordPosition(n);
+        int length = data.getInt(pos + 8);
+
+        view.limit(view.capacity());
+        view.position(pos + PacketTraceFile.RECORD_HEADER_SIZE);
+        view.limit(pos + PacketTraceFile.RECORD_HEADER_SIZE + length);
+
+        return view;
+    }
+
+    /**
+     * Get a new view of the whole mapping, for use with getPacket(n, view).
+     */
+    public ByteBuffer newView() {
+        return data.duplicate();
+    }
+
+    /**
+     * Find the first packet whose send offset is at or after
+     * a given offset, in nanoseconds.
+     */
+    public int find(long sendOffset) {
+        int lo = 0;
+        int hi = count;
+
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+
+            if (getSendOffset(mid) < sendOffset) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+
+        return lo;
+    }
+
+    /**
+     * The duration of the trace, in nanoseconds.
+     */
+    public long getDuration() {
+        if (count == 0) {
+            return 0;
+        } else if (count == 1) {
+            return getSendOffset(0);
+        } else {
+            long first = getSendOffset(0);
+            long last = getSendOffset(count-1);
+
+            return last + (last - first) / (count-1);
+        }
+    }
+
+    /**
+     * Close the trace
+     */
+    public void close() throws IOException {
+        dataChannel.close();
+        indexChannel.close();
+    }
+
+    @Override
+    public String toString() {
+        return "MappedPacketTrace: " + size() + " packets " + data.limit() + " bytes " + (getDuration() / 1000000) + " ms";
+    }
+}
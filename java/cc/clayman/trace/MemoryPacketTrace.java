@@ -0,0 +1,106 @@
+// MemoryPacketTrace.java
+// Date: Oct 2026
+
+package cc.clayman.trace;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+/**
+ * A PacketTrace held in memory.
+ * Packets are added once, and can then be read by many streams.
+ */
+public class MemoryPacketTrace implements PacketTrace, PacketTraceWriter {
+    // The packets
+    ArrayList<byte[]> packets = new ArrayList<byte[]>();
+
+    // The send offsets, in nanoseconds
+    long[] offsets = new long[1024];
+
+    // Total no of bytes
+    long volume = 0;
+
+    public MemoryPacketTrace() {
+    }
+
+    /**
+     * Add a packet to the trace, with its send offset in nanoseconds.
+     */
+    public void add(byte[] packet, long sendOffset) {
+        int n = packets.size();
+
+        if (n == offsets.length) {
+            long[] bigger = new long[offsets.length * 2];
+            System.arraycopy(offsets, 0, bigger, 0, offsets.length);
+            offsets = bigger;
+        }
+
+        packets.add(packet);
+        offsets[n] = sendOffset;
+        volume += packet.length;
+    }
+
+    /**
+     * The number of packets in the trace.
+     */
+    public int size() {
+        return packets.size();
+    }
+
+    /**
+     * Get the intended send offset of packet n, in nanoseconds.
+     */
+    public long getSendOffset(int n) {
+        return offsets[n];
+    }
+
+    /**
+     * Get packet n as a read-only ByteBuffer.
+     */
+    public ByteBuffer getPacket(int n) {
+        return ByteBuffer.wrap(packets.get(n)).asReadOnlyBuffer();
+    }
+
+    /**
+     * Get the raw bytes of packet n.
+     * These are shared, so they must not be modified.
+     */
+    public byte[] getBytes(int n) {
+        return packets.get(n);
+    }
+
+    /**
+     * Get the length of packet n.
+     */
+    public int getLength(int n) {
+        return packets.get(n).length;
+    }
+
+    /**
+     * The duration of the trace, in nanoseconds.
+     */
+    public long getDuration() {
+        int n = packets.size();
+
+        if (n == 0) {
+            return 0;
+        } else if (n == 1) {
+            return offsets[0];
+        } else {
+            // last offset plus the average gap
+            return offsets[n-1] + (offsets[n-1] - offsets[0]) / (n-1);
+        }
+    }
+
+    /**
+     * The total no of bytes in the trace.
+     */
+    public long getVolume() {
+        return volume;
+    }
+
+    @Override
+    public String toString() {
+        return "MemoryPacketTrace: " + size() + " packets " + volume + " bytes " + (getDuration() / 1000000) + " ms";
+    }
+}
@@ -0,0 +1,42 @@
+// PacketTrace.java
+// Date: Oct 2026
+
+package cc.clayman.trace;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A PacketTrace is a pre-built sequence of BPP packets,
+ * each with the offset at which it is intended to be sent.
+ * The offsets are in nanoseconds from the start of the trace.
+ */
+public interface PacketTrace {
+    /**
+     * The number of packets in the trace.
+     */
+    public int size();
+
+    /**
+     * Get the intended send offset of packet n, in nanoseconds
+     * from the start of the trace.
+     */
+    public long getSendOffset(int n);
+
+    /**
+     * Get packet n as a read-only ByteBuffer,
+     * with position 0 and limit at the packet length.
+     */
+    public ByteBuffer getPacket(int n);
+
+    /**
+     * Get the length of packet n.
+     */
+    public int getLength(int n);
+
+    /**
+     * The duration of the trace, in nanoseconds.
+     * This is the offset of the last packet plus one inter-packet gap,
+     * so a trace can be replayed in a loop without bunching.
+     */
+    public long getDuration();
+}
@@ -0,0 +1,151 @@
+// PacketTraceBuilder.java
+// Date: Oct 2026
+
+package cc.clayman.trace;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import cc.clayman.bpp.BPP;
+import cc.clayman.chunk.ChunkSizeCalculator;
+import cc.clayman.chunk.SVCChunkInfo;
+import cc.clayman.h264.H264InputStream;
+import cc.clayman.net.BPPSVCPacketizer;
+import cc.clayman.net.ChunkPacketizer;
+import cc.clayman.processor.MultiNALProcessor;
+import cc.clayman.util.Verbose;
+
+/**
+ * Read an H264 stream once, and convert it into a PacketTrace
+ * of BPP packets, using the same MultiNALProcessor and BPPSVCPacketizer
+ * as BPPSend.
+ *
+ * Send offsets are calculated either from a fixed packet rate,
+ * or from the bandwidth of the video, which is the ideal
+ * version of the adaptive sleep in BPPSend.
+ */
+public class PacketTraceBuilder {
+    int packetSize = 1500;         // packet size
+    int nalsPerFrame = 3;          // no of NALs per frame
+    int videoKbps = 1094;          // the bandwidth of the video file
+    int packetsPerSecond = 0;      // no of packets per second, 0 means use videoKbps
+    int threshold = 5;             // threshold
+    int command = BPP.Command.WASH;
+    int condition = BPP.Condition.LIMITEDFN;
+    int fnSpec = BPP.Function.NONE;
+    ChunkSizeCalculator calculator = null;
+
+    public PacketTraceBuilder() {
+    }
+
+    public PacketTraceBuilder setPacketSize(int packetSize) {
+        this.packetSize = packetSize;
+        return this;
+    }
+
+    public PacketTraceBuilder setNALsPerFrame(int nalsPerFrame) {
+        this.nalsPerFrame = nalsPerFrame;
+        return this;
+    }
+
+    public PacketTraceBuilder setVideoKbps(int videoKbps) {
+        this.videoKbps = videoKbps;
+        return this;
+    }
+
+    public PacketTraceBuilder setPacketsPerSecond(int packetsPerSecond) {
+        this.packetsPerSecond = packetsPerSecond;
+        return this;
+    }
+
+    public PacketTraceBuilder setThreshold(int threshold) {
+        this.threshold = threshold;
+        return this;
+    }
+
+    public PacketTraceBuilder setCommand(int command, int condition) {
+        this.command = command;
+        this.condition = condition;
+        return this;
+    }
+
+    public PacketTraceBuilder setFunction(int fnSpec) {
+        this.fnSpec = fnSpec;
+        return this;
+    }
+
+    public PacketTraceBuilder setChunkSizeCalculator(ChunkSizeCalculator calculator) {
+        this.calculator = calculator;
+        return this;
+    }
+
+    /**
+     * Build a MemoryPacketTrace from an InputStream of H264 data.
+     * The InputStream is closed at the end.
+     */
+    public MemoryPacketTrace build(InputStream in) throws IOException {
+        MemoryPacketTrace trace = new MemoryPacketTrace();
+
+        build(in, trace);
+
+        if (Verbose.level >= 1) {
+            System.err.println("PacketTraceBuilder: " + trace);
+        }
+
+        return trace;
+    }
+
+    /**
+     * Read an InputStream of H264 data, and add each packet
+     * to a PacketTraceWriter.
+     * The InputStream is closed at the end.
+     * @return the no of packets
+     */
+    public int build(InputStream in, PacketTraceWriter trace) throws IOException {
+        ChunkPacketizer packetizer = new BPPSVCPacketizer(packetSize, nalsPerFrame);
+
+        H264InputStream str = new H264InputStream(in);
+
+        MultiNALProcessor nalProcessor = new MultiNALProcessor(str, packetizer.getPayloadSize(), nalsPerFrame);
+
+        if (calculator != null) {
+            nalProcessor.setChunkSizeCalculator(calculator);
+        }
+
+        // expected amount to send per second
+        long expected = (long)videoKbps * 1024 / 8;
+
+        int count = 0;
+        long total = 0;
+
+        while (nalProcessor.hasNext()) {
+            SVCChunkInfo chunk = nalProcessor.next();
+
+            if (chunk == null) {
+                break;
+            }
+
+            count++;
+
+            byte[] packet = packetizer.convert(count, command, condition, threshold, fnSpec, chunk);
+
+            // work out when this packet should go
+            long offset;
+
+            if (packetsPerSecond > 0) {
+                offset = ((long)(count - 1) * 1000000000L) / packetsPerSecond;
+            } else {
+                // send when the ideal amount for the video rate has gone
+                offset = (total * 1000000000L) / expected;
+            }
+
+            total += chunk.offset();
+
+            trace.add(packet, offset);
+        }
+
+        str.close();
+
+        return count;
+    }
+}
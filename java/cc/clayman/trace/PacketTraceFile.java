@@ -0,0 +1,43 @@
+// PacketTraceFile.java
+// Date: Oct 2026
+
+package cc.clayman.trace;
+
+/*
+ * The layout of a packet trace on disk.
+ *
+ * A trace is two files: the data file, and an index file with
+ * the same name plus ".idx".  Both are append-only.
+ *
+ * Data file:
+ *  - Header:  "BPPT" (4 bytes) + version (4 bytes)
+ *  - Records: send offset in nanoseconds (8 bytes) + length (4 bytes)
+ *             + packet bytes (length bytes)
+ *
+ * Index file:
+ *  - Header:  "BPPI" (4 bytes) + version (4 bytes)
+ *  - Entries: position of record in data file (8 bytes)
+ *             + send offset in nanoseconds (8 bytes)
+ *
+ * All values are big-endian.
+ * The offset is held in both files, so the index can be rebuilt
+ * from the data file if it is lost.
+ */
+public class PacketTraceFile {
+    public static final int DATA_MAGIC = 0x42505054;      // BPPT
+    public static final int INDEX_MAGIC = 0x42505049;     // BPPI
+    public static final int VERSION = 1;
+
+    public static final int HEADER_SIZE = 8;
+    public static final int RECORD_HEADER_SIZE = 12;
+    public static final int INDEX_ENTRY_SIZE = 16;
+
+    public static final String INDEX_SUFFIX = ".idx";
+
+    /**
+     * Get the name of the index file for a trace file.
+     */
+    public static String indexName(String filename) {
+        return filename + INDEX_SUFFIX;
+    }
+}
@@ -0,0 +1,170 @@
+// PacketTraceFileWriter.java
+// Date: Oct 2026
+
+package cc.clayman.trace;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Write packets to a packet trace file and its index.
+ * If the files already exist, new packets are appended to them,
+ * and their send offsets are moved to follow on from the existing trace,
+ * so the offsets in a trace always increase.
+ * See PacketTraceFile for the layout.
+ */
+public class PacketTraceFileWriter implements PacketTraceWriter, Closeable {
+    FileChannel data;
+    FileChannel index;
+
+    // Where the next record goes in the data file
+    long position = 0;
+
+    // No of packets in the trace
+    int count = 0;
+
+    // Added to the send offsets when appending to an existing trace
+    long baseOffset = 0;
+
+    // Buffers for record headers and index entries
+    ByteBuffer recordHeader = ByteBuffer.allocate(PacketTraceFile.RECORD_HEADER_SIZE);
+    ByteBuffer indexEntry = ByteBuffer.allocate(PacketTraceFile.INDEX_ENTRY_SIZE);
+
+    /**
+     * Open a trace file for appending.
+     */
+    public PacketTraceFileWriter(String filename) throws IOException {
+        Path dataPath = Paths.get(filename);
+        Path indexPath = Paths.get(PacketTraceFile.indexName(filename));
+
+        data = FileChannel.open(dataPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.READ);
+        index = FileChannel.open(indexPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.READ);
+
+        if (data.size() == 0) {
+            // new files
+            writeHeader(data, PacketTraceFile.DATA_MAGIC);
+            writeHeader(index, PacketTraceFile.INDEX_MAGIC);
+            index.truncate(PacketTraceFile.HEADER_SIZE);
+        } else {
+            // existing files
+            checkHeader(data, PacketTraceFile.DATA_MAGIC, filename);
+            checkHeader(index, PacketTraceFile.INDEX_MAGIC, PacketTraceFile.indexName(filename));
+
+            long indexSize = index.size() - PacketTraceFile.HEADER_SIZE;
+
+            if (indexSize % PacketTraceFile.INDEX_ENTRY_SIZE != 0) {
+                throw new IOException("PacketTraceFileWriter: index " + PacketTraceFile.indexName(filename) + " is damaged");
+            }
+
+            count = (int)(indexSize / PacketTraceFile.INDEX_ENTRY_SIZE);
+
+            if (count > 0) {
+                // new packets follow on from the end of the existing trace
+                long first = readOffset(0);
+                long last = readOffset(count-1);
+
+                baseOffset = (count == 1) ? last : last + (last - first) / (count-1);
+            }
+        }
+
+        position = data.size();
+        data.position(position);
+        index.position(index.size());
+    }
+
+    /**
+     * Add a packet, with its send offset in nanoseconds.
+     */
+    public void add(byte[] packet, long sendOffset) throws IOException {
+        sendOffset += baseOffset;
+
+        // record in the data file
+        recordHeader.clear();
+        recordHeader.putLong(sendOffset);
+        recordHeader.putInt(packet.length);
+        recordHeader.flip();
+
+        ByteBuffer content = ByteBuffer.wrap(packet);
+
+        while (recordHeader.hasRemaining() || content.hasRemaining()) {
+            data.write(new ByteBuffer[] { recordHeader, content });
+        }
+
+        // entry in the index
+        indexEntry.clear();
+        indexEntry.putLong(position);
+        indexEntry.putLong(sendOffset);
+        indexEntry.flip();
+
+        while (indexEntry.hasRemaining()) {
+            index.write(indexEntry);
+        }
+
+        position += PacketTraceFile.RECORD_HEADER_SIZE + packet.length;
+        count++;
+    }
+
+    /**
+     * The no of packets in the trace.
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Close the trace
+     */
+    public void close() throws IOException {
+        data.force(false);
+        index.force(false);
+        data.close();
+        index.close();
+    }
+
+    // Read the send offset of entry n from the index
+    private long readOffset(int n) throws IOException {
+        ByteBuffer offset = ByteBuffer.allocate(8);
+        long pos = PacketTraceFile.HEADER_SIZE + ((long)n * PacketTraceFile.INDEX_ENTRY_SIZE) + 8;
+
+        while (offset.hasRemaining()) {
+            if (index.read(offset, pos + offset.position()) < 0) {
+                throw new IOException("PacketTraceFileWriter: index is too short");
+            }
+        }
+
+        offset.flip();
+        return offset.getLong();
+    }
+
+    private void writeHeader(FileChannel channel, int magic) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(PacketTraceFile.HEADER_SIZE);
+        header.putInt(magic);
+        header.putInt(PacketTraceFile.VERSION);
+        header.flip();
+
+        while (header.hasRemaining()) {
+            channel.write(header, header.position());
+        }
+    }
+
+    private void checkHeader(FileChannel channel, int magic, String filename) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(PacketTraceFile.HEADER_SIZE);
+
+        while (header.hasRemaining()) {
+            if (channel.read(header, header.position()) < 0) {
+                throw new IOException("PacketTraceFileWriter: " + filename + " is too short");
+            }
+        }
+
+        header.flip();
+
+        if (header.getInt() != magic || header.getInt() != PacketTraceFile.VERSION) {
+            throw new IOException("PacketTraceFileWriter: " + filename + " is not a packet trace");
+        }
+    }
+}
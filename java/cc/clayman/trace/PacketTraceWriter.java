@@ -0,0 +1,16 @@
+// PacketTraceWriter.java
+// Date: Oct 2026
+
+package cc.clayman.trace;
+
+import java.io.IOException;
+
+/**
+ * Something that a PacketTrace can be written to.
+ */
+public interface PacketTraceWriter {
+    /**
+     * Add a packet, with its send offset in nanoseconds.
+     */
+    public void add(byte[] packet, long sendOffset) throws IOException;
+}
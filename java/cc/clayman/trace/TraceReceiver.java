@@ -0,0 +1,83 @@
+// TraceReceiver.java
+// Date: Oct 2026
+
+package cc.clayman.trace;
+
+import java.net.DatagramPacket;
+
+import cc.clayman.net.PacketReceiver;
+
+/**
+ * A PacketReceiver that returns the packets of a PacketTrace, in order,
+ * as fast as they are asked for, and then sees EOF.
+ * So a trace can be passed to the receiving side of an app,
+ * such as a ChunkStreamer and a NALRebuilder, with no sockets and no threads.
+ */
+public class TraceReceiver implements PacketReceiver<DatagramPacket> {
+    // The trace
+    PacketTrace trace;
+
+    // The next packet
+    int next = 0;
+
+    boolean running = false;
+
+    /**
+     * Construct a TraceReceiver
+     */
+    public TraceReceiver(PacketTrace trace) {
+        this.trace = trace;
+    }
+
+    /**
+     * Start the receiver
+     */
+    public boolean start() {
+        running = true;
+        return true;
+    }
+
+    /**
+     * Stop the receiver
+     */
+    public boolean stop() {
+        running = false;
+        return true;
+    }
+
+    /**
+     * Get the next packet of the trace, or null at the end
+     */
+    public DatagramPacket getPacket() {
+        if (! running || next >= trace.size()) {
+            return null;
+        }
+
+        int length = trace.getLength(next);
+        byte[] bytes = new byte[length];
+
+        trace.getPacket(next).get(bytes);
+        next++;
+
+        return new DatagramPacket(bytes, length);
+    }
+
+    /**
+     * Is the receiver running
+     */
+    public boolean isRunning() {
+        return running && ! isEOF();
+    }
+
+    /**
+     * Has the receiver reached EOF
+     */
+    public boolean isEOF() {
+        return next >= trace.size();
+    }
+
+    @Override
+    public String toString() {
+        return "trace:" + next + "/" + trace.size();
+    }
+}
@@ -0,0 +1,186 @@
+// TraceScheduler.java
+// Date: Oct 2026
+
+package cc.clayman.trace;
+
+import java.io.IOException;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.LockSupport;
+
+import cc.clayman.util.Verbose;
+import cc.clayman.util.Execution;
+
+/**
+ * A TraceScheduler runs many TraceStreams on one thread.
+ *
+ * The streams are held in a priority queue ordered by their next send time.
+ * The thread sleeps until the earliest one is due, sends it,
+ * and puts it back in the queue.
+ * A packet that cannot be sent is skipped, and counted as an error.
+ */
+public class TraceScheduler implements Runnable {
+    // Parking is not precise, so spin for the last part of a wait
+    static final long SPIN_NANOS = 50000;   // 50 us
+
+    // The streams, ordered by next send time
+    PriorityQueue<TraceStream> queue = new PriorityQueue<TraceStream>(64, (a, b) -> Long.compare(a.getNextSendTime(), b.getNextSendTime()));
+
+    // The Thread
+    Execution.Task myThread;
+
+    // are we running
+    volatile boolean running = false;
+
+    // counts - single writer, so volatile is enough for the reader
+    volatile long packets = 0;
+    volatile long volume = 0;
+    volatile long errors = 0;
+
+    // lateness, in nanoseconds
+    volatile long latenessTotal = 0;
+    volatile long latenessMax = 0;
+
+    final int id;
+
+    public TraceScheduler(int id) {
+        this.id = id;
+    }
+
+    /**
+     * Add a stream.  Must be called before start().
+     */
+    public void add(TraceStream stream) {
+        queue.add(stream);
+    }
+
+    /**
+     * The no of streams still running
+     */
+    public int size() {
+        return queue.size();
+    }
+
+    /**
+     * Start the scheduler
+     */
+    public boolean start() {
+        running = true;
+        myThread = Execution.start(this, "TraceScheduler-" + id);
+        return true;
+    }
+
+    /**
+     * Stop the scheduler
+     */
+    public boolean stop() {
+        running = false;
+        if (myThread != null) {
+            myThread.interrupt();
+        }
+        return true;
+    }
+
+    /**
+     * Wait for the scheduler to finish
+     */
+    public void join() throws InterruptedException {
+        if (myThread != null) {
+            myThread.join();
+        }
+    }
+
+    /**
+     * Is the scheduler running
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * The main run loop.
+     */
+    public void run() {
+        while (running && ! queue.isEmpty()) {
+            TraceStream stream = queue.peek();
+
+            long due = stream.getNextSendTime();
+            long now = System.nanoTime();
+            long wait = due - now;
+
+            if (wait > SPIN_NANOS) {
+                // sleep until nearly due
+                LockSupport.parkNanos(wait - SPIN_NANOS);
+                continue;
+            } else if (wait > 0) {
+                Thread.onSpinWait();
+                continue;
+            }
+
+            // it's due
+            queue.poll();
+
+            try {
+                int length = stream.sendNext();
+
+                packets++;
+                volume += length;
+
+                long late = -wait;
+                latenessTotal += late;
+                if (late > latenessMax) {
+                    latenessMax = late;
+                }
+
+            } catch (IOException ioe) {
+                // skip the packet, so the stream moves on
+                stream.skip();
+
+                errors++;
+                if (Verbose.level >= 2) {
+                    System.err.println("TraceScheduler: " + stream + " IOException " + ioe);
+                }
+            }
+
+            if (! stream.isFinished()) {
+                queue.add(stream);
+            }
+        }
+
+        running = false;
+    }
+
+    /**
+     * Get the packet count
+     */
+    public long getPacketCount() {
+        return packets;
+    }
+
+    /**
+     * Get the volume
+     */
+    public long getVolume() {
+        return volume;
+    }
+
+    /**
+     * Get the error count
+     */
+    public long getErrorCount() {
+        return errors;
+    }
+
+    /**
+     * Get the total lateness, in nanoseconds
+     */
+    public long getLatenessTotal() {
+        return latenessTotal;
+    }
+
+    /**
+     * Get the max lateness, in nanoseconds
+     */
+    public long getLatenessMax() {
+        return latenessMax;
+    }
+}
@@ -0,0 +1,184 @@
+// TraceStream.java
+// Date: Oct 2026
+
+package cc.clayman.trace;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+import cc.clayman.bpp.BPPPacket;
+
+/**
+ * A TraceStream replays a PacketTrace to a single destination.
+ *
+ * Each stream has its own sequence space, its own start packet in the trace,
+ * and its own start time.  Send times are absolute, calculated from the
+ * start time and the trace offsets, so a stream does not drift
+ * if one send is late.
+ */
+public class TraceStream {
+    // The stream id
+    final int id;
+
+    // The trace to replay
+    final PacketTrace trace;
+
+    // The channel to send on
+    final DatagramChannel channel;
+
+    // The destination
+    final InetSocketAddress destination;
+
+    // Which packet in the trace to start at
+    final int startIndex;
+
+    // When to start, in System.nanoTime()
+    final long startTime;
+
+    // How many times to play the trace.  0 means forever
+    final int loops;
+
+    // No of packets sent or skipped so far
+    long position = 0;
+
+    // No of packets skipped
+    long skipped = 0;
+
+    // The sequence no of the last packet sent
+    int sequence = 0;
+
+    // The time of the next packet, in System.nanoTime()
+    long nextSendTime = 0;
+
+    // A scratch buffer, so the sequence no can be patched
+    // without touching the shared trace
+    final byte[] scratch;
+    final ByteBuffer scratchBuffer;
+
+    // counts
+    long volume = 0;
+
+    /**
+     * Construct a TraceStream.
+     */
+    public TraceStream(int id, PacketTrace trace, DatagramChannel channel, InetSocketAddress destination, int startIndex, long startTime, int loops) {
+        this.id = id;
+        this.trace = trace;
+        this.channel = channel;
+        this.destination = destination;
+        this.startIndex = startIndex % trace.size();
+        this.startTime = startTime;
+        this.loops = loops;
+
+        int max = 0;
+        for (int p=0; p<trace.size(); p++) {
+            if (trace.getLength(p) > max) {
+                max = trace.getLength(p);
+            }
+        }
+
+        scratch = new byte[max];
+        scratchBuffer = ByteBuffer.wrap(scratch);
+
+        nextSendTime = calculateSendTime();
+    }
+
+    /**
+     * Get the stream id
+     */
+    public int getID() {
+        return id;
+    }
+
+    /**
+     * The time of the next packet, in System.nanoTime()
+     */
+    public long getNextSendTime() {
+        return nextSendTime;
+    }
+
+    /**
+     * Is the stream finished
+     */
+    public boolean isFinished() {
+        return loops > 0 && position >= (long)loops * trace.size();
+    }
+
+    /**
+     * Send the next packet, and work out when the one after is due.
+     * @return the no of bytes sent
+     */
+    public int sendNext() throws IOException {
+        int index = (int)((startIndex + position) % trace.size());
+
+        ByteBuffer packet = trace.getPacket(index);
+        int length = packet.remaining();
+
+        // copy into our own buffer and patch the sequence no
+        packet.get(scratch, 0, length);
+
+        sequence++;
+        BPPPacket.writeSequence(scratch, sequence);
+
+        scratchBuffer.clear();
+        scratchBuffer.limit(length);
+
+        channel.send(scratchBuffer, destination);
+
+        position++;
+        volume += length;
+
+        nextSendTime = calculateSendTime();
+
+        return length;
+    }
+
+    /**
+     * Skip the next packet, which could not be sent,
+     * and work out when the one after is due.
+     */
+    public void skip() {
+        position++;
+        skipped++;
+
+        nextSendTime = calculateSendTime();
+    }
+
+    // Work out the send time for the packet at the current position
+    private long calculateSendTime() {
+        int size = trace.size();
+        long absolute = startIndex + position;
+        long cycle = absolute / size;
+        int index = (int)(absolute % size);
+
+        return startTime + (cycle * trace.getDuration()) + trace.getSendOffset(index) - trace.getSendOffset(startIndex);
+    }
+
+    /**
+     * The no of packets sent
+     */
+    public long getPacketCount() {
+        return position - skipped;
+    }
+
+    /**
+     * The no of bytes sent
+     */
+    public long getVolume() {
+        return volume;
+    }
+
+    /**
+     * The no of packets skipped, as they could not be sent
+     */
+    public long getSkipped() {
+        return skipped;
+    }
+
+    @Override
+    public String toString() {
+        return "TraceStream " + id + " -> " + destination + " start: " + startIndex + " sent: " + position;
+    }
+}
@@ -0,0 +1,31 @@
+// Clock.java
+// Date: Oct 2026
+
+package cc.clayman.util;
+
+/**
+ * Where the network functions get the time from.
+ *
+ * SYSTEM is the monotonic System.nanoTime(), which is used in the forwarders.
+ * A VirtualClock is moved on by a simulator, so functions can be
+ * run over a packet trace much faster than real time, with the
+ * same results every time.
+ */
+public interface Clock {
+    /**
+     * The monotonic system clock
+     */
+    public final static Clock SYSTEM = new SystemClock();
+
+    /**
+     * The time, in nanoseconds.
+     * Only the difference between two times has a meaning.
+     */
+    public long nanoTime();
+
+    /**
+     * The time, in milliseconds.
+     * Only the difference between two times has a meaning.
+     */
+    public long millis();
+}
@@ -0,0 +1,295 @@
+// Execution.java
+// Date: Oct 2026
+
+package cc.clayman.util;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Where the receivers, senders and other loops run.
+ * The loops keep their blocking style, and the mode decides
+ * what they block:
+ * <ul>
+ * <li> PLATFORM - a new platform thread for each loop.  The default.
+ * <li> SHARED - a shared pool of daemon threads, which are reused.
+ * <li> VIRTUAL - a virtual thread for each loop, so thousands of loops
+ * are cheap.  This needs Java 21 or later, otherwise PLATFORM is used.
+ * </ul>
+ * The mode is set with setMode(), or with the system property bpp.execution.
+ *
+ * Periodic work, which used to be done on a java.util.Timer,
+ * is done on one shared scheduler thread.
+ * shutdown() stops everything that was started here.
+ */
+public class Execution {
+    public enum Mode { PLATFORM, SHARED, VIRTUAL }
+
+    // The selected mode
+    static volatile Mode mode = parse(System.getProperty("bpp.execution", "platform"));
+
+    // The live tasks
+    static final Set<Task> tasks = ConcurrentHashMap.newKeySet();
+
+    // The shared pool
+    static ExecutorService pool = null;
+
+    // The shared scheduler
+    static ScheduledExecutorService scheduler = null;
+
+    // Makes virtual threads, if the runtime has them
+    static ThreadFactory virtualFactory = null;
+    static boolean virtualChecked = false;
+
+    /**
+     * Set the mode
+     */
+    public static void setMode(Mode m) {
+        mode = m;
+    }
+
+    /**
+     * Get the mode
+     */
+    public static Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Convert a name, such as platform, shared, or virtual, to a Mode
+     */
+    public static Mode parse(String name) {
+        try {
+            return Mode.valueOf(name.toUpperCase());
+        } catch (IllegalArgumentException iae) {
+            throw new IllegalArgumentException("Execution: unknown mode " + name + ". Expected platform|shared|virtual");
+        }
+    }
+
+    /**
+     * Start a loop, in the current mode.
+     * @return a Task, which can be interrupted and joined like a Thread
+     */
+    public static Task start(Runnable runnable, String name) {
+        Task task = new Task(name);
+
+        Runnable wrapped = () -> {
+            try {
+                runnable.run();
+            } finally {
+                tasks.remove(task);
+                task.done.countDown();
+            }
+        };
+
+        tasks.add(task);
+
+        Mode m = mode;
+
+        if (m == Mode.VIRTUAL) {
+            ThreadFactory factory = virtualFactory();
+
+            if (factory != null) {
+                Thread thread = factory.newThread(wrapped);
+                thread.setName(name);
+                task.thread = thread;
+                thread.start();
+                return task;
+            }
+        }
+
+        if (m == Mode.SHARED) {
+            task.future = pool().submit(wrapped);
+        } else {
+            Thread thread = new Thread(wrapped, name);
+            task.thread = thread;
+            thread.start();
+        }
+
+        return task;
+    }
+
+    /**
+     * Run some work periodically on the shared scheduler.
+     * Times are in milliseconds.
+     */
+    public static ScheduledFuture<?> scheduleAtFixedRate(Runnable runnable, long initialDelay, long period) {
+        return scheduler().scheduleAtFixedRate(runnable, initialDelay, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Run some work once on the shared scheduler, after a delay in milliseconds.
+     */
+    public static ScheduledFuture<?> schedule(Runnable runnable, long delay) {
+        return scheduler().schedule(runnable, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop everything started here.
+     * Interrupts the live tasks, and waits up to timeout milliseconds for them to end.
+     * @return true if everything ended
+     */
+    public static boolean shutdown(long timeout) {
+        long deadline = System.currentTimeMillis() + timeout;
+
+        synchronized (Execution.class) {
+            if (scheduler != null) {
+                scheduler.shutdownNow();
+                scheduler = null;
+            }
+        }
+
+        for (Task task : tasks) {
+            task.interrupt();
+        }
+
+        for (Task task : tasks) {
+            long remaining = deadline - System.currentTimeMillis();
+
+            if (remaining <= 0) {
+                break;
+            }
+
+            try {
+                task.join(remaining);
+            } catch (InterruptedException ie) {
+                break;
+            }
+        }
+
+        synchronized (Execution.class) {
+            if (pool != null) {
+                pool.shutdownNow();
+                pool = null;
+            }
+        }
+
+        return tasks.isEmpty();
+    }
+
+    /**
+     * The number of live tasks
+     */
+    public static int size() {
+        return tasks.size();
+    }
+
+    static synchronized ExecutorService pool() {
+        if (pool == null) {
+            pool = Executors.newCachedThreadPool(daemonFactory("bpp-shared-"));
+        }
+
+        return pool;
+    }
+
+    static synchronized ScheduledExecutorService scheduler() {
+        if (scheduler == null) {
+            ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, daemonFactory("bpp-scheduler-"));
+            executor.setRemoveOnCancelPolicy(true);
+            scheduler = executor;
+        }
+
+        return scheduler;
+    }
+
+    static ThreadFactory daemonFactory(String prefix) {
+        AtomicInteger count = new AtomicInteger(0);
+
+        return (r) -> {
+            Thread thread = new Thread(r, prefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /*
+     * Find Thread.ofVirtual().factory(), which is only in Java 21 and later.
+     * It is found by reflection, so this compiles on older versions.
+     */
+    static synchronized ThreadFactory virtualFactory() {
+        if (! virtualChecked) {
+            virtualChecked = true;
+
+            try {
+                Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+                Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+                virtualFactory = (ThreadFactory)builderClass.getMethod("factory").invoke(builder);
+            } catch (Exception e) {
+                System.err.println("Execution: no virtual threads in Java " + System.getProperty("java.version") + ", using platform threads");
+            }
+        }
+
+        return virtualFactory;
+    }
+
+    /**
+     * A started loop.
+     * It is either on its own Thread, or in the shared pool.
+     */
+    public static class Task {
+        final String name;
+
+        volatile Thread thread = null;
+        volatile Future<?> future = null;
+
+        // counted down when the loop ends
+        final CountDownLatch done = new CountDownLatch(1);
+
+        Task(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Interrupt the loop.
+         * A loop in the shared pool is cancelled, which only interrupts
+         * the pool thread if it is still running this loop.
+         */
+        public void interrupt() {
+            if (thread != null) {
+                thread.interrupt();
+            } else if (future != null) {
+                future.cancel(true);
+            }
+        }
+
+        /**
+         * Wait for the loop to end
+         */
+        public void join() throws InterruptedException {
+            done.await();
+        }
+
+        /**
+         * Wait up to timeout milliseconds for the loop to end.
+         */
+        public void join(long timeout) throws InterruptedException {
+            done.await(timeout, TimeUnit.MILLISECONDS);
+        }
+
+        /**
+         * Is the loop still going
+         */
+        public boolean isAlive() {
+            return done.getCount() > 0;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+}
@@ -0,0 +1,21 @@
+// SystemClock.java
+// Date: Oct 2026
+
+package cc.clayman.util;
+
+/**
+ * A Clock from System.nanoTime(), which never goes back,
+ * unlike System.currentTimeMillis().
+ */
+public final class SystemClock implements Clock {
+    SystemClock() {
+    }
+
+    public long nanoTime() {
+        return System.nanoTime();
+    }
+
+    public long millis() {
+        return System.nanoTime() / 1000000L;
+    }
+}
@@ -0,0 +1,58 @@
+// VirtualClock.java
+// Date: Oct 2026
+
+package cc.clayman.util;
+
+/**
+ * A Clock that only moves when it is told to.
+ * It is moved on by one thread, and can be read from any thread.
+ */
+public final class VirtualClock implements Clock {
+    // The time, in nanoseconds
+    volatile long now;
+
+    /**
+     * A VirtualClock starting at 0
+     */
+    public VirtualClock() {
+        this(0);
+    }
+
+    /**
+     * A VirtualClock starting at a time, in nanoseconds
+     */
+    public VirtualClock(long start) {
+        now = start;
+    }
+
+    /**
+     * Set the time, in nanoseconds.
+     * @throws IllegalArgumentException if the time goes back
+     */
+    public void set(long time) {
+        if (time < now) {
+            throw new IllegalArgumentException("VirtualClock: time " + time + " is before " + now);
+        }
+
+        now = time;
+    }
+
+    /**
+     * Move the time on, in nanoseconds
+     */
+    public void advance(long nanos) {
+        set(now + nanos);
+    }
+
+    public long nanoTime() {
+        return now;
+    }
+
+    public long millis() {
+        return now / 1000000L;
+    }
+
+    public String toString() {
+        return "VirtualClock: " + now;
+    }
+}
@@ -7,8 +7,10 @@ import cc.clayman.bpp.BPPPacket;
 import cc.clayman.bpp.BPPFunction;
 import cc.clayman.h264.NALType;
 import cc.clayman.util.ANSI;
+import cc.clayman.util.Clock;
 import cc.clayman.util.Verbose;
 import java.util.Optional;
+import netfn.metrics.ForwarderMetrics;
 
 /**
  * A NetFn that does some BPP processing 
@@ -37,13 +39,32 @@ public abstract class AbstractBPPFn implements BPPFn {
 
 
     // Datagram contents
-    BPP.BPPHeader packetHeader = null;
-    BPP.CommandBlock packetCommandBlock = null;
-    BPP.MetadataBlock packetMetadataBlock = null;
+    // These are allocated once, and reused for every packet
+    BPP.BPPHeader packetHeader = new BPP.BPPHeader();
+    BPP.CommandBlock packetCommandBlock = new BPP.CommandBlock();
+    BPP.MetadataBlock packetMetadataBlock = new BPP.MetadataBlock(BPP.MAX_CHUNK_COUNT);
     
-    int [] contentStartPos = null;
+    int [] contentStartPos = new int[BPP.MAX_CHUNK_COUNT];
     NALType nalType = null;
 
+    // Was the threshold relaxed for this packet, and by how much
+    boolean thresholdRelaxed = false;
+    int relaxedBy = 0;
+
+    // The functions a packet can run, indexed by the function bits,
+    // and what they can do to the packet
+    BPPFunction[] functions = BPPFunction.newTable();
+    BPPFunction.Context functionContext = new FunctionContext();
+
+    // The threshold to use instead of the one in the packets, or NO_THRESHOLD
+    int thresholdOverride = NO_THRESHOLD;
+
+    // Selects the chunks to trim
+    ChunkSelector chunkSelector = new PositionChunkSelector();
+
+    // Where the trimmed bytes are counted, or null
+    ForwarderMetrics metrics = null;
+
     // counts
     int count = 0;
     int chunkCount = 0;
@@ -56,6 +77,7 @@ public abstract class AbstractBPPFn implements BPPFn {
     int idealSendThisSec = 0;   // the ideal amount to send at the current offset in the second
 
     // timing
+    Clock clock = Clock.SYSTEM;
     int seconds = 0;       // no of seconds
     long timeStart = 0;   // when did the second start
     long now = 0;
@@ -71,7 +93,7 @@ public abstract class AbstractBPPFn implements BPPFn {
         this.availableBandwidth = bandwidthBits >> 3;
 
         // set timeStart
-        timeStart = System.currentTimeMillis();
+        timeStart = clock.millis();
     }
         
     // Construct a BPPFn
@@ -109,12 +131,50 @@ public abstract class AbstractBPPFn implements BPPFn {
         return result;
     }
 
+    /**
+     * Process the nth packet, and trim it in place.
+     * The same steps as process(), but a trimmed packet has its
+     * surviving chunks compacted inside its own buffer,
+     * and its length reduced.  Nothing is allocated.
+     * @return FORWARD, TRIMMED, or DROP
+     */
+    public Verdict processInPlace(int count, DatagramPacket packet) throws UnsupportedOperationException {
+        this.count = count;
+        
+        // ▷ Timing
+        bppDoTiming();
+        
+        // ▷ Pre processing of packet
+        int behind = bppPre(packet);
+        
+        // ▷ Check current second
+        bppCheckTiming();
+        
+        // ▷ Decision making
+        Verdict verdict = bppDecide(behind);
+
+        if (verdict == Verdict.TRIMMED) {
+            countTrimmed();
+
+            // rewrite the packet in place
+            if (thresholdRelaxed) {
+                BPPPacket.writeCommandBlock(payload, BPP.BLOCK_HEADER_SIZE, packetCommandBlock);
+            }
+
+            int newLength = BPPPacket.compactContent(payload, packetLength, packetMetadataBlock, contentStartPos);
+
+            packet.setLength(newLength);
+        }
+
+        return verdict;
+    }
+
     // ▷ Timing
     public void bppDoTiming() {
         countThisSec++;
         
         // timing
-        now = System.currentTimeMillis();
+        now = clock.millis();
         // Millisecond offset between now and timeStart 
         timeOffset = now - timeStart;
         // What is the offset in this second
@@ -158,6 +218,32 @@ public abstract class AbstractBPPFn implements BPPFn {
         
     // ▷ Decision making and forwarding
     public Optional<byte[]> bppConditionAction(int behind, DatagramPacket packet) {
+        Verdict verdict = bppDecide(behind);
+
+        if (verdict == Verdict.FORWARD) {
+            // Get the network function to forward the packet
+            return Optional.empty();
+
+        } else if (verdict == Verdict.TRIMMED) {
+            countTrimmed();
+
+            // Now rebuild the packet payload, from the original packet
+            byte[] newPayload = packContent();
+
+            return Optional.of(newPayload);
+
+        } else {
+            // null tells the caller to drop
+            return null;
+        }
+    }
+
+    // ▷ Decision making
+    // Decide what to do with the packet.
+    // Chunks to trim are marked in the packetMetadataBlock.
+    public Verdict bppDecide(int behind) {
+        thresholdRelaxed = false;
+
         // Check Packet
         
         // Look into the packet headers to get command and condition
@@ -167,83 +253,88 @@ public abstract class AbstractBPPFn implements BPPFn {
         int condition = packetCommandBlock.condition;
 
         // and check the Command
-        if (command == BPP.Command.WASH) {
-            // it's a WASH command
+        if (command == BPP.Command.WASH || command == BPP.Command.FLUSH) {
+            // it's a WASH or a FLUSH command
 
             if (condition == BPP.Condition.NEVER) {
                 // Never do washing
-                return Optional.empty();
+                return Verdict.FORWARD;
 
             } else {
                 // Condition is LIMITED, LIMITEDFN, or ALWAYS
 
-                // Calculate amount to trim
-                int packetTrimLevel = calculateTrimAmount(behind);
+                // Calculate amount to trim.
+                // ALWAYS washes whatever the bandwidth.
+                int packetTrimLevel = condition == BPP.Condition.ALWAYS ? packetLength : calculateTrimAmount(behind);
             
                 if (packetTrimLevel > 0) {
                     // If we need to trim something, we need to look at the content
                     unpackDatagramContent();
 
-                    int trimmedAmount = trimContent(packetTrimLevel);
+                    int trimmedAmount = command == BPP.Command.FLUSH ? flushContent() : trimContent(packetTrimLevel);
 
                     int size = packetLength - trimmedAmount;
 
-                    // check if we didn't trim enough
-                    // and there is a need for more than 100 bytes
-                    if (trimmedAmount < packetTrimLevel) {
+                    if (condition == BPP.Condition.ALWAYS) {
+                        // run the function on every packet
+                        size -= runFunction(packetTrimLevel - trimmedAmount);
+
+                    } else if (trimmedAmount < packetTrimLevel) {
+                        // check if we didn't trim enough
+                        // and there is a need for more than 100 bytes
                         if (packetTrimLevel - trimmedAmount > ENOUGH_FOR_EVALUATION) {
-                            System.err.printf("    MORE Threshold %d TRIM_LEVEL %d TRIM: %d NEED %d \n", packetCommandBlock.threshold, packetTrimLevel, trimmedAmount, (packetTrimLevel - trimmedAmount) );
+                            if (Verbose.level >= 1) {
+                                System.err.printf("    MORE Threshold %d TRIM_LEVEL %d TRIM: %d NEED %d \n", packetCommandBlock.threshold, packetTrimLevel, trimmedAmount, (packetTrimLevel - trimmedAmount) );
+                            }
 
                             // Check if Condition is LIMITEDFN
                             // i.e run a Function when the bandwidth is limited
                             if (condition == BPP.Condition.LIMITEDFN) {
                                 // we didn't trim enough
-                                BPPFunction fn = BPPFunction.convert(packetCommandBlock.function);
-                                //System.err.println("Run " + fn + " arg " + fn.getArg());
-
-                                // arrange to relax the threshold
-                                int oldTrimmedSize = size;
-
-                                packetCommandBlock.threshold -= fn.getArg();
-                        
-                                //System.err.printf("    MORE Threshold %d  \n", packetCommandBlock.threshold);
-                            
-                                // try and trim some more
+                                // so try and trim some more
                                 // subtract amount already trimmed
                                 int newTrimLevel = packetTrimLevel - trimmedAmount;
-                                int nextTrimmedAmount = trimContent(newTrimLevel);
+                                int nextTrimmedAmount = runFunction(newTrimLevel);
 
-                                System.err.printf("    MORE nextTrimmedAmount %d  \n", nextTrimmedAmount);
+                                if (Verbose.level >= 1) {
+                                    System.err.printf("    MORE nextTrimmedAmount %d  \n", nextTrimmedAmount);
+                                }
 
                                 if (nextTrimmedAmount > 0) {
                                     // yes some more was trimmed
                                     // so subtract that from the size
                                     size -= nextTrimmedAmount;
 
-                                    System.err.printf("SUCCESS TRIM_LEVEL %d TRIM: %d NEED %d \n", packetTrimLevel, trimmedAmount + nextTrimmedAmount, (packetTrimLevel - trimmedAmount - nextTrimmedAmount) );
+                                    if (Verbose.level >= 1) {
+                                        System.err.printf("SUCCESS TRIM_LEVEL %d TRIM: %d NEED %d \n", packetTrimLevel, trimmedAmount + nextTrimmedAmount, (packetTrimLevel - trimmedAmount - nextTrimmedAmount) );
+                                    }
                                 }
 
                             }
                         } else {
-                            System.err.printf("    DONT TRIM %d\n", (packetTrimLevel - trimmedAmount) );
+                            if (Verbose.level >= 1) {
+                                System.err.printf("    DONT TRIM %d\n", (packetTrimLevel - trimmedAmount) );
+                            }
                         }
                     }
                         
                     totalOut += size;
-                    sentThisSec += size;
+                    recordSent(size);
 
-                    // Now rebuild the packet payload, from the original packet
-                    byte[] newPayload = packContent();
-
-                    return Optional.of(newPayload);
+                    if (size == packetLength && !thresholdRelaxed) {
+                        // nothing was trimmed
+                        return Verdict.FORWARD;
+                    } else {
+                        return Verdict.TRIMMED;
+                    }
 
                 } else {
                     // Get the network function to forward the packet
                     int size = packetLength;
                     totalOut += size;
-                    sentThisSec += size;
+                    recordSent(size);
                     
-                    return Optional.empty();
+                    return Verdict.FORWARD;
                 }
 
             }
@@ -251,24 +342,28 @@ public abstract class AbstractBPPFn implements BPPFn {
         } else if (command == BPP.Command.NONE) {
             // do no processing
             // and forward it
-            return Optional.empty();
+            return Verdict.FORWARD;
 
         } else if (command == BPP.Command.DROP) {
             // drop the packet
-            // null tells the caller to drop
-            return null;
+            return Verdict.DROP;
 
         } else {
             // We got a bad Command
-            System.err.printf("BPPFn: Unknown BPP Command: %s\n" + command);
+            System.err.printf("BPPFn: Unknown BPP Command: %d\n", command);
 
             // Just forward the packet
-            return Optional.empty();
+            return Verdict.FORWARD;
         }
         
     }
 
 
+    // Record the amount sent for a packet
+    protected void recordSent(int size) {
+        sentThisSec += size;
+    }
+
     // Calculate how far below the ideal we are
     // A negative value means we are over the ideal
     public int calculateBelow() {
@@ -315,6 +410,88 @@ public abstract class AbstractBPPFn implements BPPFn {
         return packetTrimLevel;
     }
     
+    // Count the trimmed chunks by significance
+    protected void countTrimmed() {
+        if (metrics == null) {
+            return;
+        }
+
+        BPP.MetadataBlock mb = packetMetadataBlock;
+
+        for (int c = 0; c < mb.chunkCount; c++) {
+            if (mb.isDropped[c]) {
+                metrics.recordTrimmed(mb.significance[c], mb.contentSizes[c]);
+            }
+        }
+    }
+
+    // Set the metrics to count the trimmed bytes in
+    public void setMetrics(ForwarderMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    // Set a threshold to use instead of the one in the packets
+    public void setThreshold(int threshold) {
+        thresholdOverride = threshold;
+    }
+
+    // Get the threshold override, or NO_THRESHOLD
+    public int getThreshold() {
+        return thresholdOverride;
+    }
+
+    /**
+     * Take over the state of the BPPFn this one replaces.
+     * The amounts sent and received in the current second carry on,
+     * so the bandwidth is not used twice in a second, and the
+     * totals, the threshold, and the metrics stay the same.
+     * The state of a particular strategy starts again.
+     */
+    public void carryOver(BPPFn old) {
+        if (old instanceof AbstractBPPFn) {
+            AbstractBPPFn fn = (AbstractBPPFn)old;
+
+            count = fn.count;
+            totalIn = fn.totalIn;
+            totalOut = fn.totalOut;
+            countThisSec = fn.countThisSec;
+            recvThisSec = fn.recvThisSec;
+            sentThisSec = fn.sentThisSec;
+            seconds = fn.seconds;
+            clock = fn.clock;
+            timeStart = fn.timeStart;
+            thresholdOverride = fn.thresholdOverride;
+            metrics = fn.metrics;
+        }
+    }
+
+    // Set the Clock, and start the current second again
+    public void setClock(Clock clock) {
+        this.clock = clock;
+
+        timeStart = clock.millis();
+        now = timeStart;
+        countThisSec = 0;
+        recvThisSec = 0;
+        sentThisSec = 0;
+        secondOffset = 0;
+    }
+
+    // Get the Clock
+    public Clock getClock() {
+        return clock;
+    }
+
+    // Get the ChunkSelector
+    public ChunkSelector getChunkSelector() {
+        return chunkSelector;
+    }
+
+    // Set the ChunkSelector
+    public void setChunkSelector(ChunkSelector selector) {
+        chunkSelector = selector;
+    }
+
     // Get the bandwidth in bits
     public int getBandwidth() {
         return availableBandwidthBits;
@@ -346,21 +523,15 @@ public abstract class AbstractBPPFn implements BPPFn {
         int bufPos = 0;
         
         // Now extract BPP header - 32 bits for BPP
-        BPP.BPPHeader header = new BPP.BPPHeader();
-
-        bufPos = BPPPacket.readHeader(packetBytes, header);
-        
-        packetHeader = header;
+        bufPos = BPPPacket.readHeader(packetBytes, packetHeader);
         
 
         //System.err.printf(" 0x%02X 0x%02X 0x%02X 0x%02X \n",  packetBytes[0], packetBytes[1], packetBytes[2], packetBytes[3]);
 
         // Now extract the Command Block
-        BPP.CommandBlock commandBlock = new BPP.CommandBlock();
+        bufPos = BPPPacket.readCommandBlock(packetBytes, bufPos, packetCommandBlock);
 
-        bufPos = BPPPacket.readCommandBlock(packetBytes, bufPos, commandBlock);
-        
-        packetCommandBlock = commandBlock;
+        relaxedBy = 0;
 
         //System.err.printf("%-6d ver: 0x%04X chunkCount: %d command: 0x%05X condition: %d threshold: %d\n", count, version, chunkCount, command, condition, threshold);
     }
@@ -380,25 +551,15 @@ public abstract class AbstractBPPFn implements BPPFn {
 
         // Visit each ChunkContent in the packet
         // and try to get the data out
-        BPP.MetadataBlock mb = new BPP.MetadataBlock();
+        // The arrays in the MetadataBlock are reused,
+        // and readMetadataBlock() sets every value for each chunk.
+        BPP.MetadataBlock mb = packetMetadataBlock;
         
-        // Allocate arrays for data in MetadataBlock.
-        // Might be quicker to reuse existing arrays and clear them.
         int chunkCount = packetHeader.chunkCount;
         mb.chunkCount = chunkCount;
-        mb.contentSizes = new int[chunkCount];
-        mb.significance = new int[chunkCount];
-        mb.fragments = new int[chunkCount];
-        mb.lastFragment = new boolean[chunkCount];
-        mb.isDropped = new boolean[chunkCount];
-        mb.nalCount = new int[chunkCount];
-        mb.nalNo = new int[chunkCount];
-        mb.type = new byte[chunkCount];
 
         // Read the MetadataBlock
         bufPos = BPPPacket.readMetadataBlock(packetBytes, bufPos, mb);
-
-        packetMetadataBlock = mb;
         
         // check type, nalCount, and nalNo
         byte type = mb.type[chunkCount-1];
@@ -414,8 +575,6 @@ public abstract class AbstractBPPFn implements BPPFn {
 
         // Save start point of each content
         // bufPos now should be at first content
-        contentStartPos = new int[chunkCount];
-
         for (int c=0; c<chunkCount; c++) {
             contentStartPos[c] = bufPos;
 
@@ -438,45 +597,116 @@ public abstract class AbstractBPPFn implements BPPFn {
             System.err.println("BPPFn: " + count + " Trim needed of " + packetTrimLevel);
         }
             
+        // chunks less significant than this can be trimmed
+        int threshold = trimThreshold();
+
+        // select the chunks to trim
+        int trimmed = chunkSelector.select(packetMetadataBlock, threshold, packetTrimLevel);
+
+        if (Verbose.level >= 3) {
+            System.err.println("BPPFn: trimContent trimmed " + trimmed);
+        }
+
+        return trimmed;
+    }            
+
+    /**
+     * Trim every chunk of a VCL packet, except the base layer.
+     * A NONVCL packet is kept whole.
+     * @return the no of bytes trimmed
+     */
+    protected int flushContent() {
+        if (nalType != NALType.VCL) {
+            return 0;
+        }
+
+        BPP.MetadataBlock mb = packetMetadataBlock;
+
         int trimmed = 0;
-            
-        // now we try to trim some chunk content
-        // try from the highest to the lowest
-        // TODO: go from least significance to highest significance
-        // instead of chunk position
-        for (int c=packetMetadataBlock.chunkCount-1; c>=0; c--) {
-            if (Verbose.level >= 3) {
-                System.err.println("isDropped[" + c + "] = " + packetMetadataBlock.isDropped[c]);
+
+        for (int c = 1; c < mb.chunkCount; c++) {
+            if (! mb.isDropped[c]) {
+                mb.isDropped[c] = true;
+                trimmed += mb.contentSizes[c];
             }
+        }
 
-            // can we delete this content
-            
-            if (packetMetadataBlock.significance[c] > packetCommandBlock.threshold && !packetMetadataBlock.isDropped[c]) {
-                // it's a candidate
-                // mark it as trimmed
-                packetMetadataBlock.isDropped[c] = true;
-                
-                // update the trimmed count
-                trimmed += packetMetadataBlock.contentSizes[c];
+        return trimmed;
+    }
 
-                if (Verbose.level >= 3) {
-                    System.err.println("BPPFn: trimmed chunk " + c + " significance " + packetMetadataBlock.significance[c] + " size: " + packetMetadataBlock.contentSizes[c]);
-                }
-            }
+    /**
+     * Run the function in the packet's command block.
+     * It is looked up in the table of functions, so nothing is allocated.
+     * @return the no of bytes trimmed
+     */
+    protected int runFunction(int need) {
+        BPPFunction fn = BPPFunction.lookup(functions, packetCommandBlock.function);
 
-            if (trimmed >= packetTrimLevel) {
-                // we've achieved the target
-                // so no need to do any more
-                break;
-            }
+        if (Verbose.level >= 2) {
+            System.err.println("BPPFn: " + count + " run " + fn);
         }
 
-        if (Verbose.level >= 3) {
-            System.err.println("BPPFn: trimContent trimmed " + trimmed);
+        return fn.run(functionContext, need);
+    }
+
+    /**
+     * What a function in a packet can do to it
+     */
+    class FunctionContext implements BPPFunction.Context {
+        public BPP.MetadataBlock getMetadata() {
+            return packetMetadataBlock;
         }
 
-        return trimmed;
-    }            
+        public boolean isVCL() {
+            return nalType == NALType.VCL;
+        }
+
+        public int getPacketLength() {
+            return packetLength;
+        }
+
+        public int trim(int threshold, int need) {
+            return chunkSelector.select(packetMetadataBlock, threshold, need);
+        }
+
+        // arrange to relax the threshold, and trim some more
+        // It is relaxed no lower than 0, as it goes in 4 bits in the packet.
+        public int relaxThreshold(int by, int need) {
+            int relaxed = Math.min(by, packetCommandBlock.threshold);
+
+            if (relaxed <= 0) {
+                // already trimmed all it can
+                return 0;
+            }
+
+            packetCommandBlock.threshold -= relaxed;
+            relaxedBy += relaxed;
+            thresholdRelaxed = true;
+
+            return trimContent(need);
+        }
+    }
+
+    /**
+     * The significance threshold for trimming.
+     * Chunks with a significance above it can be trimmed.
+     * It is the threshold in the packet's command block.
+     */
+    protected int trimThreshold() {
+        return packetThreshold();
+    }
+
+    /**
+     * The threshold of the packet, which is the threshold override
+     * if there is one, relaxed as much as the packet's own threshold.
+     */
+    protected int packetThreshold() {
+        if (thresholdOverride == NO_THRESHOLD) {
+            return packetCommandBlock.threshold;
+        } else {
+            return Math.max(thresholdOverride - relaxedBy, 0);
+        }
+    }
 
     /**
      * Pack some headers and content into a new BPP byte[]
@@ -0,0 +1,351 @@
+package netfn.bpp;
+
+import java.io.IOException;
+import java.io.FileInputStream;
+import java.io.ByteArrayInputStream;
+import java.net.DatagramPacket;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.locks.LockSupport;
+
+import cc.clayman.bpp.BPP;
+import cc.clayman.h264.*;
+import cc.clayman.chunk.*;
+import cc.clayman.net.*;
+import cc.clayman.processor.MultiNALProcessor;
+import cc.clayman.processor.MultiNALRebuilder;
+import cc.clayman.processor.MissingNALAnalyser;
+import cc.clayman.processor.BufferingUDPChunkStreamer;
+import cc.clayman.util.Verbose;
+import cc.clayman.util.Execution;
+
+// Run whole chains of BPPSend -> BPPForward -> H264Listen
+// in one process, connected by the in-JVM loopback transport.
+// There are no sockets, so the packetizing, trimming and rebuilding
+// can be benchmarked and profiled without kernel noise.
+public class BPPChain {
+
+    // video filename
+    static String filename = null;
+
+    // no of chains
+    static int chains = 1;
+
+    // first loopback port
+    // chain N uses port + 2N and port + 2N + 1
+    static int basePort = 6799;
+
+    // in bits
+    static int bandwidthBits = 1 * 1024 * 1024;   // default: 1 Mb
+
+    static int packetsPerSecond = 0;      // no of packets per second, 0 is as fast as possible
+    static int packetSize = 1500;         // packet size
+    static int nalsPerFrame = 3;          // no of NALs per frame
+    static int threshold = 5;             // default threshold
+    static int layers = 3;                // no of VCLs / layers per frame
+
+    // the video, read once
+    static byte[] video = null;
+
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            usage();
+        } else if (args.length >= 1) {
+            // have flags too
+
+            int argc = 0;
+
+            while (argc < args.length) {
+                String arg0 = args[argc];
+
+                if (arg0.equals("-f")) {
+                    // Input filename
+                    argc++;
+                    filename = args[argc];
+
+                } else if (arg0.equals("-n")) {
+                    // No of chains
+                    argc++;
+
+                    String val = args[argc];
+                    chains = Integer.parseInt(val);
+
+                } else if (arg0.equals("-p")) {
+                    // First port
+                    argc++;
+
+                    String val = args[argc];
+                    basePort = Integer.parseInt(val);
+
+                } else if (arg0.equals("-b")) {
+                    // Bandwidth of each forwarder
+                    argc++;
+
+                    String val = args[argc];
+                    bandwidthBits = Integer.parseInt(val);
+
+                } else if (arg0.equals("-r")) {
+                    // Packet sending rate - packets per second
+                    argc++;
+
+                    String val = args[argc];
+                    packetsPerSecond = Integer.parseInt(val);
+
+                } else if (arg0.equals("-z")) {
+                    // packet size
+                    argc++;
+
+                    String val = args[argc];
+                    packetSize = Integer.parseInt(val);
+
+                } else if (arg0.equals("-N")) {
+                    // nals per frame
+                    argc++;
+
+                    String val = args[argc];
+                    nalsPerFrame = Integer.parseInt(val);
+
+                } else if (arg0.equals("-T")) {
+                    // threshold for significance values
+                    argc++;
+
+                    String val = args[argc];
+                    threshold = Integer.parseInt(val);
+
+                } else if (arg0.equals("-e")) {
+                    // Execution mode
+                    argc++;
+
+                    String val = args[argc];
+
+                    try {
+                        Execution.setMode(Execution.parse(val));
+                    } catch (IllegalArgumentException iae) {
+                        System.err.println(iae.getMessage());
+                        System.exit(1);
+                    }
+
+                } else if (arg0.equals("-l")) {
+                    // VLCs / layers
+                    argc++;
+
+                    String val = args[argc];
+                    layers = Integer.parseInt(val);
+
+                } else if (arg0.startsWith("-v")) {
+                    if (arg0.equals("-v")) {
+                        Verbose.level = 1;
+                    } else  if (arg0.equals("-vv")) {
+                        Verbose.level = 2;
+                    } else  if (arg0.equals("-vvv")) {
+                        Verbose.level = 3;
+                    }
+
+                } else {
+                    usage();
+                }
+
+                argc++;
+            }
+
+        } else {
+            usage();
+        }
+
+        if (filename == null) {
+            usage();
+        }
+
+        if (Verbose.level >= 2) {
+            System.err.println("Input file: " + filename);
+            System.err.println("Chains: " + chains);
+            System.err.println("First port: " + basePort);
+            System.err.println("Bandwidth in bits: " + bandwidthBits);
+            System.err.println("Packets per second: " + packetsPerSecond);
+            System.err.println("Packet size: " + packetSize);
+            System.err.println("NALs per frame: " + nalsPerFrame);
+            System.err.println("Threshold: " + threshold);
+            System.err.println("Execution: " + Execution.getMode());
+        }
+
+        try {
+            video = Files.readAllBytes(Paths.get(filename));
+
+            runChains();
+        } catch (IOException ioe) {
+            ioe.printStackTrace();
+        }
+    }
+
+    static void usage() {
+        System.err.println("BPPChain -f filename [-n chains] [-p port] [-b bandwidth] [-r rate] [-z packetSize] [-N nals] [-T threshold] [-l layers] [-e platform|shared|virtual]");
+        System.exit(1);
+    }
+
+    protected static void runChains() {
+        Chain[] all = new Chain[chains];
+
+        for (int c = 0; c < chains; c++) {
+            all[c] = new Chain(c, basePort + 2 * c);
+        }
+
+        long startTime = System.nanoTime();
+
+        for (Chain chain : all) {
+            chain.start();
+        }
+
+        for (Chain chain : all) {
+            chain.join();
+        }
+
+        long elapsed = System.nanoTime() - startTime;
+
+        // stop anything left over
+        Execution.shutdown(1000);
+
+        // totals
+        long packets = 0;
+        long volumeIn = 0;
+        long volumeOut = 0;
+        long nals = 0;
+
+        for (Chain chain : all) {
+            packets += chain.packets;
+            volumeIn += chain.forwarder.getVolumeIn();
+            volumeOut += chain.forwarder.getVolumeOut();
+            nals += chain.nals;
+
+            if (Verbose.level >= 1) {
+                System.out.printf("CHAIN: %4d%9d%12d%12d%9d\n", chain.id, chain.packets, chain.forwarder.getVolumeIn(), chain.forwarder.getVolumeOut(), chain.nals);
+            }
+        }
+
+        float secs = elapsed / 1e9f;
+
+        System.out.printf("TOTAL: %4d%9d%12d%12d%9d  %.3f secs  %.0f pkts/sec\n", chains, packets, volumeIn, volumeOut, nals, secs, packets / secs);
+    }
+
+    /**
+     * One chain of sender, forwarder and listener.
+     * Each part has its own thread.
+     */
+    static class Chain {
+        int id;
+        int inPort;
+        int outPort;
+
+        BPPForwarder forwarder;
+
+        Execution.Task senderThread;
+        Execution.Task forwarderThread;
+        Execution.Task listenerThread;
+
+        // counts
+        int packets = 0;
+        int nals = 0;
+
+        Chain(int id, int port) {
+            this.id = id;
+            inPort = port;
+            outPort = port + 1;
+
+            // Setup forwarder
+            forwarder = new BPPForwarder(inPort, "localhost", outPort, bandwidthBits);
+            forwarder.setBPPFn(new BPPBasicBandwidth(bandwidthBits));
+            forwarder.setPrintPackets(false);
+            forwarder.setTransport(new LoopbackReceiver(inPort), new LoopbackSender(outPort));
+        }
+
+        void start() {
+            listenerThread = Execution.start(() -> listen(), "listen-" + id);
+            forwarderThread = Execution.start(() -> forward(), "forward-" + id);
+            senderThread = Execution.start(() -> send(), "send-" + id);
+        }
+
+        void join() {
+            try {
+                senderThread.join();
+                forwarderThread.join();
+                listenerThread.join();
+            } catch (InterruptedException ie) {
+            }
+        }
+
+        /**
+         * Packetize the video, like BPPSend
+         */
+        void send() {
+            PacketSender sender = new LoopbackSender(inPort);
+            sender.start();
+
+            try {
+                ChunkPacketizer packetizer = new BPPSVCPacketizer(packetSize, nalsPerFrame);
+
+                H264InputStream str = new H264InputStream(new ByteArrayInputStream(video));
+
+                MultiNALProcessor nalProcessor = new MultiNALProcessor(str, packetizer.getPayloadSize(), nalsPerFrame);
+
+                long startTime = System.nanoTime();
+
+                while (nalProcessor.hasNext()) {
+                    SVCChunkInfo chunk = nalProcessor.next();
+
+                    packets++;
+
+                    sender.sendPayload(packetizer.convert(packets, BPP.Command.WASH, BPP.Condition.LIMITEDFN, threshold, BPP.Function.NONE, chunk));
+
+                    if (packetsPerSecond > 0) {
+                        // wait until the next send time
+                        long sendTime = startTime + (long)packets * 1000000000L / packetsPerSecond;
+
+                        long wait;
+                        while ((wait = sendTime - System.nanoTime()) > 0) {
+                            LockSupport.parkNanos(wait);
+                        }
+                    }
+                }
+
+                str.close();
+            } catch (IOException ioe) {
+                System.err.println("BPPChain: chain " + id + " " + ioe);
+            }
+
+            // stop sender, so the forwarder sees EOF
+            sender.stop();
+        }
+
+        /**
+         * Run the forwarder, like BPPForward
+         */
+        void forward() {
+            try {
+                forwarder.processTraffic();
+            } catch (IOException ioe) {
+                System.err.println("BPPChain: chain " + id + " " + ioe);
+            }
+        }
+
+        /**
+         * Rebuild the NALs, like H264Listen
+         */
+        void listen() {
+            BufferingUDPChunkStreamer streamer = new BufferingUDPChunkStreamer(new LoopbackReceiver(outPort), new BPPSVCDepacketizer());
+            MultiNALRebuilder rebuilder = new MultiNALRebuilder(streamer, layers);
+            MissingNALAnalyser analyser = new MissingNALAnalyser(rebuilder, layers);
+            analyser.start();
+
+            while (analyser.hasNext()) {
+                NAL nal = analyser.next();
+
+                if (nal != null) {
+                    nals++;
+                }
+            }
+
+            analyser.stop();
+            rebuilder.stop();
+            streamer.stop();
+        }
+    }
+}
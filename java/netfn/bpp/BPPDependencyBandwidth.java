@@ -0,0 +1,221 @@
+package netfn.bpp;
+
+import cc.clayman.bpp.BPP;
+import cc.clayman.h264.NALType;
+import cc.clayman.util.Verbose;
+
+
+/**
+ * A NetFn that does some BPP processing based on bandwidth,
+ * and knows about the dependencies between the layers of SVC frames.
+ *
+ * When a chunk of a layer is trimmed, the NAL it is part of cannot be
+ * rebuilt, and the receiver's MissingNALAnalyser throws away every later
+ * NAL at that layer until the next I frame, as they depend on it.
+ * The enhancement layers above it depend on it too.
+ * So once a layer is trimmed, this fn drops the chunks of that layer,
+ * and of the layers above it, from every packet until the next I / T0 frame,
+ * and the bytes saved go to the chunks the receiver can use.
+ * Frames at the top temporal level are not referenced by later frames,
+ * so a layer trimmed from one of them has no dependents.
+ *
+ * In a VCL packet, chunk N carries layer N of the frame.
+ * The base layer chunk has the significance of the temporal level,
+ * 1 for I / T0 up to 5 for T4, in the significance models.
+ * A frame starts when the base layer chunk is fragment 1.
+ *
+ * The state is for one stream, so use it with -M for a fn per flow.
+ */
+public class BPPDependencyBandwidth extends AbstractBPPFn implements BPPFn {
+    // Not trimmed
+    final static int NONE = -1;
+
+    // The frame where each layer was first trimmed, or NONE
+    int[] trimmedFrame = new int[BPP.MAX_CHUNK_COUNT];
+
+    // The lowest layer that is trimmed, or MAX_CHUNK_COUNT
+    int lowestTrimmed = BPP.MAX_CHUNK_COUNT;
+
+    // The no of the current frame, from the start of the stream
+    int frameNo = 0;
+
+    // The top temporal level seen, as the significance of the base layer
+    int topLevel = 0;
+
+    // counts
+    long dependentChunks = 0;    // chunks dropped as they are dependent
+    long dependentBytes = 0;     // bytes dropped as they are dependent
+    int resets = 0;              // no of I frames that reset the state
+
+    /**
+     * Construct with the bandwidth in bits per sec.
+     * @param bandwidthBits is int: 838860 bits
+     */
+    public BPPDependencyBandwidth(int bandwidthBits) {
+        super(bandwidthBits);
+        reset();
+    }
+
+    /**
+     * Construct with the bandwidth in bits per sec.
+     * @param bandwidthBits is float:  0.8 Mbps
+     */
+    public BPPDependencyBandwidth(float bandwidthMegabits) {
+        super(bandwidthMegabits);
+        reset();
+    }
+
+    // ▷ Decision making
+    // WASH packets have the dependent chunks dropped,
+    // and then are trimmed for the bandwidth as usual.
+    // Other packets are processed as usual.
+    public Verdict bppDecide(int behind) {
+        thresholdRelaxed = false;
+
+        unpackDatagramHeaders();
+
+        if (packetCommandBlock.command != BPP.Command.WASH || packetCommandBlock.condition == BPP.Condition.NEVER ||
+            packetCommandBlock.condition == BPP.Condition.ALWAYS) {
+            // not washed for the bandwidth
+            return super.bppDecide(behind);
+        }
+
+        unpackDatagramContent();
+
+        if (nalType != NALType.VCL) {
+            // only VCL packets have layers
+            return super.bppDecide(behind);
+        }
+
+        checkFrame();
+
+        // drop the chunks that cannot be used
+        int dependent = dropDependent();
+
+        int size = packetLength - dependent;
+
+        // the dependent bytes are not sent, so they count against the trim
+        int packetTrimLevel = calculateTrimAmount(behind + dependent);
+
+        if (packetTrimLevel > 0) {
+            size -= trimContent(packetTrimLevel);
+        }
+
+        // remember which layers were trimmed
+        recordTrimmed();
+
+        totalOut += size;
+        recordSent(size);
+
+        return size == packetLength ? Verdict.FORWARD : Verdict.TRIMMED;
+    }
+
+    /**
+     * Look for the start of a frame.
+     * An I / T0 frame does not depend on anything before it,
+     * so all the layers can be used again.
+     */
+    protected void checkFrame() {
+        BPP.MetadataBlock mb = packetMetadataBlock;
+
+        if (mb.fragments[0] != 1) {
+            // not the start of a frame
+            return;
+        }
+
+        frameNo++;
+
+        topLevel = Math.max(topLevel, mb.significance[0]);
+
+        if (mb.significance[0] == 1 && lowestTrimmed < BPP.MAX_CHUNK_COUNT) {
+            resets++;
+
+            if (Verbose.level >= 2) {
+                System.err.println("BPPDependencyBandwidth: frame " + frameNo + " is I / T0, layers from " + lowestTrimmed + " reset");
+            }
+
+            reset();
+        }
+    }
+
+    /**
+     * Drop the chunks at a layer that is trimmed, or above it.
+     * @return the no of bytes dropped
+     */
+    protected int dropDependent() {
+        BPP.MetadataBlock mb = packetMetadataBlock;
+
+        int dropped = 0;
+
+        for (int c = lowestTrimmed; c < mb.chunkCount; c++) {
+            if (!mb.isDropped[c] && mb.contentSizes[c] > 0) {
+                mb.isDropped[c] = true;
+                dropped += mb.contentSizes[c];
+                dependentChunks++;
+
+                if (Verbose.level >= 3) {
+                    System.err.println("BPPDependencyBandwidth: dropped dependent chunk " + c + " frame " + frameNo + " size: " + mb.contentSizes[c]);
+                }
+            }
+        }
+
+        dependentBytes += dropped;
+
+        return dropped;
+    }
+
+    /**
+     * Record the layers trimmed from this packet,
+     * if later frames depend on its frame
+     */
+    protected void recordTrimmed() {
+        BPP.MetadataBlock mb = packetMetadataBlock;
+
+        if (mb.significance[0] >= topLevel) {
+            // a top level frame is not referenced
+            return;
+        }
+
+        for (int c = 0; c < lowestTrimmed && c < mb.chunkCount; c++) {
+            if (mb.isDropped[c] && mb.contentSizes[c] > 0) {
+                trimmedFrame[c] = frameNo;
+                lowestTrimmed = c;
+
+                if (Verbose.level >= 2) {
+                    System.err.println("BPPDependencyBandwidth: layer " + c + " trimmed in frame " + frameNo + ", dropping its dependents until the next I frame");
+                }
+
+                break;
+            }
+        }
+    }
+
+    // No layers are trimmed
+    protected void reset() {
+        for (int l = 0; l < trimmedFrame.length; l++) {
+            trimmedFrame[l] = NONE;
+        }
+
+        lowestTrimmed = BPP.MAX_CHUNK_COUNT;
+    }
+
+    // Get the frame where a layer was first trimmed, or -1
+    public int getTrimmedFrame(int layer) {
+        return trimmedFrame[layer];
+    }
+
+    // Get the no of chunks dropped as they are dependent
+    public long getDependentChunks() {
+        return dependentChunks;
+    }
+
+    // Get the no of bytes dropped as they are dependent
+    public long getDependentBytes() {
+        return dependentBytes;
+    }
+
+    // Get the no of times an I frame reset the state
+    public int getResets() {
+        return resets;
+    }
+}
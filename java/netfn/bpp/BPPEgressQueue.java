@@ -0,0 +1,304 @@
+package netfn.bpp;
+
+import java.net.DatagramPacket;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+import cc.clayman.net.PacketSender;
+import cc.clayman.net.RateLimited;
+import cc.clayman.net.Queued;
+import cc.clayman.util.Verbose;
+import cc.clayman.util.Execution;
+
+/**
+ * An egress queue for BPP packets, which models the bottleneck queue.
+ * It sits in front of a PacketSender, and holds packets in a queue
+ * with a byte budget, which is drained at the link rate.
+ *
+ * When an arriving packet would take the queue over its budget,
+ * chunks above the threshold are trimmed from the packets already
+ * in the queue, newest first, and then from the arriving packet.
+ * Chunks at or below the threshold are never trimmed, and if the
+ * queue is still over its budget the arriving packet is dropped.
+ * So the queue delay is bounded by the budget / the link rate.
+ */
+public class BPPEgressQueue implements PacketSender, RateLimited, Queued, Runnable {
+    // Default budget
+    public final static int DEFAULT_BUDGET = 64 * 1024;
+
+    // Where packets go
+    PacketSender sender;
+
+    // The link rate, in bits per second
+    volatile int rateBits;
+
+    // The byte budget of the queue
+    int budget;
+
+    // The queue, and the bytes in it
+    // The bytes and the length are volatile, so they can be read without the lock
+    ArrayDeque<DatagramPacket> queue = new ArrayDeque<DatagramPacket>();
+    volatile int queueBytes = 0;
+    volatile int queueLength = 0;
+
+    // Guards the queue
+    ReentrantLock lock = new ReentrantLock();
+    Condition notEmpty = lock.newCondition();
+
+    // Trims the queued packets
+    PacketTrimmer trimmer = new PacketTrimmer();
+
+    // The drain thread
+    Execution.Task myThread;
+
+    volatile boolean running = false;
+
+    // counts
+    long packetsIn = 0;
+    long packetsOut = 0;
+    volatile long packetsDropped = 0;
+    long queuedTrims = 0;          // queued packets that were trimmed
+    long queuedBytesTrimmed = 0;   // bytes trimmed from queued packets
+    long arrivingBytesTrimmed = 0; // bytes trimmed from arriving packets
+    int maxQueueBytes = 0;
+
+    /**
+     * Construct a BPPEgressQueue in front of a PacketSender.
+     * @param sender where the packets go
+     * @param rateBits the link rate, in bits per second
+     * @param budget the byte budget of the queue
+     */
+    public BPPEgressQueue(PacketSender sender, int rateBits, int budget) {
+        this.sender = sender;
+        this.rateBits = rateBits;
+        this.budget = budget;
+    }
+
+    /**
+     * Start the queue, and the sender
+     */
+    public boolean start() {
+        if (! sender.start()) {
+            return false;
+        }
+
+        running = true;
+
+        myThread = Execution.start(this, "BPPEgressQueue");
+
+        return true;
+    }
+
+    /**
+     * Stop the queue.
+     * The packets in the queue are sent, and then the sender is stopped.
+     */
+    public boolean stop() {
+        lock.lock();
+        try {
+            running = false;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+
+        try {
+            if (myThread != null) {
+                myThread.join();
+            }
+        } catch (InterruptedException ie) {
+        }
+
+        if (Verbose.level >= 1) {
+            System.err.println("BPPEgressQueue: in " + packetsIn + " out " + packetsOut + " dropped " + packetsDropped + " queued trims " + queuedTrims + " queued bytes trimmed " + queuedBytesTrimmed + " arriving bytes trimmed " + arrivingBytesTrimmed + " max queue " + maxQueueBytes);
+        }
+
+        return sender.stop();
+    }
+
+    /**
+     * Send a payload, via the queue
+     */
+    public int sendPayload(byte[] payload) {
+        return sendPayload(new DatagramPacket(payload, payload.length));
+    }
+
+    /**
+     * Send a packet, via the queue
+     * @return 0 if the packet is dropped
+     * @return 1 normally
+     */
+    public int sendPayload(DatagramPacket packet) {
+        lock.lock();
+        try {
+            packetsIn++;
+
+            int length = packet.getLength();
+            int over = queueBytes + length - budget;
+
+            if (over > 0) {
+                // trim the queued packets, newest first
+                Iterator<DatagramPacket> newest = queue.descendingIterator();
+
+                while (over > 0 && newest.hasNext()) {
+                    DatagramPacket queued = newest.next();
+
+                    int trimmed = trim(queued, over);
+
+                    if (trimmed > 0) {
+                        queuedTrims++;
+                        queuedBytesTrimmed += trimmed;
+                        queueBytes -= trimmed;
+                        over -= trimmed;
+                    }
+                }
+            }
+
+            if (over > 0) {
+                // then the arriving packet
+                int trimmed = trim(packet, over);
+
+                arrivingBytesTrimmed += trimmed;
+                length -= trimmed;
+                over -= trimmed;
+            }
+
+            if (over > 0) {
+                // no room
+                packetsDropped++;
+
+                if (Verbose.level >= 2) {
+                    System.err.println("BPPEgressQueue: dropped " + length + " queue " + queueBytes);
+                }
+
+                return 0;
+            }
+
+            queue.addLast(packet);
+            queueBytes += length;
+            queueLength = queue.size();
+
+            if (queueBytes > maxQueueBytes) {
+                maxQueueBytes = queueBytes;
+            }
+
+            notEmpty.signal();
+
+            return 1;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * Trim a packet in place
+     * @return the no of bytes trimmed
+     */
+    protected int trim(DatagramPacket packet, int target) {
+        int length = packet.getLength();
+        int newLength = trimmer.trim(packet.getData(), length, target);
+
+        if (newLength != length) {
+            packet.setLength(newLength);
+        }
+
+        return length - newLength;
+    }
+
+    /**
+     * The drain loop.
+     * It takes a packet off the queue when the link is free,
+     * and passes it to the sender.
+     */
+    public void run() {
+        // when the link is next free
+        long nextSend = System.nanoTime();
+
+        while (true) {
+            DatagramPacket packet;
+
+            lock.lock();
+            try {
+                while (queue.isEmpty() && running) {
+                    notEmpty.await();
+                }
+
+                if (queue.isEmpty()) {
+                    // stopped, and everything has gone
+                    break;
+                }
+            } catch (InterruptedException ie) {
+                break;
+            } finally {
+                lock.unlock();
+            }
+
+            // wait for the link
+            // an idle link does not save up time
+            long now = System.nanoTime();
+
+            if (nextSend < now) {
+                nextSend = now;
+            }
+
+            long wait;
+            while ((wait = nextSend - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(wait);
+            }
+
+            lock.lock();
+            try {
+                packet = queue.pollFirst();
+                queueBytes -= packet.getLength();
+                queueLength = queue.size();
+            } finally {
+                lock.unlock();
+            }
+
+            // the link is busy for the time to send the packet
+            nextSend += packet.getLength() * 8 * TimeUnit.SECONDS.toNanos(1) / Math.max(1, rateBits);
+
+            packetsOut++;
+            sender.sendPayload(packet);
+        }
+    }
+
+    // Set the link rate, in bits per second
+    // A wrapped sender that is rate limited, such as a shaper, gets it too
+    public void setRate(int bits) {
+        rateBits = bits;
+
+        if (sender instanceof RateLimited) {
+            ((RateLimited)sender).setRate(bits);
+        }
+    }
+
+    // Get the link rate, in bits per second
+    public int getRate() {
+        return rateBits;
+    }
+
+    // Get the no of packets in the queue
+    public int getQueueLength() {
+        return queueLength;
+    }
+
+    // Get the bytes in the queue
+    public int getQueueBytes() {
+        return queueBytes;
+    }
+
+    // Get the queue delay now, in milliseconds
+    public long getQueueDelay() {
+        return (long)queueBytes * 8 * 1000 / Math.max(1, rateBits);
+    }
+
+    // Get the no of packets dropped
+    public long getPacketsDropped() {
+        return packetsDropped;
+    }
+}
@@ -1,8 +1,10 @@
 package netfn.bpp;
 
 import java.net.DatagramPacket;
+import cc.clayman.util.Clock;
 import cc.clayman.util.Verbose;
 import java.util.Optional;
+import netfn.metrics.ForwarderMetrics;
 
 /**
  * A NetFn that does some BPP processing
@@ -15,12 +17,31 @@ import java.util.Optional;
  * Decision making and forwarding which processes each packet.
  */
 public interface BPPFn  {
+
+    // No threshold, so the threshold in each packet is used
+    public final static int NO_THRESHOLD = -1;
+
+    /**
+     * What to do with a packet after processing
+     */
+    public enum Verdict {
+        FORWARD,       // forward the packet as it is
+        TRIMMED,       // the packet has been trimmed, so forward what is left
+        DROP           // drop the packet
+    }
     
     /**
      * Process a packet, and possibly trim the contents.
      */
     public Optional<byte[]> process(int count, DatagramPacket packet) throws UnsupportedOperationException;
 
+    /**
+     * Process a packet, and possibly trim the contents
+     * in place, inside the packet's own buffer.
+     * A TRIMMED packet has a new length.
+     */
+    public Verdict processInPlace(int count, DatagramPacket packet) throws UnsupportedOperationException;
+
     /**
      * Get the bandwidth
      */
@@ -30,5 +51,28 @@ public interface BPPFn  {
      * Adjust the bandwidth
      */
     public void setBandwidth(int bitsPerSecond);
-    
+
+    /**
+     * Set the metrics to count the trimmed bytes in
+     */
+    public void setMetrics(ForwarderMetrics metrics);
+
+    /**
+     * Set a threshold to use instead of the one in the packets,
+     * or NO_THRESHOLD to use the one in the packets
+     */
+    public void setThreshold(int threshold);
+
+    /**
+     * Take over the state of the BPPFn this one replaces,
+     * so a forwarder can change its BPPFn without a gap
+     */
+    public void carryOver(BPPFn old);
+
+    /**
+     * Set the Clock to get the time from.
+     * The current second starts again at the time of the Clock.
+     */
+    public void setClock(Clock clock);
+
 }
@@ -0,0 +1,215 @@
+package netfn.bpp;
+
+import java.util.regex.*;
+
+/**
+ * An immutable config of a BPPFn: the strategy and its parameters,
+ * the ChunkSelector, a threshold to use instead of the one in the packets,
+ * and the bandwidth.
+ *
+ * The strategy is given as a spec, the same as the -B flags of BPPForward,
+ * without the -B, e.g. b, n:0.2, o:0.2:0.1, s:10:100, p:100:0.25, or d.
+ *
+ * A forwarder publishes a new config, and its forwarding thread
+ * picks it up between packets, so a config is never changed,
+ * only replaced.
+ */
+public final class BPPFnConfig implements BPPFnFactory {
+    // The strategy spec, or null if the BPPFn was set directly
+    final String fn;
+
+    // Makes a BPPFn of the strategy
+    final BPPFnFactory factory;
+
+    // The ChunkSelector: position or optimal
+    final String selector;
+
+    // The threshold to use instead of the one in the packets,
+    // or BPPFn.NO_THRESHOLD
+    final int threshold;
+
+    // The bandwidth in bits
+    final int bandwidthBits;
+
+    /**
+     * A config of the BPPFn set directly, with the default ChunkSelector,
+     * and the threshold in the packets.
+     */
+    public BPPFnConfig(int bandwidthBits) {
+        this(null, "position", BPPFn.NO_THRESHOLD, bandwidthBits);
+    }
+
+    /**
+     * Construct a BPPFnConfig.
+     * @param fn the strategy spec, e.g. o:0.2:0.1
+     * @param selector position or optimal
+     * @param threshold a threshold from 0 to 15, or BPPFn.NO_THRESHOLD
+     * @param bandwidthBits the bandwidth in bits
+     * @throws IllegalArgumentException if any of them is not valid
+     */
+    public BPPFnConfig(String fn, String selector, int threshold, int bandwidthBits) throws IllegalArgumentException {
+        if (! selector.equals("position") && ! selector.equals("optimal")) {
+            throw new IllegalArgumentException("ChunkSelector: illegal arg. Expected position|optimal");
+        }
+
+        if (threshold != BPPFn.NO_THRESHOLD && (threshold < 0 || threshold > 15)) {
+            throw new IllegalArgumentException("Threshold: illegal arg. Expected 0 to 15, or -1 for none");
+        }
+
+        this.fn = fn;
+        this.factory = fn == null ? null : factoryFor(fn);
+        this.selector = selector;
+        this.threshold = threshold;
+        this.bandwidthBits = bandwidthBits;
+    }
+
+    /**
+     * Create a BPPFn of the strategy, with the ChunkSelector.
+     * The threshold is set by whoever uses the BPPFn.
+     */
+    public BPPFn create(int bits) {
+        if (factory == null) {
+            throw new UnsupportedOperationException("BPPFnConfig: no strategy");
+        }
+
+        BPPFn bppFn = factory.create(bits);
+
+        if (bppFn instanceof AbstractBPPFn) {
+            ((AbstractBPPFn)bppFn).setChunkSelector(selector.equals("optimal") ? new OptimalChunkSelector() : new PositionChunkSelector());
+        }
+
+        return bppFn;
+    }
+
+    // A copy with a new strategy, or this if it is null or the same
+    public BPPFnConfig withFn(String spec) throws IllegalArgumentException {
+        return (spec == null || spec.equals(fn)) ? this : new BPPFnConfig(spec, selector, threshold, bandwidthBits);
+    }
+
+    // A copy for a BPPFn set directly, with no strategy
+    public BPPFnConfig withoutFn() {
+        return fn == null ? this : new BPPFnConfig(null, selector, threshold, bandwidthBits);
+    }
+
+    // A copy with a new ChunkSelector, or this if it is null or the same
+    public BPPFnConfig withSelector(String name) throws IllegalArgumentException {
+        return (name == null || name.equals(selector)) ? this : new BPPFnConfig(fn, name, threshold, bandwidthBits);
+    }
+
+    // A copy with a new threshold
+    public BPPFnConfig withThreshold(int th) throws IllegalArgumentException {
+        return th == threshold ? this : new BPPFnConfig(fn, selector, th, bandwidthBits);
+    }
+
+    // A copy with a new bandwidth
+    public BPPFnConfig withBandwidth(int bits) {
+        return bits == bandwidthBits ? this : new BPPFnConfig(fn, selector, threshold, bits);
+    }
+
+    // Does another config make the same BPPFn
+    public boolean sameFn(BPPFnConfig other) {
+        return (fn == null ? other.fn == null : fn.equals(other.fn)) && selector.equals(other.selector);
+    }
+
+    // Get the strategy spec, or null
+    public String getFn() {
+        return fn;
+    }
+
+    // Get the ChunkSelector name
+    public String getSelector() {
+        return selector;
+    }
+
+    // Get the threshold, or BPPFn.NO_THRESHOLD
+    public int getThreshold() {
+        return threshold;
+    }
+
+    // Get the bandwidth in bits
+    public int getBandwidth() {
+        return bandwidthBits;
+    }
+
+    @Override
+    public String toString() {
+        return "fn: " + (fn == null ? "-" : fn) + " selector: " + selector + " threshold: " + (threshold == BPPFn.NO_THRESHOLD ? "-" : Integer.toString(threshold)) + " bandwidth: " + bandwidthBits;
+    }
+
+    /**
+     * Get a BPPFnFactory for a strategy spec.
+     * @throws IllegalArgumentException if the spec is not valid
+     */
+    public static BPPFnFactory factoryFor(String spec) throws IllegalArgumentException {
+        Matcher matcher;
+
+        if (spec.equals("b")) {
+            // Basic Bandwidth utilization evaluator
+            return (bits) -> new BPPBasicBandwidth(bits);
+
+        } else if (spec.startsWith("n")) {
+            // No Trim Bandwidth utilization evaluator
+            if (spec.equals("n")) {
+                return (bits) -> new BPPNoTrimBandwidth(bits, 0.0f);
+            } else if ((matcher = Pattern.compile("n:(0.\\d+)").matcher(spec)).matches()) {
+                float period = Float.parseFloat(matcher.group(1));
+
+                return (bits) -> new BPPNoTrimBandwidth(bits, period);
+            } else {
+                throw new IllegalArgumentException("BPPNoTrimBandwidth: illegal arg. Expected n:period e.g. n:0.2");
+            }
+
+        } else if (spec.startsWith("o")) {
+            // Optimistic Bandwidth utilization evaluator
+            if ((matcher = Pattern.compile("o:(0.\\d+):(0.\\d+)").matcher(spec)).matches()) {
+                float period = Float.parseFloat(matcher.group(1));
+                float extra = Float.parseFloat(matcher.group(2));
+
+                return (bits) -> new BPPOptimisticBandwidth(bits, period, extra);
+            } else {
+                throw new IllegalArgumentException("BPPOptimisticBandwidth: illegal arg. Expected o:period:extra e.g. o:0.2:0.1");
+            }
+
+        } else if (spec.startsWith("s")) {
+            // Sliding Window Bandwidth utilization evaluator
+            if (spec.equals("s")) {
+                return (bits) -> new BPPSlidingWindowBandwidth(bits);
+            } else if ((matcher = Pattern.compile("s:(\\d+):(\\d+)").matcher(spec)).matches()) {
+                int slot = Integer.parseInt(matcher.group(1));
+                int window = Integer.parseInt(matcher.group(2));
+
+                if (slot <= 0 || window < slot) {
+                    throw new IllegalArgumentException("BPPSlidingWindowBandwidth: bad slot " + slot + " or window " + window);
+                }
+
+                return (bits) -> new BPPSlidingWindowBandwidth(bits, slot, window);
+            } else {
+                throw new IllegalArgumentException("BPPSlidingWindowBandwidth: illegal arg. Expected s:slot:window e.g. s:10:100");
+            }
+
+        } else if (spec.startsWith("p")) {
+            // Predictive Bandwidth utilization evaluator
+            if (spec.equals("p")) {
+                return (bits) -> new BPPPredictiveBandwidth(bits);
+            } else if ((matcher = Pattern.compile("p:(\\d+):(0.\\d+|1.0)").matcher(spec)).matches()) {
+                int interval = Integer.parseInt(matcher.group(1));
+                float alpha = Float.parseFloat(matcher.group(2));
+
+                if (interval <= 0 || alpha <= 0) {
+                    throw new IllegalArgumentException("BPPPredictiveBandwidth: bad interval " + interval + " or alpha " + alpha);
+                }
+
+                return (bits) -> new BPPPredictiveBandwidth(bits, interval, alpha);
+            } else {
+                throw new IllegalArgumentException("BPPPredictiveBandwidth: illegal arg. Expected p:interval:alpha e.g. p:100:0.25");
+            }
+
+        } else if (spec.equals("d")) {
+            // Dependency aware Bandwidth utilization evaluator
+            return (bits) -> new BPPDependencyBandwidth(bits);
+
+        } else {
+            throw new IllegalArgumentException("BPPFn: illegal arg. Expected b|n[:period]|o:period:extra|s[:slot:window]|p[:interval:alpha]|d");
+        }
+    }
+}
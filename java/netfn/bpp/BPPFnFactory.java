@@ -0,0 +1,13 @@
+package netfn.bpp;
+
+/**
+ * Creates a new BPPFn, so each flow through a forwarder
+ * can have its own BPPFn state.
+ */
+public interface BPPFnFactory {
+
+    /**
+     * Create a BPPFn with a bandwidth in bits per second
+     */
+    public BPPFn create(int bandwidthBits);
+}
@@ -1,11 +1,18 @@
 package netfn.bpp;
 
+import netfn.capture.PacketCapture;
 import netfn.mgmt.*;
+import netfn.metrics.AsyncLogger;
+import netfn.metrics.LatencyTap;
 
 import java.io.IOException;
 import java.net.InetAddress;
 import java.util.regex.*;
 
+import cc.clayman.net.Transport;
+import cc.clayman.net.PacketSender;
+import cc.clayman.net.ShapingSender;
+import cc.clayman.net.ReusePortUDPReceiver;
 import cc.clayman.util.Verbose;
 
 // A main() wrapper for BPPForwarder
@@ -20,6 +27,10 @@ public class BPPForward {
     static int forwardPort = 6798;
 
 
+    // transport to listen on, and to forward on
+    static String inTransport = Transport.getType();
+    static String outTransport = Transport.getType();
+
     // HTTP Listen Port for ManagementListener
     static int httpPort = 8080;
 
@@ -35,6 +46,52 @@ public class BPPForward {
 
     // The BPPFn
     static BPPFn bppFn = null;
+
+    // The BPPFn strategy, as a spec, e.g. o:0.2:0.1
+    static String fnSpec = "b";
+
+    // The threshold to use instead of the one in the packets
+    static int threshold = BPPFn.NO_THRESHOLD;
+
+    // The config of the BPPFn
+    static BPPFnConfig fnConfig = null;
+
+    // Makes a BPPFn like bppFn, for each flow
+    static BPPFnFactory fnFactory = null;
+
+    // keep separate BPPFn state for each flow
+    static boolean multiFlow = false;
+    static int idleSeconds = 30;          // evict flows idle for this long
+    static FlowWeights flowWeights = null; // the weights of flows
+
+    // no of workers, each listening with SO_REUSEPORT
+    static int workers = 1;
+
+    // which ChunkSelector
+    static String selectorName = "position";
+
+    // byte budget of the egress queue, 0 for no queue
+    static int queueBudget = 0;
+
+    // token bucket depth of the egress shaper, 0 for no shaping
+    static int shapeDepth = 0;
+    static int shapeBudget = ShapingSender.DEFAULT_BUDGET;
+
+    // print a line for each packet, at most printRate a second
+    static boolean printPackets = false;
+    static int printRate = AsyncLogger.DEFAULT_RATE;
+
+    // a schedule of bandwidth changes, played from the start
+    static String scheduleFile = null;
+    static double scheduleScale = 1.0;    // multiply the times by this
+    static boolean scheduleLoop = false;
+    static BandwidthSchedule schedule = null;
+
+    // capture the packets in and out to a pcapng file
+    static String captureFile = null;
+    static int captureSnaplen = PacketCapture.DEFAULT_SNAPLEN;
+    static int captureRate = PacketCapture.DEFAULT_RATE;
+    static long captureMaxSize = PacketCapture.DEFAULT_MAX_SIZE;
     
     
     public static void main(String[] args) {
@@ -49,7 +106,23 @@ public class BPPForward {
             while (argc < args.length) {  // allow for port at end
                 String arg0 = args[argc];
 
-                if (arg0.equals("-p")) {
+                if (arg0.equals("-m")) {
+                    // Transport in, and maybe out
+                    // e.g. -m shm  or  -m shm:udp
+                    argc++;
+
+                    String val = args[argc];
+                    String[] parts = val.split(":");
+
+                    inTransport = parts[0];
+                    outTransport = parts.length > 1 ? parts[1] : parts[0];
+
+                    if (parts.length > 2 || !Transport.isValid(inTransport) || !Transport.isValid(outTransport)) {
+                        System.err.println("Transport: illegal arg. Expected -m in[:out] e.g. -m shm:udp");
+                        System.exit(1);
+                    }
+
+                } else if (arg0.equals("-p")) {
                     // Port
                     argc++;
 
@@ -75,6 +148,74 @@ public class BPPForward {
                     String val = args[argc];
                     httpPort = Integer.parseInt(val);
 
+                } else if (arg0.equals("-w")) {
+                    // No of workers
+                    argc++;
+
+                    String val = args[argc];
+                    workers = Integer.parseInt(val);
+
+                } else if (arg0.equals("-t")) {
+                    // Egress shaper bucket depth, and maybe its queue budget
+                    // e.g. -t 16000  or  -t 16000:131072
+                    argc++;
+
+                    String[] parts = args[argc].split(":");
+                    shapeDepth = Integer.parseInt(parts[0]);
+
+                    if (parts.length > 1) {
+                        shapeBudget = Integer.parseInt(parts[1]);
+                    }
+
+                } else if (arg0.equals("-Q")) {
+                    // Egress queue budget
+                    argc++;
+
+                    String val = args[argc];
+                    queueBudget = Integer.parseInt(val);
+
+                } else if (arg0.equals("-W")) {
+                    // Weights file for flows
+                    argc++;
+
+                    try {
+                        flowWeights = FlowWeights.load(args[argc]);
+                        multiFlow = true;
+                    } catch (Exception e) {
+                        System.err.println("Bad weights file: " + e.getMessage());
+                        System.exit(1);
+                    }
+
+                } else if (arg0.equals("-S")) {
+                    // Chunk selector
+                    argc++;
+
+                    selectorName = args[argc];
+
+                    if (! selectorName.equals("position") && ! selectorName.equals("optimal")) {
+                        System.err.println("ChunkSelector: illegal arg. Expected -S position|optimal");
+                        System.exit(1);
+                    }
+
+                } else if (arg0.startsWith("-D")) {
+                    // Debug mode, print a line for each packet
+                    // maybe with a max no of lines per second
+                    // e.g. -D  or  -D:100
+                    printPackets = true;
+
+                    if (! arg0.equals("-D")) {
+                        String regexp = "-D:(\\d+)";
+                        Pattern pattern = Pattern.compile(regexp);
+                        Matcher matcher = pattern.matcher(arg0);
+
+                        if (matcher.matches()) {
+                            printRate = Integer.parseInt(matcher.group(1));
+                        } else {
+                            System.err.println("Debug: illegal arg. Expected -D:rate e.g. -D:100");
+                            System.exit(1);
+                        }
+                    }
+
                 } else if (arg0.equals("-c")) {            
                     // columns
                     argc++;
@@ -109,81 +250,104 @@ public class BPPForward {
 
                 } else if (arg0.startsWith("-B")) {
                     // BPP Bandwidth evaluators
-                    
-                    if (arg0.equals("-Bb")) {
-                        // Use Basic Bandwidth utilization evaluator
-                        bppFn = new BPPBasicBandwidth(bandwidthBits);
-
-                        System.err.println("BPPBasicBandwidth " + bandwidthBits);
-
-                    } else if (arg0.startsWith("-Bn")) {
-                        // Use No Trim Bandwidth utilization evaluator
+                    // e.g. -Bb  -Bn:0.2  -Bo:0.2:0.1  -Bs:10:100  -Bp:100:0.25  -Bd
+                    fnSpec = arg0.substring(2);
 
-                        if (arg0.equals("-Bn")) {
-                            // no period passed in
-                            bppFn = new BPPNoTrimBandwidth(bandwidthBits);
-
-                            System.err.println("BPPNoTrimBandwidth " + bandwidthBits);
-                        } else {
-                            // check if arg looks like -Bn:period
-                            
-                            // we need to split the arg and grab the period
-                            String regexp = "-Bn:(0.\\d+)";
-                            Pattern pattern = Pattern.compile(regexp);
-                            Matcher matcher = pattern.matcher(arg0);
-                        
-                            if (matcher.matches()) {
-                                String group1 = matcher.group(1);
-
-                                float period = Float.parseFloat(group1);
+                    try {
+                        BPPFnConfig.factoryFor(fnSpec);
+                    } catch (IllegalArgumentException iae) {
+                        System.err.println(iae.getMessage());
+                        System.exit(1);
+                    }
 
-                                
-                                bppFn = new BPPNoTrimBandwidth(bandwidthBits, period);
+                    if (fnSpec.equals("d")) {
+                        // The dependency state is per stream, so it needs a fn per flow
+                        multiFlow = true;
+                    }
 
-                                System.err.println("BPPNoTrimBandwidth " + bandwidthBits + " " + period);
-                                
+                } else if (arg0.equals("-T")) {
+                    // Threshold to use instead of the one in the packets
+                    argc++;
 
-                            } else {
-                                System.err.println("BPPNoTrimBandwidth: illegal arg. Expected -Bn:period e.g. -Bn:0.2");
-                                System.exit(1);
-                            }
+                    String val = args[argc];
+                    threshold = Integer.parseInt(val);
 
-                        }
+                    if (threshold < 0 || threshold > 15) {
+                        System.err.println("Threshold: illegal arg. Expected -T 0 to 15");
+                        System.exit(1);
+                    }
 
-                    } else if (arg0.startsWith("-Bo")) {
-                        // Use Optimistic Bandwidth utilization evaluator
+                } else if (arg0.startsWith("-M")) {
+                    // Multi flow, maybe with idle time
+                    // e.g. -M  or  -M:60
+                    multiFlow = true;
 
-                        // check if arg looks like -Bo:period:extra
-                        
-                        // we need to split the arg and grab the period
-                        String regexp = "-Bo:(0.\\d+):(0.\\d+)";
+                    if (! arg0.equals("-M")) {
+                        String regexp = "-M:(\\d+)";
                         Pattern pattern = Pattern.compile(regexp);
                         Matcher matcher = pattern.matcher(arg0);
-                        
+
                         if (matcher.matches()) {
-                            String group1 = matcher.group(1);
+                            idleSeconds = Integer.parseInt(matcher.group(1));
+                        } else {
+                            System.err.println("MultiFlowBPPFn: illegal arg. Expected -M:idleSeconds e.g. -M:60");
+                            System.exit(1);
+                        }
+                    }
 
-                            float period = Float.parseFloat(group1);
+                } else if (arg0.equals("-C")) {
+                    // Capture to a pcapng file
+                    // maybe with a snap length, a max rate, and a max size in MB
+                    // e.g. -C fwd.pcapng  or  -C fwd.pcapng:128:500:50
+                    argc++;
 
-                            String group2 = matcher.group(2);
+                    String val = args[argc];
+                    String regexp = "([^:]+)(:(\\d+))?(:(\\d+))?(:(\\d+))?";
+                    Pattern pattern = Pattern.compile(regexp);
+                    Matcher matcher = pattern.matcher(val);
 
-                            float extra = Float.parseFloat(group2);
+                    if (matcher.matches()) {
+                        captureFile = matcher.group(1);
 
-                                
-                            bppFn = new BPPOptimisticBandwidth(bandwidthBits, period, extra);
+                        if (matcher.group(3) != null) {
+                            captureSnaplen = Integer.parseInt(matcher.group(3));
+                        }
 
-                            System.err.println("BPPOptimisticBandwidth " + bandwidthBits + " " + period + " " + extra);
-                                
+                        if (matcher.group(5) != null) {
+                            captureRate = Integer.parseInt(matcher.group(5));
+                        }
 
-                        } else {
-                            System.err.println("BPPOptimisticBandwidth: illegal arg. Expected -Bo:period:extra e.g. -Bn:0.2:0.1");
-                            System.exit(1);
+                        if (matcher.group(7) != null) {
+                            captureMaxSize = Long.parseLong(matcher.group(7)) * 1024 * 1024;
                         }
+                    }
 
-                        
+                    if (captureFile == null || captureSnaplen < 1 || captureRate < 1 || captureMaxSize < 1) {
+                        System.err.println("Capture: illegal arg. Expected -C file[:snaplen[:rate[:maxMB]]] e.g. -C fwd.pcapng:128:500:50");
+                        System.exit(1);
+                    }
+
+                } else if (arg0.equals("-F")) {
+                    // Bandwidth schedule file
+                    argc++;
+                    scheduleFile = args[argc];
 
+                } else if (arg0.equals("-x")) {
+                    // Scale the times of the bandwidth schedule
+                    argc++;
+
+                    String val = args[argc];
+                    scheduleScale = Double.parseDouble(val);
+
+                    if (scheduleScale <= 0) {
+                        System.err.println("Schedule scale: illegal arg. Expected -x scale e.g. -x 0.5");
+                        System.exit(1);
                     }
-                    
+
+                } else if (arg0.equals("-L")) {
+                    // Play the bandwidth schedule in a loop
+                    scheduleLoop = true;
+
                 } else if (arg0.startsWith("-v")) {
                     if (arg0.equals("-v")) {
                         Verbose.level = 1;
@@ -209,19 +373,156 @@ public class BPPForward {
             System.err.println("Forward to host: " + forwardHost);
             System.err.println("Forward to port: " + forwardPort);
             System.err.println("HTTP listen port: " + httpPort);
+            System.err.println("Transport: " + inTransport + " / " + outTransport);
             //System.err.println("Columns: " + columns);
             System.err.println("Bandwidth in bits: " + bandwidthBits);
             System.err.println("Packets per second: " + packetsPerSecond);
+            System.err.println("Multi flow: " + multiFlow + (multiFlow ? " idle: " + idleSeconds : ""));
+            System.err.println("Workers: " + workers);
+            System.err.println("Chunk selector: " + selectorName);
+            System.err.println("Threshold: " + (threshold == BPPFn.NO_THRESHOLD ? "packet" : Integer.toString(threshold)));
+            System.err.println("Egress queue: " + queueBudget);
+            System.err.println("Egress shaper depth: " + shapeDepth + " budget: " + shapeBudget);
+            System.err.println("Debug: " + printPackets + (printPackets ? " rate: " + printRate : ""));
+            System.err.println("Capture: " + (captureFile == null ? "none" : captureFile));
+        }
+
+        // Load the bandwidth schedule
+        if (scheduleFile != null) {
+            try {
+                schedule = BandwidthSchedule.load(scheduleFile).setScale(scheduleScale).setLoop(scheduleLoop);
+
+                System.err.println("BandwidthSchedule " + scheduleFile + " " + schedule);
+            } catch (IOException ioe) {
+                System.err.println(ioe.getMessage());
+                System.exit(1);
+            }
+        }
+
+        if (captureFile != null && (queueBudget > 0 || shapeDepth > 0)) {
+            // the packets out are captured before the queue, which changes them
+            System.err.println("BPPForward: -C can not be used with -Q or -t");
+            System.exit(1);
+        }
+
+        // The config makes the BPPFns, each with its own ChunkSelector,
+        // and can be changed while the forwarder runs
+        fnConfig = new BPPFnConfig(fnSpec, selectorName, threshold, bandwidthBits);
+        fnFactory = fnConfig;
+
+        System.err.println("BPPFn " + fnConfig);
+
+        if (workers > 1) {
+            // each worker has its own BPPFn, from the factory
+            if (! Transport.UDP.equals(inTransport)) {
+                System.err.println("BPPForward: -w needs the udp transport to listen on");
+                System.exit(1);
+            }
+
+            if (queueBudget > 0 || shapeDepth > 0) {
+                System.err.println("BPPForward: -Q and -t can not be used with -w");
+                System.exit(1);
+            }
+
+            if (! ReusePortUDPReceiver.isSupported()) {
+                System.err.println("BPPForward: -w needs SO_REUSEPORT, which this platform does not have");
+                System.exit(1);
+            }
+
+            try {
+                BPPFnFactory workerFactory = fnFactory;
+
+                if (multiFlow) {
+                    workerFactory = (bits) -> newMultiFlowBPPFn(bits);
+                }
+
+                ShardedBPPForwarder sharded = new ShardedBPPForwarder(udpPort, forwardHost, forwardPort, bandwidthBits, workers, workerFactory);
+                sharded.setConfig(fnConfig);
+
+                // Create an HTTP hander object.
+                ProcessExternal handler = new ProcessExternal(httpPort, sharded);
+
+                // capture the packets of every worker
+                PacketCapture capture = null;
+
+                if (captureFile != null) {
+                    capture = newCapture();
+                    sharded.setCapture(capture);
+                    capture.start();
+                }
+
+                // play the bandwidth schedule
+                BandwidthScheduler scheduler = null;
+
+                if (schedule != null) {
+                    scheduler = new BandwidthScheduler(schedule, sharded);
+                    scheduler.start();
+                }
+
+                // go
+                sharded.processTraffic();
+
+                if (scheduler != null) {
+                    scheduler.stop();
+                }
+
+                if (capture != null) {
+                    capture.stop();
+
+                    if (Verbose.level >= 1) {
+                        System.err.print(capture.report());
+                    }
+                }
+            } catch (IOException ioe) {
+                ioe.printStackTrace();
+            }
+
+            return;
+        }
+
+        if (multiFlow) {
+            // each flow gets its own BPPFn
+            bppFn = newMultiFlowBPPFn(bandwidthBits);
+
+            System.err.println("MultiFlowBPPFn " + bandwidthBits + " " + idleSeconds);
+        } else {
+            bppFn = fnConfig.create(bandwidthBits);
         }
         
         try {
             // Create the forwarder
             forwarder = new BPPForwarder(udpPort, forwardHost, forwardPort, bandwidthBits);
 
+            // Setup the transport
+            PacketSender sender = Transport.newSender(outTransport, forwardHost, forwardPort);
+
+            if (shapeDepth > 0 || queueBudget > 0) {
+                // the packets wait in a queue, so record the latency as they leave it
+                LatencyTap tap = new LatencyTap(sender, forwarder.getMetrics());
+                forwarder.setLatencyTap(tap);
+                sender = tap;
+            }
+
+            if (shapeDepth > 0) {
+                // pace the packets at the bandwidth
+                sender = new ShapingSender(sender, bandwidthBits, shapeDepth, shapeBudget);
+            }
+
+            if (queueBudget > 0) {
+                // send via an egress queue
+                sender = new BPPEgressQueue(sender, bandwidthBits, queueBudget);
+            }
+
+            forwarder.setTransport(Transport.newReceiver(inTransport, udpPort), sender);
+
+            forwarder.setPrintPackets(printPackets);
+            forwarder.setPrintRate(printRate);
+
             // Set the bandwidth of the BPPFn
             bppFn.setBandwidth(bandwidthBits);
 
-            // Set BPPFn into Forwarder
+            // Set BPPFn, and its config, into Forwarder
+            forwarder.setConfig(fnConfig);
             forwarder.setBPPFn(bppFn);
 
 
@@ -229,15 +530,77 @@ public class BPPForward {
             // It will callback to the BPPForwarder as a  ManagementListener
             ProcessExternal handler = new ProcessExternal(httpPort, forwarder);
 
+            // capture the packets in and out
+            PacketCapture capture = null;
+
+            if (captureFile != null) {
+                capture = newCapture();
+                forwarder.setCapture(capture.newRing());
+                capture.start();
+            }
+
+            // play the bandwidth schedule
+            BandwidthScheduler scheduler = null;
+
+            if (schedule != null) {
+                scheduler = new BandwidthScheduler(schedule, forwarder);
+                scheduler.start();
+            }
+
             // go
             forwarder.processTraffic();
+
+            if (scheduler != null) {
+                scheduler.stop();
+            }
+
+            if (capture != null) {
+                capture.stop();
+            }
+
+            if (Verbose.level >= 1) {
+                System.err.print(forwarder.getMetrics().report());
+
+                if (capture != null) {
+                    System.err.print(capture.report());
+                }
+            }
         } catch (IOException ioe) {
             ioe.printStackTrace();
         }
     }
 
+    // Create a MultiFlowBPPFn
+    static MultiFlowBPPFn newMultiFlowBPPFn(int bits) {
+        MultiFlowBPPFn multi = new MultiFlowBPPFn(fnFactory, bits, idleSeconds);
+
+        if (flowWeights != null) {
+            multi.setFlowWeights(flowWeights);
+        }
+
+        return multi;
+    }
+
+    // Create the packet capture
+    static PacketCapture newCapture() {
+        try {
+            PacketCapture capture = new PacketCapture(captureFile, udpPort, forwardHost, forwardPort);
+            capture.setSnaplen(captureSnaplen);
+            capture.setRate(captureRate);
+            capture.setMaxSize(captureMaxSize);
+
+            System.err.println("PacketCapture " + captureFile + " snaplen: " + captureSnaplen + " rate: " + captureRate + " max: " + captureMaxSize);
+
+            return capture;
+        } catch (IOException ioe) {
+            System.err.println(ioe.getMessage());
+            System.exit(1);
+            return null;
+        }
+    }
+
     static void usage() {
-        System.err.println("BPPForward [-b bandwidth] [-p listen_port] [-h forward_host] [-P forward_port] [-H http_port]");
+        System.err.println("BPPForward [-b bandwidth] [-p listen_port] [-h forward_host] [-P forward_port] [-H http_port] [-m in[:out]] [-w workers] [-S position|optimal] [-Q budget] [-t depth[:budget]] [-D[:rate]] [-T threshold] [-Bb|-Bn[:period]|-Bo:period:extra|-Bs[:slot:window]|-Bp[:interval:alpha]|-Bd] [-M[:idle]] [-W weights] [-C file[:snaplen[:rate[:maxMB]]]] [-F schedule] [-x scale] [-L]");
         System.exit(1);
     }
 
@@ -4,24 +4,32 @@ import java.nio.ByteBuffer;
 import java.io.IOException;
 import java.io.FileInputStream;
 import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
 import java.net.DatagramPacket;
 import java.net.UnknownHostException;
-import java.util.Optional;
 
 import cc.clayman.h264.*;
 import cc.clayman.chunk.*;
 import cc.clayman.net.*;
 import cc.clayman.util.Verbose;
 
+import netfn.capture.CaptureRing;
 import netfn.mgmt.*;
+import netfn.metrics.ForwarderMetrics;
+import netfn.metrics.LatencyTap;
+import netfn.metrics.AsyncLogger;
+import netfn.metrics.PrometheusWriter;
 
 // Collect packets with UDPReceiver
 // Forward packets with UDPSender
 // Patch up DatagramPacket address before forwarding
+//
+// The BPPFn, its config, and the bandwidth are only changed by
+// the forwarding thread.  Other threads publish a new BPPFnConfig,
+// which is picked up between packets, so no packet sees half a change.
 
-public class BPPForwarder implements ManagementListener {
+public class BPPForwarder implements ManagementListener, FlowReporter, MetricsSource, FnListener {
 
     // listen port
     int udpPort = 6799;
@@ -34,25 +42,45 @@ public class BPPForwarder implements ManagementListener {
     
     int columns = 80;    // default no of cols on terminal
 
-    // in bits
-    int bandwidthBits = 1024 * 1024;   // default: 1 Mb
-    int bandwidth = 0;
+    // The config of the BPPFn, and the bandwidth, published by any thread
+    AtomicReference<BPPFnConfig> config = new AtomicReference<BPPFnConfig>();
 
-    UDPReceiver receiver = null;
-    UDPSender sender = null;
-    BPPFn bppFn = null;
+    // The config in use by the forwarding thread
+    BPPFnConfig applied = null;
+
+    PacketReceiver<DatagramPacket> receiver = null;
+    PacketSender sender = null;
+
+    // The BPPFn, which other threads can read
+    volatile BPPFn bppFn = null;
+
+    // A BPPFn set while the traffic is processed, for the forwarding thread
+    AtomicReference<BPPFn> nextFn = new AtomicReference<BPPFn>();
+
+    // is the traffic being processed
+    volatile boolean running = false;
+
+    // print a line for each packet, in debug mode
+    boolean printPackets = false;
+
+    // prints the packet lines, at most this many per second
+    int printRate = AsyncLogger.DEFAULT_RATE;
+    AsyncLogger logger = null;
+
+    // capture the packets in and out, or null
+    CaptureRing capture = null;
+
+    // records the latency after an egress queue, or null
+    LatencyTap latencyTap = null;
 
-    int totalIn = 0;
-    int totalOut = 0;
-    
     // Input / Output counts
     int count = 0;
-    int countLastSecond = 0;
-    long volumeIn = 0;
-    long volumeOut = 0;
-    long volumeInLastSecond = 0;
-    long volumeOutLastSecond = 0;
 
+    // The metrics, which other threads can read
+    ForwarderMetrics metrics = new ForwarderMetrics();
+
+    // when the packet being processed came in, from System.nanoTime()
+    long arrivalTime = 0;
 
 
     // keep time
@@ -63,23 +91,45 @@ public class BPPForwarder implements ManagementListener {
         this.udpPort = udpPort;
         this.forwardHost = forwardHost;
         this.forwardPort = forwardPort;
-        setBandwidth(bandwidth);
+        setConfig(new BPPFnConfig(bandwidth));
+
+        System.out.printf("BW:  %9d%10d\n", count, bandwidth);
 
-        System.out.printf("BW:  %9d%10d\n", count, bandwidthBits);
+    }
 
+    /**
+     * Use the given receiver and sender, instead of creating
+     * them from the Transport when traffic processing starts.
+     */
+    public void setTransport(PacketReceiver<DatagramPacket> receiver, PacketSender sender) {
+        this.receiver = receiver;
+        this.sender = sender;
     }
 
-    protected void processTraffic() throws IOException {
+    public void processTraffic() throws IOException {
 
-        // Setup UDP Receiver
-        receiver = new UDPReceiver(udpPort);
+        // Setup Receiver
+        if (receiver == null) {
+            receiver = Transport.newReceiver(udpPort);
+        }
         receiver.start();
 
-        // Setup UDP Sender
-        sender = new UDPSender(forwardHost, forwardPort);
+        // Setup Sender
+        if (sender == null) {
+            sender = Transport.newSender(forwardHost, forwardPort);
+        }
         sender.start();
 
+        // Setup the packet printer
+        if (printPackets) {
+            logger = new AsyncLogger(System.out, printRate);
+            logger.start();
+        }
         
+        metrics.setThread(Thread.currentThread());
+
+        running = true;
+
         // Timer stuff
         startTime = System.currentTimeMillis();
         lastTime = System.currentTimeMillis();
@@ -96,51 +146,158 @@ public class BPPForwarder implements ManagementListener {
                 break;
             } else {
                 // process the packet
+                arrivalTime = System.nanoTime();
                 count++;
-                totalIn += packet.getLength();
-                
+
+                // pick up any changes, between packets
+                applyChanges();
+
                 datagramProcess(packet);
             }
 
         }
 
+        running = false;
+
         // stop receiver
         receiver.stop();
 
         // stop sender
         sender.stop();
-        
+
+        if (logger != null) {
+            logger.stop();
+        }
+    }
+
+
+    /**
+     * Pick up a BPPFn, or a BPPFnConfig, published by another thread.
+     * It is called by the forwarding thread before each packet,
+     * and costs two volatile reads when nothing has changed.
+     */
+    protected void applyChanges() {
+        if (nextFn.get() != null) {
+            BPPFn fn = nextFn.getAndSet(null);
+
+            fn.carryOver(bppFn);
+            installBPPFn(fn);
+        }
+
+        BPPFnConfig next = config.get();
+
+        if (next == applied) {
+            return;
+        }
+
+        BPPFnConfig last = applied;
+        applied = next;
+
+        boolean swapped = false;
+
+        if (next.getFn() != null && ! next.sameFn(last)) {
+            // a new strategy, or ChunkSelector
+            if (bppFn instanceof MultiFlowBPPFn) {
+                // each flow gets a new BPPFn
+                ((MultiFlowBPPFn)bppFn).setFactory(next);
+            } else {
+                BPPFn fn = next.create(next.getBandwidth());
+
+                if (bppFn != null) {
+                    fn.carryOver(bppFn);
+                }
+
+                installBPPFn(fn);
+            }
+
+            swapped = true;
+
+            if (Verbose.level >= 1) {
+                System.err.println("BPPForwarder: " + count + " " + next);
+            }
+        }
+
+        if (bppFn != null && (swapped || next.getThreshold() != last.getThreshold())) {
+            bppFn.setThreshold(next.getThreshold());
+        }
+
+        if (next.getBandwidth() != last.getBandwidth()) {
+            // inform the BPPFn about the new bandwidth
+            if (bppFn != null) {
+                bppFn.setBandwidth(next.getBandwidth());
+            }
+
+            // and the sender, if it sends at a rate
+            if (sender instanceof RateLimited) {
+                ((RateLimited)sender).setRate(next.getBandwidth());
+            }
+        }
     }
 
-            
     /**
      * Process the recevied Datagram
      */
     protected void datagramProcess(DatagramPacket packet) throws UnknownHostException {
         int length = packet.getLength();
-        
-        System.out.printf("IN:   %8d%6d%10d\n", count, length, totalIn);
+
+        metrics.recordIn(length);
+
+        if (printPackets) {
+            logger.log("IN:   %8d%6d%10d\n", count, length, metrics.bytesIn.sum());
+        }
+
+        if (capture != null) {
+            capture.ingress(count, packet, arrivalTime);
+        }
 
         DatagramPacket newVal = trimDatagram(packet);
 
         if (newVal == null) {
             // nothing to send
             // so packet is dropped
-             System.out.printf("DROPPED:  %8d%10d\n", count, totalOut);
+            metrics.recordDrop(length);
+
+            if (capture != null) {
+                capture.egress(null, applied.getBandwidth());
+            }
+
+            if (printPackets) {
+                logger.log("DROPPED:  %8d%10d\n", count, metrics.bytesOut.sum());
+            }
         } else {
             // send packet
             int newLength = newVal.getLength();
-            totalOut += newLength;
 
-            if (length == newLength) {
+            if (capture != null) {
+                capture.egress(newVal, applied.getBandwidth());
+            }
+
+            if (latencyTap == null) {
+                sender.sendPayload(newVal);
+
+                metrics.recordOut(length, newLength, arrivalTime);
+            } else {
+                // the latency is recorded when the packet goes out
+                latencyTap.stamp(newVal, arrivalTime);
+
+                if (sender.sendPayload(newVal) == 0) {
+                    // the queue has no room
+                    latencyTap.unstamp();
+                    metrics.recordDrop(length);
+                } else {
+                    metrics.recordQueued(length, newLength);
+                }
+            }
+
+            if (! printPackets) {
+                // nothing to print
+            } else if (length == newLength) {
                 // the packet is not changed
-                System.out.printf("OUT:  %8d%6d%10d\n", count, newLength, totalOut);
+                logger.log("OUT:  %8d%6d%10d\n", count, newLength, metrics.bytesOut.sum());
             } else {
                 // the packet has chunks removed
-                System.out.printf("OUT*: %8d%6d%10d\n", count, newLength, totalOut);
+                logger.log("OUT*: %8d%6d%10d\n", count, newLength, metrics.bytesOut.sum());
             }
-        
-            sender.sendPayload(newVal);
         }
     }
 
@@ -153,60 +310,33 @@ public class BPPForwarder implements ManagementListener {
     protected DatagramPacket trimDatagram(DatagramPacket datagram) {
 
         count++;
-        countLastSecond++;
 
         try {
-            // increase volumeIn
-            volumeIn += datagram.getLength();
-            volumeInLastSecond += datagram.getLength();
-                
             // check if a BPPFn is set
-            Optional<byte[]> result = null;
+            BPPFn.Verdict verdict;
             
             if (bppFn != null) {
-                // do the processing and conversion
-                result = bppFn.process(count, datagram);
+                // do the processing, which trims the datagram in place
+                verdict = bppFn.processInPlace(count, datagram);
             } else {
                 // no bpp fn, so just forward
-                result = Optional.empty();
+                verdict = BPPFn.Verdict.FORWARD;
             }
             
 
-            // now patch up the datagram to have modified contents
-            // or forward current datagram if result is null
-            if (result == null) {
-                // we got a null - so drop the packet
+            if (verdict == BPPFn.Verdict.DROP) {
+                // drop the packet
                 return null;
                 
-            } else if (! result.isPresent()) {
-                // nothnig to do but forward the datagram
+            } else {
+                // forward the datagram, which may have been trimmed
 
-                // increase volumeOut
-                volumeOut += datagram.getLength();
-                volumeOutLastSecond += datagram.getLength();
+                if (Verbose.level >= 3 && verdict == BPPFn.Verdict.TRIMMED) {
+                    System.err.println("datagram trimmed length = " + datagram.getLength());
+                }
 
                 // Get the network function to forward the packet
                 return datagram;
-
-            } else {
-                // we have new payload
-                byte[] content = result.get();
-                
-                if (Verbose.level >= 3) {
-                    System.err.println("datagram length = " + datagram.getLength() + " newPayload length = " + content.length);
-                }
-                    
-                DatagramPacket newDatagram = new DatagramPacket(content, content.length);
-                newDatagram.setAddress(datagram.getAddress());
-                newDatagram.setPort(datagram.getPort());
-
-                // increase volumeOut
-                volumeOut += newDatagram.getLength();
-                volumeOutLastSecond += newDatagram.getLength();
-
-                // DO NOT get the network function to forward the packet
-                // send our one
-                return newDatagram;
             }                
         } catch (Exception e) {
             System.err.println(e.getClass() + ": " + e.getMessage());
@@ -214,15 +344,92 @@ public class BPPForwarder implements ManagementListener {
         }
     }
 
+    // Print a line for each packet, or not
+    public void setPrintPackets(boolean print) {
+        printPackets = print;
+    }
+
+    // Print at most this many packet lines per second
+    public void setPrintRate(int linesPerSecond) {
+        printRate = linesPerSecond;
+    }
+
+    // Capture the packets in and out into a ring
+    public void setCapture(CaptureRing ring) {
+        capture = ring;
+    }
+
+    // Record the latency with a LatencyTap after the egress queue,
+    // instead of when a packet is passed to the sender
+    public void setLatencyTap(LatencyTap tap) {
+        latencyTap = tap;
+    }
+
+    // Get the metrics
+    public ForwarderMetrics getMetrics() {
+        return metrics;
+    }
+
+    // Get the no of packets in
+    public int getCount() {
+        return count;
+    }
+
+    // Get the volume in
+    public long getVolumeIn() {
+        return metrics.bytesIn.sum();
+    }
+
+    // Get the volume out
+    public long getVolumeOut() {
+        return metrics.bytesOut.sum();
+    }
+
     // Set the BPP  Function
+    // While the traffic is processed, the forwarding thread
+    // picks it up on the next packet, and it carries over the old one.
     // @return old BPP function
     public BPPFn setBPPFn(BPPFn bppF) {
         BPPFn old = bppFn;
 
-        bppFn = bppF;
+        if (running && bppF != null) {
+            nextFn.set(bppF);
+            publish(c -> c.withoutFn());
+        } else {
+            installBPPFn(bppF);
+        }
 
         return old;
     }
+
+    // Install a BPP Function, with the metrics and the threshold
+    protected void installBPPFn(BPPFn bppF) {
+        if (bppF != null) {
+            bppF.setMetrics(metrics);
+            bppF.setThreshold(applied.getThreshold());
+        }
+
+        bppFn = bppF;
+    }
+
+    // Set the config of the BPP Function, before the traffic is processed.
+    // It describes the BPP Function set with setBPPFn()
+    public void setConfig(BPPFnConfig cfg) {
+        config.set(cfg);
+        applied = cfg;
+    }
+
+    // Get the config of the BPP Function
+    public BPPFnConfig getConfig() {
+        return config.get();
+    }
+
+    // Publish a change to the config,
+    // which the forwarding thread picks up on the next packet
+    // @return the old config
+    protected BPPFnConfig publish(UnaryOperator<BPPFnConfig> change) {
+        return config.getAndUpdate(change);
+    }
     
     // Get the current BPP  Function
     public BPPFn getBPPFn() {
@@ -232,33 +439,85 @@ public class BPPForwarder implements ManagementListener {
     // set the bandwidthBits
     // passed in as bits / sec
     public void setBandwidth(int bb) {
-        bandwidthBits = bb;
-        bandwidth = bandwidthBits >> 3;
+        publish(c -> c.withBandwidth(bb));
+
         if (Verbose.level >= 2) {
-            System.err.println("BPPForwarder: bandwidthBits = " + bandwidthBits + " bandwidth = " + bandwidth);
+            System.err.println("BPPForwarder: bandwidthBits = " + bb + " bandwidth = " + (bb >> 3));
         }
     }
 
     // get the bandwidthBits 
     public int getBandwidth() {
-        return bandwidthBits;
+        return config.get().getBandwidth();
+    }
+
+    // Get a report of the flows
+    public String getFlowReport() {
+        if (bppFn instanceof MultiFlowBPPFn) {
+            return ((MultiFlowBPPFn)bppFn).getReport();
+        } else {
+            return "No flows\n";
+        }
+    }
+
+    // Write the metrics
+    public void writeMetrics(PrometheusWriter w) {
+        metrics.writeTo(w, "bpp");
+
+        w.metric("bpp_bandwidth_bits", "gauge", "Bandwidth of the outbound connection");
+        w.sample("bpp_bandwidth_bits", getBandwidth());
+
+        ForwarderMetrics.writeQueue(w, "bpp", sender);
+
+        if (capture != null) {
+            capture.getCapture().writeTo(w, "bpp");
+        }
+
+        if (bppFn instanceof MultiFlowBPPFn) {
+            FlowStats.writeTo(w, "bpp", ((MultiFlowBPPFn)bppFn).getFlowStats());
+        }
+    }
+
+    // Take a snapshot of the counters
+    public ForwarderMetrics.Snapshot getSnapshot() {
+        return metrics.snapshot();
     }
 
     // Adjust the bandwidth
+    // The BPPFn and the sender are told by the forwarding thread
     // Returns the old bandwidth
     public int adjustBandwidth(int bb) {
-        // Save old bandwidthBits
-        int oldBW = bandwidthBits;
+        BPPFnConfig old = publish(c -> c.withBandwidth(bb));
 
-        // calculate new bandwidthBits
-        setBandwidth(bb);
+        System.out.printf("BW:  %9d%10d\n", metrics.packetsIn.sum(), bb);
 
-        System.out.printf("BW:  %9d%10d\n", count, bandwidthBits);
+        return old.getBandwidth();
+    }
+
+    // Get the BPP Function config
+    public String getFn() {
+        return config.get().toString();
+    }
+
+    // Change the BPP Function, and its ChunkSelector
+    // Returns the old one
+    public String adjustFn(String fn, String selector) throws IllegalArgumentException {
+        BPPFnConfig old = publish(c -> c.withFn(fn).withSelector(selector));
+
+        return old.toString();
+    }
+
+    // Get the threshold override
+    public int getThreshold() {
+        return config.get().getThreshold();
+    }
 
-        // Now inform the BPPFn about the new bandwidth
-        bppFn.setBandwidth(bandwidthBits);
+    // Adjust the threshold override
+    // Returns the old threshold
+    public int adjustThreshold(int threshold) throws IllegalArgumentException {
+        BPPFnConfig old = publish(c -> c.withThreshold(threshold));
 
-        return oldBW;
+        return old.getThreshold();
     }
         
 }
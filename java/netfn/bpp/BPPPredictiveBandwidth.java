@@ -0,0 +1,279 @@
+package netfn.bpp;
+
+import cc.clayman.net.IP;
+import cc.clayman.bpp.BPP;
+import cc.clayman.util.Verbose;
+
+
+/**
+ * A NetFn that does some BPP processing based on bandwidth,
+ * and trims ahead of time, from a forecast of the incoming rate.
+ *
+ * The bytes arriving at each significance level are counted
+ * in short intervals, e.g. 100ms, and an EWMA of the rate of each level
+ * is kept.  At the end of each interval the trim threshold is set
+ * so that the forecast rate of the levels that are kept fits in the bandwidth.
+ * Chunks less significant than the threshold are then shed from every packet,
+ * so the most significant chunks are never trimmed to catch up.
+ * The chunks of the next level, just above the threshold, are only kept
+ * while the interval is below its allowance.
+ * Until there is a forecast, packets are trimmed as in BPPBasicBandwidth.
+ *
+ * The forecast error, the difference between the forecast and the
+ * actual bytes in each interval, and the predicted threshold, are recorded
+ * in the ForwarderMetrics, so they are on /metrics and in the -v report.
+ */
+public class BPPPredictiveBandwidth extends AbstractBPPFn implements BPPFn {
+    // No of significance levels - SIGi is 4 bits
+    public final static int LEVELS = 16;
+
+    // Defaults
+    public final static int DEFAULT_INTERVAL = 100;     // 100 ms
+    public final static float DEFAULT_ALPHA = 0.25f;
+
+    // The interval length, in milliseconds
+    int intervalMillis;
+
+    // The EWMA weight for a new interval
+    float alpha;
+
+    // Bytes arriving at each level in this interval
+    // Headers and metadata are counted at level 0, as they are always sent
+    long[] bytesThisInterval = new long[LEVELS];
+
+    // The forecast rate of each level, in bytes per second
+    double[] rate = new double[LEVELS];
+
+    // When this interval started, once started by the first packet
+    long intervalStart = 0;
+    boolean started = false;
+
+    // Is there a forecast yet
+    boolean haveForecast = false;
+
+    // The forecast bytes for this interval
+    double forecastThisInterval = 0;
+
+    // The bytes sent in the last interval, and what was allowed
+    long sentThisInterval = 0;
+    long overshoot = 0;
+
+    // The threshold from the forecast
+    int predictedThreshold = LEVELS - 1;
+
+    // Is the level above the threshold kept for this packet
+    boolean keepMarginal = false;
+
+    // Forecast error metrics
+    int intervals = 0;
+    double forecastError = 0;        // last absolute error, as a fraction of the actual
+    double meanForecastError = 0;    // mean absolute error, as a fraction of the actual
+
+
+    /**
+     * Construct with the bandwidth in bits per sec,
+     * and the default interval and alpha.
+     * @param bandwidthBits is int: 838860 bits
+     */
+    public BPPPredictiveBandwidth(int bandwidthBits) {
+        this(bandwidthBits, DEFAULT_INTERVAL, DEFAULT_ALPHA);
+    }
+
+    /**
+     * Construct with the bandwidth in bits per sec, the interval,
+     * and the EWMA weight.
+     * @param bandwidthBits is int: 838860 bits
+     * @param intervalMillis the interval, in milliseconds, e.g. 100
+     * @param alpha the weight of the newest interval, e.g. 0.25
+     */
+    public BPPPredictiveBandwidth(int bandwidthBits, int intervalMillis, float alpha) {
+        super(bandwidthBits);
+
+        if (intervalMillis <= 0 || alpha <= 0 || alpha > 1) {
+            throw new IllegalArgumentException("BPPPredictiveBandwidth: bad interval " + intervalMillis + " or alpha " + alpha);
+        }
+
+        this.intervalMillis = intervalMillis;
+        this.alpha = alpha;
+    }
+
+    // ▷ Decision making
+    // WASH packets have every chunk above the threshold trimmed.
+    // Other packets are processed as usual.
+    public Verdict bppDecide(int behind) {
+        thresholdRelaxed = false;
+
+        unpackDatagramHeaders();
+
+        if (packetCommandBlock.command != BPP.Command.WASH || packetCommandBlock.condition == BPP.Condition.NEVER ||
+            packetCommandBlock.condition == BPP.Condition.ALWAYS) {
+            // not washed for the bandwidth
+            return super.bppDecide(behind);
+        }
+
+        // count the arrivals, and maybe update the forecast
+        checkInterval();
+
+        unpackDatagramContent();
+
+        observe();
+
+        if (! haveForecast) {
+            return super.bppDecide(behind);
+        }
+
+        // keep the marginal level if this interval is below its allowance
+        long allowed = (long)availableBandwidth * (now - intervalStart) / 1000 + IP.BASIC_PACKET_SIZE;
+        keepMarginal = sentThisInterval < allowed;
+
+        // shed everything above the threshold
+        int trimmedAmount = trimContent(packetLength);
+
+        int size = packetLength - trimmedAmount;
+
+        totalOut += size;
+        recordSent(size);
+
+        return trimmedAmount == 0 ? Verdict.FORWARD : Verdict.TRIMMED;
+    }
+
+    // Chunks above the packet threshold and the predicted threshold are trimmed
+    protected int trimThreshold() {
+        if (! haveForecast) {
+            return packetThreshold();
+        }
+
+        int threshold = keepMarginal ? Math.min(predictedThreshold + 1, LEVELS - 1) : predictedThreshold;
+
+        return Math.max(packetThreshold(), threshold);
+    }
+
+    // Record the amount sent for a packet
+    protected void recordSent(int size) {
+        super.recordSent(size);
+        sentThisInterval += size;
+    }
+
+    /**
+     * Count the bytes of the packet at each significance level
+     */
+    protected void observe() {
+        BPP.MetadataBlock mb = packetMetadataBlock;
+
+        int content = 0;
+
+        for (int c = 0; c < mb.chunkCount; c++) {
+            bytesThisInterval[mb.significance[c] & (LEVELS - 1)] += mb.contentSizes[c];
+            content += mb.contentSizes[c];
+        }
+
+        // headers and metadata
+        bytesThisInterval[0] += packetLength - content;
+    }
+
+    /**
+     * At the end of an interval, update the forecast,
+     * the forecast error, and the threshold.
+     */
+    protected void checkInterval() {
+        if (! started) {
+            // the first interval starts with the first packet
+            intervalStart = now;
+            started = true;
+        }
+
+        long elapsed = now - intervalStart;
+
+        if (elapsed < intervalMillis) {
+            return;
+        }
+
+        long actual = 0;
+
+        for (int l = 0; l < LEVELS; l++) {
+            actual += bytesThisInterval[l];
+
+            double observed = bytesThisInterval[l] * 1000.0 / elapsed;
+
+            rate[l] = haveForecast ? alpha * observed + (1 - alpha) * rate[l] : observed;
+
+            bytesThisInterval[l] = 0;
+        }
+
+        // how good was the forecast for this interval
+        if (haveForecast && actual > 0) {
+            double expected = forecastThisInterval * elapsed / intervalMillis;
+            forecastError = Math.abs(expected - actual) / actual;
+
+            intervals++;
+            meanForecastError += (forecastError - meanForecastError) / intervals;
+        }
+
+        // anything sent over the allowance comes out of the next interval
+        long allowed = (long)availableBandwidth * elapsed / 1000;
+        overshoot = Math.max(0, sentThisInterval - allowed);
+        sentThisInterval = 0;
+
+        predictedThreshold = calculateThreshold();
+
+        if (metrics != null && haveForecast && actual > 0) {
+            metrics.recordForecast(forecastError, predictedThreshold);
+        }
+
+        haveForecast = true;
+        intervalStart = now;
+
+        if (Verbose.level >= 2) {
+            System.err.printf("BPPPredictiveBandwidth: actual %d forecast %.0f error %.3f mean error %.3f overshoot %d threshold %d\n", actual, forecastThisInterval, forecastError, meanForecastError, overshoot, predictedThreshold);
+        }
+    }
+
+    /**
+     * Find the highest threshold where the forecast for the
+     * levels that are kept fits in the bandwidth for the next interval.
+     */
+    protected int calculateThreshold() {
+        double budget = (double)availableBandwidth * intervalMillis / 1000 - overshoot;
+
+        double kept = 0;
+
+        forecastThisInterval = 0;
+
+        for (int l = 0; l < LEVELS; l++) {
+            forecastThisInterval += rate[l] * intervalMillis / 1000;
+        }
+
+        for (int l = 0; l < LEVELS; l++) {
+            kept += rate[l] * intervalMillis / 1000;
+
+            if (kept > budget) {
+                // level l does not fit, so trim above l - 1
+                return Math.max(0, l - 1);
+            }
+        }
+
+        // everything fits
+        return LEVELS - 1;
+    }
+
+    // Get the threshold from the forecast
+    public int getPredictedThreshold() {
+        return predictedThreshold;
+    }
+
+    // Get the forecast rate of a significance level, in bytes per second
+    public double getForecastRate(int level) {
+        return rate[level];
+    }
+
+    // Get the forecast error of the last interval, as a fraction of the actual
+    public double getForecastError() {
+        return forecastError;
+    }
+
+    // Get the mean forecast error, as a fraction of the actual
+    public double getMeanForecastError() {
+        return meanForecastError;
+    }
+
+}
@@ -18,7 +18,7 @@ import cc.clayman.util.Verbose;
 
 public class BPPRecv {
 
-    static UDPReceiver receiver = null;
+    static PacketReceiver<DatagramPacket> receiver = null;
     static BPPFn bppFn = null;
 
     static int count = 0;
@@ -145,7 +145,7 @@ public class BPPRecv {
 
     protected static void processTraffic() throws IOException {
         // Setup UDP Receiver
-        receiver = new UDPReceiver(udpPort);
+        receiver = Transport.newReceiver(udpPort);
         receiver.start();
 
         // Setup BPPFn
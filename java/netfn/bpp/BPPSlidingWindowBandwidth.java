@@ -0,0 +1,140 @@
+package netfn.bpp;
+
+import java.util.Arrays;
+
+import cc.clayman.net.IP;
+import cc.clayman.util.Clock;
+import cc.clayman.util.Verbose;
+
+
+/**
+ * A NetFn that does some BPP processing based on bandwidth,
+ * measured over a sliding window rather than in whole seconds.
+ *
+ * The amount sent is kept in a ring of time slots, e.g. 10ms each,
+ * which covers the window, e.g. 100ms.  A packet is trimmed if the
+ * amount sent in the window is over what the bandwidth allows in the window.
+ * There are no resets at second boundaries, so the output rate
+ * is smooth, and bursts at a boundary are not let through.
+ */
+public class BPPSlidingWindowBandwidth extends AbstractBPPFn implements BPPFn {
+    // Default slot and window sizes, in milliseconds
+    public final static int DEFAULT_SLOT = 10;
+    public final static int DEFAULT_WINDOW = 100;
+
+    // The slot size in milliseconds
+    int slotMillis;
+
+    // The window size in milliseconds
+    int windowMillis;
+
+    // The amount sent in each slot
+    int[] slots;
+
+    // The amount sent in the whole window
+    int sentInWindow = 0;
+
+    // The slot of the last packet, as milliseconds / slotMillis
+    long currentSlot = 0;
+
+    /**
+     * Construct with the bandwidth in bits per sec,
+     * and the default slot and window sizes.
+     * @param bandwidthBits is int: 838860 bits
+     */
+    public BPPSlidingWindowBandwidth(int bandwidthBits) {
+        this(bandwidthBits, DEFAULT_SLOT, DEFAULT_WINDOW);
+    }
+
+    /**
+     * Construct with the bandwidth in bits per sec, and the slot
+     * and window sizes.
+     * @param bandwidthBits is int: 838860 bits
+     * @param slotMillis the slot size, in milliseconds, e.g. 10
+     * @param windowMillis the window size, in milliseconds, e.g. 100
+     */
+    public BPPSlidingWindowBandwidth(int bandwidthBits, int slotMillis, int windowMillis) {
+        super(bandwidthBits);
+
+        if (slotMillis <= 0 || windowMillis < slotMillis) {
+            throw new IllegalArgumentException("BPPSlidingWindowBandwidth: bad slot " + slotMillis + " or window " + windowMillis);
+        }
+
+        this.slotMillis = slotMillis;
+        this.windowMillis = (windowMillis / slotMillis) * slotMillis;
+        this.slots = new int[windowMillis / slotMillis];
+        this.currentSlot = timeStart / slotMillis;
+    }
+
+    // Calculate how far below the allowance for the window we are
+    // A negative value means we are over the allowance
+    public int calculateBelow() {
+        advance(now / slotMillis);
+
+        // The no of bytes allowed in a window
+        idealSendThisSec = (int) ((long)availableBandwidth * windowMillis / 1000);
+
+        // always allow a full packet
+        if (idealSendThisSec < IP.BASIC_PACKET_SIZE) {
+            idealSendThisSec = IP.BASIC_PACKET_SIZE;
+        }
+
+        int behind = idealSendThisSec - sentInWindow;
+
+        if (Verbose.level >= 3) {
+            System.err.println("BPPSlidingWindowBandwidth: sentInWindow " + sentInWindow + " allowed " + idealSendThisSec);
+        }
+
+        return behind;
+    }
+
+    // Record the amount sent for a packet
+    protected void recordSent(int size) {
+        super.recordSent(size);
+
+        slots[(int)(currentSlot % slots.length)] += size;
+        sentInWindow += size;
+    }
+
+    /**
+     * Move the window on to a slot, clearing the slots that have
+     * fallen out of the window.
+     */
+    protected void advance(long slot) {
+        long gap = slot - currentSlot;
+
+        if (gap <= 0) {
+            // same slot, or the clock went back
+            return;
+        }
+
+        if (gap >= slots.length) {
+            // the whole window has gone
+            Arrays.fill(slots, 0);
+            sentInWindow = 0;
+        } else {
+            for (long s = currentSlot + 1; s <= slot; s++) {
+                int index = (int)(s % slots.length);
+                sentInWindow -= slots[index];
+                slots[index] = 0;
+            }
+        }
+
+        currentSlot = slot;
+    }
+
+    // Set the Clock, and start the window again
+    public void setClock(Clock clock) {
+        super.setClock(clock);
+
+        Arrays.fill(slots, 0);
+        sentInWindow = 0;
+        currentSlot = timeStart / slotMillis;
+    }
+
+    // Get the amount sent in the current window
+    public int getSentInWindow() {
+        return sentInWindow;
+    }
+
+}
@@ -0,0 +1,18 @@
+package netfn.bpp;
+
+import cc.clayman.bpp.BPP;
+
+/**
+ * Selects the chunks of a packet to trim.
+ * Only chunks with a significance above the threshold,
+ * which are not already dropped, can be selected.
+ */
+public interface ChunkSelector {
+
+    /**
+     * Select chunks to trim, to try and trim at least target bytes.
+     * The selected chunks are marked as dropped in the MetadataBlock.
+     * @return the no of bytes trimmed
+     */
+    public int select(BPP.MetadataBlock mb, int threshold, int target);
+}
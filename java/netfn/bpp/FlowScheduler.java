@@ -0,0 +1,67 @@
+package netfn.bpp;
+
+/**
+ * Shares a bandwidth between flows by weight, with
+ * weighted max-min fairness, i.e. water filling.
+ *
+ * Each flow has a weight and a demand.  The bandwidth is
+ * split in proportion to the weights, but a flow never gets more
+ * than its demand, and the share it does not use is split
+ * between the other flows, again by weight.
+ */
+public class FlowScheduler {
+
+    /**
+     * Work out the shares.
+     * @param capacity the bandwidth to share, in bits per second
+     * @param count the no of flows
+     * @param weights the weight of each flow, which must be above 0
+     * @param demands the demand of each flow, in bits per second,
+     * or Long.MAX_VALUE if it is not known
+     * @param shares the share of each flow, which is filled in
+     * @param order scratch space for the order of the flows, at least count long
+     */
+    public static void share(int capacity, int count, double[] weights, long[] demands, int[] shares, int[] order) {
+        if (count == 0) {
+            return;
+        }
+
+        // visit the flows by demand per unit of weight, lowest first
+        // There are only a few flows, so an insertion sort will do.
+        for (int f = 0; f < count; f++) {
+            double key = demands[f] / weights[f];
+            int i = f;
+
+            while (i > 0 && demands[order[i - 1]] / weights[order[i - 1]] > key) {
+                order[i] = order[i - 1];
+                i--;
+            }
+
+            order[i] = f;
+        }
+
+        double remaining = capacity;
+        double weightLeft = 0;
+
+        for (int f = 0; f < count; f++) {
+            weightLeft += weights[f];
+        }
+
+        for (int i = 0; i < count; i++) {
+            int f = order[i];
+
+            // the fair share of what is left
+            double fair = remaining * weights[f] / weightLeft;
+
+            if (demands[f] < fair) {
+                // it needs less, so the rest is shared out
+                shares[f] = (int)demands[f];
+            } else {
+                shares[f] = (int)fair;
+            }
+
+            remaining -= shares[f];
+            weightLeft -= weights[f];
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package netfn.bpp;
+
+import java.util.List;
+
+import netfn.metrics.PrometheusWriter;
+
+/**
+ * An immutable snapshot of a flow, made in the thread processing
+ * the packets, so it can be read from any thread.
+ */
+public final class FlowStats {
+    public final String flow;       // address:port
+    public final double weight;
+    public final int share;         // in bits per second
+    public final long demand;       // in bits per second
+    public final long packets;
+    public final long bytesIn;
+    public final long bytesOut;
+    public final long rateIn;       // in bits per second, over the last second
+    public final long rateOut;      // in bits per second, over the last second
+
+    public FlowStats(String flow, double weight, int share, long demand, long packets, long bytesIn, long bytesOut, long rateIn, long rateOut) {
+        this.flow = flow;
+        this.weight = weight;
+        this.share = share;
+        this.demand = demand;
+        this.packets = packets;
+        this.bytesIn = bytesIn;
+        this.bytesOut = bytesOut;
+        this.rateIn = rateIn;
+        this.rateOut = rateOut;
+    }
+
+    /**
+     * Write the metrics of some flows, with names starting with a prefix
+     */
+    public static void writeTo(PrometheusWriter w, String prefix, List<FlowStats> flows) {
+        w.metric(prefix + "_flows", "gauge", "No of flows");
+        w.sample(prefix + "_flows", flows.size());
+
+        if (flows.isEmpty()) {
+            return;
+        }
+
+        w.metric(prefix + "_flow_rate_bits", "gauge", "Rate of each flow in the last second");
+
+        for (FlowStats stats : flows) {
+            String label = PrometheusWriter.label("flow", stats.flow);
+
+            w.sample(prefix + "_flow_rate_bits", label + ",direction=\"in\"", stats.rateIn);
+            w.sample(prefix + "_flow_rate_bits", label + ",direction=\"out\"", stats.rateOut);
+        }
+
+        w.metric(prefix + "_flow_bytes_total", "counter", "Bytes of each flow");
+
+        for (FlowStats stats : flows) {
+            String label = PrometheusWriter.label("flow", stats.flow);
+
+            w.sample(prefix + "_flow_bytes_total", label + ",direction=\"in\"", stats.bytesIn);
+            w.sample(prefix + "_flow_bytes_total", label + ",direction=\"out\"", stats.bytesOut);
+        }
+
+        w.metric(prefix + "_flow_share_bits", "gauge", "Share of the bandwidth of each flow");
+
+        for (FlowStats stats : flows) {
+            w.sample(prefix + "_flow_share_bits", PrometheusWriter.label("flow", stats.flow), stats.share);
+        }
+
+        w.metric(prefix + "_flow_demand_bits", "gauge", "Demand of each flow");
+
+        for (FlowStats stats : flows) {
+            w.sample(prefix + "_flow_demand_bits", PrometheusWriter.label("flow", stats.flow), stats.demand);
+        }
+
+        w.metric(prefix + "_flow_weight", "gauge", "Weight of each flow");
+
+        for (FlowStats stats : flows) {
+            w.sample(prefix + "_flow_weight", PrometheusWriter.label("flow", stats.flow), stats.weight);
+        }
+    }
+}
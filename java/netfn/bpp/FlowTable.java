@@ -0,0 +1,260 @@
+package netfn.bpp;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * A map from a flow key to a value, using open addressing
+ * with linear probing over primitive long keys.
+ * Lookups do not allocate or box.
+ *
+ * A key is made from a source address and port with key().
+ * Removal uses backward shift deletion, so there are no tombstones.
+ */
+public class FlowTable<V> {
+    // An empty slot
+    static final long EMPTY = -1L;
+
+    // Marks a key made from an IPv6 address
+    static final long V6 = 1L << 62;
+
+    // The load factor before growing
+    static final float LOAD_FACTOR = 0.5f;
+
+    long[] keys;
+    Object[] values;
+
+    int size = 0;
+    int mask;
+    int threshold;
+
+    /**
+     * A FlowTable with space for capacity flows before growing
+     */
+    public FlowTable(int capacity) {
+        int slots = Integer.highestOneBit(Math.max(2, (int)(capacity / LOAD_FACTOR)) - 1) << 1;
+        allocate(slots);
+    }
+
+    public FlowTable() {
+        this(64);
+    }
+
+    /**
+     * Make a key from an address and port.
+     * An IPv4 address and the port are packed exactly into 48 bits.
+     * For IPv6 the hashCode of the address is used, with a marker bit.
+     * A null address, such as from an in-JVM transport, is just the port.
+     */
+    public static long key(InetAddress addr, int port) {
+        if (addr == null) {
+            return port & 0xFFFFL;
+        } else if (addr instanceof Inet4Address) {
+            // the hashCode of an Inet4Address is the address
+            return ((addr.hashCode() & 0xFFFFFFFFL) << 16) | (port & 0xFFFFL);
+        } else {
+            return V6 | ((addr.hashCode() & 0xFFFFFFFFL) << 16) | (port & 0xFFFFL);
+        }
+    }
+
+    /**
+     * Convert a key back to a printable address:port.
+     */
+    public static String keyToString(long key) {
+        int port = (int)(key & 0xFFFF);
+        int addr = (int)((key >> 16) & 0xFFFFFFFFL);
+
+        if ((key & V6) != 0) {
+            return "v6#" + Integer.toHexString(addr) + ":" + port;
+        } else {
+            return ((addr >> 24) & 0xFF) + "." + ((addr >> 16) & 0xFF) + "." + ((addr >> 8) & 0xFF) + "." + (addr & 0xFF) + ":" + port;
+        }
+    }
+
+    /**
+     * Get the value for a key, or null
+     */
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        int slot = slot(key);
+
+        while (true) {
+            long k = keys[slot];
+
+            if (k == key) {
+                return (V)values[slot];
+            } else if (k == EMPTY) {
+                return null;
+            }
+
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * Put a value for a key.
+     * @return the old value, or null
+     */
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        if (key == EMPTY) {
+            throw new IllegalArgumentException("FlowTable: illegal key " + key);
+        }
+
+        int slot = slot(key);
+
+        while (true) {
+            long k = keys[slot];
+
+            if (k == key) {
+                V old = (V)values[slot];
+                values[slot] = value;
+                return old;
+            } else if (k == EMPTY) {
+                keys[slot] = key;
+                values[slot] = value;
+                size++;
+
+                if (size > threshold) {
+                    grow();
+                }
+
+                return null;
+            }
+
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * Remove the value for a key.
+     * @return the old value, or null
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        int slot = slot(key);
+
+        while (true) {
+            long k = keys[slot];
+
+            if (k == key) {
+                V old = (V)values[slot];
+                removeSlot(slot);
+                return old;
+            } else if (k == EMPTY) {
+                return null;
+            }
+
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * Remove every value that matches, and tell the consumer about it.
+     * @return the no removed
+     */
+    @SuppressWarnings("unchecked")
+    public int removeIf(Predicate<V> test, Consumer<V> removed) {
+        int count = 0;
+        int slot = 0;
+
+        while (slot < keys.length) {
+            if (keys[slot] != EMPTY && test.test((V)values[slot])) {
+                V value = (V)values[slot];
+
+                // another entry may be shifted into this slot, so look at it again
+                removeSlot(slot);
+                count++;
+
+                if (removed != null) {
+                    removed.accept(value);
+                }
+            } else {
+                slot++;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Visit every value
+     */
+    @SuppressWarnings("unchecked")
+    public void forEach(Consumer<V> consumer) {
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (keys[slot] != EMPTY) {
+                consumer.accept((V)values[slot]);
+            }
+        }
+    }
+
+    /**
+     * The no of entries
+     */
+    public int size() {
+        return size;
+    }
+
+    /*
+     * Remove the entry in a slot, and shift back any entries
+     * in the same probe sequence, so lookups still find them.
+     */
+    void removeSlot(int slot) {
+        int hole = slot;
+        int next = (hole + 1) & mask;
+
+        while (keys[next] != EMPTY) {
+            int home = slot(keys[next]);
+
+            // can the entry at next move into the hole
+            // it can if its home is not cyclically in (hole, next]
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                keys[hole] = keys[next];
+                values[hole] = values[next];
+                hole = next;
+            }
+
+            next = (next + 1) & mask;
+        }
+
+        keys[hole] = EMPTY;
+        values[hole] = null;
+        size--;
+    }
+
+    /*
+     * The home slot for a key
+     */
+    int slot(long key) {
+        // mix the bits, as the keys are very regular
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int)(h ^ (h >>> 32)) & mask;
+    }
+
+    void allocate(int slots) {
+        keys = new long[slots];
+        values = new Object[slots];
+        Arrays.fill(keys, EMPTY);
+        mask = slots - 1;
+        threshold = (int)(slots * LOAD_FACTOR);
+    }
+
+    @SuppressWarnings("unchecked")
+    void grow() {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+
+        allocate(keys.length * 2);
+        size = 0;
+
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                put(oldKeys[i], (V)oldValues[i]);
+            }
+        }
+    }
+}
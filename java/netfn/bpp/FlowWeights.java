@@ -0,0 +1,99 @@
+package netfn.bpp;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.net.InetAddress;
+
+/**
+ * The weights of flows, for sharing the bandwidth.
+ * A weight is for an address and port, or for all the flows from an address.
+ * Flows with no weight get the default weight of 1.
+ *
+ * A weights file has a line for each weight:
+ * <pre>
+ * # address[:port] weight
+ * 10.0.0.1        4
+ * 10.0.0.2:6000   2
+ * </pre>
+ */
+public class FlowWeights {
+    // The default weight
+    public final static double DEFAULT_WEIGHT = 1.0;
+
+    // Weights, by flow key
+    FlowTable<Double> weights = new FlowTable<Double>(16);
+
+    /**
+     * Set the weight of an address and port.
+     * A port of 0 is for all flows from the address.
+     */
+    public void setWeight(InetAddress address, int port, double weight) {
+        if (weight <= 0) {
+            throw new IllegalArgumentException("FlowWeights: weight must be above 0: " + weight);
+        }
+
+        weights.put(FlowTable.key(address, port), weight);
+    }
+
+    /**
+     * Get the weight of a flow
+     */
+    public double getWeight(long key) {
+        Double weight = weights.get(key);
+
+        if (weight == null) {
+            // try the address
+            weight = weights.get(key & ~0xFFFFL);
+        }
+
+        return weight == null ? DEFAULT_WEIGHT : weight;
+    }
+
+    /**
+     * Load the weights from a file
+     */
+    public static FlowWeights load(String filename) throws IOException {
+        FlowWeights flowWeights = new FlowWeights();
+
+        try (BufferedReader reader = new BufferedReader(new FileReader(filename))) {
+            String line;
+            int lineNo = 0;
+
+            while ((line = reader.readLine()) != null) {
+                lineNo++;
+
+                line = line.trim();
+
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+
+                String[] parts = line.split("\\s+");
+
+                if (parts.length != 2) {
+                    throw new IOException("FlowWeights: " + filename + " line " + lineNo + ": expected address[:port] weight");
+                }
+
+                String host = parts[0];
+                int port = 0;
+
+                int colon = host.lastIndexOf(':');
+
+                if (colon > 0 && host.indexOf(':') == colon) {
+                    // address:port, but not an IPv6 address
+                    port = Integer.parseInt(host.substring(colon + 1));
+                    host = host.substring(0, colon);
+                }
+
+                try {
+                    flowWeights.setWeight(InetAddress.getByName(host), port, Double.parseDouble(parts[1]));
+                } catch (IllegalArgumentException iae) {
+                    throw new IOException("FlowWeights: " + filename + " line " + lineNo + ": " + iae.getMessage());
+                }
+            }
+        }
+
+        return flowWeights;
+    }
+}
@@ -0,0 +1,481 @@
+package netfn.bpp;
+
+import java.net.DatagramPacket;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+import cc.clayman.util.Clock;
+import cc.clayman.util.Verbose;
+import netfn.metrics.ForwarderMetrics;
+
+/**
+ * A BPPFn that keeps a separate BPPFn for each flow through a forwarder,
+ * so flows do not share, and corrupt, each other's bandwidth budget.
+ *
+ * A flow is the source address and port of the packets.
+ * Flows are found in a FlowTable with no boxing or allocation,
+ * and a new flow gets a new BPPFn from a BPPFnFactory.
+ * A flow that has sent nothing for the idle time is evicted.
+ *
+ * Each flow has a share of the bandwidth, from a FlowScheduler,
+ * by its weight, from the FlowWeights, and its demand,
+ * which is the rate it arrives at.
+ * A flow that needs less than its share gives the rest to the other flows.
+ * The shares are worked out every second, and when flows come and go.
+ * There are no priority classes, so when the bandwidth drops
+ * every flow is cut in proportion to its weight, and best-effort
+ * flows are not trimmed before the others.
+ *
+ * A report of the flows, and a snapshot of their stats, are made
+ * every second, which can be read from any thread.
+ */
+public class MultiFlowBPPFn implements BPPFn {
+
+    // How often to look for idle flows, and work out the shares, in milliseconds
+    static final long EVICT_CHECK = 1000;
+
+    // Demands are the arrival rate plus this much, so flows can grow
+    static final double HEADROOM = 0.1;
+
+    // The EWMA weight of the newest arrival rate
+    static final double DEMAND_ALPHA = 0.5;
+
+    // Makes a BPPFn for each flow
+    BPPFnFactory factory;
+
+    // The flows
+    FlowTable<Flow> flows = new FlowTable<Flow>();
+
+    // The weights of flows
+    FlowWeights flowWeights = new FlowWeights();
+
+    // Arrays for the FlowScheduler, which grow as needed
+    Flow[] scheduled = new Flow[16];
+    double[] weights = new double[16];
+    long[] demands = new long[16];
+    int[] shares = new int[16];
+    int[] order = new int[16];
+
+    // The latest report
+    volatile String report = "";
+
+    // The latest stats of the flows
+    volatile List<FlowStats> stats = List.of();
+
+    // Where the flow BPPFns count the trimmed bytes, or null
+    ForwarderMetrics metrics = null;
+
+    // The threshold override of the flow BPPFns
+    int threshold = NO_THRESHOLD;
+
+    // Total bandwidth in bits
+    int bandwidthBits;
+
+    // Evict flows idle for this long, in milliseconds
+    long idleTimeout;
+
+    // Where the time comes from
+    Clock clock = Clock.SYSTEM;
+
+    // When the idle flows were last checked
+    long lastEvictCheck = clock.millis();
+
+    // counts
+    long flowsCreated = 0;
+    long flowsEvicted = 0;
+
+    /**
+     * A flow and its BPPFn
+     */
+    public static class Flow {
+        final long key;
+        BPPFn fn;
+
+        // when the flow last sent a packet
+        long lastSeen = 0;
+
+        // bandwidth share in bits
+        int share = 0;
+
+        // the weight of the flow
+        double weight = FlowWeights.DEFAULT_WEIGHT;
+
+        // the arrival rate in bits per second, or -1 if not known yet
+        long demand = -1;
+        long lastBytesIn = 0;
+
+        // the rates in the last second, in bits per second
+        long rateIn = 0;
+        long rateOut = 0;
+        long lastBytesOut = 0;
+
+        // counts
+        long packets = 0;
+        long bytesIn = 0;
+        long bytesOut = 0;
+
+        Flow(long key, BPPFn fn) {
+            this.key = key;
+            this.fn = fn;
+        }
+
+        public long getKey() {
+            return key;
+        }
+
+        public BPPFn getBPPFn() {
+            return fn;
+        }
+
+        public int getShare() {
+            return share;
+        }
+
+        public long getPackets() {
+            return packets;
+        }
+
+        public long getBytesIn() {
+            return bytesIn;
+        }
+
+        public long getBytesOut() {
+            return bytesOut;
+        }
+
+        public long getLastSeen() {
+            return lastSeen;
+        }
+
+        public double getWeight() {
+            return weight;
+        }
+
+        public long getDemand() {
+            return demand;
+        }
+
+        @Override
+        public String toString() {
+            return FlowTable.keyToString(key) + " weight: " + weight + " share: " + share + " demand: " + demand + " packets: " + packets + " in: " + bytesIn + " out: " + bytesOut;
+        }
+    }
+
+    /**
+     * Construct a MultiFlowBPPFn.
+     * @param factory makes a BPPFn for each flow
+     * @param bandwidthBits the total bandwidth in bits per second
+     * @param idleSeconds how long before an idle flow is evicted
+     */
+    public MultiFlowBPPFn(BPPFnFactory factory, int bandwidthBits, int idleSeconds) {
+        this.factory = factory;
+        this.bandwidthBits = bandwidthBits;
+        this.idleTimeout = idleSeconds * 1000L;
+    }
+
+    /**
+     * Process a packet of a flow, and possibly trim the contents.
+     */
+    public Optional<byte[]> process(int count, DatagramPacket packet) throws UnsupportedOperationException {
+        Flow flow = findFlow(packet);
+
+        int length = packet.getLength();
+
+        Optional<byte[]> result = flow.fn.process((int)flow.packets, packet);
+
+        flow.bytesIn += length;
+
+        if (result != null) {
+            flow.bytesOut += result.isPresent() ? result.get().length : length;
+        }
+
+        return result;
+    }
+
+    /**
+     * Process a packet of a flow, and possibly trim the contents in place.
+     */
+    public Verdict processInPlace(int count, DatagramPacket packet) throws UnsupportedOperationException {
+        Flow flow = findFlow(packet);
+
+        flow.bytesIn += packet.getLength();
+
+        Verdict verdict = flow.fn.processInPlace((int)flow.packets, packet);
+
+        if (verdict != Verdict.DROP) {
+            flow.bytesOut += packet.getLength();
+        }
+
+        return verdict;
+    }
+
+    /**
+     * Find the flow of a packet, or create one
+     */
+    protected Flow findFlow(DatagramPacket packet) {
+        long now = clock.millis();
+
+        if (now - lastEvictCheck >= EVICT_CHECK) {
+            long elapsed = now - lastEvictCheck;
+            lastEvictCheck = now;
+
+            evictIdle(now);
+            measureDemands(elapsed);
+            rebalance();
+            makeReport();
+        }
+
+        long key = FlowTable.key(packet.getAddress(), packet.getPort());
+
+        Flow flow = flows.get(key);
+
+        if (flow == null) {
+            flow = new Flow(key, factory.create(bandwidthBits));
+            flow.fn.setMetrics(metrics);
+            flow.fn.setThreshold(threshold);
+            flow.fn.setClock(clock);
+            flow.weight = flowWeights.getWeight(key);
+            flows.put(key, flow);
+            flowsCreated++;
+
+            if (Verbose.level >= 1) {
+                System.err.println("MultiFlowBPPFn: new flow " + FlowTable.keyToString(key) + " flows: " + flows.size());
+            }
+
+            rebalance();
+        }
+
+        flow.lastSeen = now;
+        flow.packets++;
+
+        return flow;
+    }
+
+    /**
+     * Work out the arrival rate of each flow, since the last time
+     */
+    protected void measureDemands(long elapsed) {
+        if (elapsed <= 0) {
+            return;
+        }
+
+        flows.forEach(flow -> {
+                long rate = (flow.bytesIn - flow.lastBytesIn) * 8 * 1000 / elapsed;
+                flow.lastBytesIn = flow.bytesIn;
+
+                flow.rateIn = rate;
+                flow.rateOut = (flow.bytesOut - flow.lastBytesOut) * 8 * 1000 / elapsed;
+                flow.lastBytesOut = flow.bytesOut;
+
+                flow.demand = flow.demand < 0 ? rate : (long)(DEMAND_ALPHA * rate + (1 - DEMAND_ALPHA) * flow.demand);
+            });
+    }
+
+    /**
+     * Evict the flows that have been idle for the idle timeout.
+     * @return the no evicted
+     */
+    public int evictIdle(long now) {
+        int evicted = flows.removeIf(flow -> now - flow.lastSeen >= idleTimeout, flow -> {
+                if (Verbose.level >= 1) {
+                    System.err.println("MultiFlowBPPFn: evict flow " + flow);
+                }
+            });
+
+        if (evicted > 0) {
+            flowsEvicted += evicted;
+            rebalance();
+        }
+
+        return evicted;
+    }
+
+    /**
+     * Set the weights for new flows
+     */
+    public void setFlowWeights(FlowWeights weights) {
+        flowWeights = weights;
+    }
+
+    /**
+     * Work out the share of each flow, with the FlowScheduler,
+     * and tell its BPPFn.
+     */
+    protected void rebalance() {
+        int[] count = { 0 };
+
+        if (scheduled.length < flows.size()) {
+            int size = Integer.highestOneBit(flows.size()) << 1;
+            scheduled = new Flow[size];
+            weights = new double[size];
+            demands = new long[size];
+            shares = new int[size];
+            order = new int[size];
+        }
+
+        flows.forEach(flow -> {
+                int f = count[0]++;
+                scheduled[f] = flow;
+                weights[f] = flow.weight;
+                demands[f] = flow.demand < 0 ? Long.MAX_VALUE : (long)(flow.demand * (1 + HEADROOM));
+            });
+
+        FlowScheduler.share(bandwidthBits, count[0], weights, demands, shares, order);
+
+        for (int f = 0; f < count[0]; f++) {
+            scheduled[f].share = shares[f];
+            scheduled[f] = null;
+        }
+
+        flows.forEach(flow -> flow.fn.setBandwidth(flow.share));
+
+        if (Verbose.level >= 2) {
+            System.err.println("MultiFlowBPPFn: rebalance flows: " + flows.size() + " scheduled: " + count[0]);
+        }
+    }
+
+    /**
+     * Make the report of the flows
+     */
+    protected void makeReport() {
+        StringBuilder builder = new StringBuilder();
+
+        builder.append("Flows: " + flows.size() + " bandwidth: " + bandwidthBits + " created: " + flowsCreated + " evicted: " + flowsEvicted + "\n");
+
+        FlowStats[] snapshot = new FlowStats[flows.size()];
+        int[] count = { 0 };
+
+        flows.forEach(flow -> {
+                builder.append("FLOW: ").append(flow).append("\n");
+
+                snapshot[count[0]++] = new FlowStats(FlowTable.keyToString(flow.key), flow.weight, flow.share, flow.demand, flow.packets, flow.bytesIn, flow.bytesOut, flow.rateIn, flow.rateOut);
+            });
+
+        report = builder.toString();
+        stats = List.of(Arrays.copyOf(snapshot, count[0]));
+    }
+
+    /**
+     * Get the latest report of the flows.
+     * It is made every second, in the thread processing the packets,
+     * so it can be read from any thread.
+     */
+    public String getReport() {
+        return report;
+    }
+
+    /**
+     * Get the latest stats of the flows.
+     * They are made with the report, so they can be read from any thread.
+     */
+    public List<FlowStats> getFlowStats() {
+        return stats;
+    }
+
+    /**
+     * Set the metrics the flow BPPFns count the trimmed bytes in
+     */
+    public void setMetrics(ForwarderMetrics metrics) {
+        this.metrics = metrics;
+
+        flows.forEach(flow -> flow.fn.setMetrics(metrics));
+    }
+
+    /**
+     * Set the threshold override of the flow BPPFns
+     */
+    public void setThreshold(int threshold) {
+        this.threshold = threshold;
+
+        flows.forEach(flow -> flow.fn.setThreshold(threshold));
+    }
+
+    /**
+     * Take over the metrics and threshold of the BPPFn this one replaces
+     */
+    public void carryOver(BPPFn old) {
+        if (old instanceof MultiFlowBPPFn) {
+            setMetrics(((MultiFlowBPPFn)old).metrics);
+            setThreshold(((MultiFlowBPPFn)old).threshold);
+            setClock(((MultiFlowBPPFn)old).clock);
+        }
+    }
+
+    /**
+     * Set the Clock of this and of the flow BPPFns
+     */
+    public void setClock(Clock clock) {
+        this.clock = clock;
+
+        lastEvictCheck = clock.millis();
+
+        flows.forEach(flow -> {
+                flow.fn.setClock(clock);
+                flow.lastSeen = lastEvictCheck;
+            });
+    }
+
+    /**
+     * Set the factory for the BPPFn of each flow.
+     * Each flow gets a new BPPFn, which carries over the state
+     * of the old one, and new flows get one from the new factory.
+     * It must be called by the thread processing the packets.
+     */
+    public void setFactory(BPPFnFactory factory) {
+        this.factory = factory;
+
+        flows.forEach(flow -> {
+                BPPFn fn = factory.create(flow.share);
+
+                fn.carryOver(flow.fn);
+                fn.setMetrics(metrics);
+                fn.setThreshold(threshold);
+
+                flow.fn = fn;
+            });
+    }
+
+    /**
+     * Visit every flow
+     */
+    public void forEachFlow(java.util.function.Consumer<Flow> consumer) {
+        flows.forEach(consumer);
+    }
+
+    /**
+     * The no of flows
+     */
+    public int getFlowCount() {
+        return flows.size();
+    }
+
+    /**
+     * The no of flows created
+     */
+    public long getFlowsCreated() {
+        return flowsCreated;
+    }
+
+    /**
+     * The no of flows evicted
+     */
+    public long getFlowsEvicted() {
+        return flowsEvicted;
+    }
+
+    /**
+     * Get the total bandwidth
+     */
+    public int getBandwidth() {
+        return bandwidthBits;
+    }
+
+    /**
+     * Adjust the total bandwidth, and the flow shares
+     */
+    public void setBandwidth(int bitsPerSecond) {
+        bandwidthBits = bitsPerSecond;
+        rebalance();
+    }
+}
@@ -0,0 +1,139 @@
+package netfn.bpp;
+
+import cc.clayman.bpp.BPP;
+import cc.clayman.util.Verbose;
+
+/**
+ * Selects the set of chunks that reaches the target with the
+ * least loss of significance, and then with the least over-trim.
+ *
+ * Dropping a chunk costs (16 - significance), so the least significant
+ * chunks are the cheapest, and the DP finds the set of chunks
+ * with the lowest total cost that has at least the target bytes.
+ * Ties are broken by the fewest bytes, so it does not over-trim.
+ * This is a small covering knapsack over at most 31 chunks,
+ * with a table of at most MAX_TABLE entries, so it is bounded per packet.
+ * For large targets the sizes are measured in coarser units,
+ * rounded so the target is still met.
+ *
+ * If the target cannot be met, every chunk above the threshold is trimmed.
+ * The tables are allocated once, so a selector is used by one BPPFn.
+ */
+public class OptimalChunkSelector implements ChunkSelector {
+    // The largest no of entries in the DP table
+    public final static int MAX_TABLE = 2048;
+
+    // No of significance levels - SIGi is 4 bits
+    final static int LEVELS = 16;
+
+    // Weight of the cost, so the cost is more important than the bytes
+    final static long COST_WEIGHT = 1L << 32;
+
+    final static long NONE = Long.MAX_VALUE;
+
+    // best[b] is the lowest cost * COST_WEIGHT + bytes to trim at least b units
+    long[] best = new long[MAX_TABLE + 1];
+
+    // mask[b] is the set of chunks for best[b]
+    int[] mask = new int[MAX_TABLE + 1];
+
+    // The candidate chunks
+    int[] candidates = new int[BPP.MAX_CHUNK_COUNT];
+
+    public int select(BPP.MetadataBlock mb, int threshold, int target) {
+        // find the candidates
+        int count = 0;
+        int available = 0;
+
+        for (int c = 0; c < mb.chunkCount; c++) {
+            if (mb.significance[c] > threshold && !mb.isDropped[c] && mb.contentSizes[c] > 0) {
+                candidates[count++] = c;
+                available += mb.contentSizes[c];
+            }
+        }
+
+        if (count == 0 || target <= 0) {
+            return 0;
+        }
+
+        int selected;
+
+        if (available <= target) {
+            // trim them all
+            selected = (1 << count) - 1;
+        } else {
+            selected = solve(mb, count, target);
+        }
+
+        // mark the selected chunks
+        int trimmed = 0;
+
+        for (int i = 0; i < count; i++) {
+            if ((selected & (1 << i)) != 0) {
+                int c = candidates[i];
+
+                mb.isDropped[c] = true;
+                trimmed += mb.contentSizes[c];
+
+                if (Verbose.level >= 3) {
+                    System.err.println("BPPFn: trimmed chunk " + c + " significance " + mb.significance[c] + " size: " + mb.contentSizes[c]);
+                }
+            }
+        }
+
+        return trimmed;
+    }
+
+    /**
+     * The DP.
+     * @return a mask of the selected candidates
+     */
+    protected int solve(BPP.MetadataBlock mb, int count, int target) {
+        // the unit of size, so the table fits
+        int unit = (target + MAX_TABLE - 1) / MAX_TABLE;
+
+        // round the target up, and the sizes down, so the target is met
+        int units = (target + unit - 1) / unit;
+
+        for (int b = 1; b <= units; b++) {
+            best[b] = NONE;
+        }
+
+        best[0] = 0;
+        mask[0] = 0;
+
+        for (int i = 0; i < count; i++) {
+            int c = candidates[i];
+            int size = mb.contentSizes[c] / unit;
+
+            if (size == 0) {
+                continue;
+            }
+
+            long value = (LEVELS - mb.significance[c]) * COST_WEIGHT + mb.contentSizes[c];
+            int bit = 1 << i;
+
+            // go down, so each chunk is only used once
+            for (int b = units; b >= 0; b--) {
+                if (best[b] == NONE) {
+                    continue;
+                }
+
+                int next = Math.min(units, b + size);
+                long v = best[b] + value;
+
+                if (v < best[next]) {
+                    best[next] = v;
+                    mask[next] = mask[b] | bit;
+                }
+            }
+        }
+
+        if (best[units] == NONE) {
+            // the rounding lost too much, so trim them all
+            return (1 << count) - 1;
+        }
+
+        return mask[units];
+    }
+}
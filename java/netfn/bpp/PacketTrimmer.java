@@ -0,0 +1,70 @@
+package netfn.bpp;
+
+import cc.clayman.bpp.BPP;
+import cc.clayman.bpp.BPPPacket;
+
+/**
+ * Trims chunks from a BPP packet in place, outside of a BPPFn.
+ * Only chunks above the threshold in the packet's command block are trimmed,
+ * and only from WASH packets that are not NEVER.
+ * The blocks are allocated once, so a PacketTrimmer is used by one thread.
+ */
+public class PacketTrimmer {
+    // Selects the chunks to trim
+    ChunkSelector selector;
+
+    // Packet contents, reused for every packet
+    BPP.BPPHeader header = new BPP.BPPHeader();
+    BPP.CommandBlock commandBlock = new BPP.CommandBlock();
+    BPP.MetadataBlock metadataBlock = new BPP.MetadataBlock(BPP.MAX_CHUNK_COUNT);
+    int[] contentStartPos = new int[BPP.MAX_CHUNK_COUNT];
+
+    /**
+     * A PacketTrimmer that drops the least significant chunks first
+     */
+    public PacketTrimmer() {
+        this(new OptimalChunkSelector());
+    }
+
+    /**
+     * A PacketTrimmer with a ChunkSelector
+     */
+    public PacketTrimmer(ChunkSelector selector) {
+        this.selector = selector;
+    }
+
+    /**
+     * Try and trim target bytes from a packet.
+     * @return the new length of the packet
+     */
+    public int trim(byte[] packetBytes, int packetLength, int target) {
+        int bufPos = BPPPacket.readHeader(packetBytes, header);
+
+        bufPos = BPPPacket.readCommandBlock(packetBytes, bufPos, commandBlock);
+
+        if ((commandBlock.command != BPP.Command.WASH && commandBlock.command != BPP.Command.FLUSH) ||
+            commandBlock.condition == BPP.Condition.NEVER) {
+            // not allowed to trim
+            return packetLength;
+        }
+
+        BPP.MetadataBlock mb = metadataBlock;
+        mb.chunkCount = header.chunkCount;
+
+        bufPos = BPPPacket.readMetadataBlock(packetBytes, bufPos, mb);
+
+        // Save start point of each content
+        for (int c=0; c<mb.chunkCount; c++) {
+            contentStartPos[c] = bufPos;
+            bufPos += mb.contentSizes[c];
+        }
+
+        int trimmed = selector.select(mb, commandBlock.threshold, target);
+
+        if (trimmed == 0) {
+            return packetLength;
+        } else {
+            return BPPPacket.compactContent(packetBytes, packetLength, mb, contentStartPos);
+        }
+    }
+}
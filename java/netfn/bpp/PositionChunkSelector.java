@@ -0,0 +1,48 @@
+package netfn.bpp;
+
+import cc.clayman.bpp.BPP;
+import cc.clayman.util.Verbose;
+
+/**
+ * Selects chunks by position.
+ * It walks the chunks from the last to the first, trimming any chunk
+ * above the threshold, until the target is reached.
+ * This is the original selection in AbstractBPPFn.
+ */
+public class PositionChunkSelector implements ChunkSelector {
+
+    public int select(BPP.MetadataBlock mb, int threshold, int target) {
+        int trimmed = 0;
+
+        // now we try to trim some chunk content
+        // try from the highest to the lowest
+        for (int c=mb.chunkCount-1; c>=0; c--) {
+            if (Verbose.level >= 3) {
+                System.err.println("isDropped[" + c + "] = " + mb.isDropped[c]);
+            }
+
+            // can we delete this content
+            
+            if (mb.significance[c] > threshold && !mb.isDropped[c]) {
+                // it's a candidate
+                // mark it as trimmed
+                mb.isDropped[c] = true;
+                
+                // update the trimmed count
+                trimmed += mb.contentSizes[c];
+
+                if (Verbose.level >= 3) {
+                    System.err.println("BPPFn: trimmed chunk " + c + " significance " + mb.significance[c] + " size: " + mb.contentSizes[c]);
+                }
+            }
+
+            if (trimmed >= target) {
+                // we've achieved the target
+                // so no need to do any more
+                break;
+            }
+        }
+
+        return trimmed;
+    }
+}
@@ -0,0 +1,382 @@
+package netfn.bpp;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+
+import cc.clayman.net.*;
+import cc.clayman.util.Verbose;
+import cc.clayman.util.Execution;
+
+import netfn.capture.PacketCapture;
+import netfn.mgmt.*;
+import netfn.metrics.ForwarderMetrics;
+import netfn.metrics.PrometheusWriter;
+
+// A BPP forwarder with many workers, so it can use many cores.
+// Each worker is a BPPForwarder with its own receiver, BPPFn, and sender.
+// The receivers all listen on the same port with SO_REUSEPORT,
+// and the kernel hashes each flow onto one worker,
+// so a worker owns the BPPFn state of its flows and
+// nothing is shared on the hot path.
+//
+// The bandwidth is split between the workers, and is
+// rebalanced every second, by the no of flows each worker has,
+// or by the volume each worker received if the BPPFn is not multi flow.
+//
+// A change to the BPPFn or the threshold is passed to every worker,
+// and each worker picks it up in its own thread.
+
+public class ShardedBPPForwarder implements ManagementListener, FlowReporter, MetricsSource, FnListener {
+
+    // listen port
+    int udpPort = 6799;
+
+    // forward host
+    String forwardHost = "localhost";
+    // forward port
+    int forwardPort = 6798;
+
+    // in bits
+    volatile int bandwidthBits = 1024 * 1024;   // default: 1 Mb
+
+    // The config of the BPPFn of the workers, with the total bandwidth
+    BPPFnConfig config;
+
+    // Makes the BPPFn for each worker
+    BPPFnFactory factory;
+
+    // the workers
+    Worker[] workers;
+
+    // how often to rebalance, in milliseconds
+    long rebalancePeriod = 1000;
+
+    // have the workers been setup
+    volatile boolean started = false;
+
+    // capture the packets in and out, with a ring for each worker, or null
+    PacketCapture capture = null;
+
+    public ShardedBPPForwarder(int udpPort, String forwardHost, int forwardPort, int bandwidth, int workerCount, BPPFnFactory factory) {
+        this.udpPort = udpPort;
+        this.forwardHost = forwardHost;
+        this.forwardPort = forwardPort;
+        this.bandwidthBits = bandwidth;
+        this.factory = factory;
+        this.config = new BPPFnConfig(bandwidth);
+
+        workers = new Worker[workerCount];
+    }
+
+    public void processTraffic() throws IOException {
+        int share = bandwidthBits / workers.length;
+
+        // the config the factory makes BPPFns for
+        BPPFnConfig initial = getConfig();
+
+        // Setup the workers
+        for (int w = 0; w < workers.length; w++) {
+            Worker worker = new Worker(w, udpPort, forwardHost, forwardPort, share);
+
+            worker.setConfig(initial.withBandwidth(share));
+            worker.setBPPFn(factory.create(share));
+            worker.setPrintPackets(false);
+            worker.setTransport(new ReusePortUDPReceiver(udpPort), Transport.newSender(Transport.UDP, forwardHost, forwardPort));
+
+            if (capture != null) {
+                worker.setCapture(capture.newRing());
+            }
+
+            workers[w] = worker;
+        }
+
+        startWorkers(initial);
+
+        // go
+        for (Worker worker : workers) {
+            worker.task = Execution.start(() -> worker.forward(), "BPPWorker-" + worker.id);
+        }
+
+        ScheduledFuture<?> timer = Execution.scheduleAtFixedRate(() -> rebalance(), rebalancePeriod, rebalancePeriod);
+
+        // wait for the workers to finish
+        for (Worker worker : workers) {
+            try {
+                worker.task.join();
+            } catch (InterruptedException ie) {
+            }
+        }
+
+        timer.cancel(false);
+
+        if (Verbose.level >= 1) {
+            for (Worker worker : workers) {
+                System.out.printf("WORKER: %3d%12d%12d%6d%9d\n", worker.id, worker.getVolumeIn(), worker.getVolumeOut(), worker.getFlowCount(), worker.getMetrics().latency.getValueAtPercentile(99) / 1000);
+            }
+        }
+
+        System.out.printf("TOTAL: %4d%12d%12d\n", workers.length, getVolumeIn(), getVolumeOut());
+    }
+
+    // Mark the workers as started, so they get each change to the config,
+    // and pass on any change made while they were setup
+    protected synchronized void startWorkers(BPPFnConfig initial) {
+        started = true;
+
+        if (config != initial) {
+            for (Worker worker : workers) {
+                worker.adjustFn(config.getFn(), config.getSelector());
+                worker.adjustThreshold(config.getThreshold());
+            }
+        }
+    }
+
+    /**
+     * Split the bandwidth between the workers.
+     * Each worker gets a share by its weight.
+     * A worker with no weight gets an equal share, so a new flow
+     * on it is not starved until the next rebalance.
+     * The workers pick up their new share on their next packet.
+     */
+    protected synchronized void rebalance() {
+        long[] weights = new long[workers.length];
+        long total = 0;
+
+        for (int w = 0; w < workers.length; w++) {
+            weights[w] = workers[w].weight();
+            total += weights[w];
+        }
+
+        int equalShare = bandwidthBits / workers.length;
+
+        for (int w = 0; w < workers.length; w++) {
+            int share = (total == 0 || weights[w] == 0) ? equalShare : (int)(bandwidthBits * weights[w] / total);
+
+            workers[w].setBandwidth(share);
+
+            if (Verbose.level >= 2) {
+                System.err.println("ShardedBPPForwarder: worker " + w + " weight " + weights[w] + " share " + share);
+            }
+        }
+    }
+
+    // Get the volume in
+    public long getVolumeIn() {
+        long volume = 0;
+
+        for (Worker worker : workers) {
+            if (worker != null) {
+                volume += worker.getVolumeIn();
+            }
+        }
+
+        return volume;
+    }
+
+    // Get the volume out
+    public long getVolumeOut() {
+        long volume = 0;
+
+        for (Worker worker : workers) {
+            if (worker != null) {
+                volume += worker.getVolumeOut();
+            }
+        }
+
+        return volume;
+    }
+
+    // Get a report of the flows of each worker
+    public String getFlowReport() {
+        StringBuilder builder = new StringBuilder();
+
+        for (Worker worker : workers) {
+            if (worker != null) {
+                builder.append("WORKER: " + worker.id + " bandwidth: " + worker.getBandwidth() + "\n");
+                builder.append(worker.getFlowReport());
+            }
+        }
+
+        return builder.toString();
+    }
+
+    // The metrics of all the workers added up
+    protected ForwarderMetrics totalMetrics() {
+        ForwarderMetrics total = new ForwarderMetrics();
+
+        for (Worker worker : workers) {
+            if (worker != null) {
+                total.add(worker.getMetrics());
+            }
+        }
+
+        return total;
+    }
+
+    // Capture the packets in and out of every worker
+    public void setCapture(PacketCapture capture) {
+        this.capture = capture;
+    }
+
+    // Write the metrics of all the workers
+    public void writeMetrics(PrometheusWriter w) {
+        totalMetrics().writeTo(w, "bpp");
+
+        w.metric("bpp_bandwidth_bits", "gauge", "Bandwidth of the outbound connection");
+        w.sample("bpp_bandwidth_bits", bandwidthBits);
+
+        w.metric("bpp_worker_bandwidth_bits", "gauge", "Share of the bandwidth of each worker");
+
+        for (Worker worker : workers) {
+            if (worker != null) {
+                w.sample("bpp_worker_bandwidth_bits", "worker=\"" + worker.id + "\"", worker.getBandwidth());
+            }
+        }
+
+        w.metric("bpp_worker_allocated_bytes_total", "counter", "Bytes allocated by each worker thread");
+
+        for (Worker worker : workers) {
+            if (worker != null) {
+                w.sample("bpp_worker_allocated_bytes_total", "worker=\"" + worker.id + "\"", worker.getMetrics().getAllocatedBytes());
+            }
+        }
+
+        List<FlowStats> flows = new ArrayList<FlowStats>();
+
+        for (Worker worker : workers) {
+            if (worker != null && worker.getBPPFn() instanceof MultiFlowBPPFn) {
+                flows.addAll(((MultiFlowBPPFn)worker.getBPPFn()).getFlowStats());
+            }
+        }
+
+        FlowStats.writeTo(w, "bpp", flows);
+
+        if (capture != null) {
+            capture.writeTo(w, "bpp");
+        }
+    }
+
+    // Take a snapshot of the counters of all the workers
+    public ForwarderMetrics.Snapshot getSnapshot() {
+        return totalMetrics().snapshot();
+    }
+
+    // get the bandwidthBits
+    public int getBandwidth() {
+        return bandwidthBits;
+    }
+
+    // Adjust the bandwidth
+    // Returns the old bandwidth
+    public int adjustBandwidth(int bb) {
+        int oldBW = bandwidthBits;
+
+        bandwidthBits = bb;
+
+        System.out.printf("BW:  %9d%10d\n", 0, bandwidthBits);
+
+        if (started) {
+            rebalance();
+        }
+
+        return oldBW;
+    }
+
+    // Set the config of the BPPFn of the workers, before the traffic is processed
+    public synchronized void setConfig(BPPFnConfig cfg) {
+        config = cfg;
+    }
+
+    // Get the config of the BPPFn of the workers
+    public synchronized BPPFnConfig getConfig() {
+        return config;
+    }
+
+    // Get the BPP Function config
+    public synchronized String getFn() {
+        return config.withBandwidth(bandwidthBits).toString();
+    }
+
+    // Change the BPP Function of every worker, and its ChunkSelector
+    // Returns the old one
+    public synchronized String adjustFn(String fn, String selector) throws IllegalArgumentException {
+        BPPFnConfig old = config;
+
+        config = config.withFn(fn).withSelector(selector);
+
+        if (started) {
+            for (Worker worker : workers) {
+                worker.adjustFn(fn, selector);
+            }
+        }
+
+        return old.withBandwidth(bandwidthBits).toString();
+    }
+
+    // Get the threshold override
+    public synchronized int getThreshold() {
+        return config.getThreshold();
+    }
+
+    // Adjust the threshold override of every worker
+    // Returns the old threshold
+    public synchronized int adjustThreshold(int threshold) throws IllegalArgumentException {
+        BPPFnConfig old = config;
+
+        config = config.withThreshold(threshold);
+
+        if (started) {
+            for (Worker worker : workers) {
+                worker.adjustThreshold(threshold);
+            }
+        }
+
+        return old.getThreshold();
+    }
+
+    /**
+     * A worker.
+     * It only changes its own bandwidth, in its own thread.
+     */
+    static class Worker extends BPPForwarder {
+        int id;
+
+        Execution.Task task;
+
+        // the volume in at the last rebalance
+        long lastVolumeIn = 0;
+
+        Worker(int id, int udpPort, String forwardHost, int forwardPort, int bandwidth) {
+            super(udpPort, forwardHost, forwardPort, bandwidth);
+            this.id = id;
+        }
+
+        void forward() {
+            try {
+                processTraffic();
+            } catch (IOException ioe) {
+                System.err.println("ShardedBPPForwarder: worker " + id + " " + ioe);
+            }
+        }
+
+        // The no of flows, if the BPPFn is multi flow
+        int getFlowCount() {
+            return (bppFn instanceof MultiFlowBPPFn) ? ((MultiFlowBPPFn)bppFn).getFlowCount() : 0;
+        }
+
+        // The flows on this worker,
+        // or the volume received since the last call
+        long weight() {
+            if (bppFn instanceof MultiFlowBPPFn) {
+                return getFlowCount();
+            } else {
+                long volume = getVolumeIn();
+                long weight = volume - lastVolumeIn;
+                lastVolumeIn = volume;
+                return weight;
+            }
+        }
+    }
+}
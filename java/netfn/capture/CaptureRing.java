@@ -0,0 +1,236 @@
+package netfn.capture;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+
+/**
+ * A single-producer / single-consumer ring of captured packets,
+ * for one forwarding thread.
+ *
+ * All the slots are allocated up front.  The forwarding thread copies
+ * up to the snap length of a packet into a slot as it comes in,
+ * and again as it goes out, with the decision made about it,
+ * and then publishes both with one volatile write.
+ * The PacketCapture thread takes them off, and writes them to the file.
+ * The forwarding thread never waits: if the ring is full,
+ * the packet is not captured, and it is counted as lost.
+ *
+ * When the rate is high the packets are sampled.
+ * If there were more than the rate of packets in the last second,
+ * only 1 in every N is captured, so about the rate are captured,
+ * and never more than the rate in any second.
+ */
+public class CaptureRing {
+    // Default no of slots
+    public final static int DEFAULT_SLOTS = 4096;
+
+    // The capture this ring is drained by
+    PacketCapture capture;
+
+    // The no of slots, a power of 2, and the mask for an index
+    int slots;
+    int mask;
+
+    // The max no of bytes copied from a packet
+    int snaplen;
+
+    // The slots
+    long[] times;            // from System.nanoTime()
+    int[] counts;            // the packet no in the forwarder
+    int[] lengths;           // the length of the packet
+    int[] captured;          // the bytes copied
+    int[] others;            // in: the length out, or -1 for dropped.  out: the length in
+    int[] bandwidths;        // the bandwidth when the decision was made
+    int[] sampling;          // captured 1 in this many
+    byte[] directions;       // PcapngWriter.INBOUND or OUTBOUND
+    byte[] addresses;        // the source address, 16 bytes for each slot
+    byte[] addressLengths;   // 4 or 16, or 0 for none
+    int[] ports;             // the source port
+    byte[] data;             // snaplen bytes for each slot
+
+    // The write position, only written by the forwarding thread
+    volatile long head = 0;
+
+    // The read position, only written by the capture thread
+    volatile long tail = 0;
+
+    // The ingress slot waiting for its decision, or -1
+    long pending = -1;
+
+    // The max no of packets to capture per second
+    int rate;
+
+    // Sampling, only used by the forwarding thread
+    long second = 0;
+    int packetsThisSecond = 0;
+    int capturedThisSecond = 0;
+    int sampleEvery = 1;
+
+    /**
+     * A CaptureRing for a PacketCapture
+     */
+    CaptureRing(PacketCapture capture, int slots, int snaplen, int rate) {
+        this.capture = capture;
+        this.slots = Integer.highestOneBit(Math.max(slots, 2) * 2 - 1);
+        this.mask = this.slots - 1;
+        this.snaplen = snaplen;
+        this.rate = rate;
+
+        times = new long[this.slots];
+        counts = new int[this.slots];
+        lengths = new int[this.slots];
+        captured = new int[this.slots];
+        others = new int[this.slots];
+        bandwidths = new int[this.slots];
+        sampling = new int[this.slots];
+        directions = new byte[this.slots];
+        addresses = new byte[this.slots * 16];
+        addressLengths = new byte[this.slots];
+        ports = new int[this.slots];
+        data = new byte[this.slots * snaplen];
+    }
+
+    /**
+     * A packet has come in.
+     * It is copied, if it is sampled, and there is room for it going out.
+     * Call before the packet is changed.
+     */
+    public void ingress(int count, DatagramPacket packet, long arrivalTime) {
+        pending = -1;
+
+        if (! sample(arrivalTime)) {
+            return;
+        }
+
+        if (head - tail > slots - 2) {
+            // no room for the packet in and out
+            capture.lost.increment();
+            return;
+        }
+
+        long slot = head;
+
+        copy(slot, PcapngWriter.INBOUND, count, packet, arrivalTime);
+        sampling[index(slot)] = sampleEvery;
+
+        pending = slot;
+    }
+
+    /**
+     * The packet that came in is going out, or not.
+     * Call before it is passed to the sender.
+     * @param packet the packet going out, or null if it is dropped
+     * @param bandwidth the bandwidth the decision was made with
+     */
+    public void egress(DatagramPacket packet, int bandwidth) {
+        if (pending < 0) {
+            return;
+        }
+
+        int in = index(pending);
+
+        bandwidths[in] = bandwidth;
+
+        if (packet == null) {
+            others[in] = -1;
+
+            head = pending + 1;
+        } else {
+            long slot = pending + 1;
+
+            others[in] = packet.getLength();
+
+            copy(slot, PcapngWriter.OUTBOUND, counts[in], packet, System.nanoTime());
+            others[index(slot)] = lengths[in];
+            bandwidths[index(slot)] = bandwidth;
+            sampling[index(slot)] = sampling[in];
+
+            head = slot + 1;
+        }
+
+        capture.packets.increment();
+
+        pending = -1;
+    }
+
+    // Is the packet at this time sampled
+    boolean sample(long time) {
+        long thisSecond = time / 1000000000L;
+
+        if (thisSecond != second) {
+            // 1 in N, so the packets at the rate of the last second make the rate
+            sampleEvery = Math.max(1, (packetsThisSecond + rate - 1) / rate);
+
+            second = thisSecond;
+            packetsThisSecond = 0;
+            capturedThisSecond = 0;
+        }
+
+        packetsThisSecond++;
+
+        if ((packetsThisSecond - 1) % sampleEvery != 0 || capturedThisSecond >= rate) {
+            capture.skipped.increment();
+            return false;
+        } else {
+            capturedThisSecond++;
+            return true;
+        }
+    }
+
+    // Copy a packet into a slot
+    void copy(long slot, int direction, int count, DatagramPacket packet, long time) {
+        int i = index(slot);
+        int length = packet.getLength();
+        int copied = Math.min(length, snaplen);
+
+        times[i] = time;
+        counts[i] = count;
+        lengths[i] = length;
+        captured[i] = copied;
+        directions[i] = (byte)direction;
+
+        System.arraycopy(packet.getData(), packet.getOffset(), data, i * snaplen, copied);
+
+        InetAddress address = packet.getAddress();
+
+        if (address == null) {
+            addressLengths[i] = 0;
+            ports[i] = 0;
+        } else {
+            byte[] bytes = address.getAddress();
+
+            System.arraycopy(bytes, 0, addresses, i * 16, bytes.length);
+            addressLengths[i] = (byte)bytes.length;
+            ports[i] = packet.getPort();
+        }
+    }
+
+    /**
+     * Pass the published slots to the PacketCapture to write.
+     * Only called by the capture thread.
+     * @return the no of slots written
+     */
+    int drain() throws IOException {
+        long end = head;
+        long start = tail;
+
+        for (long slot = start; slot < end; slot++) {
+            capture.write(this, index(slot));
+        }
+
+        tail = end;
+
+        return (int)(end - start);
+    }
+
+    // Get the capture this ring is drained by
+    public PacketCapture getCapture() {
+        return capture;
+    }
+
+    // The index of a slot
+    int index(long slot) {
+        return (int)(slot & mask);
+    }
+}
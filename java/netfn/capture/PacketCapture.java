@@ -0,0 +1,383 @@
+package netfn.capture;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import cc.clayman.util.Execution;
+
+import netfn.metrics.PrometheusWriter;
+
+/**
+ * Capture the packets going in and out of a forwarder to a pcapng file,
+ * so the trim decisions can be looked at in Wireshark or tshark,
+ * without turning on the verbose output, which changes the timing.
+ *
+ * Each forwarding thread gets its own CaptureRing, which it copies
+ * the packets into.  A thread of the capture takes them off the rings
+ * and writes them to the file with a PcapngWriter.
+ * The packets are the UDP payloads, so an IP and UDP header is put
+ * in front of each one, from the source of the packet, to the listen port
+ * on the way in, and to the forward host and port on the way out.
+ * Each packet in has a comment with the decision made about it,
+ * e.g. <code>packet 12 trimmed 1400 -> 980 bandwidth 1048576 sampled 1/4</code>,
+ * and the packets in and out can be told apart by their interface,
+ * and by their direction flags.
+ *
+ * To keep capture on all the time, the file is bounded.
+ * When it gets to the max size it is moved to file.1,
+ * and a new file is started, so there are at most two files.
+ * The file is also closed when the JVM exits, so a forwarder
+ * that is killed leaves a whole file.
+ */
+public class PacketCapture implements Runnable {
+    // Defaults
+    public final static int DEFAULT_SNAPLEN = 256;          // bytes of each packet
+    public final static int DEFAULT_RATE = 1000;            // packets per second, per ring
+    public final static long DEFAULT_MAX_SIZE = 100L * 1024 * 1024;   // bytes in a file
+
+    // How long to wait when the rings are empty
+    final static long IDLE_NANOS = 1000000;   // 1 ms
+
+    // The interfaces in the file
+    final static int INGRESS = 0;
+    final static int EGRESS = 1;
+
+    // The file
+    String filename;
+    PcapngWriter writer = null;
+
+    // The addresses of the forwarder
+    int listenPort;
+    byte[] forwardAddress;
+    int forwardPort;
+
+    // Settings
+    int snaplen = DEFAULT_SNAPLEN;
+    int rate = DEFAULT_RATE;
+    long maxSize = DEFAULT_MAX_SIZE;
+
+    // The rings
+    List<CaptureRing> rings = new CopyOnWriteArrayList<CaptureRing>();
+
+    // From System.nanoTime() to nanoseconds since the epoch
+    long epochOffset;
+
+    // The Thread
+    Execution.Task myThread;
+
+    volatile boolean running = false;
+
+    // has the file been closed
+    boolean closed = false;
+
+    // Stops the capture when the JVM exits
+    Thread shutdownHook = null;
+
+    // counts
+    LongAdder packets = new LongAdder();    // packets captured
+    LongAdder skipped = new LongAdder();    // not sampled
+    LongAdder lost = new LongAdder();       // a ring was full
+    LongAdder files = new LongAdder();      // files started
+
+    // Used by the capture thread for each packet
+    byte[] header = new byte[48];
+    StringBuilder comment = new StringBuilder();
+    byte[] commentBytes = new byte[256];
+
+    /**
+     * A PacketCapture to a file, for a forwarder
+     * that listens on a port, and forwards to a host and port
+     */
+    public PacketCapture(String filename, int listenPort, String forwardHost, int forwardPort) throws IOException {
+        this.filename = filename;
+        this.listenPort = listenPort;
+        this.forwardAddress = InetAddress.getByName(forwardHost).getAddress();
+        this.forwardPort = forwardPort;
+    }
+
+    // Set the max no of bytes captured from each packet
+    public void setSnaplen(int snaplen) {
+        this.snaplen = snaplen;
+    }
+
+    // Set the max no of packets captured per second, for each ring
+    public void setRate(int packetsPerSecond) {
+        this.rate = packetsPerSecond;
+    }
+
+    // Set the max size of a file, in bytes
+    public void setMaxSize(long bytes) {
+        this.maxSize = bytes;
+    }
+
+    /**
+     * A new ring, for a forwarding thread
+     */
+    public CaptureRing newRing() {
+        CaptureRing ring = new CaptureRing(this, CaptureRing.DEFAULT_SLOTS, snaplen, rate);
+
+        rings.add(ring);
+
+        return ring;
+    }
+
+    /**
+     * Open the file, and start the capture thread
+     */
+    public boolean start() throws IOException {
+        epochOffset = System.currentTimeMillis() * 1000000L - System.nanoTime();
+
+        open();
+
+        running = true;
+
+        myThread = Execution.start(this, "PacketCapture");
+
+        shutdownHook = new Thread(() -> stop(), "PacketCapture-shutdown");
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+
+        return true;
+    }
+
+    /**
+     * Stop the capture.
+     * The packets in the rings are written first.
+     * An interrupt of the caller is put off until the file is closed,
+     * as it would close the file channel under the writer.
+     */
+    public synchronized boolean stop() {
+        if (closed) {
+            return false;
+        }
+
+        boolean interrupted = Thread.interrupted();
+
+        running = false;
+
+        try {
+            if (myThread != null) {
+                myThread.join();
+            }
+        } catch (InterruptedException ie) {
+        }
+
+        try {
+            writer.close();
+        } catch (IOException ioe) {
+            System.err.println("PacketCapture: " + filename + " " + ioe);
+        }
+
+        closed = true;
+
+        if (Thread.currentThread() != shutdownHook) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            } catch (IllegalStateException ise) {
+                // the JVM is already exiting
+            }
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        return true;
+    }
+
+    /**
+     * The capture loop
+     */
+    public void run() {
+        try {
+            while (running) {
+                if (drain() == 0) {
+                    LockSupport.parkNanos(IDLE_NANOS);
+                }
+            }
+
+            drain();
+
+        } catch (IOException ioe) {
+            System.err.println("PacketCapture: " + filename + " " + ioe.getMessage());
+        }
+    }
+
+    // Drain every ring
+    int drain() throws IOException {
+        int count = 0;
+
+        for (CaptureRing ring : rings) {
+            count += ring.drain();
+        }
+
+        return count;
+    }
+
+    // Open a new file, with the ingress and egress interfaces
+    void open() throws IOException {
+        writer = new PcapngWriter(filename);
+
+        // an IPv6 header and a UDP header, then the payload
+        writer.writeInterface("ingress", PcapngWriter.LINKTYPE_RAW, snaplen + 48);
+        writer.writeInterface("egress", PcapngWriter.LINKTYPE_RAW, snaplen + 48);
+
+        files.increment();
+    }
+
+    // Move the file to file.1, and start a new one
+    void rotate() throws IOException {
+        writer.close();
+
+        Files.move(Paths.get(filename), Paths.get(filename + ".1"), StandardCopyOption.REPLACE_EXISTING);
+
+        open();
+    }
+
+    /**
+     * Write the packet in a slot of a ring.
+     * Only called by the capture thread.
+     */
+    void write(CaptureRing ring, int i) throws IOException {
+        if (writer.size() >= maxSize) {
+            rotate();
+        }
+
+        boolean in = ring.directions[i] == PcapngWriter.INBOUND;
+
+        int headerLength = ipHeader(ring, i, in);
+
+        // the decision, on the packet in
+        comment.setLength(0);
+        comment.append("packet ").append(ring.counts[i]);
+
+        if (! in) {
+            comment.append(" out ").append(ring.lengths[i]).append(" of ").append(ring.others[i]);
+        } else if (ring.others[i] < 0) {
+            comment.append(" dropped ").append(ring.lengths[i]);
+        } else if (ring.others[i] < ring.lengths[i]) {
+            comment.append(" trimmed ").append(ring.lengths[i]).append(" -> ").append(ring.others[i]);
+        } else {
+            comment.append(" forwarded ").append(ring.lengths[i]);
+        }
+
+        comment.append(" bandwidth ").append(ring.bandwidths[i]);
+
+        if (ring.sampling[i] > 1) {
+            comment.append(" sampled 1/").append(ring.sampling[i]);
+        }
+
+        int commentLength = 0;
+
+        for (int c = 0; c < comment.length() && c < commentBytes.length; c++) {
+            commentBytes[commentLength++] = (byte)comment.charAt(c);
+        }
+
+        writer.writePacket(in ? INGRESS : EGRESS, ring.times[i] + epochOffset,
+                           header, headerLength,
+                           ring.data, i * ring.snaplen, ring.captured[i],
+                           headerLength + ring.lengths[i],
+                           ring.directions[i], commentBytes, commentLength);
+    }
+
+    // Make the IP and UDP header of the packet in a slot
+    // @return the length of the header
+    int ipHeader(CaptureRing ring, int i, boolean in) {
+        int addressLength = ring.addressLengths[i] == 16 ? 16 : 4;
+        int ipLength = addressLength == 16 ? 40 : 20;
+        int udpLength = 8 + ring.lengths[i];
+
+        Arrays.fill(header, (byte)0);
+
+        if (addressLength == 4) {
+            int total = ipLength + udpLength;
+
+            header[0] = 0x45;
+            header[2] = (byte)(total >> 8);
+            header[3] = (byte)total;
+            header[8] = 64;    // ttl
+            header[9] = 17;    // UDP
+        } else {
+            header[0] = 0x60;
+            header[4] = (byte)(udpLength >> 8);
+            header[5] = (byte)udpLength;
+            header[6] = 17;    // UDP
+            header[7] = 64;    // hop limit
+        }
+
+        int src = ipLength - 2 * addressLength;
+        int dst = ipLength - addressLength;
+
+        if (ring.addressLengths[i] != 0) {
+            System.arraycopy(ring.addresses, i * 16, header, src, addressLength);
+        }
+
+        if (! in && forwardAddress.length == addressLength) {
+            System.arraycopy(forwardAddress, 0, header, dst, addressLength);
+        }
+
+        if (addressLength == 4) {
+            checksum(header, 20);
+        }
+
+        // UDP, with no checksum
+        int sourcePort = ring.ports[i];
+        int destPort = in ? listenPort : forwardPort;
+
+        header[ipLength] = (byte)(sourcePort >> 8);
+        header[ipLength + 1] = (byte)sourcePort;
+        header[ipLength + 2] = (byte)(destPort >> 8);
+        header[ipLength + 3] = (byte)destPort;
+        header[ipLength + 4] = (byte)(udpLength >> 8);
+        header[ipLength + 5] = (byte)udpLength;
+
+        return ipLength + 8;
+    }
+
+    // Put the checksum into an IPv4 header
+    static void checksum(byte[] header, int length) {
+        int sum = 0;
+
+        for (int b = 0; b < length; b += 2) {
+            sum += ((header[b] & 0xFF) << 8) | (header[b + 1] & 0xFF);
+        }
+
+        while ((sum >> 16) != 0) {
+            sum = (sum & 0xFFFF) + (sum >> 16);
+        }
+
+        sum = ~sum;
+
+        header[10] = (byte)(sum >> 8);
+        header[11] = (byte)sum;
+    }
+
+    /**
+     * A report of the capture
+     */
+    public String report() {
+        return String.format("CAPTURE: %s packets %d skipped %d lost %d files %d\n", filename,
+                             packets.sum(), skipped.sum(), lost.sum(), files.sum());
+    }
+
+    /**
+     * Write the counts of the capture
+     */
+    public void writeTo(PrometheusWriter w, String prefix) {
+        w.metric(prefix + "_capture_packets_total", "counter", "Packets captured");
+        w.sample(prefix + "_capture_packets_total", packets.sum());
+
+        w.metric(prefix + "_capture_skipped_packets_total", "counter", "Packets not captured, as they were not sampled");
+        w.sample(prefix + "_capture_skipped_packets_total", skipped.sum());
+
+        w.metric(prefix + "_capture_lost_packets_total", "counter", "Packets not captured, as the capture was behind");
+        w.sample(prefix + "_capture_lost_packets_total", lost.sum());
+    }
+}
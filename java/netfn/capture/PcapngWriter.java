@@ -0,0 +1,233 @@
+package netfn.capture;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Write blocks of a pcapng file into a memory-mapped file.
+ *
+ * The file is mapped a region at a time, and a block that does not fit
+ * in what is left of the region starts a new one, so writing a packet
+ * is a copy into memory, and the kernel writes the pages back.
+ * When the file is closed it is cut back to the end of the last block.
+ *
+ * The blocks are in the native byte order, which the
+ * Section Header Block records, as pcapng allows.
+ */
+public class PcapngWriter implements Closeable {
+    // Block types
+    final static int SECTION_HEADER = 0x0A0D0D0A;
+    final static int INTERFACE_DESCRIPTION = 0x00000001;
+    final static int ENHANCED_PACKET = 0x00000006;
+
+    // The byte order magic
+    final static int BYTE_ORDER_MAGIC = 0x1A2B3C4D;
+
+    // Options
+    final static short OPT_END = 0;
+    final static short OPT_COMMENT = 1;
+    final static short IF_NAME = 2;
+    final static short IF_TSRESOL = 9;
+    final static short EPB_FLAGS = 2;
+
+    // Link type of packets that start with an IPv4 or IPv6 header
+    public final static int LINKTYPE_RAW = 101;
+
+    // The directions, for the flags of a packet
+    public final static int INBOUND = 1;
+    public final static int OUTBOUND = 2;
+
+    // The size of each mapped region
+    public final static int REGION_SIZE = 8 * 1024 * 1024;
+
+    // The file
+    String filename;
+    FileChannel channel;
+
+    // The region being written, and where it starts in the file
+    MappedByteBuffer region = null;
+    long regionStart = 0;
+
+    // Where the next block goes in the file
+    long position = 0;
+
+    /**
+     * Create a pcapng file, with a Section Header Block.
+     * An existing file is replaced.
+     */
+    public PcapngWriter(String filename) throws IOException {
+        this.filename = filename;
+
+        Path path = Paths.get(filename);
+
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                                   StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        writeSectionHeader();
+    }
+
+    /**
+     * Add an Interface Description Block, with nanosecond timestamps.
+     * The interfaces are numbered from 0, in the order they are added.
+     */
+    public void writeInterface(String name, int linkType, int snaplen) throws IOException {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+
+        int length = 16 + option(nameBytes.length) + option(1) + 4 + 4;
+
+        MappedByteBuffer b = reserve(length);
+
+        b.putInt(INTERFACE_DESCRIPTION);
+        b.putInt(length);
+        b.putShort((short)linkType);
+        b.putShort((short)0);
+        b.putInt(snaplen);
+
+        putOption(b, IF_NAME, nameBytes, nameBytes.length);
+
+        // 10^-9 seconds
+        b.putShort(IF_TSRESOL);
+        b.putShort((short)1);
+        b.put((byte)9);
+        b.put(new byte[3]);
+
+        b.putShort(OPT_END);
+        b.putShort((short)0);
+        b.putInt(length);
+
+        position += length;
+    }
+
+    /**
+     * Add an Enhanced Packet Block.
+     * @param header the bytes before the data, e.g. an IP and UDP header
+     * @param data the captured data
+     * @param originalLength the length of the packet on the wire, including the header
+     * @param timestamp the time, in nanoseconds since the epoch
+     * @param direction INBOUND or OUTBOUND
+     * @param comment a comment, or null
+     */
+    public void writePacket(int interfaceId, long timestamp, byte[] header, int headerLength,
+                            byte[] data, int offset, int dataLength, int originalLength,
+                            int direction, byte[] comment, int commentLength) throws IOException {
+        int captured = headerLength + dataLength;
+
+        int length = 28 + pad(captured) + option(4) + (comment == null ? 0 : option(commentLength)) + 4 + 4;
+
+        MappedByteBuffer b = reserve(length);
+
+        b.putInt(ENHANCED_PACKET);
+        b.putInt(length);
+        b.putInt(interfaceId);
+        b.putInt((int)(timestamp >>> 32));
+        b.putInt((int)timestamp);
+        b.putInt(captured);
+        b.putInt(originalLength);
+
+        b.put(header, 0, headerLength);
+        b.put(data, offset, dataLength);
+        putPadding(b, captured);
+
+        b.putShort(EPB_FLAGS);
+        b.putShort((short)4);
+        b.putInt(direction);
+
+        if (comment != null) {
+            putOption(b, OPT_COMMENT, comment, commentLength);
+        }
+
+        b.putShort(OPT_END);
+        b.putShort((short)0);
+        b.putInt(length);
+
+        position += length;
+    }
+
+    /**
+     * The size of the file so far
+     */
+    public long size() {
+        return position;
+    }
+
+    /**
+     * Close the file, cut back to the last block.
+     */
+    public void close() throws IOException {
+        if (region != null) {
+            region.force();
+            region = null;
+        }
+
+        channel.truncate(position);
+        channel.close();
+    }
+
+    // The Section Header Block, with an unknown section length
+    void writeSectionHeader() throws IOException {
+        int length = 28;
+
+        MappedByteBuffer b = reserve(length);
+
+        b.putInt(SECTION_HEADER);
+        b.putInt(length);
+        b.putInt(BYTE_ORDER_MAGIC);
+        b.putShort((short)1);
+        b.putShort((short)0);
+        b.putLong(-1L);
+        b.putInt(length);
+
+        position += length;
+    }
+
+    // Get the region to write a block of a length into,
+    // positioned at the start of the block.
+    // A new region is mapped if the block does not fit.
+    MappedByteBuffer reserve(int length) throws IOException {
+        if (region == null || position + length > regionStart + region.capacity()) {
+            if (region != null) {
+                region.force();
+            }
+
+            regionStart = position;
+            region = channel.map(FileChannel.MapMode.READ_WRITE, regionStart, Math.max(REGION_SIZE, length));
+            region.order(ByteOrder.nativeOrder());
+        }
+
+        region.position((int)(position - regionStart));
+
+        return region;
+    }
+
+    // An option, with its value
+    void putOption(MappedByteBuffer b, short code, byte[] value, int length) {
+        b.putShort(code);
+        b.putShort((short)length);
+        b.put(value, 0, length);
+        putPadding(b, length);
+    }
+
+    // The padding after a value of a length
+    void putPadding(MappedByteBuffer b, int length) {
+        for (int p = length; p < pad(length); p++) {
+            b.put((byte)0);
+        }
+    }
+
+    // The size of an option with a value of a length
+    static int option(int length) {
+        return 4 + pad(length);
+    }
+
+    // A length padded to 32 bits
+    static int pad(int length) {
+        return (length + 3) & ~3;
+    }
+}
@@ -842,6 +842,9 @@ private void sendResponse(String status,
         // Couldn't write? No can do.
         try { mySocket.close(); } catch (Throwable t) {
         }
+        // let the data know the client has gone
+        try { if (data != null) data.close(); } catch (Throwable t) {
+        }
     }
 }
 
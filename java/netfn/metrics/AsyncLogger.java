@@ -0,0 +1,174 @@
+package netfn.metrics;
+
+import java.io.PrintStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import cc.clayman.util.Execution;
+
+/**
+ * A logger that formats and prints lines on its own thread,
+ * so the caller does not wait for the console.
+ *
+ * It is rate limited.  Lines over the limit in a second are not queued,
+ * and lines that do not fit in the queue are dropped.
+ * The no of lines lost is printed, at most once a second.
+ */
+public class AsyncLogger implements Runnable {
+    // Defaults
+    public final static int DEFAULT_RATE = 1000;       // lines per second
+    public final static int DEFAULT_CAPACITY = 4096;   // lines in the queue
+
+    // A line to print
+    static class Line {
+        final String format;
+        final Object[] args;
+
+        Line(String format, Object[] args) {
+            this.format = format;
+            this.args = args;
+        }
+    }
+
+    // Where the lines go
+    PrintStream out;
+
+    // The max no of lines per second
+    int linesPerSecond;
+
+    // The queue of lines
+    ArrayBlockingQueue<Line> queue;
+
+    // The second, and the no of lines in it
+    volatile long currentSecond = 0;
+    AtomicInteger linesThisSecond = new AtomicInteger(0);
+
+    // counts
+    LongAdder printed = new LongAdder();
+    LongAdder suppressed = new LongAdder();   // over the rate
+    LongAdder dropped = new LongAdder();      // the queue was full
+
+    // The print thread
+    Execution.Task myThread;
+
+    volatile boolean running = false;
+
+    /**
+     * An AsyncLogger to a PrintStream, with the default rate.
+     */
+    public AsyncLogger(PrintStream out) {
+        this(out, DEFAULT_RATE);
+    }
+
+    /**
+     * An AsyncLogger to a PrintStream, with a max no of lines per second.
+     */
+    public AsyncLogger(PrintStream out, int linesPerSecond) {
+        this.out = out;
+        this.linesPerSecond = linesPerSecond;
+        this.queue = new ArrayBlockingQueue<Line>(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Start the print thread
+     */
+    public boolean start() {
+        running = true;
+
+        myThread = Execution.start(this, "AsyncLogger");
+
+        return true;
+    }
+
+    /**
+     * Stop the logger.
+     * The lines in the queue are printed first.
+     */
+    public boolean stop() {
+        running = false;
+
+        try {
+            if (myThread != null) {
+                myThread.join();
+            }
+        } catch (InterruptedException ie) {
+        }
+
+        reportLost();
+
+        return true;
+    }
+
+    /**
+     * Log a line, with a format and args, as in printf.
+     * @return false if the line is not logged
+     */
+    public boolean log(String format, Object... args) {
+        long second = System.nanoTime() / 1000000000L;
+
+        if (second != currentSecond) {
+            // a new second
+            currentSecond = second;
+            linesThisSecond.set(0);
+        }
+
+        if (linesThisSecond.incrementAndGet() > linesPerSecond) {
+            suppressed.increment();
+            return false;
+        }
+
+        if (! queue.offer(new Line(format, args))) {
+            dropped.increment();
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * The print loop
+     */
+    public void run() {
+        long lastReport = System.nanoTime();
+
+        while (running || !queue.isEmpty()) {
+            try {
+                Line line = queue.poll(100, TimeUnit.MILLISECONDS);
+
+                if (line != null) {
+                    out.printf(line.format, line.args);
+                    printed.increment();
+                }
+            } catch (InterruptedException ie) {
+                break;
+            }
+
+            // say how many were lost, once a second
+            long now = System.nanoTime();
+
+            if (now - lastReport >= 1000000000L) {
+                reportLost();
+                lastReport = now;
+            }
+        }
+
+        out.flush();
+    }
+
+    // Print the no of lines lost since the last report
+    protected void reportLost() {
+        long s = suppressed.sumThenReset();
+        long d = dropped.sumThenReset();
+
+        if (s > 0 || d > 0) {
+            out.printf("LOST: %d suppressed %d dropped\n", s, d);
+        }
+    }
+
+    // Get the no of lines printed
+    public long getPrinted() {
+        return printed.sum();
+    }
+}
@@ -0,0 +1,351 @@
+package netfn.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import cc.clayman.net.PacketSender;
+import cc.clayman.net.Queued;
+
+/**
+ * The metrics of a forwarder.
+ *
+ * The counters are LongAdders, and the histograms are lock-free,
+ * so the forwarder thread updates them without locking,
+ * and any thread, such as the management thread, can read them.
+ */
+public class ForwarderMetrics {
+    // No of significance levels
+    public final static int LEVELS = 16;
+
+    // Packet counts
+    public final LongAdder packetsIn = new LongAdder();
+    public final LongAdder packetsOut = new LongAdder();
+    public final LongAdder packetsTrimmed = new LongAdder();
+    public final LongAdder packetsDropped = new LongAdder();
+
+    // Byte counts
+    public final LongAdder bytesIn = new LongAdder();
+    public final LongAdder bytesOut = new LongAdder();
+    public final LongAdder bytesTrimmed = new LongAdder();
+    public final LongAdder bytesDropped = new LongAdder();
+
+    // The ingress to egress latency, in nanoseconds
+    public final Histogram latency = new Histogram();
+
+    // The bytes trimmed from each forwarded packet
+    public final Histogram trimmed = new Histogram();
+
+    // The bytes trimmed at each significance level - SIGi is 4 bits
+    public final LongAdder[] trimmedBySignificance = new LongAdder[LEVELS];
+
+    // The forecast of a predictive fn, only written by the forwarding thread
+    volatile long forecastIntervals = 0;
+    volatile double forecastError = 0;        // last absolute error, as a fraction of the actual
+    volatile double meanForecastError = 0;    // mean absolute error, as a fraction of the actual
+    volatile int predictedThreshold = -1;     // the threshold from the forecast, or -1
+
+    // The id of the forwarding thread, for its allocation, or -1
+    volatile long threadId = -1;
+
+    public ForwarderMetrics() {
+        for (int l = 0; l < LEVELS; l++) {
+            trimmedBySignificance[l] = new LongAdder();
+        }
+    }
+
+    /**
+     * A packet came in
+     */
+    public void recordIn(int length) {
+        packetsIn.increment();
+        bytesIn.add(length);
+    }
+
+    /**
+     * A packet went out
+     * @param length the length in
+     * @param newLength the length out
+     * @param arrivalTime the System.nanoTime() it came in
+     */
+    public void recordOut(int length, int newLength, long arrivalTime) {
+        recordOut(length, newLength, arrivalTime, System.nanoTime());
+    }
+
+    /**
+     * A packet went out, at a time from the same clock as its arrival
+     * @param length the length in
+     * @param newLength the length out
+     * @param arrivalTime the time it came in, in nanoseconds
+     * @param departureTime the time it went out, in nanoseconds
+     */
+    public void recordOut(int length, int newLength, long arrivalTime, long departureTime) {
+        recordQueued(length, newLength);
+        recordLatency(arrivalTime, departureTime);
+    }
+
+    /**
+     * A packet was passed to an egress queue, with a LatencyTap after it,
+     * which records the latency when the packet goes out
+     * @param length the length in
+     * @param newLength the length out
+     */
+    public void recordQueued(int length, int newLength) {
+        packetsOut.increment();
+        bytesOut.add(newLength);
+
+        int trim = length - newLength;
+
+        if (trim > 0) {
+            packetsTrimmed.increment();
+            bytesTrimmed.add(trim);
+        }
+
+        trimmed.record(trim);
+    }
+
+    /**
+     * A packet counted with recordQueued was dropped by a queue,
+     * so it is moved from out to dropped
+     * @param length the length it was queued with
+     */
+    public void recordQueueDrop(int length) {
+        packetsOut.decrement();
+        bytesOut.add(-length);
+        recordDrop(length);
+    }
+
+    /**
+     * The latency of a packet that went out
+     * @param arrivalTime the time it came in, in nanoseconds
+     * @param departureTime the time it went out, in nanoseconds
+     */
+    public void recordLatency(long arrivalTime, long departureTime) {
+        latency.record(departureTime - arrivalTime);
+    }
+
+    /**
+     * A packet was dropped
+     */
+    public void recordDrop(int length) {
+        packetsDropped.increment();
+        bytesDropped.add(length);
+    }
+
+    /**
+     * Some bytes at a significance level were trimmed
+     */
+    public void recordTrimmed(int significance, int size) {
+        trimmedBySignificance[significance & (LEVELS - 1)].add(size);
+    }
+
+    /**
+     * A forecast was made, for an interval, and checked.
+     * Only called by the forwarding thread.
+     * @param error the absolute error of the last forecast, as a fraction of the actual
+     * @param threshold the threshold from the new forecast
+     */
+    public void recordForecast(double error, int threshold) {
+        long intervals = forecastIntervals + 1;
+
+        meanForecastError += (error - meanForecastError) / intervals;
+        forecastError = error;
+        predictedThreshold = threshold;
+        forecastIntervals = intervals;
+    }
+
+    /**
+     * The thread that does the forwarding
+     */
+    public void setThread(Thread thread) {
+        threadId = thread.getId();
+    }
+
+    /**
+     * Get the bytes allocated by the forwarding thread, or -1 if it is not known
+     */
+    public long getAllocatedBytes() {
+        return JVMMetrics.getThreadAllocatedBytes(threadId);
+    }
+
+    /**
+     * Add the metrics of another forwarder, such as a worker
+     */
+    public void add(ForwarderMetrics other) {
+        packetsIn.add(other.packetsIn.sum());
+        packetsOut.add(other.packetsOut.sum());
+        packetsTrimmed.add(other.packetsTrimmed.sum());
+        packetsDropped.add(other.packetsDropped.sum());
+        bytesIn.add(other.bytesIn.sum());
+        bytesOut.add(other.bytesOut.sum());
+        bytesTrimmed.add(other.bytesTrimmed.sum());
+        bytesDropped.add(other.bytesDropped.sum());
+
+        latency.add(other.latency);
+        trimmed.add(other.trimmed);
+
+        for (int l = 0; l < LEVELS; l++) {
+            trimmedBySignificance[l].add(other.trimmedBySignificance[l].sum());
+        }
+
+        if (other.forecastIntervals > 0) {
+            // the mean over all the intervals, and the last of the other
+            long intervals = forecastIntervals + other.forecastIntervals;
+
+            meanForecastError = (meanForecastError * forecastIntervals + other.meanForecastError * other.forecastIntervals) / intervals;
+            forecastError = other.forecastError;
+            predictedThreshold = other.predictedThreshold;
+            forecastIntervals = intervals;
+        }
+    }
+
+    /**
+     * Take a snapshot of the counters
+     */
+    public Snapshot snapshot() {
+        return new Snapshot(packetsIn.sum(), packetsOut.sum(), packetsTrimmed.sum(), packetsDropped.sum(),
+                            bytesIn.sum(), bytesOut.sum(), bytesTrimmed.sum(), bytesDropped.sum(),
+                            latency.getValueAtPercentile(99));
+    }
+
+    /**
+     * Write the metrics, with names starting with a prefix, e.g. bpp
+     */
+    public void writeTo(PrometheusWriter w, String prefix) {
+        w.metric(prefix + "_packets_total", "counter", "Packets in, out, trimmed, and dropped");
+        w.sample(prefix + "_packets_total", "direction=\"in\"", packetsIn.sum());
+        w.sample(prefix + "_packets_total", "direction=\"out\"", packetsOut.sum());
+        w.sample(prefix + "_packets_total", "direction=\"trimmed\"", packetsTrimmed.sum());
+        w.sample(prefix + "_packets_total", "direction=\"dropped\"", packetsDropped.sum());
+
+        w.metric(prefix + "_bytes_total", "counter", "Bytes in, out, trimmed, and dropped");
+        w.sample(prefix + "_bytes_total", "direction=\"in\"", bytesIn.sum());
+        w.sample(prefix + "_bytes_total", "direction=\"out\"", bytesOut.sum());
+        w.sample(prefix + "_bytes_total", "direction=\"trimmed\"", bytesTrimmed.sum());
+        w.sample(prefix + "_bytes_total", "direction=\"dropped\"", bytesDropped.sum());
+
+        w.metric(prefix + "_trimmed_bytes_by_significance_total", "counter", "Bytes trimmed at each significance level");
+
+        for (int l = 0; l < LEVELS; l++) {
+            w.sample(prefix + "_trimmed_bytes_by_significance_total", "significance=\"" + l + "\"", trimmedBySignificance[l].sum());
+        }
+
+        w.metric(prefix + "_latency_seconds", "summary", "Latency from ingress to egress");
+        writeQuantiles(w, prefix + "_latency_seconds", latency, 1e-9);
+
+        w.metric(prefix + "_trimmed_bytes_per_packet", "summary", "Bytes trimmed from each forwarded packet");
+        writeQuantiles(w, prefix + "_trimmed_bytes_per_packet", trimmed, 1);
+
+        if (forecastIntervals > 0) {
+            w.metric(prefix + "_forecast_error_ratio", "gauge", "Absolute error of the last forecast, as a fraction of the actual");
+            w.sample(prefix + "_forecast_error_ratio", forecastError);
+
+            w.metric(prefix + "_forecast_mean_error_ratio", "gauge", "Mean absolute error of the forecasts, as a fraction of the actual");
+            w.sample(prefix + "_forecast_mean_error_ratio", meanForecastError);
+
+            w.metric(prefix + "_forecast_intervals_total", "counter", "Intervals the forecast was checked for");
+            w.sample(prefix + "_forecast_intervals_total", forecastIntervals);
+
+            w.metric(prefix + "_predicted_threshold", "gauge", "Significance threshold from the forecast");
+            w.sample(prefix + "_predicted_threshold", predictedThreshold);
+        }
+
+        long allocated = getAllocatedBytes();
+
+        if (allocated >= 0) {
+            w.metric(prefix + "_allocated_bytes_total", "counter", "Bytes allocated by the forwarding thread");
+            w.sample(prefix + "_allocated_bytes_total", allocated);
+        }
+    }
+
+    /**
+     * Write the depth of the queue of a sender, if it has one
+     */
+    public static void writeQueue(PrometheusWriter w, String prefix, PacketSender sender) {
+        if (! (sender instanceof Queued)) {
+            return;
+        }
+
+        Queued queued = (Queued)sender;
+
+        w.metric(prefix + "_queue_packets", "gauge", "Packets in the egress queue");
+        w.sample(prefix + "_queue_packets", queued.getQueueLength());
+
+        w.metric(prefix + "_queue_bytes", "gauge", "Bytes in the egress queue");
+        w.sample(prefix + "_queue_bytes", queued.getQueueBytes());
+
+        w.metric(prefix + "_queue_dropped_packets_total", "counter", "Packets dropped by the egress queue");
+        w.sample(prefix + "_queue_dropped_packets_total", queued.getPacketsDropped());
+    }
+
+    // Write a histogram as a summary, with its values scaled
+    static void writeQuantiles(PrometheusWriter w, String name, Histogram h, double scale) {
+        for (String q : new String[] { "0.5", "0.9", "0.99", "0.999" }) {
+            w.sample(name, "quantile=\"" + q + "\"", h.getValueAtPercentile(Double.parseDouble(q) * 100) * scale);
+        }
+
+        w.sample(name + "_sum", h.getSum() * scale);
+        w.sample(name + "_count", h.getCount());
+    }
+
+    /**
+     * A report of the metrics, as lines of text
+     */
+    public String report() {
+        StringBuilder builder = new StringBuilder();
+
+        builder.append(String.format("PACKETS: in %d out %d trimmed %d dropped %d\n", packetsIn.sum(), packetsOut.sum(), packetsTrimmed.sum(), packetsDropped.sum()));
+        builder.append(String.format("BYTES: in %d out %d trimmed %d dropped %d\n", bytesIn.sum(), bytesOut.sum(), bytesTrimmed.sum(), bytesDropped.sum()));
+        builder.append(String.format("LATENCY: us mean %.1f p50 %d p90 %d p99 %d p99.9 %d max %d\n",
+                                     latency.getMean() / 1000,
+                                     micros(latency.getValueAtPercentile(50)),
+                                     micros(latency.getValueAtPercentile(90)),
+                                     micros(latency.getValueAtPercentile(99)),
+                                     micros(latency.getValueAtPercentile(99.9)),
+                                     micros(latency.getMax())));
+        builder.append(String.format("TRIMMED: bytes per packet mean %.1f p50 %d p90 %d p99 %d max %d\n",
+                                     trimmed.getMean(),
+                                     trimmed.getValueAtPercentile(50),
+                                     trimmed.getValueAtPercentile(90),
+                                     trimmed.getValueAtPercentile(99),
+                                     trimmed.getMax()));
+
+        if (forecastIntervals > 0) {
+            builder.append(String.format("FORECAST: intervals %d error %.3f mean error %.3f threshold %d\n",
+                                         forecastIntervals, forecastError, meanForecastError, predictedThreshold));
+        }
+
+        return builder.toString();
+    }
+
+    static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+    /**
+     * An immutable snapshot of the counters
+     */
+    public static final class Snapshot {
+        public final long packetsIn;
+        public final long packetsOut;
+        public final long packetsTrimmed;
+        public final long packetsDropped;
+        public final long bytesIn;
+        public final long bytesOut;
+        public final long bytesTrimmed;
+        public final long bytesDropped;
+        public final long latencyP99;     // in nanoseconds
+
+        public Snapshot(long packetsIn, long packetsOut, long packetsTrimmed, long packetsDropped,
+                        long bytesIn, long bytesOut, long bytesTrimmed, long bytesDropped, long latencyP99) {
+            this.packetsIn = packetsIn;
+            this.packetsOut = packetsOut;
+            this.packetsTrimmed = packetsTrimmed;
+            this.packetsDropped = packetsDropped;
+            this.bytesIn = bytesIn;
+            this.bytesOut = bytesOut;
+            this.bytesTrimmed = bytesTrimmed;
+            this.bytesDropped = bytesDropped;
+            this.latencyP99 = latencyP99;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package netfn.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of long values, in the style of an HDR histogram.
+ *
+ * The buckets are log-linear.  Each power of 2 is split into
+ * 2^(precision - 1) sub-buckets, so a value is held with a relative
+ * error of at most 1 / 2^(precision - 1), over the whole range of a long.
+ * Values below 2^precision are held exactly.
+ *
+ * Recording is lock-free, and does not allocate,
+ * so it can be called for every packet, from any thread.
+ */
+public class Histogram {
+    // Default precision, 64 sub-buckets, so within 1.6%
+    public final static int DEFAULT_PRECISION = 7;
+
+    // No of bits of precision
+    final int precision;
+
+    // Half the no of exact values
+    final int half;
+
+    // The counts in each bucket
+    final AtomicLongArray counts;
+
+    // Totals
+    final LongAdder count = new LongAdder();
+    final LongAdder sum = new LongAdder();
+    final AtomicLong max = new AtomicLong(0);
+
+    /**
+     * A Histogram with the default precision
+     */
+    public Histogram() {
+        this(DEFAULT_PRECISION);
+    }
+
+    /**
+     * A Histogram with a precision, in bits, from 2 to 16.
+     */
+    public Histogram(int precision) {
+        if (precision < 2 || precision > 16) {
+            throw new IllegalArgumentException("Histogram: bad precision " + precision);
+        }
+
+        this.precision = precision;
+        this.half = 1 << (precision - 1);
+
+        counts = new AtomicLongArray(indexOf(Long.MAX_VALUE) + 1);
+    }
+
+    /**
+     * Record a value.  Negative values are recorded as 0.
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+
+        counts.incrementAndGet(indexOf(value));
+        count.increment();
+        sum.add(value);
+
+        long m;
+        while (value > (m = max.get()) && !max.compareAndSet(m, value)) {
+        }
+    }
+
+    /**
+     * The bucket for a value.
+     * Values below 2^precision have a bucket each.
+     * Above that, the top precision - 1 bits pick the sub-bucket.
+     */
+    protected int indexOf(long value) {
+        int shift = Math.max(0, (63 - Long.numberOfLeadingZeros(value)) - (precision - 1));
+
+        return shift * half + (int)(value >>> shift);
+    }
+
+    /**
+     * The highest value that goes into a bucket
+     */
+    protected long highestValueAt(int index) {
+        int shift = Math.max(0, index / half - 1);
+        long lowest = (long)(index - shift * half) << shift;
+
+        return lowest + (1L << shift) - 1;
+    }
+
+    // Get the no of values recorded
+    public long getCount() {
+        return count.sum();
+    }
+
+    // Get the sum of the values recorded
+    public long getSum() {
+        return sum.sum();
+    }
+
+    // Get the mean of the values recorded
+    public double getMean() {
+        long n = count.sum();
+
+        return n == 0 ? 0 : (double)sum.sum() / n;
+    }
+
+    // Get the largest value recorded
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Get the value at a percentile, e.g. 99.9.
+     * It is the highest value in the bucket the percentile falls in,
+     * so it is never less than the real value.
+     */
+    public long getValueAtPercentile(double percentile) {
+        long n = count.sum();
+
+        if (n == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long)Math.ceil(percentile / 100 * n));
+        long seen = 0;
+
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+
+            if (seen >= rank) {
+                return Math.min(highestValueAt(i), max.get());
+            }
+        }
+
+        return max.get();
+    }
+
+    /**
+     * Add the values of another histogram, with the same precision.
+     */
+    public void add(Histogram other) {
+        if (other.precision != precision) {
+            throw new IllegalArgumentException("Histogram: precision " + other.precision + " is not " + precision);
+        }
+
+        for (int i = 0; i < counts.length(); i++) {
+            long n = other.counts.get(i);
+
+            if (n != 0) {
+                counts.addAndGet(i, n);
+            }
+        }
+
+        count.add(other.count.sum());
+        sum.add(other.sum.sum());
+
+        long m;
+        long value = other.max.get();
+        while (value > (m = max.get()) && !max.compareAndSet(m, value)) {
+        }
+    }
+
+    /**
+     * Clear the histogram.
+     * Values recorded at the same time might be lost.
+     */
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
+
+        count.reset();
+        sum.reset();
+        max.set(0);
+    }
+}
@@ -0,0 +1,69 @@
+package netfn.metrics;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * The GC and allocation metrics of the JVM.
+ * They are read from the management beans, which do not
+ * stop the threads being measured.
+ */
+public class JVMMetrics {
+
+    /**
+     * Get the bytes allocated by a thread, or -1 if it is not known
+     */
+    public static long getThreadAllocatedBytes(long threadId) {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+        if (threadId >= 0 && threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean)threads).getThreadAllocatedBytes(threadId);
+        } else {
+            return -1;
+        }
+    }
+
+    /**
+     * Write the metrics of the JVM
+     */
+    public static void writeTo(PrometheusWriter w) {
+        w.metric("jvm_gc_collections_total", "counter", "No of collections by each collector");
+
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            w.sample("jvm_gc_collections_total", PrometheusWriter.label("gc", gc.getName()), gc.getCollectionCount());
+        }
+
+        w.metric("jvm_gc_collection_seconds_total", "counter", "Time spent in collections by each collector");
+
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            w.sample("jvm_gc_collection_seconds_total", PrometheusWriter.label("gc", gc.getName()), gc.getCollectionTime() / 1000.0);
+        }
+
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+
+        w.metric("jvm_memory_heap_used_bytes", "gauge", "Heap in use");
+        w.sample("jvm_memory_heap_used_bytes", heap.getUsed());
+
+        w.metric("jvm_memory_heap_committed_bytes", "gauge", "Heap committed");
+        w.sample("jvm_memory_heap_committed_bytes", heap.getCommitted());
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            long[] allocated = ((com.sun.management.ThreadMXBean)threads).getThreadAllocatedBytes(threads.getAllThreadIds());
+
+            long total = 0;
+
+            for (long bytes : allocated) {
+                if (bytes > 0) {
+                    total += bytes;
+                }
+            }
+
+            w.metric("jvm_threads_allocated_bytes", "gauge", "Bytes allocated by the live threads");
+            w.sample("jvm_threads_allocated_bytes", total);
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package netfn.metrics;
+
+import java.net.DatagramPacket;
+
+import cc.clayman.net.PacketSender;
+
+/**
+ * A PacketSender that records the ingress to egress latency of
+ * the packets when they really go out, after the egress queue
+ * or shaper that is in front of it.
+ *
+ * The forwarding thread stamps each packet with its arrival time,
+ * with stamp(), before it passes the packet to the queue.
+ * A packet that the queue does not take has its stamp taken back
+ * with unstamp().
+ * The thread that drains the queue takes the stamps off in order,
+ * as the packets get here.  The queues are FIFO, but a queue after
+ * the first one, such as a shaper after an egress queue, can drop
+ * a packet, so a stamp is kept with its packet.  The stamps in front
+ * of the packet that gets here are for packets that were dropped,
+ * and they are counted as dropped in the metrics.
+ *
+ * The stamps are in a ring, so nothing is allocated for a packet.
+ * If the ring is full the forwarding thread waits for a slot,
+ * which needs more packets queued than there are slots.
+ */
+public class LatencyTap implements PacketSender {
+    // Default no of slots
+    public final static int DEFAULT_SLOTS = 64 * 1024;
+
+    // Where packets go
+    PacketSender sender;
+
+    // Where the latency goes
+    ForwarderMetrics metrics;
+
+    // The packets, their arrival times and lengths, and the mask for an index
+    DatagramPacket[] packets;
+    long[] stamps;
+    int[] lengths;
+    int mask;
+
+    // The write position, only written by the forwarding thread
+    volatile long head = 0;
+
+    // The read position, only written by the draining thread
+    volatile long tail = 0;
+
+    /**
+     * A LatencyTap in front of a PacketSender, with the default slots
+     */
+    public LatencyTap(PacketSender sender, ForwarderMetrics metrics) {
+        this(sender, metrics, DEFAULT_SLOTS);
+    }
+
+    /**
+     * A LatencyTap in front of a PacketSender
+     * @param sender where packets go
+     * @param metrics where the latency goes
+     * @param slots the max no of packets in flight, rounded up to a power of 2
+     */
+    public LatencyTap(PacketSender sender, ForwarderMetrics metrics, int slots) {
+        this.sender = sender;
+        this.metrics = metrics;
+
+        int size = Integer.highestOneBit(Math.max(slots, 2) * 2 - 1);
+
+        packets = new DatagramPacket[size];
+        stamps = new long[size];
+        lengths = new int[size];
+        mask = size - 1;
+    }
+
+    /**
+     * Stamp a packet with its arrival time.
+     * Only called by the forwarding thread, before the packet is queued.
+     */
+    public void stamp(DatagramPacket packet, long arrivalTime) {
+        long slot = head;
+
+        while (slot - tail >= stamps.length) {
+            // full
+            Thread.onSpinWait();
+        }
+
+        int i = (int)(slot & mask);
+
+        packets[i] = packet;
+        stamps[i] = arrivalTime;
+        lengths[i] = packet.getLength();
+        head = slot + 1;
+    }
+
+    /**
+     * Take back the last stamp, as its packet was not queued.
+     * Only called by the forwarding thread.
+     */
+    public void unstamp() {
+        long slot = head - 1;
+
+        packets[(int)(slot & mask)] = null;
+        head = slot;
+    }
+
+    public boolean start() {
+        return sender.start();
+    }
+
+    public boolean stop() {
+        return sender.stop();
+    }
+
+    /**
+     * Send a payload.  It has no stamp.
+     */
+    public int sendPayload(byte[] payload) {
+        return sender.sendPayload(payload);
+    }
+
+    /**
+     * A packet is going out.
+     * Record the latency from its stamp, count the packets stamped
+     * before it as dropped, and pass it on.
+     * A packet with no stamp is just passed on.
+     */
+    public int sendPayload(DatagramPacket packet) {
+        long first = tail;
+        long last = head;
+        long found = -1;
+
+        for (long slot = first; slot < last; slot++) {
+            if (packets[(int)(slot & mask)] == packet) {
+                found = slot;
+                break;
+            }
+        }
+
+        if (found >= 0) {
+            for (long slot = first; slot < found; slot++) {
+                // dropped after it was stamped
+                int i = (int)(slot & mask);
+
+                packets[i] = null;
+                metrics.recordQueueDrop(lengths[i]);
+            }
+
+            int i = (int)(found & mask);
+
+            packets[i] = null;
+            metrics.recordLatency(stamps[i], System.nanoTime());
+
+            tail = found + 1;
+        }
+
+        return sender.sendPayload(packet);
+    }
+
+    // Get the no of packets stamped, and not gone out yet
+    public int getInFlight() {
+        return (int)(head - tail);
+    }
+}
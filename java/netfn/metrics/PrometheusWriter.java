@@ -0,0 +1,80 @@
+package netfn.metrics;
+
+/**
+ * Writes metrics in the Prometheus text exposition format.
+ *
+ * Each metric is declared once, with its type and help,
+ * and then its samples follow, so the samples of a metric are together.
+ */
+public class PrometheusWriter {
+    // The content type of the format
+    public final static String CONTENT_TYPE = "text/plain; version=0.0.4";
+
+    StringBuilder builder = new StringBuilder();
+
+    /**
+     * Declare a metric.
+     * @param name the metric name
+     * @param type counter, gauge, or summary
+     * @param help what it is
+     */
+    public PrometheusWriter metric(String name, String type, String help) {
+        builder.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        builder.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        return this;
+    }
+
+    /**
+     * A sample with no labels
+     */
+    public PrometheusWriter sample(String name, long value) {
+        builder.append(name).append(' ').append(value).append('\n');
+        return this;
+    }
+
+    /**
+     * A sample with no labels
+     */
+    public PrometheusWriter sample(String name, double value) {
+        builder.append(name).append(' ').append(format(value)).append('\n');
+        return this;
+    }
+
+    /**
+     * A sample with labels, e.g. flow="10.0.0.1:5000"
+     */
+    public PrometheusWriter sample(String name, String labels, long value) {
+        builder.append(name).append('{').append(labels).append("} ").append(value).append('\n');
+        return this;
+    }
+
+    /**
+     * A sample with labels, e.g. flow="10.0.0.1:5000"
+     */
+    public PrometheusWriter sample(String name, String labels, double value) {
+        builder.append(name).append('{').append(labels).append("} ").append(format(value)).append('\n');
+        return this;
+    }
+
+    /**
+     * Make a label, with its value escaped
+     */
+    public static String label(String name, String value) {
+        return name + "=\"" + value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n") + "\"";
+    }
+
+    // Format a double, as Prometheus expects
+    static String format(double value) {
+        if (Double.isNaN(value)) {
+            return "NaN";
+        } else if (Double.isInfinite(value)) {
+            return value > 0 ? "+Inf" : "-Inf";
+        } else {
+            return Double.toString(value);
+        }
+    }
+
+    public String toString() {
+        return builder.toString();
+    }
+}
@@ -0,0 +1,284 @@
+package netfn.mgmt;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A bandwidth that changes over time, as a list of times
+ * and the bandwidth from each time on.
+ *
+ * A schedule is loaded from a file in one of two formats.
+ * A CSV file has a line for each change:
+ * <pre>
+ * # millis,bitsPerSecond
+ * 0,2000000
+ * 1500,500000
+ * 4000,1200000
+ * </pre>
+ * A Mahimahi file has a line for each time, in milliseconds,
+ * at which a 1500 byte packet can be delivered.
+ * The packets in each 100 ms are turned into a bandwidth.
+ *
+ * The schedule can be played in a loop, and its times can be scaled,
+ * e.g. a scale of 2 plays it at half speed.
+ */
+public class BandwidthSchedule {
+    // The size of a Mahimahi packet, in bits
+    public final static int MAHIMAHI_PACKET_BITS = 1500 * 8;
+
+    // The Mahimahi packets in this many milliseconds make one change
+    public final static int MAHIMAHI_BIN = 100;
+
+    // The time of each change, in nanoseconds, before scaling
+    long[] times;
+
+    // The bandwidth from each change on, in bits per second
+    int[] bits;
+
+    // The length of the schedule, in nanoseconds, before scaling
+    long period;
+
+    // Play it in a loop
+    boolean loop = false;
+
+    // Multiply the times by this
+    double scale = 1.0;
+
+    /**
+     * A schedule of changes
+     * @param times the time of each change, in nanoseconds, in order
+     * @param bits the bandwidth from each change on
+     * @param period the length of the schedule, in nanoseconds, for a loop
+     */
+    public BandwidthSchedule(long[] times, int[] bits, long period) {
+        if (times.length == 0 || times.length != bits.length) {
+            throw new IllegalArgumentException("BandwidthSchedule: no changes");
+        }
+
+        if (period <= times[times.length - 1]) {
+            throw new IllegalArgumentException("BandwidthSchedule: period " + period + " is not after the last change");
+        }
+
+        this.times = times;
+        this.bits = bits;
+        this.period = period;
+    }
+
+    /**
+     * Play the schedule in a loop
+     */
+    public BandwidthSchedule setLoop(boolean loop) {
+        this.loop = loop;
+        return this;
+    }
+
+    /**
+     * Scale the times of the schedule
+     */
+    public BandwidthSchedule setScale(double scale) {
+        if (scale <= 0) {
+            throw new IllegalArgumentException("BandwidthSchedule: bad scale " + scale);
+        }
+
+        this.scale = scale;
+        return this;
+    }
+
+    /**
+     * The no of changes
+     */
+    public int size() {
+        return times.length;
+    }
+
+    /**
+     * The length of the schedule, in nanoseconds, after scaling
+     */
+    public long getPeriod() {
+        return (long)(period * scale);
+    }
+
+    // The time of change i, after scaling
+    long timeOf(int i) {
+        return (long)(times[i] * scale);
+    }
+
+    // The last change at or before a time into the schedule, or -1
+    int indexAt(long offset) {
+        int low = 0;
+        int high = times.length - 1;
+        int found = -1;
+
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+
+            if (timeOf(mid) <= offset) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+
+        return found;
+    }
+
+    /**
+     * The bandwidth at a time, in nanoseconds from the start
+     */
+    public int bandwidthAt(long time) {
+        long offset = time;
+        boolean again = false;
+
+        if (loop) {
+            offset = time % getPeriod();
+            again = time >= getPeriod();
+        }
+
+        int i = indexAt(offset);
+
+        if (i < 0) {
+            // before the first change, which is the last one of the loop before
+            return again ? bits[bits.length - 1] : bits[0];
+        } else {
+            return bits[i];
+        }
+    }
+
+    /**
+     * The time of the first change after a time, in nanoseconds from the start,
+     * or -1 if there are no more
+     */
+    public long nextChange(long time) {
+        long base = 0;
+        long offset = time;
+
+        if (loop) {
+            base = (time / getPeriod()) * getPeriod();
+            offset = time - base;
+        }
+
+        int next = indexAt(offset) + 1;
+
+        if (next < times.length) {
+            return base + timeOf(next);
+        } else if (loop) {
+            return base + getPeriod() + timeOf(0);
+        } else {
+            return -1;
+        }
+    }
+
+    /**
+     * Load a schedule from a CSV file, or a Mahimahi file
+     */
+    public static BandwidthSchedule load(String filename) throws IOException {
+        List<long[]> lines = new ArrayList<long[]>();
+        boolean csv = false;
+
+        try (BufferedReader reader = new BufferedReader(new FileReader(filename))) {
+            String line;
+            int lineNo = 0;
+
+            while ((line = reader.readLine()) != null) {
+                lineNo++;
+
+                line = line.trim();
+
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+
+                String[] parts = line.split("\\s*,\\s*");
+
+                if (lines.isEmpty()) {
+                    csv = parts.length == 2;
+                }
+
+                try {
+                    if (csv && parts.length == 2) {
+                        // millis,bitsPerSecond
+                        long[] change = { Math.round(Double.parseDouble(parts[0]) * 1000000), Long.parseLong(parts[1]) };
+
+                        if (change[1] < 0 || change[1] > Integer.MAX_VALUE) {
+                            throw new IOException("BandwidthSchedule: " + filename + " line " + lineNo + ": bad bandwidth " + parts[1]);
+                        }
+
+                        lines.add(change);
+
+                    } else if (!csv && parts.length == 1) {
+                        // a Mahimahi delivery time in millis
+                        lines.add(new long[] { Long.parseLong(parts[0]) });
+
+                    } else {
+                        throw new IOException("BandwidthSchedule: " + filename + " line " + lineNo + ": expected " + (csv ? "millis,bitsPerSecond" : "millis"));
+                    }
+                } catch (NumberFormatException nfe) {
+                    throw new IOException("BandwidthSchedule: " + filename + " line " + lineNo + ": " + nfe.getMessage());
+                }
+
+                // times go forward
+                int n = lines.size();
+
+                if (n > 1 && (lines.get(n - 1)[0] < lines.get(n - 2)[0] || (csv && lines.get(n - 1)[0] == lines.get(n - 2)[0]))) {
+                    throw new IOException("BandwidthSchedule: " + filename + " line " + lineNo + ": time goes back");
+                }
+            }
+        }
+
+        if (lines.isEmpty()) {
+            throw new IOException("BandwidthSchedule: " + filename + " has no changes");
+        }
+
+        return csv ? fromChanges(lines) : fromMahimahi(lines);
+    }
+
+    // A schedule from the lines of a CSV file
+    static BandwidthSchedule fromChanges(List<long[]> lines) {
+        int n = lines.size();
+        long[] times = new long[n];
+        int[] bits = new int[n];
+
+        for (int i = 0; i < n; i++) {
+            times[i] = lines.get(i)[0];
+            bits[i] = (int)lines.get(i)[1];
+        }
+
+        // the last change lasts as long as the changes before it, on average
+        long period = n == 1 ? times[0] + 1000000000L : times[n - 1] + (times[n - 1] - times[0]) / (n - 1);
+
+        return new BandwidthSchedule(times, bits, period);
+    }
+
+    // A schedule from the delivery times of a Mahimahi file
+    static BandwidthSchedule fromMahimahi(List<long[]> lines) {
+        // Mahimahi repeats a trace after the last delivery time
+        long last = Math.max(lines.get(lines.size() - 1)[0], 1);
+
+        int bins = (int)((last + MAHIMAHI_BIN - 1) / MAHIMAHI_BIN);
+        long[] packets = new long[bins];
+
+        for (long[] line : lines) {
+            packets[(int)Math.min(line[0] / MAHIMAHI_BIN, bins - 1)]++;
+        }
+
+        long[] times = new long[bins];
+        int[] bits = new int[bins];
+
+        for (int b = 0; b < bins; b++) {
+            long length = Math.min(MAHIMAHI_BIN, last - (long)b * MAHIMAHI_BIN);
+
+            times[b] = (long)b * MAHIMAHI_BIN * 1000000L;
+            bits[b] = (int)Math.min(Integer.MAX_VALUE, packets[b] * MAHIMAHI_PACKET_BITS * 1000 / length);
+        }
+
+        return new BandwidthSchedule(times, bits, last * 1000000L);
+    }
+
+    public String toString() {
+        return "changes: " + times.length + " period: " + getPeriod() / 1000000 + " ms" + (loop ? " loop" : "") + (scale != 1.0 ? " scale: " + scale : "");
+    }
+}
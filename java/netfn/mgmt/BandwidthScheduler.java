@@ -0,0 +1,125 @@
+package netfn.mgmt;
+
+import java.util.concurrent.locks.LockSupport;
+
+import cc.clayman.util.Execution;
+import cc.clayman.util.Verbose;
+
+/**
+ * Play a BandwidthSchedule to a ManagementListener,
+ * such as a forwarder, in its own thread.
+ *
+ * Each change is made at its time from when the scheduler started,
+ * by calling adjustBandwidth() directly, as a /BW request would,
+ * but with no HTTP in the way.
+ * The times are absolute, so a late change does not make the later ones late.
+ */
+public class BandwidthScheduler implements Runnable {
+    // The schedule
+    BandwidthSchedule schedule;
+
+    // What gets the changes
+    ManagementListener listener;
+
+    // When it started, from System.nanoTime()
+    long startTime;
+
+    // The Thread
+    Execution.Task myThread;
+
+    // are we running
+    volatile boolean running = false;
+
+    // counts
+    long changes = 0;
+    long maxLateness = 0;
+
+    /**
+     * A BandwidthScheduler for a ManagementListener
+     */
+    public BandwidthScheduler(BandwidthSchedule schedule, ManagementListener listener) {
+        this.schedule = schedule;
+        this.listener = listener;
+    }
+
+    /**
+     * Start playing the schedule, with the bandwidth at the start
+     */
+    public boolean start() {
+        startTime = System.nanoTime();
+        running = true;
+
+        apply(schedule.bandwidthAt(0));
+
+        myThread = Execution.start(this, "BandwidthScheduler");
+
+        return true;
+    }
+
+    /**
+     * Stop playing the schedule
+     */
+    public boolean stop() {
+        running = false;
+
+        if (myThread != null) {
+            myThread.interrupt();
+
+            try {
+                myThread.join();
+            } catch (InterruptedException ie) {
+            }
+        }
+
+        if (Verbose.level >= 1) {
+            System.err.println("BandwidthScheduler: changes " + changes + " max late " + maxLateness / 1000 + " us");
+        }
+
+        return true;
+    }
+
+    /**
+     * The main run loop.
+     * It waits for the time of each change, and makes it.
+     */
+    public void run() {
+        long time = 0;
+
+        while (running) {
+            long next = schedule.nextChange(time);
+
+            if (next < 0) {
+                // the end of the schedule
+                break;
+            }
+
+            long wait;
+
+            while (running && (wait = startTime + next - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(wait);
+            }
+
+            if (! running) {
+                break;
+            }
+
+            long late = System.nanoTime() - (startTime + next);
+
+            if (late > maxLateness) {
+                maxLateness = late;
+            }
+
+            apply(schedule.bandwidthAt(next));
+
+            time = next;
+        }
+    }
+
+    // Set the bandwidth, if it changes
+    void apply(int bits) {
+        if (bits != listener.getBandwidth()) {
+            listener.adjustBandwidth(bits);
+            changes++;
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package netfn.mgmt;
+
+
+/**
+ * A Management Listener which can report on its flows
+ */
+public interface FlowReporter {
+    // Get a report of the flows
+    public String getFlowReport();
+}
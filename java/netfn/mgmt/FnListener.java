@@ -0,0 +1,26 @@
+package netfn.mgmt;
+
+
+/**
+ * A Management Listener whose function can be changed while it runs.
+ * The changes are picked up by the thread processing the packets,
+ * on its next packet.
+ */
+public interface FnListener {
+    // Get the function, its ChunkSelector, and its threshold
+    public String getFn();
+
+    // Change the function, e.g. o:0.2:0.1, and the ChunkSelector,
+    // either of which can be null to keep the current one.
+    // Returns the old function
+    // Throws IllegalArgumentException if either is not valid
+    public String adjustFn(String fn, String selector) throws IllegalArgumentException;
+
+    // Get the threshold, or -1 if the threshold in each packet is used
+    public int getThreshold();
+
+    // Adjust the threshold, or -1 to use the threshold in each packet
+    // Returns the old threshold
+    // Throws IllegalArgumentException if it is not valid
+    public int adjustThreshold(int threshold) throws IllegalArgumentException;
+}
@@ -0,0 +1,21 @@
+package netfn.mgmt;
+
+import netfn.metrics.ForwarderMetrics;
+import netfn.metrics.PrometheusWriter;
+
+/**
+ * Something that has metrics to export.
+ * The metrics are read without locking, so reading them
+ * does not stall the thread processing the packets.
+ */
+public interface MetricsSource {
+    /**
+     * Write the metrics, in the Prometheus text format
+     */
+    public void writeMetrics(PrometheusWriter w);
+
+    /**
+     * Take a snapshot of the forwarder counters
+     */
+    public ForwarderMetrics.Snapshot getSnapshot();
+}
@@ -3,8 +3,11 @@ package netfn.mgmt;
 import java.io.File;
 import java.io.IOException;
 import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import netfn.httpd.NanoHTTPD;
+import netfn.metrics.JVMMetrics;
+import netfn.metrics.PrometheusWriter;
 import cc.clayman.util.Verbose;
 
 /**
@@ -13,6 +16,13 @@ import cc.clayman.util.Verbose;
  * or curl http://localhost:9090/BW
  * or curl http://localhost:9090/BW?bits=1258290
  * or curl http://localhost:9090/BW?bytes=157286
+ * or curl http://localhost:9090/TH?th=5
+ * or curl http://localhost:9090/TH?th=-1
+ * or curl http://localhost:9090/FN?fn=o:0.2:0.1
+ * or curl http://localhost:9090/FN?sel=optimal
+ * or curl http://localhost:9090/FLOWS
+ * or curl http://localhost:9090/metrics
+ * or curl -N http://localhost:9090/EVENTS
  */
 
 // This will process external calls via REST
@@ -24,6 +34,15 @@ public class ProcessExternal extends NanoHTTPD {
     // The ManagementListener
     ManagementListener listener = null;
 
+    // The max no of event streams, as each one keeps a thread
+    public final static int MAX_STREAMS = 4;
+
+    // The no of event streams open
+    AtomicInteger streams = new AtomicInteger(0);
+
+    final static String HTTP_UNAVAILABLE = "503 Service Unavailable";
+    final static String HTTP_BADREQUEST = "400 Bad Request";
+
     public ProcessExternal(int httpPort, ManagementListener listener)  throws IOException  {
         super(httpPort);
         this.httpPort = httpPort;
@@ -99,6 +118,12 @@ public class ProcessExternal extends NanoHTTPD {
     
         } else if (uri.equals("/TH")) {
             // Threshold handler
+            if (! (listener instanceof FnListener)) {
+                return new NanoHTTPD.Response(HTTP_NOTFOUND, MIME_PLAINTEXT, "No threshold\n");
+            }
+
+            FnListener fnListener = (FnListener)listener;
+
             String msg = "";
 
             // get param "th"
@@ -109,22 +134,109 @@ public class ProcessExternal extends NanoHTTPD {
                 System.err.println("Param value = " + value);
             }
 
-            if (value == null || value.equals("")) {
+            if (no_value(value)) {
                 // no new arg 
-                msg = "Current bandwidth: " + listener.getBandwidth() + "\n";
+                msg = "Current threshold: " + fnListener.getThreshold() + "\n";
             } else {
                 // process arg
-                int threshold = Integer.parseInt(value);
+                try {
+                    int threshold = Integer.parseInt(value);
 
-                //int oldTH = listener.adjustThreshold(threshold);
+                    int oldTH = fnListener.adjustThreshold(threshold);
 
-                //msg = "Current threshold: " + listener.getThreshold() + "\n";
+                    msg = "Current threshold: " + fnListener.getThreshold() + "\n";
+                } catch (IllegalArgumentException iae) {
+                    return new NanoHTTPD.Response(HTTP_BADREQUEST, MIME_PLAINTEXT, iae.getMessage() + "\n");
+                }
             }
 
             response = new NanoHTTPD.Response(HTTP_OK, MIME_HTML, msg);
 
             return response;
     
+        } else if (uri.equals("/FN")) {
+            // BPP Function handler
+            if (! (listener instanceof FnListener)) {
+                return new NanoHTTPD.Response(HTTP_NOTFOUND, MIME_PLAINTEXT, "No function\n");
+            }
+
+            FnListener fnListener = (FnListener)listener;
+
+            String msg = "";
+
+            // get params "fn" and "sel"
+            String value_fn = params.getProperty("fn");
+            String value_sel = params.getProperty("sel");
+
+            if (Verbose.level >= 2) {
+                System.err.println("Param value fn = " + value_fn + " sel = " + value_sel);
+            }
+
+            if (no_value(value_fn) && no_value(value_sel)) {
+                // no new arg
+                msg = "Current function: " + fnListener.getFn() + "\n";
+            } else {
+                // process args, where a missing one is not changed
+                try {
+                    String oldFn = fnListener.adjustFn(no_value(value_fn) ? null : value_fn, no_value(value_sel) ? null : value_sel);
+
+                    msg = "Current function: " + fnListener.getFn() + "\n";
+                } catch (IllegalArgumentException iae) {
+                    return new NanoHTTPD.Response(HTTP_BADREQUEST, MIME_PLAINTEXT, iae.getMessage() + "\n");
+                }
+            }
+
+            response = new NanoHTTPD.Response(HTTP_OK, MIME_HTML, msg);
+
+            return response;
+
+        } else if (uri.equals("/FLOWS")) {
+            // Flows handler
+            String msg;
+
+            if (listener instanceof FlowReporter) {
+                msg = ((FlowReporter)listener).getFlowReport();
+            } else {
+                msg = "No flows\n";
+            }
+
+            response = new NanoHTTPD.Response(HTTP_OK, MIME_PLAINTEXT, msg);
+
+            return response;
+
+        } else if (uri.equals("/metrics")) {
+            // Metrics handler, in the Prometheus text format
+            if (! (listener instanceof MetricsSource)) {
+                return new NanoHTTPD.Response(HTTP_NOTFOUND, MIME_PLAINTEXT, "No metrics\n");
+            }
+
+            PrometheusWriter w = new PrometheusWriter();
+
+            ((MetricsSource)listener).writeMetrics(w);
+            JVMMetrics.writeTo(w);
+
+            response = new NanoHTTPD.Response(HTTP_OK, PrometheusWriter.CONTENT_TYPE, w.toString());
+
+            return response;
+
+        } else if (uri.equals("/EVENTS")) {
+            // A stream of server-sent events, with a summary every second
+            if (! (listener instanceof MetricsSource)) {
+                return new NanoHTTPD.Response(HTTP_NOTFOUND, MIME_PLAINTEXT, "No metrics\n");
+            }
+
+            if (streams.incrementAndGet() > MAX_STREAMS) {
+                streams.decrementAndGet();
+                return new NanoHTTPD.Response(HTTP_UNAVAILABLE, MIME_PLAINTEXT, "Too many streams\n");
+            }
+
+            SummaryStream stream = new SummaryStream((MetricsSource)listener, listener, () -> streams.decrementAndGet());
+
+            response = new NanoHTTPD.Response(HTTP_OK, "text/event-stream", stream);
+            response.addHeader("Cache-Control", "no-cache");
+
+            return response;
+
         } else {
             return super.serve(uri, method, header, params, files);
         }
@@ -0,0 +1,117 @@
+package netfn.mgmt;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import netfn.metrics.ForwarderMetrics;
+
+/**
+ * A stream of server-sent events, with a summary of a
+ * MetricsSource every second.
+ *
+ * NanoHTTPD copies the Response data to the socket until it ends,
+ * so this stream waits for the next second on each read,
+ * and ends when it is closed, or when the client goes away.
+ */
+public class SummaryStream extends InputStream {
+    // The period, in nanoseconds
+    final static long PERIOD = 1000000000L;
+
+    // Where the metrics come from
+    MetricsSource source;
+
+    // Where the bandwidth comes from
+    ManagementListener listener;
+
+    // Called once when the stream is closed
+    Runnable onClose;
+
+    // The event being read
+    byte[] event = new byte[0];
+    int pos = 0;
+
+    // The last snapshot, and when it was taken
+    ForwarderMetrics.Snapshot last;
+    long lastTime;
+
+    boolean closed = false;
+
+    public SummaryStream(MetricsSource source, ManagementListener listener, Runnable onClose) {
+        this.source = source;
+        this.listener = listener;
+        this.onClose = onClose;
+
+        last = source.getSnapshot();
+        lastTime = System.nanoTime();
+    }
+
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+
+        return read(b, 0, 1) <= 0 ? -1 : b[0] & 0xFF;
+    }
+
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            return -1;
+        }
+
+        if (pos == event.length) {
+            nextEvent();
+        }
+
+        int n = Math.min(len, event.length - pos);
+
+        System.arraycopy(event, pos, b, off, n);
+        pos += n;
+
+        return n;
+    }
+
+    /**
+     * Wait for the next second, and make its event
+     */
+    protected void nextEvent() throws IOException {
+        long wait = lastTime + PERIOD - System.nanoTime();
+
+        if (wait > 0) {
+            try {
+                Thread.sleep(wait / 1000000, (int)(wait % 1000000));
+            } catch (InterruptedException ie) {
+                throw new IOException("SummaryStream: interrupted");
+            }
+        }
+
+        long now = System.nanoTime();
+        ForwarderMetrics.Snapshot snapshot = source.getSnapshot();
+
+        double secs = (now - lastTime) / 1e9;
+
+        String data = String.format("{\"time\":%d,\"bandwidth\":%d,\"packetsIn\":%d,\"packetsOut\":%d,\"packetsTrimmed\":%d,\"packetsDropped\":%d,\"bitsInPerSec\":%d,\"bitsOutPerSec\":%d,\"bytesTrimmed\":%d,\"bytesDropped\":%d,\"latencyP99us\":%d}",
+                                    System.currentTimeMillis(),
+                                    listener.getBandwidth(),
+                                    snapshot.packetsIn - last.packetsIn,
+                                    snapshot.packetsOut - last.packetsOut,
+                                    snapshot.packetsTrimmed - last.packetsTrimmed,
+                                    snapshot.packetsDropped - last.packetsDropped,
+                                    (long)((snapshot.bytesIn - last.bytesIn) * 8 / secs),
+                                    (long)((snapshot.bytesOut - last.bytesOut) * 8 / secs),
+                                    snapshot.bytesTrimmed - last.bytesTrimmed,
+                                    snapshot.bytesDropped - last.bytesDropped,
+                                    snapshot.latencyP99 / 1000);
+
+        event = ("event: summary\ndata: " + data + "\n\n").getBytes(StandardCharsets.UTF_8);
+        pos = 0;
+
+        last = snapshot;
+        lastTime = now;
+    }
+
+    public void close() {
+        if (! closed) {
+            closed = true;
+            onClose.run();
+        }
+    }
+}
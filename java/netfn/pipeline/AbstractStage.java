@@ -0,0 +1,51 @@
+package netfn.pipeline;
+
+import cc.clayman.util.Clock;
+
+import netfn.metrics.ForwarderMetrics;
+
+/**
+ * A Stage which ignores the bandwidth, the metrics and the clock,
+ * and does not delay, and is not timed,
+ * so a stage only has to process packets.
+ */
+public abstract class AbstractStage implements Stage {
+    // The name of the stage
+    String name;
+
+    public AbstractStage(String name) {
+        this.name = name;
+    }
+
+    // Adjust the bandwidth
+    public void setBandwidth(int bitsPerSecond) {
+    }
+
+    // Set the metrics
+    public void setMetrics(ForwarderMetrics metrics) {
+    }
+
+    // Set the Clock
+    public void setClock(Clock clock) {
+    }
+
+    // It does not delay
+    public boolean canDelay() {
+        return false;
+    }
+
+    // It is not timed
+    public boolean isTimed() {
+        return false;
+    }
+
+    // Get the name
+    public String getName() {
+        return name;
+    }
+
+    // A report of the stage
+    public String report() {
+        return "";
+    }
+}
@@ -0,0 +1,72 @@
+package netfn.pipeline;
+
+import cc.clayman.util.Clock;
+
+import netfn.bpp.BPPFn;
+import netfn.bpp.BPPFnConfig;
+import netfn.metrics.ForwarderMetrics;
+
+/**
+ * A stage that trims BPP packets in place with a BPPFn.
+ *
+ * In a pipeline file:
+ * <pre>
+ * bpp [fn] [position|optimal] [threshold]
+ * </pre>
+ * where fn is a BPPFn spec, e.g. b or o:0.2:0.1.  Default: b
+ */
+public class BPPFnStage extends AbstractStage {
+    // The BPPFn
+    BPPFn bppFn;
+
+    // The config it came from
+    BPPFnConfig config;
+
+    public BPPFnStage(BPPFnConfig config) {
+        super("bpp");
+        this.config = config;
+        this.bppFn = config.create(config.getBandwidth());
+        bppFn.setThreshold(config.getThreshold());
+    }
+
+    public Action process(PacketContext context) {
+        BPPFn.Verdict verdict = bppFn.processInPlace((int)context.count, context.packet);
+
+        if (verdict == BPPFn.Verdict.DROP) {
+            return Action.DROP;
+        } else if (verdict == BPPFn.Verdict.TRIMMED) {
+            return Action.TRIMMED;
+        } else {
+            return Action.PASS;
+        }
+    }
+
+    // Adjust the bandwidth
+    public void setBandwidth(int bitsPerSecond) {
+        bppFn.setBandwidth(bitsPerSecond);
+    }
+
+    // Set the metrics to count the trimmed bytes in
+    public void setMetrics(ForwarderMetrics metrics) {
+        bppFn.setMetrics(metrics);
+    }
+
+    // Set the Clock
+    public void setClock(Clock clock) {
+        bppFn.setClock(clock);
+    }
+
+    // It is timed, as it keeps to the bandwidth
+    public boolean isTimed() {
+        return true;
+    }
+
+    // Get the BPPFn
+    public BPPFn getBPPFn() {
+        return bppFn;
+    }
+
+    public String report() {
+        return config.toString();
+    }
+}
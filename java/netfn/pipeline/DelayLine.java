@@ -0,0 +1,218 @@
+package netfn.pipeline;
+
+import java.net.DatagramPacket;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import cc.clayman.net.PacketSender;
+import cc.clayman.net.Queued;
+import cc.clayman.util.Execution;
+import cc.clayman.util.Verbose;
+
+/**
+ * A PacketSender that holds each packet until its send time,
+ * and then passes it to another PacketSender.
+ *
+ * A packet with no delay, when nothing is held, goes straight
+ * to the sender, in the caller's thread.  Held packets are sent in
+ * order of their send time, by the thread of the DelayLine,
+ * and packets with the same send time are sent in the order they came.
+ *
+ * The held packets are on a TimerWheel, so holding a packet costs
+ * the same however many are held, which matters with long delays
+ * at high rates.  A packet goes out within a tick of its send time.
+ */
+public class DelayLine implements PacketSender, Queued, Runnable {
+    // Where packets go
+    PacketSender sender;
+
+    // The held packets, by send time
+    TimerWheel<DatagramPacket> wheel;
+    volatile int queueBytes = 0;
+    volatile int queueLength = 0;
+
+    // Guards the queue
+    ReentrantLock lock = new ReentrantLock();
+    Condition changed = lock.newCondition();
+
+    // When the thread will next wake, from System.nanoTime(), or -1 if it waits for a packet
+    long wakeAt = -1;
+
+    // The Thread
+    Execution.Task myThread;
+
+    // are we running
+    volatile boolean running = false;
+
+    // counts
+    long packetsDirect = 0;
+    long packetsHeld = 0;
+    int maxQueueLength = 0;
+
+    /**
+     * Construct a DelayLine in front of a PacketSender
+     */
+    public DelayLine(PacketSender sender) {
+        this(sender, TimerWheel.DEFAULT_TICK);
+    }
+
+    /**
+     * Construct a DelayLine in front of a PacketSender,
+     * with the tick of its TimerWheel, in nanoseconds
+     */
+    public DelayLine(PacketSender sender, long tickNanos) {
+        this.sender = sender;
+        this.wheel = new TimerWheel<DatagramPacket>(tickNanos, TimerWheel.DEFAULT_SLOTS, System.nanoTime());
+    }
+
+    /**
+     * Start the delay line, and the sender
+     */
+    public boolean start() {
+        if (! sender.start()) {
+            return false;
+        }
+
+        running = true;
+
+        myThread = Execution.start(this, "DelayLine");
+
+        return true;
+    }
+
+    /**
+     * Stop the delay line.
+     * The held packets are sent at their time, and then the sender is stopped.
+     */
+    public boolean stop() {
+        lock.lock();
+        try {
+            running = false;
+            changed.signal();
+        } finally {
+            lock.unlock();
+        }
+
+        try {
+            if (myThread != null) {
+                myThread.join();
+            }
+        } catch (InterruptedException ie) {
+        }
+
+        if (Verbose.level >= 1) {
+            System.err.println("DelayLine: direct " + packetsDirect + " held " + packetsHeld + " max queue " + maxQueueLength);
+        }
+
+        return sender.stop();
+    }
+
+    /**
+     * Send a payload now
+     */
+    public int sendPayload(byte[] payload) {
+        return sendPayload(new DatagramPacket(payload, payload.length));
+    }
+
+    /**
+     * Send a packet now
+     */
+    public int sendPayload(DatagramPacket packet) {
+        return sendAt(packet, 0);
+    }
+
+    /**
+     * Send a packet at a time, from System.nanoTime()
+     */
+    public int sendAt(DatagramPacket packet, long sendAt) {
+        if (queueLength == 0 && sendAt <= System.nanoTime()) {
+            // nothing held, and not delayed
+            packetsDirect++;
+            return sender.sendPayload(packet);
+        }
+
+        lock.lock();
+        try {
+            long due = wheel.add(packet, sendAt);
+            queueBytes += packet.getLength();
+            queueLength = wheel.size();
+
+            if (queueLength > maxQueueLength) {
+                maxQueueLength = queueLength;
+            }
+
+            packetsHeld++;
+
+            // wake the thread if this packet is due before it would wake
+            if (wakeAt < 0 || due < wakeAt) {
+                changed.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        return 1;
+    }
+
+    /**
+     * The main run loop.
+     * It waits for the next tick with held packets, and sends
+     * the packets that are due.
+     */
+    public void run() {
+        lock.lock();
+        try {
+            while (true) {
+                // send them with the lock held,
+                // so a packet that is not delayed can not overtake them
+                wheel.expire(System.nanoTime(), this::send);
+
+                queueLength = wheel.size();
+
+                if (queueLength == 0) {
+                    if (! running) {
+                        // stopped, and everything has gone
+                        return;
+                    }
+
+                    wakeAt = -1;
+                    changed.await();
+                } else {
+                    wakeAt = wheel.nextDue();
+
+                    long wait = wakeAt - System.nanoTime();
+
+                    if (wait > 0) {
+                        changed.awaitNanos(wait);
+                    }
+                }
+            }
+        } catch (InterruptedException ie) {
+            return;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Send a held packet
+    void send(DatagramPacket packet) {
+        sender.sendPayload(packet);
+
+        queueBytes -= packet.getLength();
+    }
+
+    // Get the no of packets held
+    public int getQueueLength() {
+        return queueLength;
+    }
+
+    // Get the bytes held
+    public int getQueueBytes() {
+        return queueBytes;
+    }
+
+    // No packets are dropped
+    public long getPacketsDropped() {
+        return 0;
+    }
+}
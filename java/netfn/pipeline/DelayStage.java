@@ -0,0 +1,45 @@
+package netfn.pipeline;
+
+/**
+ * A stage that delays every packet by a fixed time,
+ * to emulate the propagation delay of a link.
+ *
+ * In a pipeline file:
+ * <pre>
+ * delay millis
+ * </pre>
+ * e.g. delay 20
+ */
+public class DelayStage extends AbstractStage {
+    // The delay, in nanoseconds
+    long delay;
+
+    public DelayStage(double millis) {
+        super("delay");
+
+        if (millis < 0) {
+            throw new IllegalArgumentException("DelayStage: bad delay " + millis);
+        }
+
+        this.delay = (long)(millis * 1000000);
+    }
+
+    public Action process(PacketContext context) {
+        if (delay == 0) {
+            return Action.PASS;
+        }
+
+        context.delay(delay);
+
+        return Action.DELAYED;
+    }
+
+    // It delays
+    public boolean canDelay() {
+        return delay > 0;
+    }
+
+    public String report() {
+        return "delay: " + (delay / 1000000.0) + " ms";
+    }
+}
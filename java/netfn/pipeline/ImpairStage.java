@@ -0,0 +1,66 @@
+package netfn.pipeline;
+
+import netfn.udp.Impairment;
+
+/**
+ * A stage that impairs the packets like a link, with loss,
+ * burst loss, delay and jitter, reordering, and duplication.
+ * See Impairment.
+ *
+ * With only loss and duplication, in front of a bpp stage it is
+ * the link the packets come in on, and behind it, the link they go out on.
+ * Delay, jitter and reorder only move the send time of a packet,
+ * which still goes through the later stages straight away, so an impair
+ * stage that delays must come after the bpp and udp stages,
+ * as the link out.
+ * A duplicate goes through the stages after this one,
+ * just like the packet it is a copy of.
+ *
+ * In a pipeline file:
+ * <pre>
+ * impair [seed n] [loss p] [ge p r [good bad]] [delay ms] [jitter ms] [reorder p [gap]] [duplicate p]
+ * </pre>
+ * e.g. impair seed 42 ge 0.01 0.3 delay 20 jitter 5
+ */
+public class ImpairStage extends AbstractStage {
+    // The impairments
+    Impairment impairment;
+
+    public ImpairStage(Impairment impairment) {
+        super("impair");
+
+        this.impairment = impairment;
+    }
+
+    public Action process(PacketContext context) {
+        if (impairment.lose()) {
+            return Action.DROP;
+        }
+
+        long delay = impairment.delay();
+
+        if (delay > 0) {
+            context.delay(delay);
+        }
+
+        if (impairment.duplicate()) {
+            context.duplicate();
+        }
+
+        return delay > 0 ? Action.DELAYED : Action.PASS;
+    }
+
+    // It delays if it has a delay, jitter or reorder
+    public boolean canDelay() {
+        return impairment.delays();
+    }
+
+    // Get the impairments
+    public Impairment getImpairment() {
+        return impairment;
+    }
+
+    public String report() {
+        return impairment.report();
+    }
+}
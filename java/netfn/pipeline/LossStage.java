@@ -0,0 +1,47 @@
+package netfn.pipeline;
+
+import java.util.SplittableRandom;
+
+/**
+ * A stage that drops packets at random, with a probability,
+ * to emulate a lossy link.
+ *
+ * In a pipeline file:
+ * <pre>
+ * loss probability [seed]
+ * </pre>
+ * e.g. loss 0.01
+ */
+public class LossStage extends AbstractStage {
+    // The probability of a loss
+    double probability;
+
+    SplittableRandom random;
+
+    // counts
+    long lost = 0;
+
+    public LossStage(double probability, long seed) {
+        super("loss");
+
+        if (probability < 0 || probability > 1) {
+            throw new IllegalArgumentException("LossStage: bad probability " + probability);
+        }
+
+        this.probability = probability;
+        this.random = new SplittableRandom(seed);
+    }
+
+    public Action process(PacketContext context) {
+        if (random.nextDouble() < probability) {
+            lost++;
+            return Action.DROP;
+        } else {
+            return Action.PASS;
+        }
+    }
+
+    public String report() {
+        return "probability: " + probability + " lost: " + lost;
+    }
+}
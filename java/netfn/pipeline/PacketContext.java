@@ -0,0 +1,156 @@
+package netfn.pipeline;
+
+import java.net.DatagramPacket;
+import java.util.Arrays;
+
+import cc.clayman.util.Clock;
+
+/**
+ * A packet going through a Pipeline, and what the stages
+ * have decided about it.
+ *
+ * There is one PacketContext for each Pipeline, which is reset
+ * for each packet, so nothing is allocated per packet.
+ * The packet buffer is shared by all the stages, and is trimmed in place.
+ * The times are from a Clock, which is the system clock in a forwarder.
+ *
+ * A stage can make a copy of the packet, which the Pipeline then
+ * passes through the stages after that one.  Only a copy allocates.
+ */
+public class PacketContext {
+    // Where the time comes from
+    Clock clock = Clock.SYSTEM;
+
+    // The packet
+    DatagramPacket packet;
+
+    // The no of the packet
+    long count;
+
+    // When the packet came in, from the Clock
+    long arrivalTime;
+
+    // When the packet reached the pipeline, from the Clock
+    long now;
+
+    // When the packet should be sent, from the Clock,
+    // or 0 to send it now
+    long sendAt;
+
+    // The stage the packet is in, set by the Pipeline
+    int stage;
+
+    // A copy of the packet, made by a stage, its send time,
+    // and the stage that made it, or null
+    byte[] duplicate = null;
+    long duplicateSendAt;
+    int duplicateStage;
+
+    /**
+     * Reset the context for a new packet
+     */
+    public void reset(DatagramPacket packet, long count, long arrivalTime) {
+        this.packet = packet;
+        this.count = count;
+        this.arrivalTime = arrivalTime;
+        this.now = clock.nanoTime();
+        this.sendAt = 0;
+        this.duplicate = null;
+    }
+
+    /**
+     * Make the copy of the packet the packet of the context,
+     * with the send time it had when it was copied
+     * @return the stage after the one that made the copy
+     */
+    int resetToDuplicate() {
+        DatagramPacket copy = new DatagramPacket(duplicate, duplicate.length);
+
+        if (packet.getAddress() != null) {
+            copy.setAddress(packet.getAddress());
+            copy.setPort(packet.getPort());
+        }
+
+        this.packet = copy;
+        this.sendAt = duplicateSendAt;
+        this.duplicate = null;
+
+        return duplicateStage + 1;
+    }
+
+    // Set the Clock
+    public void setClock(Clock clock) {
+        this.clock = clock;
+    }
+
+    // Get the packet
+    public DatagramPacket getPacket() {
+        return packet;
+    }
+
+    // Get the length of the packet
+    public int getLength() {
+        return packet.getLength();
+    }
+
+    // Get the no of the packet
+    public long getCount() {
+        return count;
+    }
+
+    // Get when the packet came in
+    public long getArrivalTime() {
+        return arrivalTime;
+    }
+
+    // Get when the packet reached the pipeline
+    public long getNow() {
+        return now;
+    }
+
+    // Get when the packet should be sent
+    public long getSendAt() {
+        return sendAt == 0 ? now : sendAt;
+    }
+
+    // Is the packet delayed
+    public boolean isDelayed() {
+        return sendAt > now;
+    }
+
+    // Is there a copy of the packet to go through the pipeline
+    public boolean hasDuplicate() {
+        return duplicate != null;
+    }
+
+    // Get the length of the copy of the packet
+    public int getDuplicateLength() {
+        return duplicate.length;
+    }
+
+    /**
+     * Make a copy of the packet, as it is now,
+     * to go through the stages after this one
+     */
+    public void duplicate() {
+        duplicate = Arrays.copyOfRange(packet.getData(), packet.getOffset(), packet.getOffset() + packet.getLength());
+        duplicateSendAt = sendAt;
+        duplicateStage = stage;
+    }
+
+    /**
+     * Delay the packet by some nanoseconds more
+     */
+    public void delay(long nanos) {
+        sendAt = getSendAt() + nanos;
+    }
+
+    /**
+     * Send the packet no sooner than a time, from the Clock
+     */
+    public void sendNoSooner(long time) {
+        if (time > getSendAt()) {
+            sendAt = time;
+        }
+    }
+}
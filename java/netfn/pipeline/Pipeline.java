@@ -0,0 +1,368 @@
+package netfn.pipeline;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+import cc.clayman.util.Clock;
+
+import netfn.bpp.BPPFn;
+import netfn.bpp.BPPFnConfig;
+import netfn.metrics.ForwarderMetrics;
+import netfn.metrics.PrometheusWriter;
+import netfn.udp.Impairment;
+
+/**
+ * An ordered list of stages, which process each packet in turn,
+ * in one buffer, in one thread.
+ * So several network functions can be stacked in one forwarder,
+ * with no copies and no hops between processes.
+ *
+ * A packet dropped by a stage is not seen by the later stages.
+ * A copy of a packet made by a stage is only seen by the later stages.
+ * A packet delayed by a stage is seen by the later stages straight away,
+ * with a later send time, so a stage that can delay must come
+ * after every timed stage, such as bpp and udp.
+ * The packets and bytes into each stage, and what it did
+ * with them, are counted, and can be read from any thread.
+ *
+ * A pipeline file has a line for each stage, in order:
+ * <pre>
+ * # stage args
+ * stats in
+ * bpp o:0.2:0.1 optimal
+ * loss 0.01
+ * delay 20
+ * impair seed 42 ge 0.01 0.3 jitter 5
+ * shape 16000
+ * stats out
+ * </pre>
+ */
+public class Pipeline {
+    // The stages
+    Step[] steps;
+
+    /**
+     * A stage and its counts
+     */
+    static class Step {
+        final Stage stage;
+
+        final LongAdder packetsIn = new LongAdder();
+        final LongAdder bytesIn = new LongAdder();
+        final LongAdder packetsTrimmed = new LongAdder();
+        final LongAdder bytesTrimmed = new LongAdder();
+        final LongAdder packetsDelayed = new LongAdder();
+        final LongAdder packetsDropped = new LongAdder();
+
+        Step(Stage stage) {
+            this.stage = stage;
+        }
+    }
+
+    /**
+     * A Pipeline of some stages
+     * @throws IllegalArgumentException if a stage that can delay
+     * comes before a timed stage
+     */
+    public Pipeline(List<Stage> stages) throws IllegalArgumentException {
+        checkOrder(stages);
+
+        steps = new Step[stages.size()];
+
+        for (int s = 0; s < steps.length; s++) {
+            steps[s] = new Step(stages.get(s));
+        }
+    }
+
+    /**
+     * Process a packet through each stage.
+     * @return DROP if a stage dropped it,
+     * or else TRIMMED if a stage trimmed it,
+     * or else DELAYED if a stage delayed it,
+     * or else PASS
+     */
+    public Stage.Action process(PacketContext context) {
+        return process(context, 0);
+    }
+
+    /**
+     * Process the copy of a packet, made by a stage,
+     * through the stages after that one.
+     * The copy becomes the packet of the context.
+     */
+    public Stage.Action processDuplicate(PacketContext context) {
+        return process(context, context.resetToDuplicate());
+    }
+
+    // Process a packet through the stages from one on
+    Stage.Action process(PacketContext context, int from) {
+        boolean trimmed = false;
+        boolean delayed = false;
+
+        for (int s = from; s < steps.length; s++) {
+            Step step = steps[s];
+            int length = context.getLength();
+
+            context.stage = s;
+
+            step.packetsIn.increment();
+            step.bytesIn.add(length);
+
+            Stage.Action action = step.stage.process(context);
+
+            if (action == Stage.Action.DROP) {
+                step.packetsDropped.increment();
+                return Stage.Action.DROP;
+
+            } else if (action == Stage.Action.TRIMMED) {
+                step.packetsTrimmed.increment();
+                step.bytesTrimmed.add(length - context.getLength());
+                trimmed = true;
+
+            } else if (action == Stage.Action.DELAYED) {
+                step.packetsDelayed.increment();
+                delayed = true;
+            }
+        }
+
+        if (trimmed) {
+            return Stage.Action.TRIMMED;
+        } else if (delayed) {
+            return Stage.Action.DELAYED;
+        } else {
+            return Stage.Action.PASS;
+        }
+    }
+
+    /**
+     * Adjust the bandwidth of every stage.
+     * It must be called by the thread processing the packets.
+     */
+    public void setBandwidth(int bitsPerSecond) {
+        for (Step step : steps) {
+            step.stage.setBandwidth(bitsPerSecond);
+        }
+    }
+
+    /**
+     * Set the metrics every stage counts the trimmed bytes in
+     */
+    public void setMetrics(ForwarderMetrics metrics) {
+        for (Step step : steps) {
+            step.stage.setMetrics(metrics);
+        }
+    }
+
+    /**
+     * Set the Clock of every stage.
+     * It must be called by the thread processing the packets.
+     */
+    public void setClock(Clock clock) {
+        for (Step step : steps) {
+            step.stage.setClock(clock);
+        }
+    }
+
+    /**
+     * The no of stages
+     */
+    public int size() {
+        return steps.length;
+    }
+
+    /**
+     * Get a stage
+     */
+    public Stage getStage(int s) {
+        return steps[s].stage;
+    }
+
+    // The label of a stage, e.g. 2:bpp
+    String label(int s) {
+        return s + ":" + steps[s].stage.getName();
+    }
+
+    /**
+     * A report of the stages, with a line for each stage
+     */
+    public String report() {
+        StringBuilder builder = new StringBuilder();
+
+        for (int s = 0; s < steps.length; s++) {
+            Step step = steps[s];
+
+            builder.append(String.format("STAGE: %-8s in %8d %10d trimmed %8d %10d delayed %8d dropped %8d  %s\n",
+                                         label(s),
+                                         step.packetsIn.sum(), step.bytesIn.sum(),
+                                         step.packetsTrimmed.sum(), step.bytesTrimmed.sum(),
+                                         step.packetsDelayed.sum(), step.packetsDropped.sum(),
+                                         step.stage.report()));
+        }
+
+        return builder.toString();
+    }
+
+    /**
+     * Write the metrics of each stage, with names starting with a prefix
+     */
+    public void writeTo(PrometheusWriter w, String prefix) {
+        w.metric(prefix + "_stage_packets_total", "counter", "Packets into each stage, and what it did with them");
+
+        for (int s = 0; s < steps.length; s++) {
+            Step step = steps[s];
+            String stage = PrometheusWriter.label("stage", label(s));
+
+            w.sample(prefix + "_stage_packets_total", stage + ",action=\"in\"", step.packetsIn.sum());
+            w.sample(prefix + "_stage_packets_total", stage + ",action=\"trimmed\"", step.packetsTrimmed.sum());
+            w.sample(prefix + "_stage_packets_total", stage + ",action=\"delayed\"", step.packetsDelayed.sum());
+            w.sample(prefix + "_stage_packets_total", stage + ",action=\"dropped\"", step.packetsDropped.sum());
+        }
+
+        w.metric(prefix + "_stage_bytes_total", "counter", "Bytes into each stage, and bytes trimmed by it");
+
+        for (int s = 0; s < steps.length; s++) {
+            Step step = steps[s];
+            String stage = PrometheusWriter.label("stage", label(s));
+
+            w.sample(prefix + "_stage_bytes_total", stage + ",action=\"in\"", step.bytesIn.sum());
+            w.sample(prefix + "_stage_bytes_total", stage + ",action=\"trimmed\"", step.bytesTrimmed.sum());
+        }
+    }
+
+    /**
+     * Load a pipeline from a file
+     * @param bandwidthBits the bandwidth for the stages that need one
+     */
+    public static Pipeline load(String filename, int bandwidthBits) throws IOException {
+        List<Stage> stages = new ArrayList<Stage>();
+
+        try (BufferedReader reader = new BufferedReader(new FileReader(filename))) {
+            String line;
+            int lineNo = 0;
+
+            while ((line = reader.readLine()) != null) {
+                lineNo++;
+
+                line = line.trim();
+
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+
+                String[] parts = line.split("\\s+");
+
+                try {
+                    stages.add(newStage(parts, bandwidthBits));
+                } catch (IllegalArgumentException iae) {
+                    throw new IOException("Pipeline: " + filename + " line " + lineNo + ": " + iae.getMessage());
+                }
+            }
+        }
+
+        if (stages.isEmpty()) {
+            throw new IOException("Pipeline: " + filename + " has no stages");
+        }
+
+        try {
+            return new Pipeline(stages);
+        } catch (IllegalArgumentException iae) {
+            throw new IOException("Pipeline: " + filename + ": " + iae.getMessage());
+        }
+    }
+
+    /**
+     * Check that no stage that can delay comes before a timed stage,
+     * which would see the delayed packet at the time it came in.
+     * @throws IllegalArgumentException if one does
+     */
+    static void checkOrder(List<Stage> stages) throws IllegalArgumentException {
+        int delaying = -1;
+
+        for (int s = 0; s < stages.size(); s++) {
+            Stage stage = stages.get(s);
+
+            if (stage.isTimed() && delaying >= 0) {
+                throw new IllegalArgumentException("stage " + s + ":" + stage.getName() + " comes after stage " + delaying + ":" + stages.get(delaying).getName() + ", which can delay packets. Put the delay, shape, and impair stages with delay, jitter or reorder after it");
+            }
+
+            if (stage.canDelay() && delaying < 0) {
+                delaying = s;
+            }
+        }
+    }
+
+    /**
+     * Create a stage from its name and args
+     * @throws IllegalArgumentException if they are not valid
+     */
+    public static Stage newStage(String[] parts, int bandwidthBits) throws IllegalArgumentException {
+        String name = parts[0];
+
+        if (name.equals("stats")) {
+            // stats [label]
+            checkArgs(parts, 0, 1, "stats [label]");
+
+            return new StatsStage(parts.length > 1 ? parts[1] : "stats");
+
+        } else if (name.equals("bpp")) {
+            // bpp [fn] [position|optimal] [threshold]
+            checkArgs(parts, 0, 3, "bpp [fn] [position|optimal] [threshold]");
+
+            String fn = parts.length > 1 ? parts[1] : "b";
+            String selector = parts.length > 2 ? parts[2] : "position";
+            int threshold = parts.length > 3 ? Integer.parseInt(parts[3]) : BPPFn.NO_THRESHOLD;
+
+            return new BPPFnStage(new BPPFnConfig(fn, selector, threshold, bandwidthBits));
+
+        } else if (name.equals("udp")) {
+            // udp [packetsPerSecond]
+            checkArgs(parts, 0, 1, "udp [packetsPerSecond]");
+
+            return new UDPFnStage(bandwidthBits, parts.length > 1 ? Integer.parseInt(parts[1]) : 100);
+
+        } else if (name.equals("loss")) {
+            // loss probability [seed]
+            checkArgs(parts, 1, 2, "loss probability [seed]");
+
+            return new LossStage(Double.parseDouble(parts[1]), parts.length > 2 ? Long.parseLong(parts[2]) : System.nanoTime());
+
+        } else if (name.equals("delay")) {
+            // delay millis
+            checkArgs(parts, 1, 1, "delay millis");
+
+            return new DelayStage(Double.parseDouble(parts[1]));
+
+        } else if (name.equals("impair")) {
+            // impair [seed n] [loss p] [ge p r [good bad]] [delay ms] [jitter ms] [reorder p [gap]] [duplicate p]
+            return new ImpairStage(Impairment.parse(parts, 1));
+
+        } else if (name.equals("shape")) {
+            // shape depth [rate]
+            checkArgs(parts, 1, 2, "shape depth [rate]");
+
+            int depth = Integer.parseInt(parts[1]);
+
+            if (parts.length > 2) {
+                return new ShapeStage((int)(Float.parseFloat(parts[2]) * 1024 * 1024), depth, false);
+            } else {
+                return new ShapeStage(bandwidthBits, depth, true);
+            }
+
+        } else {
+            throw new IllegalArgumentException("unknown stage " + name + ". Expected stats|bpp|udp|loss|delay|impair|shape");
+        }
+    }
+
+    // Check the no of args of a stage
+    static void checkArgs(String[] parts, int min, int max, String expected) {
+        int args = parts.length - 1;
+
+        if (args < min || args > max) {
+            throw new IllegalArgumentException("Expected " + expected);
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package netfn.pipeline;
+
+import netfn.mgmt.*;
+
+import java.io.IOException;
+
+import cc.clayman.net.Transport;
+import cc.clayman.util.Verbose;
+
+// A main() wrapper for PipelineForwarder
+public class PipelineForward {
+
+    // listen port
+    static int udpPort = 6799;
+
+    // forward host
+    static String forwardHost = "localhost";
+    // forward port
+    static int forwardPort = 6798;
+
+    // transport to listen on, and to forward on
+    static String inTransport = Transport.getType();
+    static String outTransport = Transport.getType();
+
+    // HTTP Listen Port for ManagementListener
+    static int httpPort = 8080;
+
+    // in mega-bits
+    static int bandwidthBits = 1 * 1024 * 1024;   // default: 1 Mb
+
+    // the file with the stages of the pipeline
+    static String pipelineFile = null;
+
+    // a schedule of bandwidth changes, played from the start
+    static String scheduleFile = null;
+    static double scheduleScale = 1.0;    // multiply the times by this
+    static boolean scheduleLoop = false;
+    static BandwidthSchedule schedule = null;
+
+    // Forwarder
+    static PipelineForwarder forwarder = null;
+
+
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            usage();
+        } else if (args.length >= 1) {
+
+            // have flags too
+
+            int argc = 0;
+
+            while (argc < args.length) {
+                String arg0 = args[argc];
+
+                if (arg0.equals("-f")) {
+                    // Pipeline file
+                    argc++;
+                    pipelineFile = args[argc];
+
+                } else if (arg0.equals("-m")) {
+                    // Transport in, and maybe out
+                    // e.g. -m shm  or  -m shm:udp
+                    argc++;
+
+                    String val = args[argc];
+                    String[] parts = val.split(":");
+
+                    inTransport = parts[0];
+                    outTransport = parts.length > 1 ? parts[1] : parts[0];
+
+                    if (parts.length > 2 || !Transport.isValid(inTransport) || !Transport.isValid(outTransport)) {
+                        System.err.println("Transport: illegal arg. Expected -m in[:out] e.g. -m shm:udp");
+                        System.exit(1);
+                    }
+
+                } else if (arg0.equals("-p")) {
+                    // Port
+                    argc++;
+
+                    String val = args[argc];
+                    udpPort = Integer.parseInt(val);
+
+                } else if (arg0.equals("-h")) {
+                    // Host
+                    argc++;
+                    forwardHost = args[argc];
+
+                } else if (arg0.equals("-P")) {
+                    // Forward Port
+                    argc++;
+
+                    String val = args[argc];
+                    forwardPort = Integer.parseInt(val);
+
+                } else if (arg0.equals("-H")) {
+                    // HTTP Listen Port
+                    argc++;
+
+                    String val = args[argc];
+                    httpPort = Integer.parseInt(val);
+
+                } else if (arg0.equals("-b")) {   /* -b bandwidthBits -- the estimated bandwidth (in Mbits) e.g 0.8 or 1.2 */
+                    // get next arg
+                    argc++;
+
+                    String countValue =  args[argc];
+
+                    try {
+                        float mbps = Float.parseFloat(countValue);
+                        bandwidthBits =  (int)(mbps * 1024 * 1024);
+                    } catch (Exception e) {
+                        System.err.println("Bad bandwidth value: " + countValue);
+                    }
+
+                } else if (arg0.equals("-F")) {
+                    // Bandwidth schedule file
+                    argc++;
+                    scheduleFile = args[argc];
+
+                } else if (arg0.equals("-x")) {
+                    // Scale the times of the bandwidth schedule
+                    argc++;
+
+                    String val = args[argc];
+                    scheduleScale = Double.parseDouble(val);
+
+                    if (scheduleScale <= 0) {
+                        System.err.println("Schedule scale: illegal arg. Expected -x scale e.g. -x 0.5");
+                        System.exit(1);
+                    }
+
+                } else if (arg0.equals("-L")) {
+                    // Play the bandwidth schedule in a loop
+                    scheduleLoop = true;
+
+                } else if (arg0.startsWith("-v")) {
+                    if (arg0.equals("-v")) {
+                        Verbose.level = 1;
+                    } else  if (arg0.equals("-vv")) {
+                        Verbose.level = 2;
+                    } else  if (arg0.equals("-vvv")) {
+                        Verbose.level = 3;
+                    }
+                } else {
+                    usage();
+                }
+
+                argc++;
+
+            }
+
+        } else {
+            usage();
+        }
+
+        if (pipelineFile == null) {
+            System.err.println("Pipeline: no file. Expected -f pipeline_file");
+            usage();
+        }
+
+        if (Verbose.level >= 2) {
+            System.err.println("Listen on port: " + udpPort);
+            System.err.println("Forward to host: " + forwardHost);
+            System.err.println("Forward to port: " + forwardPort);
+            System.err.println("HTTP listen port: " + httpPort);
+            System.err.println("Transport: " + inTransport + " / " + outTransport);
+            System.err.println("Bandwidth in bits: " + bandwidthBits);
+            System.err.println("Pipeline: " + pipelineFile);
+        }
+
+        // Load the bandwidth schedule
+        if (scheduleFile != null) {
+            try {
+                schedule = BandwidthSchedule.load(scheduleFile).setScale(scheduleScale).setLoop(scheduleLoop);
+
+                System.err.println("BandwidthSchedule " + scheduleFile + " " + schedule);
+            } catch (IOException ioe) {
+                System.err.println(ioe.getMessage());
+                System.exit(1);
+            }
+        }
+
+        // Load the pipeline
+        Pipeline pipeline = null;
+
+        try {
+            pipeline = Pipeline.load(pipelineFile, bandwidthBits);
+        } catch (IOException ioe) {
+            System.err.println(ioe.getMessage());
+            System.exit(1);
+        }
+
+        try {
+            // Create the forwarder
+            forwarder = new PipelineForwarder(udpPort, forwardHost, forwardPort, bandwidthBits, pipeline);
+            // Setup the transport
+            forwarder.setTransport(Transport.newReceiver(inTransport, udpPort), Transport.newSender(outTransport, forwardHost, forwardPort));
+
+            // Create ProcessExternal object.
+            // It will callback to the PipelineForwarder as a  ManagementListener
+            ProcessExternal handler = new ProcessExternal(httpPort, forwarder);
+
+            // play the bandwidth schedule
+            BandwidthScheduler scheduler = null;
+
+            if (schedule != null) {
+                scheduler = new BandwidthScheduler(schedule, forwarder);
+                scheduler.start();
+            }
+
+            // go
+            forwarder.processTraffic();
+
+            if (scheduler != null) {
+                scheduler.stop();
+            }
+
+            if (Verbose.level >= 1) {
+                System.err.print(forwarder.getMetrics().report());
+                System.err.print(pipeline.report());
+            }
+        } catch (IOException ioe) {
+            ioe.printStackTrace();
+        }
+    }
+
+    static void usage() {
+        System.err.println("PipelineForward -f pipeline_file [-b bandwidth] [-p listen_port] [-h forward_host] [-P forward_port] [-H http_port] [-m in[:out]] [-F schedule] [-x scale] [-L]");
+        System.exit(1);
+    }
+
+
+}
@@ -0,0 +1,218 @@
+package netfn.pipeline;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+
+import cc.clayman.net.*;
+import cc.clayman.util.Verbose;
+
+import netfn.mgmt.*;
+import netfn.metrics.ForwarderMetrics;
+import netfn.metrics.PrometheusWriter;
+
+// Collect packets with a PacketReceiver
+// Pass each packet through a Pipeline of stages, in its own buffer
+// Forward packets with a PacketSender, via a DelayLine
+// for the packets the stages delay
+//
+// The bandwidth is set by other threads, and the forwarding thread
+// passes it on to the stages before its next packet.
+
+public class PipelineForwarder implements ManagementListener, MetricsSource {
+
+    // listen port
+    int udpPort = 6799;
+
+    // forward host
+    String forwardHost = "localhost";
+    // forward port
+    int forwardPort = 6798;
+
+    // in bits, as set by adjustBandwidth()
+    volatile int bandwidthBits = 1024 * 1024;   // default: 1 Mb
+
+    // the bandwidth the stages have
+    int stageBandwidth;
+
+    PacketReceiver<DatagramPacket> receiver = null;
+    PacketSender sender = null;
+    volatile DelayLine delayLine = null;
+
+    // The pipeline
+    Pipeline pipeline;
+
+    // The context of the packet going through the pipeline
+    PacketContext context = new PacketContext();
+
+    long count = 0;
+
+    // The metrics, which other threads can read
+    ForwarderMetrics metrics = new ForwarderMetrics();
+
+    public PipelineForwarder(int udpPort, String forwardHost, int forwardPort, int bandwidth, Pipeline pipeline) {
+        this.udpPort = udpPort;
+        this.forwardHost = forwardHost;
+        this.forwardPort = forwardPort;
+        this.bandwidthBits = bandwidth;
+        this.stageBandwidth = bandwidth;
+        this.pipeline = pipeline;
+
+        pipeline.setMetrics(metrics);
+
+        System.out.printf("BW:  %9d%10d\n", count, bandwidthBits);
+    }
+
+    /**
+     * Use the given receiver and sender, instead of creating
+     * them from the Transport when traffic processing starts.
+     */
+    public void setTransport(PacketReceiver<DatagramPacket> receiver, PacketSender sender) {
+        this.receiver = receiver;
+        this.sender = sender;
+    }
+
+    public void processTraffic() throws IOException {
+
+        // Setup Receiver
+        if (receiver == null) {
+            receiver = Transport.newReceiver(udpPort);
+        }
+        receiver.start();
+
+        // Setup Sender, with a DelayLine for the delayed packets
+        if (sender == null) {
+            sender = Transport.newSender(forwardHost, forwardPort);
+        }
+
+        delayLine = new DelayLine(sender);
+        delayLine.start();
+
+        metrics.setThread(Thread.currentThread());
+
+        // sit and listen
+        while (! receiver.isEOF()) {
+            // get a packet
+            DatagramPacket packet = receiver.getPacket();
+
+            if (packet == null) {
+                // the receiver has nothing to pass on
+                break;
+            } else {
+                // process the packet
+                long arrivalTime = System.nanoTime();
+                count++;
+
+                // pick up a new bandwidth, between packets
+                int bandwidth = bandwidthBits;
+
+                if (bandwidth != stageBandwidth) {
+                    stageBandwidth = bandwidth;
+                    pipeline.setBandwidth(bandwidth);
+                }
+
+                datagramProcess(packet, arrivalTime);
+            }
+        }
+
+        // stop receiver
+        receiver.stop();
+
+        // stop sender, after the held packets
+        delayLine.stop();
+    }
+
+    /**
+     * Process the recevied Datagram through the pipeline
+     */
+    protected void datagramProcess(DatagramPacket packet, long arrivalTime) {
+        int length = packet.getLength();
+
+        metrics.recordIn(length);
+
+        context.reset(packet, count, arrivalTime);
+
+        if (process(false) == Stage.Action.DROP) {
+            metrics.recordDrop(length);
+        } else {
+            forward(length, arrivalTime);
+        }
+
+        // a stage may have made a copy of the packet,
+        // which has been through the stages up to that one
+        while (context.hasDuplicate()) {
+            int copyLength = context.getDuplicateLength();
+
+            if (process(true) != Stage.Action.DROP) {
+                forward(copyLength, arrivalTime);
+            }
+        }
+    }
+
+    // Pass the packet of the context, or its copy, through the pipeline
+    Stage.Action process(boolean duplicate) {
+        try {
+            return duplicate ? pipeline.processDuplicate(context) : pipeline.process(context);
+        } catch (Exception e) {
+            System.err.println(e.getClass() + ": " + e.getMessage());
+            return Stage.Action.DROP;
+        }
+    }
+
+    // Send the packet of the context at its time
+    void forward(int length, long arrivalTime) {
+        DatagramPacket packet = context.getPacket();
+        int newLength = packet.getLength();
+
+        long sendAt = context.getSendAt();
+
+        delayLine.sendAt(packet, sendAt);
+
+        // the latency is to when the packet is sent, after any delay
+        metrics.recordOut(length, newLength, arrivalTime, sendAt);
+    }
+
+    // Get the pipeline
+    public Pipeline getPipeline() {
+        return pipeline;
+    }
+
+    // Get the metrics
+    public ForwarderMetrics getMetrics() {
+        return metrics;
+    }
+
+    // get the bandwidthBits
+    public int getBandwidth() {
+        return bandwidthBits;
+    }
+
+    // Adjust the bandwidth
+    // The stages are told by the forwarding thread
+    // Returns the old bandwidth
+    public int adjustBandwidth(int bb) {
+        int oldBW = bandwidthBits;
+
+        bandwidthBits = bb;
+
+        System.out.printf("BW:  %9d%10d\n", metrics.packetsIn.sum(), bb);
+
+        return oldBW;
+    }
+
+    // Write the metrics
+    public void writeMetrics(PrometheusWriter w) {
+        metrics.writeTo(w, "pipeline");
+
+        w.metric("pipeline_bandwidth_bits", "gauge", "Bandwidth of the outbound connection");
+        w.sample("pipeline_bandwidth_bits", bandwidthBits);
+
+        pipeline.writeTo(w, "pipeline");
+
+        ForwarderMetrics.writeQueue(w, "pipeline", delayLine);
+    }
+
+    // Take a snapshot of the counters
+    public ForwarderMetrics.Snapshot getSnapshot() {
+        return metrics.snapshot();
+    }
+}
@@ -0,0 +1,93 @@
+package netfn.pipeline;
+
+/**
+ * A stage that paces packets out at a rate, with bursts of no more
+ * than a depth in bytes, like a token bucket.
+ *
+ * The stage does not wait.  It works out when each packet
+ * can go, with the virtual scheduling of the GCRA, and delays the packet
+ * until then, so the pipeline is never stalled by a packet waiting for tokens.
+ *
+ * In a pipeline file:
+ * <pre>
+ * shape depth [rate]
+ * </pre>
+ * where rate is in Mbps.  Default: the bandwidth of the pipeline
+ */
+public class ShapeStage extends AbstractStage {
+    // The rate, in bits per second
+    int rateBits;
+
+    // Does the rate follow the bandwidth
+    boolean followBandwidth;
+
+    // The depth, in bytes
+    int depth;
+
+    // The theoretical arrival time of the next packet, from the Clock
+    long tat = 0;
+
+    // counts
+    long delayed = 0;
+
+    /**
+     * A ShapeStage with a rate
+     * @param rateBits the rate in bits per second
+     * @param depth the depth in bytes
+     * @param followBandwidth if the rate follows the bandwidth of the pipeline
+     */
+    public ShapeStage(int rateBits, int depth, boolean followBandwidth) {
+        super("shape");
+
+        if (depth <= 0) {
+            throw new IllegalArgumentException("ShapeStage: bad depth " + depth);
+        }
+
+        this.rateBits = rateBits;
+        this.depth = depth;
+        this.followBandwidth = followBandwidth;
+    }
+
+    public Action process(PacketContext context) {
+        if (rateBits <= 0) {
+            return Action.PASS;
+        }
+
+        long t = context.getSendAt();
+
+        // the burst that is allowed, in nanoseconds
+        long tolerance = (long)depth * 8 * 1000000000L / rateBits;
+
+        if (tat < t) {
+            tat = t;
+        }
+
+        long departure = Math.max(t, tat - tolerance);
+
+        tat += (long)context.getLength() * 8 * 1000000000L / rateBits;
+
+        if (departure > t) {
+            delayed++;
+            context.sendNoSooner(departure);
+            return Action.DELAYED;
+        } else {
+            return Action.PASS;
+        }
+    }
+
+    // Adjust the bandwidth, if the rate follows it
+    public void setBandwidth(int bitsPerSecond) {
+        if (followBandwidth) {
+            rateBits = bitsPerSecond;
+        }
+    }
+
+    // It delays.  It paces from the send time, so it can come after a delay
+    public boolean canDelay() {
+        return true;
+    }
+
+    public String report() {
+        return "rate: " + rateBits + " depth: " + depth + " delayed: " + delayed;
+    }
+}
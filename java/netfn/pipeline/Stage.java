@@ -0,0 +1,68 @@
+package netfn.pipeline;
+
+import cc.clayman.util.Clock;
+
+import netfn.metrics.ForwarderMetrics;
+
+/**
+ * A stage of a Pipeline.
+ *
+ * Each stage sees the same packet, in the same buffer, one after the other.
+ * A stage can pass the packet on, trim it in place, drop it,
+ * or delay it by moving its send time later.
+ * A delayed packet still goes through the later stages straight away,
+ * so a stage that can delay must not come before a stage that is timed.
+ */
+public interface Stage {
+
+    /**
+     * What a stage did with a packet
+     */
+    public enum Action {
+        PASS,          // pass the packet on as it is
+        TRIMMED,       // the packet has been trimmed in place, and has a new length
+        DELAYED,       // the send time of the packet has been moved later
+        DROP           // drop the packet, so later stages do not see it
+    }
+
+    /**
+     * Process a packet
+     */
+    public Action process(PacketContext context);
+
+    /**
+     * Adjust the bandwidth, in bits per second
+     */
+    public void setBandwidth(int bitsPerSecond);
+
+    /**
+     * Set the metrics to count the trimmed bytes in
+     */
+    public void setMetrics(ForwarderMetrics metrics);
+
+    /**
+     * Set the Clock to get the time from
+     */
+    public void setClock(Clock clock);
+
+    /**
+     * Can the stage delay a packet
+     */
+    public boolean canDelay();
+
+    /**
+     * Does the stage depend on when the packets get to it,
+     * as a function that keeps to a bandwidth does
+     */
+    public boolean isTimed();
+
+    /**
+     * The name of the stage, as in the pipeline file
+     */
+    public String getName();
+
+    /**
+     * A one line report of the stage, or an empty String
+     */
+    public String report();
+}
@@ -0,0 +1,58 @@
+package netfn.pipeline;
+
+/**
+ * A stage that passes every packet on, and keeps the rate
+ * at its place in the pipeline, over the last second.
+ *
+ * The Pipeline counts the packets and bytes into every stage,
+ * so a stats stage is a named place to count them.
+ *
+ * In a pipeline file:
+ * <pre>
+ * stats [label]
+ * </pre>
+ */
+public class StatsStage extends AbstractStage {
+    // The label
+    String label;
+
+    // This second, and the bytes in it
+    long secondStart = 0;
+    long bytesThisSecond = 0;
+
+    // The rate in the last second, in bits per second
+    volatile long rate = 0;
+
+    public StatsStage(String label) {
+        super("stats");
+        this.label = label;
+    }
+
+    public Action process(PacketContext context) {
+        long now = context.getNow();
+
+        if (now - secondStart >= 1000000000L) {
+            rate = secondStart == 0 ? 0 : bytesThisSecond * 8 * 1000000000L / (now - secondStart);
+            secondStart = now;
+            bytesThisSecond = 0;
+        }
+
+        bytesThisSecond += context.getLength();
+
+        return Action.PASS;
+    }
+
+    // Get the label
+    public String getLabel() {
+        return label;
+    }
+
+    // Get the rate in the last second
+    public long getRate() {
+        return rate;
+    }
+
+    public String report() {
+        return "label: " + label + " rate: " + rate;
+    }
+}
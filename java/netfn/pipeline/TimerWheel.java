@@ -0,0 +1,207 @@
+package netfn.pipeline;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * A hashed timer wheel, which holds items until their time.
+ *
+ * Time is cut into ticks, and each tick has a bucket on the wheel,
+ * so adding an item is O(1), however many are held.
+ * An item further away than one turn of the wheel
+ * waits in its bucket for the turns in between.
+ *
+ * A bucket is expired when its tick has passed, so an item comes out
+ * no later than a tick after its time, and never before it.
+ * The items that come out together are in order of their time,
+ * and items with the same time are in the order they were added.
+ *
+ * A TimerWheel is not thread safe.
+ */
+public class TimerWheel<T> {
+    // Defaults
+    public final static long DEFAULT_TICK = 100000;     // 100 us
+    public final static int DEFAULT_SLOTS = 4096;       // 409.6 ms a turn
+
+    /**
+     * An item and its time
+     */
+    static class Entry<T> implements Comparable<Entry<T>> {
+        final T item;
+        final long time;
+        final long tick;
+        final long sequence;
+
+        Entry(T item, long time, long tick, long sequence) {
+            this.item = item;
+            this.time = time;
+            this.tick = tick;
+            this.sequence = sequence;
+        }
+
+        public int compareTo(Entry<T> other) {
+            if (time != other.time) {
+                return time < other.time ? -1 : 1;
+            } else {
+                return Long.compare(sequence, other.sequence);
+            }
+        }
+    }
+
+    // The length of a tick, in nanoseconds
+    long tickNanos;
+
+    // The buckets, a power of 2 of them
+    List<List<Entry<T>>> buckets;
+    int mask;
+
+    // The last tick expired
+    long lastTick;
+
+    // The no of items held
+    int size = 0;
+
+    // The no of the next item
+    long sequence = 0;
+
+    // The items that are due, reused
+    List<Entry<T>> due = new ArrayList<Entry<T>>();
+
+    /**
+     * A TimerWheel, with the default tick and slots
+     * @param now the time now, in nanoseconds
+     */
+    public TimerWheel(long now) {
+        this(DEFAULT_TICK, DEFAULT_SLOTS, now);
+    }
+
+    /**
+     * A TimerWheel
+     * @param tickNanos the length of a tick
+     * @param slots the no of buckets, rounded up to a power of 2
+     * @param now the time now, in nanoseconds
+     */
+    public TimerWheel(long tickNanos, int slots, long now) {
+        if (tickNanos <= 0 || slots <= 0) {
+            throw new IllegalArgumentException("TimerWheel: bad tick " + tickNanos + " or slots " + slots);
+        }
+
+        int n = Integer.highestOneBit(Math.max(slots, 2) * 2 - 1);
+
+        this.tickNanos = tickNanos;
+        this.mask = n - 1;
+        this.buckets = new ArrayList<List<Entry<T>>>(n);
+
+        for (int b = 0; b < n; b++) {
+            buckets.add(new ArrayList<Entry<T>>());
+        }
+
+        this.lastTick = now / tickNanos - 1;
+    }
+
+    /**
+     * Add an item, to come out at a time, in nanoseconds.
+     * An item with a time that has passed comes out at the next expire.
+     * @return the time the item will be due, at the end of its tick
+     */
+    public long add(T item, long time) {
+        long tick = Math.max(time / tickNanos, lastTick + 1);
+
+        buckets.get((int)(tick & mask)).add(new Entry<T>(item, time, tick, sequence++));
+        size++;
+
+        return (tick + 1) * tickNanos;
+    }
+
+    /**
+     * Pass the items of every tick that has passed by a time to an action,
+     * in order of their time.
+     * @return the no of items
+     */
+    public int expire(long now, Consumer<T> action) {
+        long nowTick = now / tickNanos;
+
+        if (nowTick - 1 <= lastTick) {
+            return 0;
+        }
+
+        // the buckets to look in, no more than a turn of the wheel
+        long from = Math.max(lastTick + 1, nowTick - 1 - mask);
+
+        for (long tick = from; tick < nowTick && size > due.size(); tick++) {
+            List<Entry<T>> bucket = buckets.get((int)(tick & mask));
+
+            if (bucket.isEmpty()) {
+                continue;
+            }
+
+            // take the entries of the ticks that have passed,
+            // and leave the ones for later turns
+            int kept = 0;
+
+            for (int e = 0; e < bucket.size(); e++) {
+                Entry<T> entry = bucket.get(e);
+
+                if (entry.tick < nowTick) {
+                    due.add(entry);
+                } else {
+                    bucket.set(kept++, entry);
+                }
+            }
+
+            bucket.subList(kept, bucket.size()).clear();
+        }
+
+        lastTick = nowTick - 1;
+
+        int count = due.size();
+
+        if (count > 1) {
+            Collections.sort(due);
+        }
+
+        size -= count;
+
+        for (Entry<T> entry : due) {
+            action.accept(entry.item);
+        }
+
+        due.clear();
+
+        return count;
+    }
+
+    /**
+     * The time the next bucket with items is due, in nanoseconds,
+     * or -1 if there are none
+     */
+    public long nextDue() {
+        if (size == 0) {
+            return -1;
+        }
+
+        for (long tick = lastTick + 1; tick <= lastTick + 1 + mask; tick++) {
+            if (! buckets.get((int)(tick & mask)).isEmpty()) {
+                return (tick + 1) * tickNanos;
+            }
+        }
+
+        return (lastTick + 2) * tickNanos;
+    }
+
+    /**
+     * The no of items held
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * The length of a tick, in nanoseconds
+     */
+    public long getTick() {
+        return tickNanos;
+    }
+}
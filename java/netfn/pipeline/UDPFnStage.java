@@ -0,0 +1,44 @@
+package netfn.pipeline;
+
+import cc.clayman.util.Clock;
+
+import netfn.udp.UDPFn;
+
+/**
+ * A stage that drops UDP packets with a UDPFn,
+ * when the bandwidth is too small.
+ *
+ * In a pipeline file:
+ * <pre>
+ * udp [packetsPerSecond]
+ * </pre>
+ * Default: 100
+ */
+public class UDPFnStage extends AbstractStage {
+    // The UDPFn
+    UDPFn udpFn;
+
+    public UDPFnStage(int bandwidthBits, int packetsPerSecond) {
+        super("udp");
+        udpFn = new UDPFn(bandwidthBits, packetsPerSecond);
+    }
+
+    public Action process(PacketContext context) {
+        return udpFn.datagramProcess(context.packet) == null ? Action.DROP : Action.PASS;
+    }
+
+    // Adjust the bandwidth
+    public void setBandwidth(int bitsPerSecond) {
+        udpFn.setBandwidth(bitsPerSecond);
+    }
+
+    // It is timed, as it keeps to the bandwidth
+    public boolean isTimed() {
+        return true;
+    }
+
+    // Set the Clock
+    public void setClock(Clock clock) {
+        udpFn.setClock(clock);
+    }
+}
@@ -0,0 +1,111 @@
+package netfn.sim;
+
+import cc.clayman.h264.NAL;
+import cc.clayman.net.BPPSVCDepacketizer;
+import cc.clayman.processor.BufferingUDPChunkStreamer;
+import cc.clayman.processor.MissingNALAnalyser;
+import cc.clayman.processor.MultiNALRebuilder;
+import cc.clayman.trace.PacketTrace;
+import cc.clayman.trace.TraceReceiver;
+
+/**
+ * What a receiver could decode from a PacketTrace.
+ *
+ * The packets are passed through the same chain as H264Listen:
+ * a BPPSVCDepacketizer, a MultiNALRebuilder and the MissingNALAnalyser,
+ * which throws away the NALs of a layer after a NAL of that layer is lost,
+ * until the next I frame.
+ * The bytes of the NALs kept at each layer are counted,
+ * and a frame is decodable at layer L if its NALs at layers 0 to L were kept.
+ */
+public class DecodeAnalysis {
+    // No of layers
+    final int layers;
+
+    // No of frames seen
+    int frames = 0;
+
+    // No of frames decodable at each layer
+    final int[] decodable;
+
+    // The bytes of the NALs kept at each layer
+    final long[] bytes;
+
+    // The layers kept in the current frame
+    int frame = 0;
+    int kept = 0;
+
+    DecodeAnalysis(int layers) {
+        this.layers = layers;
+        this.decodable = new int[layers];
+        this.bytes = new long[layers];
+    }
+
+    /**
+     * Analyse a trace
+     */
+    public static DecodeAnalysis analyse(PacketTrace trace, int layers) {
+        DecodeAnalysis analysis = new DecodeAnalysis(layers);
+
+        BufferingUDPChunkStreamer streamer = new BufferingUDPChunkStreamer(new TraceReceiver(trace), new BPPSVCDepacketizer());
+        MultiNALRebuilder rebuilder = new MultiNALRebuilder(streamer, layers);
+        MissingNALAnalyser analyser = new MissingNALAnalyser(rebuilder, layers);
+        analyser.start();
+
+        while (analyser.hasNext()) {
+            NAL nal = analyser.next();
+
+            if (nal != null && analyser.getQualityLayer() >= 0) {
+                analysis.nal(analyser.getVCLCount(), analyser.getQualityLayer(), nal.getSize());
+            }
+        }
+
+        analyser.stop();
+
+        analysis.endFrame();
+        analysis.frames = analyser.getVCLCount();
+
+        return analysis;
+    }
+
+    // A NAL was kept
+    void nal(int vcl, int layer, int size) {
+        if (vcl != frame) {
+            endFrame();
+            frame = vcl;
+        }
+
+        kept |= 1 << layer;
+        bytes[layer] += size;
+    }
+
+    // Count the layers the current frame can be decoded at
+    void endFrame() {
+        for (int l = 0; l < layers; l++) {
+            int needed = (1 << (l + 1)) - 1;
+
+            if ((kept & needed) != needed) {
+                break;
+            }
+
+            decodable[l]++;
+        }
+
+        kept = 0;
+    }
+
+    // Get the no of frames seen
+    public int getFrames() {
+        return frames;
+    }
+
+    // Get the no of frames decodable at a layer
+    public int getDecodable(int layer) {
+        return decodable[layer];
+    }
+
+    // Get the bytes kept at a layer
+    public long getBytes(int layer) {
+        return bytes[layer];
+    }
+}
@@ -0,0 +1,137 @@
+package netfn.sim;
+
+import java.io.IOException;
+import java.util.List;
+
+import cc.clayman.trace.MemoryPacketTrace;
+import cc.clayman.trace.PacketTrace;
+
+import netfn.bpp.BPPFn;
+import netfn.bpp.BPPFnConfig;
+import netfn.metrics.ForwarderMetrics;
+import netfn.pipeline.BPPFnStage;
+import netfn.pipeline.Pipeline;
+import netfn.pipeline.Stage;
+
+/**
+ * One point of a Sweep: a BPPFn, selector, threshold and bandwidth,
+ * run over a trace in a Simulator, with its own BPPFn and its own clock,
+ * so experiments can run in parallel.
+ * The forwarded packets are then analysed for what a receiver could decode.
+ */
+public class Experiment {
+    // The config of the BPPFn
+    final BPPFnConfig config;
+
+    // The results
+    ForwarderMetrics metrics = null;
+    DecodeAnalysis analysis = null;
+    long elapsed = 0;
+
+    /**
+     * An Experiment
+     * @throws IllegalArgumentException if the fn or selector are not valid
+     */
+    public Experiment(String fn, String selector, int threshold, int bandwidthBits) throws IllegalArgumentException {
+        config = new BPPFnConfig(fn, selector, threshold, bandwidthBits);
+    }
+
+    /**
+     * Run the experiment over a trace
+     */
+    public void run(PacketTrace trace, int layers) throws IOException {
+        long startTime = System.nanoTime();
+
+        Pipeline pipeline = new Pipeline(List.<Stage>of(new BPPFnStage(config)));
+        Simulator simulator = new Simulator(trace, pipeline, config.getBandwidth());
+
+        MemoryPacketTrace forwarded = new MemoryPacketTrace();
+        simulator.setWriter(forwarded);
+
+        simulator.run();
+
+        metrics = simulator.getMetrics();
+        analysis = DecodeAnalysis.analyse(forwarded, layers);
+
+        elapsed = System.nanoTime() - startTime;
+    }
+
+    // Get the config
+    public BPPFnConfig getConfig() {
+        return config;
+    }
+
+    // Get the metrics
+    public ForwarderMetrics getMetrics() {
+        return metrics;
+    }
+
+    // Get the decode analysis
+    public DecodeAnalysis getAnalysis() {
+        return analysis;
+    }
+
+    /**
+     * The header of the results table
+     */
+    public static String csvHeader(int layers) {
+        StringBuilder builder = new StringBuilder();
+
+        builder.append("fn,selector,threshold,bandwidth");
+        builder.append(",packets_in,packets_out,packets_trimmed,packets_dropped");
+        builder.append(",bytes_in,bytes_out,bytes_trimmed,bytes_dropped");
+        builder.append(",frames");
+
+        for (int l = 0; l < layers; l++) {
+            builder.append(",decodable_l" + l);
+        }
+
+        for (int l = 0; l < layers; l++) {
+            builder.append(",bytes_l" + l);
+        }
+
+        builder.append(",run_ms");
+
+        return builder.toString();
+    }
+
+    /**
+     * The results as a row of the results table
+     */
+    public String csvRow() {
+        StringBuilder builder = new StringBuilder();
+
+        builder.append(config.getFn());
+        builder.append(',').append(config.getSelector());
+        builder.append(',').append(config.getThreshold() == BPPFn.NO_THRESHOLD ? "-" : Integer.toString(config.getThreshold()));
+        builder.append(',').append(config.getBandwidth());
+
+        builder.append(',').append(metrics.packetsIn.sum());
+        builder.append(',').append(metrics.packetsOut.sum());
+        builder.append(',').append(metrics.packetsTrimmed.sum());
+        builder.append(',').append(metrics.packetsDropped.sum());
+
+        builder.append(',').append(metrics.bytesIn.sum());
+        builder.append(',').append(metrics.bytesOut.sum());
+        builder.append(',').append(metrics.bytesTrimmed.sum());
+        builder.append(',').append(metrics.bytesDropped.sum());
+
+        builder.append(',').append(analysis.getFrames());
+
+        for (int l = 0; l < analysis.layers; l++) {
+            builder.append(',').append(analysis.getDecodable(l));
+        }
+
+        for (int l = 0; l < analysis.layers; l++) {
+            builder.append(',').append(analysis.getBytes(l));
+        }
+
+        builder.append(',').append(elapsed / 1000000);
+
+        return builder.toString();
+    }
+
+    public String toString() {
+        return config.toString();
+    }
+}
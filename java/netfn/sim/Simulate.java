@@ -0,0 +1,238 @@
+package netfn.sim;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+
+import cc.clayman.trace.MappedPacketTrace;
+import cc.clayman.trace.PacketTraceFile;
+import cc.clayman.trace.PacketTraceFileWriter;
+import cc.clayman.util.Verbose;
+
+import netfn.bpp.BPPFn;
+import netfn.bpp.BPPFnConfig;
+import netfn.mgmt.BandwidthSchedule;
+import netfn.pipeline.BPPFnStage;
+import netfn.pipeline.Pipeline;
+import netfn.pipeline.Stage;
+import netfn.pipeline.UDPFnStage;
+
+// A main() wrapper for Simulator
+public class Simulate {
+
+    // The trace to read
+    static String traceFilename = null;
+
+    // The trace to write, or null
+    static String outFilename = null;
+
+    // in mega-bits
+    static int bandwidthBits = 1 * 1024 * 1024;   // default: 1 Mb
+
+    // The BPPFn spec, as for BPPForward -B
+    static String fnSpec = "b";
+
+    // The ChunkSelector
+    static String selectorName = "position";
+
+    // Threshold to use instead of the one in the packets
+    static int threshold = BPPFn.NO_THRESHOLD;
+
+    // Use the UDPCheck, at this many packets per second, or 0 for a BPPFn
+    static int udpPacketsPerSecond = 0;
+
+    // A pipeline file, instead of one function
+    static String pipelineFile = null;
+
+    // a schedule of bandwidth changes, played from the start
+    static String scheduleFile = null;
+    static double scheduleScale = 1.0;    // multiply the times by this
+    static boolean scheduleLoop = false;
+
+
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            usage();
+        } else if (args.length >= 1) {
+
+            // have flags too
+
+            int argc = 0;
+
+            while (argc < args.length) {
+                String arg0 = args[argc];
+
+                if (arg0.equals("-t")) {
+                    // Trace to read
+                    argc++;
+                    traceFilename = args[argc];
+
+                } else if (arg0.equals("-o")) {
+                    // Trace to write
+                    argc++;
+                    outFilename = args[argc];
+
+                } else if (arg0.equals("-f")) {
+                    // Pipeline file
+                    argc++;
+                    pipelineFile = args[argc];
+
+                } else if (arg0.equals("-b")) {   /* -b bandwidthBits -- the bandwidth (in Mbits) e.g 0.8 or 1.2 */
+                    // get next arg
+                    argc++;
+
+                    String countValue =  args[argc];
+
+                    try {
+                        float mbps = Float.parseFloat(countValue);
+                        bandwidthBits =  (int)(mbps * 1024 * 1024);
+                    } catch (Exception e) {
+                        System.err.println("Bad bandwidth value: " + countValue);
+                    }
+
+                } else if (arg0.startsWith("-B")) {
+                    // BPPFn spec, as for BPPForward
+                    // e.g. -Bb  or  -Bo:0.2:0.1
+                    fnSpec = arg0.substring(2);
+
+                } else if (arg0.equals("-S")) {
+                    // Chunk selector
+                    argc++;
+
+                    selectorName = args[argc];
+
+                } else if (arg0.equals("-T")) {
+                    // Threshold to use instead of the one in the packets
+                    argc++;
+
+                    String val = args[argc];
+                    threshold = Integer.parseInt(val);
+
+                    if (threshold < 0 || threshold > 15) {
+                        System.err.println("Threshold: illegal arg. Expected -T 0 to 15");
+                        System.exit(1);
+                    }
+
+                } else if (arg0.equals("-U")) {
+                    // UDPCheck, with packets per second
+                    argc++;
+
+                    String val = args[argc];
+                    udpPacketsPerSecond = Integer.parseInt(val);
+
+                } else if (arg0.equals("-F")) {
+                    // Bandwidth schedule file
+                    argc++;
+                    scheduleFile = args[argc];
+
+                } else if (arg0.equals("-x")) {
+                    // Scale the times of the bandwidth schedule
+                    argc++;
+
+                    String val = args[argc];
+                    scheduleScale = Double.parseDouble(val);
+
+                    if (scheduleScale <= 0) {
+                        System.err.println("Schedule scale: illegal arg. Expected -x scale e.g. -x 0.5");
+                        System.exit(1);
+                    }
+
+                } else if (arg0.equals("-L")) {
+                    // Play the bandwidth schedule in a loop
+                    scheduleLoop = true;
+
+                } else if (arg0.startsWith("-v")) {
+                    if (arg0.equals("-v")) {
+                        Verbose.level = 1;
+                    } else  if (arg0.equals("-vv")) {
+                        Verbose.level = 2;
+                    } else  if (arg0.equals("-vvv")) {
+                        Verbose.level = 3;
+                    }
+                } else {
+                    usage();
+                }
+
+                argc++;
+
+            }
+
+        } else {
+            usage();
+        }
+
+        if (traceFilename == null) {
+            System.err.println("Simulate: no trace. Expected -t trace_file");
+            usage();
+        }
+
+        // Build the pipeline
+        Pipeline pipeline = null;
+
+        try {
+            if (pipelineFile != null) {
+                pipeline = Pipeline.load(pipelineFile, bandwidthBits);
+            } else if (udpPacketsPerSecond > 0) {
+                pipeline = new Pipeline(List.<Stage>of(new UDPFnStage(bandwidthBits, udpPacketsPerSecond)));
+            } else {
+                pipeline = new Pipeline(List.<Stage>of(new BPPFnStage(new BPPFnConfig(fnSpec, selectorName, threshold, bandwidthBits))));
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+
+        try (MappedPacketTrace trace = new MappedPacketTrace(traceFilename)) {
+            Simulator simulator = new Simulator(trace, pipeline, bandwidthBits);
+
+            simulator.setOutput(System.out);
+
+            if (scheduleFile != null) {
+                BandwidthSchedule schedule = BandwidthSchedule.load(scheduleFile).setScale(scheduleScale).setLoop(scheduleLoop);
+
+                System.err.println("BandwidthSchedule " + scheduleFile + " " + schedule);
+
+                simulator.setSchedule(schedule);
+            }
+
+            PacketTraceFileWriter writer = null;
+
+            if (outFilename != null) {
+                // a new trace, not added to an old one
+                Files.deleteIfExists(Paths.get(outFilename));
+                Files.deleteIfExists(Paths.get(PacketTraceFile.indexName(outFilename)));
+
+                writer = new PacketTraceFileWriter(outFilename);
+                simulator.setWriter(writer);
+            }
+
+            long startTime = System.nanoTime();
+
+            // go
+            int packets = simulator.run();
+
+            long elapsed = System.nanoTime() - startTime;
+
+            if (writer != null) {
+                writer.close();
+            }
+
+            System.err.print(simulator.getMetrics().report());
+            System.err.print(pipeline.report());
+            System.err.printf("SIMULATED: %d packets %.3f s of trace in %.3f s\n", packets,
+                              simulator.getClock().nanoTime() / 1e9, elapsed / 1e9);
+
+        } catch (IOException ioe) {
+            System.err.println(ioe.getMessage());
+            System.exit(1);
+        }
+    }
+
+    static void usage() {
+        System.err.println("Simulate -t trace_file [-o out_trace_file] [-b bandwidth] [-B fn] [-S position|optimal] [-T threshold] [-U packets_per_second] [-f pipeline_file] [-F schedule] [-x scale] [-L]");
+        System.exit(1);
+    }
+
+
+}
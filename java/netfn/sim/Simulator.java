@@ -0,0 +1,299 @@
+package netfn.sim;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+import cc.clayman.trace.PacketTrace;
+import cc.clayman.trace.PacketTraceWriter;
+import cc.clayman.util.VirtualClock;
+
+import netfn.metrics.ForwarderMetrics;
+import netfn.mgmt.BandwidthSchedule;
+import netfn.pipeline.PacketContext;
+import netfn.pipeline.Pipeline;
+import netfn.pipeline.Stage;
+
+/**
+ * Run the packets of a PacketTrace through a Pipeline in virtual time.
+ *
+ * The VirtualClock is set to the send offset of each packet before
+ * the packet is processed, so the functions see the same times
+ * as they would in a forwarder, but nobody waits for them.
+ * An hour of trace takes as long as it takes to process the packets,
+ * and the results are the same every time.
+ *
+ * The forwarded packets, trimmed or not, can be written to
+ * another PacketTrace, at the time they would have been sent.
+ * A line is printed for each second of the trace.
+ * The bandwidth can follow a BandwidthSchedule, in virtual time,
+ * so it changes between exactly the same packets every run.
+ */
+public class Simulator {
+    // The packets in
+    PacketTrace trace;
+
+    // The functions
+    Pipeline pipeline;
+
+    // The virtual time
+    VirtualClock clock;
+
+    // The time of the first packet
+    long start;
+
+    // Where the forwarded packets go, or null
+    PacketTraceWriter writer = null;
+
+    // Where the lines for each second go, or null
+    PrintStream out = null;
+
+    // The bandwidth, in bits
+    int bandwidthBits;
+
+    // The bandwidth schedule, or null
+    BandwidthSchedule schedule = null;
+
+    // The packet going through the pipeline, and its buffer
+    byte[] buffer = new byte[65536];
+    DatagramPacket packet;
+    PacketContext context = new PacketContext();
+
+    // The forwarded packets, waiting for their send time
+    PriorityQueue<Held> held = new PriorityQueue<Held>();
+    long sequence = 0;
+
+    // The metrics
+    ForwarderMetrics metrics = new ForwarderMetrics();
+
+    // This second, and the counts in it
+    long second = 0;
+    long bytesInThisSec = 0;
+    long bytesOutThisSec = 0;
+    long bytesTrimmedThisSec = 0;
+    int packetsDroppedThisSec = 0;
+
+    /**
+     * A forwarded packet and its send time
+     */
+    static class Held implements Comparable<Held> {
+        final byte[] bytes;
+        final long sendAt;
+        final long sequence;
+
+        Held(byte[] bytes, long sendAt, long sequence) {
+            this.bytes = bytes;
+            this.sendAt = sendAt;
+            this.sequence = sequence;
+        }
+
+        public int compareTo(Held other) {
+            if (sendAt != other.sendAt) {
+                return sendAt < other.sendAt ? -1 : 1;
+            } else {
+                return Long.compare(sequence, other.sequence);
+            }
+        }
+    }
+
+    /**
+     * A Simulator of a Pipeline over a PacketTrace
+     * @param bandwidthBits the bandwidth the pipeline was built with
+     */
+    public Simulator(PacketTrace trace, Pipeline pipeline, int bandwidthBits) {
+        this.trace = trace;
+        this.pipeline = pipeline;
+        this.bandwidthBits = bandwidthBits;
+        this.clock = new VirtualClock();
+        this.start = clock.nanoTime();
+
+        // the packets all come from one sender
+        packet = new DatagramPacket(buffer, buffer.length, InetAddress.getLoopbackAddress(), 6799);
+
+        pipeline.setClock(clock);
+        pipeline.setMetrics(metrics);
+        context.setClock(clock);
+    }
+
+    /**
+     * Write the forwarded packets to a PacketTraceWriter
+     */
+    public void setWriter(PacketTraceWriter writer) {
+        this.writer = writer;
+    }
+
+    /**
+     * Change the bandwidth by a schedule, from the start of the trace
+     */
+    public void setSchedule(BandwidthSchedule schedule) {
+        this.schedule = schedule;
+    }
+
+    /**
+     * Print a line for each second to a PrintStream
+     */
+    public void setOutput(PrintStream out) {
+        this.out = out;
+    }
+
+    /**
+     * Run every packet of the trace through the pipeline
+     * @return the no of packets processed
+     */
+    public int run() throws IOException {
+        int size = trace.size();
+
+        for (int n = 0; n < size; n++) {
+            long now = start + trace.getSendOffset(n);
+
+            // the offsets in a trace increase, but never go back
+            if (now > clock.nanoTime()) {
+                clock.set(now);
+            } else {
+                now = clock.nanoTime();
+            }
+
+            checkSecond(now);
+
+            // the bandwidth at this time
+            if (schedule != null) {
+                int bandwidth = schedule.bandwidthAt(now - start);
+
+                if (bandwidth != bandwidthBits) {
+                    setBandwidth(bandwidth);
+                }
+            }
+
+            // everything due by now has gone
+            flush(now);
+
+            // copy the packet, as the functions trim in place
+            int length = trace.getLength(n);
+            trace.getPacket(n).get(buffer, 0, length);
+
+            datagramProcess(n + 1, length, now);
+        }
+
+        flush(Long.MAX_VALUE);
+
+        printSecond();
+
+        return size;
+    }
+
+    /**
+     * Process a packet through the pipeline
+     */
+    protected void datagramProcess(int count, int length, long arrivalTime) throws IOException {
+        packet.setData(buffer, 0, length);
+
+        metrics.recordIn(length);
+        bytesInThisSec += length;
+
+        context.reset(packet, count, arrivalTime);
+
+        if (process(false) == Stage.Action.DROP) {
+            metrics.recordDrop(length);
+            packetsDroppedThisSec++;
+        } else {
+            forward(length, arrivalTime);
+        }
+
+        // a stage may have made a copy of the packet,
+        // which has been through the stages up to that one
+        while (context.hasDuplicate()) {
+            int copyLength = context.getDuplicateLength();
+
+            if (process(true) != Stage.Action.DROP) {
+                forward(copyLength, arrivalTime);
+            }
+        }
+    }
+
+    // Pass the packet of the context, or its copy, through the pipeline
+    Stage.Action process(boolean duplicate) {
+        try {
+            return duplicate ? pipeline.processDuplicate(context) : pipeline.process(context);
+        } catch (Exception e) {
+            System.err.println(e.getClass() + ": " + e.getMessage());
+            return Stage.Action.DROP;
+        }
+    }
+
+    // Hold the packet of the context until its send time
+    void forward(int length, long arrivalTime) {
+        DatagramPacket out = context.getPacket();
+        int newLength = out.getLength();
+        long sendAt = context.getSendAt();
+
+        metrics.recordOut(length, newLength, arrivalTime, sendAt);
+        bytesOutThisSec += newLength;
+        bytesTrimmedThisSec += length - newLength;
+
+        if (writer != null) {
+            held.add(new Held(Arrays.copyOfRange(out.getData(), out.getOffset(), out.getOffset() + newLength), sendAt, sequence++));
+        }
+    }
+
+    /**
+     * Write the held packets due by a time
+     */
+    protected void flush(long time) throws IOException {
+        while (! held.isEmpty() && held.peek().sendAt <= time) {
+            Held first = held.poll();
+
+            writer.add(first.bytes, first.sendAt - start);
+        }
+    }
+
+    /**
+     * Print the line for each second that has passed by a time
+     */
+    protected void checkSecond(long time) {
+        long thisSecond = (time - start) / 1000000000L;
+
+        while (second < thisSecond) {
+            printSecond();
+
+            second++;
+            bytesInThisSec = 0;
+            bytesOutThisSec = 0;
+            bytesTrimmedThisSec = 0;
+            packetsDroppedThisSec = 0;
+        }
+    }
+
+    // Print the line for this second
+    void printSecond() {
+        if (out != null) {
+            out.printf("SECOND: %6d%10d in %10d out %10d trimmed %10d dropped %6d\n", second, bandwidthBits,
+                       bytesInThisSec, bytesOutThisSec, bytesTrimmedThisSec, packetsDroppedThisSec);
+        }
+    }
+
+    /**
+     * Adjust the bandwidth of the pipeline
+     */
+    public void setBandwidth(int bitsPerSecond) {
+        bandwidthBits = bitsPerSecond;
+        pipeline.setBandwidth(bitsPerSecond);
+    }
+
+    // Get the virtual clock
+    public VirtualClock getClock() {
+        return clock;
+    }
+
+    // Get the pipeline
+    public Pipeline getPipeline() {
+        return pipeline;
+    }
+
+    // Get the metrics
+    public ForwarderMetrics getMetrics() {
+        return metrics;
+    }
+}
@@ -0,0 +1,248 @@
+package netfn.sim;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import cc.clayman.trace.MappedPacketTrace;
+import cc.clayman.util.Execution;
+import cc.clayman.util.Verbose;
+
+import netfn.bpp.BPPFn;
+
+// Run a grid of Experiments over a trace, in parallel,
+// and write a results table
+public class Sweep {
+
+    // The trace to read
+    static String traceFilename = null;
+
+    // The results file, or null for stdout
+    static String outFilename = null;
+
+    // The values of each parameter, as comma separated lists
+    static String fnList = "b,n,o:0.2:0.1";
+    static String selectorList = "position";
+    static String thresholdList = "-";
+    static String bandwidthList = "1";
+
+    // No of workers
+    static int workers = Runtime.getRuntime().availableProcessors();
+
+    // No of layers
+    static int layers = 3;
+
+
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            usage();
+        } else if (args.length >= 1) {
+
+            // have flags too
+
+            int argc = 0;
+
+            while (argc < args.length) {
+                String arg0 = args[argc];
+
+                if (arg0.equals("-t")) {
+                    // Trace to read
+                    argc++;
+                    traceFilename = args[argc];
+
+                } else if (arg0.equals("-o")) {
+                    // Results file
+                    argc++;
+                    outFilename = args[argc];
+
+                } else if (arg0.startsWith("-B")) {
+                    // BPPFn specs
+                    // e.g. -Bb,n,o:0.2:0.1,o:0.5:0.2
+                    fnList = arg0.substring(2);
+
+                } else if (arg0.equals("-S")) {
+                    // Chunk selectors
+                    argc++;
+                    selectorList = args[argc];
+
+                } else if (arg0.equals("-T")) {
+                    // Thresholds, - for the one in the packets
+                    argc++;
+                    thresholdList = args[argc];
+
+                } else if (arg0.equals("-b")) {
+                    // Bandwidths, in Mbps
+                    argc++;
+                    bandwidthList = args[argc];
+
+                } else if (arg0.equals("-j")) {
+                    // No of workers
+                    argc++;
+
+                    String val = args[argc];
+                    workers = Integer.parseInt(val);
+
+                    if (workers <= 0) {
+                        System.err.println("Workers: illegal arg. Expected -j 1 or more");
+                        System.exit(1);
+                    }
+
+                } else if (arg0.equals("-l")) {
+                    // No of layers
+                    argc++;
+
+                    String val = args[argc];
+                    layers = Integer.parseInt(val);
+
+                } else if (arg0.startsWith("-v")) {
+                    if (arg0.equals("-v")) {
+                        Verbose.level = 1;
+                    } else  if (arg0.equals("-vv")) {
+                        Verbose.level = 2;
+                    } else  if (arg0.equals("-vvv")) {
+                        Verbose.level = 3;
+                    }
+                } else {
+                    usage();
+                }
+
+                argc++;
+
+            }
+
+        } else {
+            usage();
+        }
+
+        if (traceFilename == null) {
+            System.err.println("Sweep: no trace. Expected -t trace_file");
+            usage();
+        }
+
+        // Every combination of the parameters
+        List<Experiment> experiments = null;
+
+        try {
+            experiments = grid();
+        } catch (IllegalArgumentException iae) {
+            System.err.println(iae.getMessage());
+            System.exit(1);
+        }
+
+        try (MappedPacketTrace trace = new MappedPacketTrace(traceFilename)) {
+            // What the receiver could decode with nothing trimmed
+            DecodeAnalysis reference = DecodeAnalysis.analyse(trace, layers);
+
+            System.err.printf("TRACE: %d packets frames %d", trace.size(), reference.getFrames());
+
+            for (int l = 0; l < layers; l++) {
+                System.err.printf(" l%d: %d %d", l, reference.getDecodable(l), reference.getBytes(l));
+            }
+
+            System.err.println();
+
+            long startTime = System.nanoTime();
+
+            runAll(trace, experiments);
+
+            long elapsed = System.nanoTime() - startTime;
+
+            // Write the table, in the order of the grid
+            PrintWriter out = outFilename == null ? new PrintWriter(System.out) : new PrintWriter(new FileWriter(outFilename));
+
+            out.println(Experiment.csvHeader(layers));
+
+            for (Experiment experiment : experiments) {
+                if (experiment.getMetrics() != null) {
+                    out.println(experiment.csvRow());
+                }
+            }
+
+            out.flush();
+
+            if (outFilename != null) {
+                out.close();
+            }
+
+            System.err.printf("SWEEP: %d experiments with %d workers in %.3f s\n", experiments.size(), workers, elapsed / 1e9);
+
+        } catch (IOException ioe) {
+            System.err.println(ioe.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Build an Experiment for every combination of the parameters
+     * @throws IllegalArgumentException if a value is not valid
+     */
+    static List<Experiment> grid() throws IllegalArgumentException {
+        List<Experiment> experiments = new ArrayList<Experiment>();
+
+        for (String fn : fnList.split(",")) {
+            for (String selector : selectorList.split(",")) {
+                for (String th : thresholdList.split(",")) {
+                    int threshold = th.equals("-") ? BPPFn.NO_THRESHOLD : Integer.parseInt(th);
+
+                    if (threshold != BPPFn.NO_THRESHOLD && (threshold < 0 || threshold > 15)) {
+                        throw new IllegalArgumentException("Threshold: illegal arg " + th + ". Expected - or 0 to 15");
+                    }
+
+                    for (String bw : bandwidthList.split(",")) {
+                        int bandwidthBits = (int)(Float.parseFloat(bw) * 1024 * 1024);
+
+                        experiments.add(new Experiment(fn, selector, threshold, bandwidthBits));
+                    }
+                }
+            }
+        }
+
+        return experiments;
+    }
+
+    /**
+     * Run the experiments with some workers.
+     * Each worker takes the next experiment, until there are none left.
+     */
+    static void runAll(MappedPacketTrace trace, List<Experiment> experiments) {
+        AtomicInteger next = new AtomicInteger(0);
+        AtomicInteger done = new AtomicInteger(0);
+
+        List<Execution.Task> tasks = new ArrayList<Execution.Task>();
+
+        for (int w = 0; w < Math.min(workers, experiments.size()); w++) {
+            tasks.add(Execution.start(() -> {
+                        int e;
+
+                        while ((e = next.getAndIncrement()) < experiments.size()) {
+                            Experiment experiment = experiments.get(e);
+
+                            try {
+                                experiment.run(trace, layers);
+
+                                System.err.printf("DONE: %d/%d %s\n", done.incrementAndGet(), experiments.size(), experiment);
+                            } catch (Exception ex) {
+                                System.err.println("Sweep: " + experiment + " " + ex);
+                            }
+                        }
+                    }, "Sweep-" + w));
+        }
+
+        for (Execution.Task task : tasks) {
+            try {
+                task.join();
+            } catch (InterruptedException ie) {
+            }
+        }
+    }
+
+    static void usage() {
+        System.err.println("Sweep -t trace_file [-o results.csv] [-Bfn,fn,...] [-S selector,...] [-T threshold,...] [-b bandwidth,...] [-j workers] [-l layers]");
+        System.exit(1);
+    }
+
+
+}
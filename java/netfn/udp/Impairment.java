@@ -0,0 +1,335 @@
+package netfn.udp;
+
+import java.util.SplittableRandom;
+
+/**
+ * The impairments of a link, to see how a receiver copes with them,
+ * without tc / netem, or another platform.
+ *
+ * There is:
+ * <ul>
+ * <li> loss, at random, with a probability
+ * <li> burst loss, with the Gilbert-Elliott model.  The link is in a good state
+ *      or a bad state, and goes from good to bad with probability p,
+ *      and from bad to good with probability r, at each packet.
+ *      Packets are lost with one probability in the good state, default 0,
+ *      and another in the bad state, default 1, so the mean burst is 1/r packets.
+ * <li> delay, with jitter, which is uniform from -jitter to +jitter
+ *      around the delay.  Jitter can reorder the packets.
+ * <li> reordering, where a packet is held back by a gap, with a probability,
+ *      so the packets after it overtake it
+ * <li> duplication, with a probability
+ * </ul>
+ *
+ * The random numbers come from one generator with a seed,
+ * so the same packets get the same impairments every run.
+ * An Impairment is only used by one thread.
+ *
+ * An impairment is described by its options, e.g.
+ * <pre>
+ * seed 42 ge 0.01 0.3 delay 20 jitter 5 reorder 0.01 10 duplicate 0.001
+ * </pre>
+ * seed n, loss p, ge p r [good bad], delay ms, jitter ms,
+ * reorder p [gap ms], duplicate p
+ */
+public class Impairment {
+    // Default gap to hold a reordered packet back, in milliseconds
+    public final static double DEFAULT_REORDER_GAP = 10;
+
+    // The seed
+    long seed;
+    SplittableRandom random;
+
+    // Loss at random
+    double loss = 0;
+
+    // Gilbert-Elliott
+    boolean burst = false;
+    double goodToBad = 0;
+    double badToGood = 1;
+    double lossGood = 0;
+    double lossBad = 1;
+
+    // is the link in the bad state
+    boolean bad = false;
+
+    // Delay and jitter, in nanoseconds
+    long delay = 0;
+    long jitter = 0;
+
+    // Reordering
+    double reorder = 0;
+    long reorderGap = (long)(DEFAULT_REORDER_GAP * 1000000);
+
+    // Duplication
+    double duplicate = 0;
+
+    // counts
+    long packets = 0;
+    long lost = 0;
+    long burstLost = 0;
+    long badPeriods = 0;
+    long reordered = 0;
+    long duplicated = 0;
+
+    /**
+     * An Impairment with a seed, which does nothing until it is setup
+     */
+    public Impairment(long seed) {
+        this.seed = seed;
+        this.random = new SplittableRandom(seed);
+    }
+
+    // Lose packets at random
+    public Impairment setLoss(double probability) {
+        checkProbability("loss", probability);
+        this.loss = probability;
+        return this;
+    }
+
+    // Lose packets in bursts, with the Gilbert-Elliott model
+    public Impairment setBurstLoss(double goodToBad, double badToGood, double lossGood, double lossBad) {
+        checkProbability("ge p", goodToBad);
+        checkProbability("ge r", badToGood);
+        checkProbability("ge good", lossGood);
+        checkProbability("ge bad", lossBad);
+
+        this.burst = true;
+        this.goodToBad = goodToBad;
+        this.badToGood = badToGood;
+        this.lossGood = lossGood;
+        this.lossBad = lossBad;
+        return this;
+    }
+
+    // Delay packets, with jitter either side, in milliseconds
+    public Impairment setDelay(double millis, double jitterMillis) {
+        if (millis < 0 || jitterMillis < 0) {
+            throw new IllegalArgumentException("Impairment: bad delay " + millis + " jitter " + jitterMillis);
+        }
+
+        this.delay = (long)(millis * 1000000);
+        this.jitter = (long)(jitterMillis * 1000000);
+        return this;
+    }
+
+    // Hold packets back by a gap, in milliseconds, with a probability
+    public Impairment setReorder(double probability, double gapMillis) {
+        checkProbability("reorder", probability);
+
+        if (gapMillis <= 0) {
+            throw new IllegalArgumentException("Impairment: bad reorder gap " + gapMillis);
+        }
+
+        this.reorder = probability;
+        this.reorderGap = (long)(gapMillis * 1000000);
+        return this;
+    }
+
+    // Duplicate packets with a probability
+    public Impairment setDuplicate(double probability) {
+        checkProbability("duplicate", probability);
+        this.duplicate = probability;
+        return this;
+    }
+
+    /**
+     * Is the next packet lost.
+     * It moves the Gilbert-Elliott model on by a packet.
+     */
+    public boolean lose() {
+        packets++;
+
+        if (burst) {
+            // move between the states
+            if (bad) {
+                if (random.nextDouble() < badToGood) {
+                    bad = false;
+                }
+            } else if (random.nextDouble() < goodToBad) {
+                bad = true;
+                badPeriods++;
+            }
+
+            if (random.nextDouble() < (bad ? lossBad : lossGood)) {
+                burstLost++;
+                return true;
+            }
+        }
+
+        if (loss > 0 && random.nextDouble() < loss) {
+            lost++;
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * The delay of the next packet, in nanoseconds,
+     * with the jitter, and the reorder gap, if it is held back
+     */
+    public long delay() {
+        long d = delay;
+
+        if (jitter > 0) {
+            d += random.nextLong(-jitter, jitter + 1);
+
+            if (d < 0) {
+                d = 0;
+            }
+        }
+
+        if (reorder > 0 && random.nextDouble() < reorder) {
+            reordered++;
+            d += reorderGap;
+        }
+
+        return d;
+    }
+
+    /**
+     * Is the next packet duplicated
+     */
+    public boolean duplicate() {
+        if (duplicate > 0 && random.nextDouble() < duplicate) {
+            duplicated++;
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    /**
+     * Does it delay any packets
+     */
+    public boolean delays() {
+        return delay > 0 || jitter > 0 || reorder > 0;
+    }
+
+    /**
+     * An Impairment from its options, starting at an index in an array
+     * e.g. { "seed", "42", "ge", "0.01", "0.3", "delay", "20" }
+     * @throws IllegalArgumentException if they are not valid
+     */
+    public static Impairment parse(String[] args, int from) throws IllegalArgumentException {
+        // the seed first, as the generator is made with it
+        long seed = System.nanoTime();
+
+        for (int a = from; a < args.length - 1; a++) {
+            if (args[a].equals("seed")) {
+                seed = Long.parseLong(args[a + 1]);
+            }
+        }
+
+        Impairment impairment = new Impairment(seed);
+        double jitterMillis = 0;
+        double delayMillis = 0;
+
+        int a = from;
+
+        while (a < args.length) {
+            String option = args[a++];
+
+            // the numbers after the option
+            int count = 0;
+
+            while (a + count < args.length && isNumber(args[a + count])) {
+                count++;
+            }
+
+            double[] values = new double[count];
+
+            for (int v = 0; v < count; v++) {
+                values[v] = Double.parseDouble(args[a + v]);
+            }
+
+            a += count;
+
+            if (option.equals("seed") && count == 1) {
+                // already done
+
+            } else if (option.equals("loss") && count == 1) {
+                impairment.setLoss(values[0]);
+
+            } else if (option.equals("ge") && count == 2) {
+                impairment.setBurstLoss(values[0], values[1], 0, 1);
+
+            } else if (option.equals("ge") && count == 4) {
+                impairment.setBurstLoss(values[0], values[1], values[2], values[3]);
+
+            } else if (option.equals("delay") && count == 1) {
+                delayMillis = values[0];
+
+            } else if (option.equals("jitter") && count == 1) {
+                jitterMillis = values[0];
+
+            } else if (option.equals("reorder") && (count == 1 || count == 2)) {
+                impairment.setReorder(values[0], count == 2 ? values[1] : DEFAULT_REORDER_GAP);
+
+            } else if (option.equals("duplicate") && count == 1) {
+                impairment.setDuplicate(values[0]);
+
+            } else {
+                throw new IllegalArgumentException("Impairment: bad option " + option + ". Expected seed n, loss p, ge p r [good bad], delay ms, jitter ms, reorder p [gap], duplicate p");
+            }
+        }
+
+        impairment.setDelay(delayMillis, jitterMillis);
+
+        return impairment;
+    }
+
+    // Is an arg a number
+    static boolean isNumber(String arg) {
+        try {
+            Double.parseDouble(arg);
+            return true;
+        } catch (NumberFormatException nfe) {
+            return false;
+        }
+    }
+
+    // Check a probability
+    static void checkProbability(String name, double probability) {
+        if (probability < 0 || probability > 1) {
+            throw new IllegalArgumentException("Impairment: bad " + name + " probability " + probability);
+        }
+    }
+
+    /**
+     * A report of what has been done
+     */
+    public String report() {
+        return "lost: " + lost + " burst lost: " + burstLost + " bad periods: " + badPeriods +
+            " reordered: " + reordered + " duplicated: " + duplicated;
+    }
+
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+
+        builder.append("seed: ").append(seed);
+
+        if (loss > 0) {
+            builder.append(" loss: ").append(loss);
+        }
+
+        if (burst) {
+            builder.append(" ge: ").append(goodToBad).append(" ").append(badToGood).append(" ").append(lossGood).append(" ").append(lossBad);
+        }
+
+        if (delay > 0 || jitter > 0) {
+            builder.append(" delay: ").append(delay / 1000000.0).append(" ms jitter: ").append(jitter / 1000000.0).append(" ms");
+        }
+
+        if (reorder > 0) {
+            builder.append(" reorder: ").append(reorder).append(" gap: ").append(reorderGap / 1000000.0).append(" ms");
+        }
+
+        if (duplicate > 0) {
+            builder.append(" duplicate: ").append(duplicate);
+        }
+
+        return builder.toString();
+    }
+}
@@ -4,6 +4,7 @@ import java.net.DatagramPacket;
 import cc.clayman.net.IP;
 import cc.clayman.h264.NALType;
 import cc.clayman.util.ANSI;
+import cc.clayman.util.Clock;
 import cc.clayman.util.Verbose;
 
 /**
@@ -28,6 +29,7 @@ public class UDPCheck {
 
 
     // timing
+    Clock clock = Clock.SYSTEM;
     int seconds = 0;       // no of seconds
     long secondStart = 0;   // when did the second start
     long now = 0;
@@ -56,7 +58,7 @@ public class UDPCheck {
         this.packetsPerSecond = packetsPerSecond;
 
         // set secondStart
-        secondStart = System.currentTimeMillis();
+        secondStart = clock.millis();
 
         // simple arrays
         contentSizes = new int[1];
@@ -70,6 +72,18 @@ public class UDPCheck {
         this.availableBandwidth = bitsPerSecond >> 3;
     }    
 
+    /**
+     * Set the Clock, and start the current second again
+     */
+    public void setClock(Clock clock) {
+        this.clock = clock;
+
+        secondStart = clock.millis();
+        countThisSec = 0;
+        recvThisSec = 0;
+        sentThisSec = 0;
+    }
+
     /**
      * Check a DatagramPacket
      * @return null to forward existing packet
@@ -90,7 +104,7 @@ public class UDPCheck {
         countThisSec++;
         
         // timing
-        now = System.currentTimeMillis();
+        now = clock.millis();
         timeOffset = now - secondStart;
         float secondPart = (float)timeOffset / 1000;
         
@@ -1,6 +1,7 @@
 package netfn.udp;
 
 import java.net.DatagramPacket;
+import cc.clayman.util.Clock;
 import cc.clayman.util.Verbose;
 
 /**
@@ -81,5 +82,11 @@ public class UDPFn  {
         // inform the checker
         check.setBandwidth(bitsPerSecond);
     }
+
+    // Set the Clock
+    public void setClock(Clock clock) {
+        // inform the checker
+        check.setClock(clock);
+    }
     
 }
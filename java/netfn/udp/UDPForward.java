@@ -1,10 +1,17 @@
 package netfn.udp;
 
+import netfn.capture.PacketCapture;
 import netfn.mgmt.*;
+import netfn.metrics.AsyncLogger;
+import netfn.metrics.LatencyTap;
 
 import java.io.IOException;
 import java.net.InetAddress;
+import java.util.regex.*;
 
+import cc.clayman.net.Transport;
+import cc.clayman.net.PacketSender;
+import cc.clayman.net.ShapingSender;
 import cc.clayman.util.Verbose;
 
 // A main() wrapper for UDPForwarder
@@ -19,6 +26,18 @@ public class UDPForward {
     static int forwardPort = 6798;
 
 
+    // transport to listen on, and to forward on
+    static String inTransport = Transport.getType();
+    static String outTransport = Transport.getType();
+
+    // token bucket depth of the egress shaper, 0 for no shaping
+    static int shapeDepth = 0;
+    static int shapeBudget = ShapingSender.DEFAULT_BUDGET;
+
+    // print a line for each packet, at most printRate a second
+    static boolean printPackets = false;
+    static int printRate = AsyncLogger.DEFAULT_RATE;
+
     // HTTP Listen Port for ManagementListener
     static int httpPort = 8080;
 
@@ -29,6 +48,18 @@ public class UDPForward {
     static int bandwidthBits = 1 * 1024 * 1024;   // default: 1 Mb
     static int packetsPerSecond = 100;  // default: 100
 
+    // a schedule of bandwidth changes, played from the start
+    static String scheduleFile = null;
+    static double scheduleScale = 1.0;    // multiply the times by this
+    static boolean scheduleLoop = false;
+    static BandwidthSchedule schedule = null;
+
+    // capture the packets in and out to a pcapng file
+    static String captureFile = null;
+    static int captureSnaplen = PacketCapture.DEFAULT_SNAPLEN;
+    static int captureRate = PacketCapture.DEFAULT_RATE;
+    static long captureMaxSize = PacketCapture.DEFAULT_MAX_SIZE;
+
     // Forwarder
     static UDPForwarder forwarder = null;
     
@@ -45,7 +76,23 @@ public class UDPForward {
             while (argc < args.length) {  // allow for port at end
                 String arg0 = args[argc];
 
-                if (arg0.equals("-p")) {
+                if (arg0.equals("-m")) {
+                    // Transport in, and maybe out
+                    // e.g. -m shm  or  -m shm:udp
+                    argc++;
+
+                    String val = args[argc];
+                    String[] parts = val.split(":");
+
+                    inTransport = parts[0];
+                    outTransport = parts.length > 1 ? parts[1] : parts[0];
+
+                    if (parts.length > 2 || !Transport.isValid(inTransport) || !Transport.isValid(outTransport)) {
+                        System.err.println("Transport: illegal arg. Expected -m in[:out] e.g. -m shm:udp");
+                        System.exit(1);
+                    }
+
+                } else if (arg0.equals("-p")) {
                     // Port
                     argc++;
 
@@ -71,6 +118,37 @@ public class UDPForward {
                     String val = args[argc];
                     httpPort = Integer.parseInt(val);
 
+                } else if (arg0.equals("-t")) {
+                    // Egress shaper bucket depth, and maybe its queue budget
+                    // e.g. -t 16000  or  -t 16000:131072
+                    argc++;
+
+                    String[] parts = args[argc].split(":");
+                    shapeDepth = Integer.parseInt(parts[0]);
+
+                    if (parts.length > 1) {
+                        shapeBudget = Integer.parseInt(parts[1]);
+                    }
+
+                } else if (arg0.startsWith("-D")) {
+                    // Debug mode, print a line for each packet
+                    // maybe with a max no of lines per second
+                    // e.g. -D  or  -D:100
+                    printPackets = true;
+
+                    if (! arg0.equals("-D")) {
+                        String regexp = "-D:(\\d+)";
+                        Pattern pattern = Pattern.compile(regexp);
+                        Matcher matcher = pattern.matcher(arg0);
+
+                        if (matcher.matches()) {
+                            printRate = Integer.parseInt(matcher.group(1));
+                        } else {
+                            System.err.println("Debug: illegal arg. Expected -D:rate e.g. -D:100");
+                            System.exit(1);
+                        }
+                    }
+
                 } else if (arg0.equals("-c")) {            
                     // columns
                     argc++;
@@ -103,6 +181,59 @@ public class UDPForward {
                         System.err.println("Bad packets per second " + countValue);
                     }
 
+                } else if (arg0.equals("-C")) {
+                    // Capture to a pcapng file
+                    // maybe with a snap length, a max rate, and a max size in MB
+                    // e.g. -C fwd.pcapng  or  -C fwd.pcapng:128:500:50
+                    argc++;
+
+                    String val = args[argc];
+                    String regexp = "([^:]+)(:(\\d+))?(:(\\d+))?(:(\\d+))?";
+                    Pattern pattern = Pattern.compile(regexp);
+                    Matcher matcher = pattern.matcher(val);
+
+                    if (matcher.matches()) {
+                        captureFile = matcher.group(1);
+
+                        if (matcher.group(3) != null) {
+                            captureSnaplen = Integer.parseInt(matcher.group(3));
+                        }
+
+                        if (matcher.group(5) != null) {
+                            captureRate = Integer.parseInt(matcher.group(5));
+                        }
+
+                        if (matcher.group(7) != null) {
+                            captureMaxSize = Long.parseLong(matcher.group(7)) * 1024 * 1024;
+                        }
+                    }
+
+                    if (captureFile == null || captureSnaplen < 1 || captureRate < 1 || captureMaxSize < 1) {
+                        System.err.println("Capture: illegal arg. Expected -C file[:snaplen[:rate[:maxMB]]] e.g. -C fwd.pcapng:128:500:50");
+                        System.exit(1);
+                    }
+
+                } else if (arg0.equals("-F")) {
+                    // Bandwidth schedule file
+                    argc++;
+                    scheduleFile = args[argc];
+
+                } else if (arg0.equals("-x")) {
+                    // Scale the times of the bandwidth schedule
+                    argc++;
+
+                    String val = args[argc];
+                    scheduleScale = Double.parseDouble(val);
+
+                    if (scheduleScale <= 0) {
+                        System.err.println("Schedule scale: illegal arg. Expected -x scale e.g. -x 0.5");
+                        System.exit(1);
+                    }
+
+                } else if (arg0.equals("-L")) {
+                    // Play the bandwidth schedule in a loop
+                    scheduleLoop = true;
+
                 } else if (arg0.startsWith("-v")) {
                     if (arg0.equals("-v")) {
                         Verbose.level = 1;
@@ -128,27 +259,120 @@ public class UDPForward {
             System.err.println("Forward to host: " + forwardHost);
             System.err.println("Forward to port: " + forwardPort);
             System.err.println("HTTP listen port: " + httpPort);
+            System.err.println("Transport: " + inTransport + " / " + outTransport);
             //System.err.println("Columns: " + columns);
             System.err.println("Bandwidth in bits: " + bandwidthBits);
+            System.err.println("Egress shaper depth: " + shapeDepth + " budget: " + shapeBudget);
+            System.err.println("Debug: " + printPackets + (printPackets ? " rate: " + printRate : ""));
             System.err.println("Packets per second: " + packetsPerSecond);
+            System.err.println("Capture: " + (captureFile == null ? "none" : captureFile));
         }
         
+        // Load the bandwidth schedule
+        if (scheduleFile != null) {
+            try {
+                schedule = BandwidthSchedule.load(scheduleFile).setScale(scheduleScale).setLoop(scheduleLoop);
+
+                System.err.println("BandwidthSchedule " + scheduleFile + " " + schedule);
+            } catch (IOException ioe) {
+                System.err.println(ioe.getMessage());
+                System.exit(1);
+            }
+        }
+
+        if (captureFile != null && shapeDepth > 0) {
+            // the packets out are captured before the shaper, which delays them
+            System.err.println("UDPForward: -C can not be used with -t");
+            System.exit(1);
+        }
+
         try {
             // Create the forwarder
             forwarder = new UDPForwarder(udpPort, forwardHost, forwardPort, bandwidthBits, packetsPerSecond);
+            // Setup the transport
+            PacketSender sender = Transport.newSender(outTransport, forwardHost, forwardPort);
+
+            if (shapeDepth > 0) {
+                // the packets wait in the shaper, so record the latency as they leave it
+                LatencyTap tap = new LatencyTap(sender, forwarder.getMetrics());
+                forwarder.setLatencyTap(tap);
+                sender = tap;
+            }
+
+            if (shapeDepth > 0) {
+                // pace the packets at the bandwidth
+                sender = new ShapingSender(sender, bandwidthBits, shapeDepth, shapeBudget);
+            }
+
+            forwarder.setTransport(Transport.newReceiver(inTransport, udpPort), sender);
+
+            forwarder.setPrintPackets(printPackets);
+            forwarder.setPrintRate(printRate);
+
             // Create ProcessExternal object.
             // It will callback to the UDPForwarder as a  ManagementListener
             ProcessExternal handler = new ProcessExternal(httpPort, forwarder);
 
+            // capture the packets in and out
+            PacketCapture capture = null;
+
+            if (captureFile != null) {
+                capture = newCapture();
+                forwarder.setCapture(capture.newRing());
+                capture.start();
+            }
+
+            // play the bandwidth schedule
+            BandwidthScheduler scheduler = null;
+
+            if (schedule != null) {
+                scheduler = new BandwidthScheduler(schedule, forwarder);
+                scheduler.start();
+            }
+
             // go
             forwarder.processTraffic();
+
+            if (scheduler != null) {
+                scheduler.stop();
+            }
+
+            if (capture != null) {
+                capture.stop();
+            }
+
+            if (Verbose.level >= 1) {
+                System.err.print(forwarder.getMetrics().report());
+
+                if (capture != null) {
+                    System.err.print(capture.report());
+                }
+            }
         } catch (IOException ioe) {
             ioe.printStackTrace();
         }
     }
 
+    // Create the packet capture
+    static PacketCapture newCapture() {
+        try {
+            PacketCapture capture = new PacketCapture(captureFile, udpPort, forwardHost, forwardPort);
+            capture.setSnaplen(captureSnaplen);
+            capture.setRate(captureRate);
+            capture.setMaxSize(captureMaxSize);
+
+            System.err.println("PacketCapture " + captureFile + " snaplen: " + captureSnaplen + " rate: " + captureRate + " max: " + captureMaxSize);
+
+            return capture;
+        } catch (IOException ioe) {
+            System.err.println(ioe.getMessage());
+            System.exit(1);
+            return null;
+        }
+    }
+
     static void usage() {
-        System.err.println("UDPForward [-b bandwidth] [-p listen_port] [-h forward_host] [-P forward_port] [-H http_port]");
+        System.err.println("UDPForward [-b bandwidth] [-p listen_port] [-h forward_host] [-P forward_port] [-H http_port] [-m in[:out]] [-t depth[:budget]] [-D[:rate]] [-C file[:snaplen[:rate[:maxMB]]]] [-F schedule] [-x scale] [-L]");
         System.exit(1);
     }
 
@@ -14,13 +14,18 @@ import cc.clayman.chunk.*;
 import cc.clayman.net.*;
 import cc.clayman.util.Verbose;
 
+import netfn.capture.CaptureRing;
 import netfn.mgmt.*;
+import netfn.metrics.ForwarderMetrics;
+import netfn.metrics.LatencyTap;
+import netfn.metrics.AsyncLogger;
+import netfn.metrics.PrometheusWriter;
 
 // Collect packets with UDPReceiver
 // Forward packets with UDPSender
 // Patch up DatagramPacket address before forwarding
 
-public class UDPForwarder implements ManagementListener {
+public class UDPForwarder implements ManagementListener, MetricsSource {
 
     // listen port
     int udpPort = 6799;
@@ -38,13 +43,30 @@ public class UDPForwarder implements ManagementListener {
     int bandwidth = 0;
     int packetsPerSecond = 100;  // default: 100
 
-    UDPReceiver receiver = null;
-    UDPSender sender = null;
+    PacketReceiver<DatagramPacket> receiver = null;
+    PacketSender sender = null;
     UDPFn udpFn = null;
 
+    // print a line for each packet, in debug mode
+    boolean printPackets = false;
+
+    // prints the packet lines, at most this many per second
+    int printRate = AsyncLogger.DEFAULT_RATE;
+    AsyncLogger logger = null;
+
+    // capture the packets in and out, or null
+    CaptureRing capture = null;
+
+    // records the latency after an egress queue, or null
+    LatencyTap latencyTap = null;
+
     int count = 0;
-    int totalIn = 0;
-    int totalOut = 0;
+
+    // The metrics, which other threads can read
+    ForwarderMetrics metrics = new ForwarderMetrics();
+
+    // when the packet being processed came in, from System.nanoTime()
+    long arrivalTime = 0;
 
 
     // keep time
@@ -59,20 +81,40 @@ public class UDPForwarder implements ManagementListener {
         setPacketsPerSecond(packetsPerSecond);
     }
 
-    protected void processTraffic() throws IOException {
+    /**
+     * Use the given receiver and sender, instead of creating
+     * them from the Transport when traffic processing starts.
+     */
+    public void setTransport(PacketReceiver<DatagramPacket> receiver, PacketSender sender) {
+        this.receiver = receiver;
+        this.sender = sender;
+    }
 
-        // Setup UDP Receiver
-        receiver = new UDPReceiver(udpPort);
+    public void processTraffic() throws IOException {
+
+        // Setup Receiver
+        if (receiver == null) {
+            receiver = Transport.newReceiver(udpPort);
+        }
         receiver.start();
 
         // Setup UDPFn
         udpFn = new UDPFn(bandwidthBits, packetsPerSecond);
 
-        // Setup UDP Sender
-        sender = new UDPSender(forwardHost, forwardPort);
+        // Setup Sender
+        if (sender == null) {
+            sender = Transport.newSender(forwardHost, forwardPort);
+        }
         sender.start();
 
+        // Setup the packet printer
+        if (printPackets) {
+            logger = new AsyncLogger(System.out, printRate);
+            logger.start();
+        }
         
+        metrics.setThread(Thread.currentThread());
+
         // Timer stuff
         startTime = System.currentTimeMillis();
         lastTime = System.currentTimeMillis();
@@ -87,9 +129,9 @@ public class UDPForwarder implements ManagementListener {
                 // the receiver has gone away
                 break;
             } else {
+                arrivalTime = System.nanoTime();
                 count++;
-                totalIn += packet.getLength();
-                
+
                 datagramProcess(packet);
             }
 
@@ -100,34 +142,115 @@ public class UDPForwarder implements ManagementListener {
 
         // stop sender
         sender.stop();
-        
+
+        if (logger != null) {
+            logger.stop();
+        }
     }
 
             
     protected void datagramProcess(DatagramPacket packet) throws UnknownHostException {
         int length = packet.getLength();
-        
-        System.out.printf("IN:   %8d%6d%10d\n", count, length, totalIn);
+
+        metrics.recordIn(length);
+
+        if (printPackets) {
+            logger.log("IN:   %8d%6d%10d\n", count, length, metrics.bytesIn.sum());
+        }
+
+        if (capture != null) {
+            capture.ingress(count, packet, arrivalTime);
+        }
 
         DatagramPacket newVal = udpFn.datagramProcess(packet);
 
         if (newVal == null) {
             // nothing to send
+            metrics.recordDrop(length);
+
+            if (capture != null) {
+                capture.egress(null, bandwidthBits);
+            }
         } else {
             // send packet
             int newLength = newVal.getLength();
-            totalOut += newLength;
 
-            if (length == newLength) {
+            if (capture != null) {
+                capture.egress(newVal, bandwidthBits);
+            }
+
+            if (latencyTap == null) {
+                sender.sendPayload(newVal);
+
+                metrics.recordOut(length, newLength, arrivalTime);
+            } else {
+                // the latency is recorded when the packet goes out
+                latencyTap.stamp(newVal, arrivalTime);
+
+                if (sender.sendPayload(newVal) == 0) {
+                    // the queue has no room
+                    latencyTap.unstamp();
+                    metrics.recordDrop(length);
+                } else {
+                    metrics.recordQueued(length, newLength);
+                }
+            }
+
+            if (! printPackets) {
+                // nothing to print
+            } else if (length == newLength) {
                 // the packet is not changed
-                System.out.printf("OUT:  %8d%6d%10d\n", count, newLength, totalOut);
+                logger.log("OUT:  %8d%6d%10d\n", count, newLength, metrics.bytesOut.sum());
             } else {
                 // the packet has chunks removed
-                System.out.printf("OUT*: %8d%6d%10d\n", count, newLength, totalOut);
+                logger.log("OUT*: %8d%6d%10d\n", count, newLength, metrics.bytesOut.sum());
             }
-        
-            sender.sendPayload(newVal);
-        }                    
+        }
+    }
+
+    // Print a line for each packet, or not
+    public void setPrintPackets(boolean print) {
+        printPackets = print;
+    }
+
+    // Print at most this many packet lines per second
+    public void setPrintRate(int linesPerSecond) {
+        printRate = linesPerSecond;
+    }
+
+    // Capture the packets in and out into a ring
+    public void setCapture(CaptureRing ring) {
+        capture = ring;
+    }
+
+    // Record the latency with a LatencyTap after the egress queue,
+    // instead of when a packet is passed to the sender
+    public void setLatencyTap(LatencyTap tap) {
+        latencyTap = tap;
+    }
+
+    // Get the metrics
+    public ForwarderMetrics getMetrics() {
+        return metrics;
+    }
+
+    // Write the metrics
+    public void writeMetrics(PrometheusWriter w) {
+        metrics.writeTo(w, "udp");
+
+        w.metric("udp_bandwidth_bits", "gauge", "Bandwidth of the outbound connection");
+        w.sample("udp_bandwidth_bits", bandwidthBits);
+
+        ForwarderMetrics.writeQueue(w, "udp", sender);
+
+        if (capture != null) {
+            capture.getCapture().writeTo(w, "udp");
+        }
+    }
+
+    // Take a snapshot of the counters
+    public ForwarderMetrics.Snapshot getSnapshot() {
+        return metrics.snapshot();
     }
 
     // set the bandwidthBits 
@@ -157,6 +280,11 @@ public class UDPForwarder implements ManagementListener {
         // Now inform the UDPFn about the new bandwidth
         udpFn.setBandwidth(bandwidthBits);
 
+        // and the sender, if it sends at a rate
+        if (sender instanceof RateLimited) {
+            ((RateLimited)sender).setRate(bandwidthBits);
+        }
+
         return oldBW;
     }
     
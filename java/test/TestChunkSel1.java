@@ -0,0 +1,107 @@
+package test;
+
+import cc.clayman.bpp.BPP;
+import netfn.bpp.ChunkSelector;
+import netfn.bpp.OptimalChunkSelector;
+import netfn.bpp.PositionChunkSelector;
+
+// A test of the OptimalChunkSelector
+// Each case is the sizes and significance of some chunks,
+// a threshold and a target, and the chunks the knapsack should trim.
+// The chunks trimmed by the PositionChunkSelector are printed too.
+public class TestChunkSel1 {
+
+    // sizes, significance, { threshold, target }, the chunks to trim as 0s and 1s
+    static Object[][] cases = {
+        // the least significance lost: chunks 2 and 3 cost 4 + 1, chunk 1 costs 7
+        { new int[] { 100, 300, 200, 50 }, new int[] { 2, 9, 12, 15 }, new int[] { 1, 240 }, "0011" },
+        // only the chunks above the threshold, and all of them if they are not enough
+        { new int[] { 100, 300, 200, 50 }, new int[] { 2, 9, 12, 15 }, new int[] { 12, 240 }, "0001" },
+        // the same significance, so the fewest bytes that meet the target
+        { new int[] { 150, 120, 130 }, new int[] { 10, 10, 10 }, new int[] { 0, 120 }, "010" },
+        { new int[] { 150, 120, 130 }, new int[] { 10, 10, 10 }, new int[] { 0, 260 }, "110" },
+        // nothing to trim
+        { new int[] { 150, 120, 130 }, new int[] { 10, 10, 10 }, new int[] { 0, 0 }, "000" },
+    };
+
+    public static void main(String[] args) {
+        ChunkSelector optimal = new OptimalChunkSelector();
+        ChunkSelector position = new PositionChunkSelector();
+
+        int wrong = 0;
+
+        for (int c = 0; c < cases.length; c++) {
+            int[] sizes = (int[])cases[c][0];
+            int[] significance = (int[])cases[c][1];
+            int threshold = ((int[])cases[c][2])[0];
+            int target = ((int[])cases[c][2])[1];
+            String expected = (String)cases[c][3];
+
+            BPP.MetadataBlock mb = newBlock(sizes, significance);
+            int trimmed = optimal.select(mb, threshold, target);
+            String chunks = dropped(mb);
+
+            BPP.MetadataBlock mbPosition = newBlock(sizes, significance);
+            int trimmedPosition = position.select(mbPosition, threshold, target);
+
+            System.out.printf("%-4d threshold %2d target %5d  optimal %5d %-6s (%-6s)  position %5d %-6s  %s\n",
+                              c, threshold, target, trimmed, chunks, expected,
+                              trimmedPosition, dropped(mbPosition),
+                              chunks.equals(expected) ? "" : "WRONG");
+
+            if (! chunks.equals(expected)) {
+                wrong++;
+            }
+        }
+
+        // a large target, which is measured in coarser units, is still met
+        int[] sizes = new int[20];
+        int[] significance = new int[20];
+
+        for (int c = 0; c < sizes.length; c++) {
+            sizes[c] = 1000 + c * 37;
+            significance[c] = 1 + c % 15;
+        }
+
+        BPP.MetadataBlock mb = newBlock(sizes, significance);
+        int trimmed = optimal.select(mb, 0, 9000);
+
+        System.out.printf("large target %5d  optimal %5d %s  %s\n", 9000, trimmed, dropped(mb), trimmed >= 9000 ? "" : "WRONG");
+
+        if (trimmed < 9000) {
+            wrong++;
+        }
+
+        if (wrong != 0) {
+            System.out.println("TestChunkSel1: " + wrong + " FAILED");
+            System.exit(1);
+        }
+
+        System.out.println("TestChunkSel1: OK");
+    }
+
+    // A MetadataBlock with some chunks
+    protected static BPP.MetadataBlock newBlock(int[] sizes, int[] significance) {
+        BPP.MetadataBlock mb = new BPP.MetadataBlock(BPP.MAX_CHUNK_COUNT);
+
+        mb.chunkCount = sizes.length;
+
+        for (int c = 0; c < sizes.length; c++) {
+            mb.contentSizes[c] = sizes[c];
+            mb.significance[c] = significance[c];
+        }
+
+        return mb;
+    }
+
+    // The dropped chunks, as 0s and 1s
+    protected static String dropped(BPP.MetadataBlock mb) {
+        StringBuilder builder = new StringBuilder();
+
+        for (int c = 0; c < mb.chunkCount; c++) {
+            builder.append(mb.isDropped[c] ? '1' : '0');
+        }
+
+        return builder.toString();
+    }
+}
@@ -0,0 +1,86 @@
+package test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+import netfn.bpp.FlowTable;
+
+// A test of the FlowTable
+// Random puts and removes, with a fixed seed, on a small table,
+// which grows, are done on a HashMap too.
+// Removal shifts entries back, so after every remove
+// all the keys left must still be found.
+public class TestFlowTable1 {
+    static int operations = 20000;
+    static int keys = 2000;
+    static long seed = 42;
+
+    public static void main(String[] args) {
+        if (args.length == 1) {
+            seed = Long.parseLong(args[0]);
+        }
+
+        SplittableRandom random = new SplittableRandom(seed);
+
+        FlowTable<Long> table = new FlowTable<Long>(4);
+        Map<Long, Long> map = new HashMap<Long, Long>();
+
+        int puts = 0;
+        int removes = 0;
+        int lost = 0;
+
+        for (int i = 0; i < operations; i++) {
+            long key = random.nextLong(1, keys);
+
+            if (random.nextInt(3) == 0) {
+                Long old = table.remove(key);
+                Long expected = map.remove(key);
+
+                removes++;
+
+                if (old == null ? expected != null : ! old.equals(expected)) {
+                    System.out.printf("%-8d remove %d gave %s expected %s\n", i, key, old, expected);
+                    lost++;
+                }
+
+                // every key left is still there
+                for (Map.Entry<Long, Long> entry : map.entrySet()) {
+                    if (! entry.getValue().equals(table.get(entry.getKey()))) {
+                        System.out.printf("%-8d after remove %d, %d not found\n", i, key, entry.getKey());
+                        lost++;
+                    }
+                }
+            } else {
+                table.put(key, (long)i);
+                map.put(key, (long)i);
+
+                puts++;
+            }
+        }
+
+        // removeIf shifts entries into the slot it is looking at
+        int removed = table.removeIf(value -> value % 2 == 0, null);
+        int expected = map.size();
+
+        map.values().removeIf(value -> value % 2 == 0);
+
+        expected -= map.size();
+
+        for (Map.Entry<Long, Long> entry : map.entrySet()) {
+            if (! entry.getValue().equals(table.get(entry.getKey()))) {
+                System.out.printf("after removeIf, %d not found\n", entry.getKey());
+                lost++;
+            }
+        }
+
+        System.out.printf("puts %d removes %d removeIf %d size %d lost %d\n", puts, removes, removed, table.size(), lost);
+
+        if (lost != 0 || removed != expected || table.size() != map.size()) {
+            System.out.println("TestFlowTable1: FAILED");
+            System.exit(1);
+        }
+
+        System.out.println("TestFlowTable1: OK");
+    }
+}
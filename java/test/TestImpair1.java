@@ -0,0 +1,86 @@
+package test;
+
+import netfn.udp.Impairment;
+
+// A test of the Impairment, with a fixed seed
+// Two Impairments with the same seed must impair the same packets
+// in the same way, and one with another seed must not.
+// The loss, jitter and reorder must be about what they are set to.
+// e.g. TestImpair1 42
+public class TestImpair1 {
+    static int packets = 20000;
+    static long seed = 42;
+
+    public static void main(String[] args) {
+        if (args.length == 1) {
+            seed = Long.parseLong(args[0]);
+        }
+
+        Impairment first = newImpairment(seed);
+        Impairment second = newImpairment(seed);
+        Impairment other = newImpairment(seed + 1);
+
+        int different = 0;
+        int differentOther = 0;
+        int lost = 0;
+        int held = 0;
+        long minDelay = Long.MAX_VALUE;
+        long maxDelay = 0;
+
+        for (int p = 0; p < packets; p++) {
+            boolean lose = first.lose();
+            long delay = lose ? -1 : first.delay();
+
+            boolean lose2 = second.lose();
+            long delay2 = lose2 ? -1 : second.delay();
+
+            boolean loseOther = other.lose();
+            long delayOther = loseOther ? -1 : other.delay();
+
+            if (lose != lose2 || delay != delay2) {
+                different++;
+            }
+
+            if (lose != loseOther || delay != delayOther) {
+                differentOther++;
+            }
+
+            if (lose) {
+                lost++;
+            } else {
+                if (delay > 25000000L) {
+                    // held back by the reorder gap
+                    held++;
+                    delay -= 10000000L;
+                }
+
+                minDelay = Math.min(minDelay, delay);
+                maxDelay = Math.max(maxDelay, delay);
+            }
+        }
+
+        double lossRate = lost / (double)packets;
+        double reorderRate = held / (double)(packets - lost);
+
+        System.out.printf("seed %d packets %d\n", seed, packets);
+        System.out.printf("same seed different %d  other seed different %d\n", different, differentOther);
+        System.out.printf("loss %.4f (0.05)  reorder %.4f (0.01)\n", lossRate, reorderRate);
+        System.out.printf("delay %.3f ms to %.3f ms (15 to 25)\n", minDelay / 1e6, maxDelay / 1e6);
+        System.out.println(first.report());
+
+        if (different != 0 || differentOther == 0
+            || Math.abs(lossRate - 0.05) > 0.01 || Math.abs(reorderRate - 0.01) > 0.005
+            || minDelay < 15000000L || maxDelay > 25000000L) {
+            System.out.println("TestImpair1: FAILED");
+            System.exit(1);
+        }
+
+        System.out.println("TestImpair1: OK");
+    }
+
+    // Loss of 0.05, a delay of 20 ms with 5 ms jitter,
+    // and 1 in 100 held back by 10 ms
+    protected static Impairment newImpairment(long seed) {
+        return new Impairment(seed).setLoss(0.05).setDelay(20, 5).setReorder(0.01, 10);
+    }
+}
@@ -0,0 +1,104 @@
+package test;
+
+import java.net.DatagramPacket;
+
+import cc.clayman.net.PacketSender;
+import netfn.metrics.ForwarderMetrics;
+import netfn.metrics.LatencyTap;
+
+// A test of the LatencyTap, with drops after the first queue
+// Packets are stamped and counted as queued, as the forwarder does.
+// Some of them never get to the tap, as a shaper after the queue
+// dropped them.  The others must get their own latency, and the
+// dropped ones must be moved from out to dropped.
+public class TestLatencyTap1 {
+    static int packets = 1000;
+    static int length = 100;
+
+    public static void main(String[] args) {
+        ForwarderMetrics metrics = new ForwarderMetrics();
+
+        // where the packets go, which just counts them
+        int[] sent = { 0 };
+
+        PacketSender sink = new PacketSender() {
+                public boolean start() { return true; }
+                public boolean stop() { return true; }
+                public int sendPayload(byte[] payload) { sent[0]++; return payload.length; }
+                public int sendPayload(DatagramPacket packet) { sent[0]++; return packet.getLength(); }
+            };
+
+        LatencyTap tap = new LatencyTap(sink, metrics, 64);
+
+        DatagramPacket[] queue = new DatagramPacket[packets];
+        int dropped = 0;
+        int refused = 0;
+
+        for (int p = 0; p < packets; p++) {
+            DatagramPacket packet = new DatagramPacket(new byte[length], length);
+
+            metrics.recordIn(length);
+            tap.stamp(packet, System.nanoTime());
+
+            if (p % 10 == 9) {
+                // the first queue has no room
+                tap.unstamp();
+                metrics.recordDrop(length);
+                refused++;
+                continue;
+            }
+
+            metrics.recordQueued(length, length);
+
+            if (p % 7 == 3) {
+                // dropped by the shaper
+                dropped++;
+            } else {
+                queue[p] = packet;
+            }
+
+            // drain now and then, so the ring goes round
+            if (p % 16 == 15) {
+                drain(tap, queue, p);
+            }
+        }
+
+        drain(tap, queue, packets - 1);
+
+        // a packet with no stamp goes straight through
+        tap.sendPayload(new DatagramPacket(new byte[length], length));
+
+        int out = packets - refused - dropped;
+
+        System.out.printf("sent %d (%d)  out %d (%d)  dropped %d (%d)  latencies %d (%d)  in flight %d (0)\n",
+                          sent[0], out + 1,
+                          metrics.packetsOut.sum(), out,
+                          metrics.packetsDropped.sum(), refused + dropped,
+                          metrics.latency.getCount(), out,
+                          tap.getInFlight());
+        System.out.printf("bytes out %d (%d)  bytes dropped %d (%d)\n",
+                          metrics.bytesOut.sum(), (long)out * length,
+                          metrics.bytesDropped.sum(), (long)(refused + dropped) * length);
+
+        if (sent[0] != out + 1 || metrics.packetsOut.sum() != out
+            || metrics.packetsDropped.sum() != refused + dropped
+            || metrics.latency.getCount() != out || tap.getInFlight() != 0
+            || metrics.bytesOut.sum() != (long)out * length
+            || metrics.bytesDropped.sum() != (long)(refused + dropped) * length) {
+            System.out.println("TestLatencyTap1: FAILED");
+            System.exit(1);
+        }
+
+        System.out.println("TestLatencyTap1: OK");
+    }
+
+    // Send the queued packets, up to and including last, through the tap
+    protected static void drain(LatencyTap tap, DatagramPacket[] queue, int last) {
+        for (int p = 0; p <= last; p++) {
+            if (queue[p] != null) {
+                tap.sendPayload(queue[p]);
+                queue[p] = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package test;
+
+import java.io.FileInputStream;
+import java.net.DatagramPacket;
+
+import cc.clayman.bpp.BPP;
+import cc.clayman.bpp.BPPFunction;
+import cc.clayman.bpp.BPPPacket;
+import cc.clayman.chunk.ChunkInfo;
+import cc.clayman.h264.H264InputStream;
+import cc.clayman.net.BPPSVCPacketizer;
+import cc.clayman.processor.MultiNALProcessor;
+import netfn.bpp.BPPBasicBandwidth;
+import netfn.bpp.BPPFn;
+import netfn.metrics.ForwarderMetrics;
+
+// A test of RelaxThreshold with wash:always, over two hops
+// The packets are as from BPPSend -T 5 -X wash:always -Fr:3
+// and each one goes through two network nodes.
+// Each node runs the function on every packet, so the threshold
+// goes down at each hop, but never below 0, and never wraps round
+// in the 4 bits of the packet.
+// e.g. TestRelax1 ../video/foreman.264
+public class TestRelax1 {
+    static String filename = "../video/foreman.264";
+    static int threshold = 5;
+    static int relax = 3;
+    static int hops = 2;
+
+    public static void main(String[] args) {
+        if (args.length == 1) {
+            filename = args[0];
+        }
+
+        try {
+            processFile();
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    protected static void processFile() throws Exception {
+        BPPSVCPacketizer packetizer = new BPPSVCPacketizer(1500, 3);
+        H264InputStream str = new H264InputStream(new FileInputStream(filename));
+        MultiNALProcessor nalProcessor = new MultiNALProcessor(str, packetizer.getPayloadSize(), 3);
+
+        int fnSpec = new BPPFunction.RelaxThreshold(relax).representation();
+
+        BPPFn[] nodes = new BPPFn[hops];
+
+        for (int h = 0; h < hops; h++) {
+            nodes[h] = new BPPBasicBandwidth(100 * 1024 * 1024);
+            nodes[h].setMetrics(new ForwarderMetrics());
+        }
+
+        BPP.BPPHeader header = new BPP.BPPHeader();
+        BPP.CommandBlock commandBlock = new BPP.CommandBlock();
+
+        // the threshold each hop should leave, and how many packets got there
+        int[] expected = new int[hops];
+        int[] packets = new int[hops];
+        int wrong = 0;
+        int count = 0;
+
+        for (int h = 0; h < hops; h++) {
+            expected[h] = Math.max(threshold - relax * (h + 1), 0);
+        }
+
+        while (nalProcessor.hasNext()) {
+            ChunkInfo chunk = nalProcessor.next();
+            count++;
+
+            byte[] payload = packetizer.convert(count, BPP.Command.WASH, BPP.Condition.ALWAYS, threshold, fnSpec, chunk);
+            DatagramPacket packet = new DatagramPacket(payload, payload.length);
+
+            int last = threshold;
+
+            for (int h = 0; h < hops; h++) {
+                if (nodes[h].processInPlace(count, packet) == BPPFn.Verdict.DROP) {
+                    break;
+                }
+
+                int pos = BPPPacket.readHeader(packet.getData(), header);
+                BPPPacket.readCommandBlock(packet.getData(), pos, commandBlock);
+
+                // not every packet has something left to trim,
+                // but the threshold can only go down, as far as expected
+                if (commandBlock.threshold > last || commandBlock.threshold < expected[h]) {
+                    System.out.printf("%-6d hop %d threshold %d, expected %d to %d\n", count, h + 1, commandBlock.threshold, expected[h], last);
+                    wrong++;
+                } else if (commandBlock.threshold == expected[h]) {
+                    packets[h]++;
+                }
+
+                last = commandBlock.threshold;
+            }
+        }
+
+        for (int h = 0; h < hops; h++) {
+            System.out.printf("hop %d threshold %d packets %d of %d\n", h + 1, expected[h], packets[h], count);
+        }
+
+        if (wrong != 0 || packets[hops - 1] == 0) {
+            System.out.println("TestRelax1: FAILED");
+            System.exit(1);
+        }
+
+        System.out.println("TestRelax1: OK");
+    }
+}
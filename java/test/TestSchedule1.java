@@ -0,0 +1,59 @@
+package test;
+
+import netfn.mgmt.BandwidthSchedule;
+
+// A test of the BandwidthSchedule
+// A schedule of 100 from 0s, 200 from 1s, and 300 from 3s, for 4s,
+// is played once, in a loop, and in a loop scaled by 2.
+// For each time, the bandwidth and the next change are printed,
+// with what they should be.
+public class TestSchedule1 {
+    static final long SECOND = 1000000000L;
+
+    static long[] times = { 0, 1 * SECOND, 3 * SECOND };
+    static int[] bits = { 100, 200, 300 };
+
+    public static void main(String[] args) {
+        BandwidthSchedule once = new BandwidthSchedule(times, bits, 4 * SECOND);
+        BandwidthSchedule loop = new BandwidthSchedule(times, bits, 4 * SECOND).setLoop(true);
+        BandwidthSchedule scaled = new BandwidthSchedule(times, bits, 4 * SECOND).setLoop(true).setScale(2);
+
+        int wrong = 0;
+
+        // schedule, time in ms, bandwidth, next change in ms
+        wrong += play("once", once, 500, 100, 1000);
+        wrong += play("once", once, 2000, 200, 3000);
+        wrong += play("once", once, 10000, 300, -1);
+        wrong += play("loop", loop, 3500, 300, 4000);
+        wrong += play("loop", loop, 4200, 100, 5000);
+        wrong += play("loop", loop, 7500, 300, 8000);
+        wrong += play("loop", loop, 9000, 200, 11000);
+        wrong += play("scaled", scaled, 1500, 100, 2000);
+        wrong += play("scaled", scaled, 2500, 200, 6000);
+        wrong += play("scaled", scaled, 7000, 300, 8000);
+        wrong += play("scaled", scaled, 9000, 100, 10000);
+
+        if (wrong != 0) {
+            System.out.println("TestSchedule1: " + wrong + " FAILED");
+            System.exit(1);
+        }
+
+        System.out.println("TestSchedule1: OK");
+    }
+
+    // Print the bandwidth and the next change at a time
+    // @return 1 if they are not as expected
+    protected static int play(String name, BandwidthSchedule schedule, long millis, int bandwidth, long nextMillis) {
+        long time = millis * 1000000;
+        long next = nextMillis < 0 ? -1 : nextMillis * 1000000;
+
+        int actualBandwidth = schedule.bandwidthAt(time);
+        long actualNext = schedule.nextChange(time);
+
+        boolean ok = actualBandwidth == bandwidth && actualNext == next;
+
+        System.out.printf("%-8s %8d ms  bandwidth %5d (%5d)  next %12d (%12d)  %s\n", name, millis, actualBandwidth, bandwidth, actualNext, next, ok ? "" : "WRONG");
+
+        return ok ? 0 : 1;
+    }
+}
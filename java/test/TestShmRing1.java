@@ -0,0 +1,90 @@
+package test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import cc.clayman.net.ShmRing;
+
+// A test of the ShmRing
+// A producer thread writes packets of 1 to 100 bytes into a small ring,
+// so the records wrap round the end of the ring many times,
+// then closes it.  The consumer reads them until EOF,
+// and checks every packet, and that none are lost at the end.
+public class TestShmRing1 {
+    static int packets = 5000;
+    static int capacity = 256;
+
+    public static void main(String[] args) {
+        if (args.length == 1) {
+            packets = Integer.parseInt(args[0]);
+        }
+
+        try {
+            processRing();
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    protected static void processRing() throws IOException, InterruptedException {
+        File file = File.createTempFile("TestShmRing1", ".ring");
+        file.delete();
+
+        ShmRing producer = new ShmRing(file, capacity);
+        ShmRing consumer = new ShmRing(file, capacity);
+
+        Thread thread = new Thread(() -> {
+                for (int p = 0; p < packets; p++) {
+                    byte[] data = packet(p);
+
+                    producer.write(data, 0, data.length);
+                }
+
+                producer.closeProducer();
+        });
+
+        thread.start();
+
+        byte[] data = new byte[consumer.maxPacketSize()];
+        int count = 0;
+        int bad = 0;
+        int length;
+
+        while ((length = consumer.read(data)) >= 0) {
+            byte[] expected = packet(count);
+
+            if (length != expected.length || ! Arrays.equals(data, 0, length, expected, 0, length)) {
+                System.out.printf("%-8d bad packet: length %d expected %d\n", count, length, expected.length);
+                bad++;
+            }
+
+            count++;
+        }
+
+        thread.join();
+
+        file.delete();
+
+        System.out.printf("packets %d read %d bad %d capacity %d\n", packets, count, bad, capacity);
+
+        if (count != packets || bad != 0) {
+            System.out.println("TestShmRing1: FAILED");
+            System.exit(1);
+        }
+
+        System.out.println("TestShmRing1: OK");
+    }
+
+    // Packet p has 1 + p % 100 bytes, from p on
+    protected static byte[] packet(int p) {
+        byte[] data = new byte[1 + p % 100];
+
+        for (int b = 0; b < data.length; b++) {
+            data[b] = (byte)(p + b);
+        }
+
+        return data;
+    }
+}
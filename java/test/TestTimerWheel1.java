@@ -0,0 +1,82 @@
+package test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.SplittableRandom;
+
+import netfn.pipeline.TimerWheel;
+
+// A test of the TimerWheel
+// Items with random times, some more than a turn of the wheel on,
+// are added as the time goes on, with a fixed seed.
+// They must come out in the same order as from a PriorityQueue,
+// and each one in the first expire after the end of its tick.
+public class TestTimerWheel1 {
+    static long tick = 1000;
+    static int slots = 8;
+    static int items = 10000;
+    static long seed = 42;
+
+    public static void main(String[] args) {
+        if (args.length == 1) {
+            seed = Long.parseLong(args[0]);
+        }
+
+        SplittableRandom random = new SplittableRandom(seed);
+
+        TimerWheel<long[]> wheel = new TimerWheel<long[]>(tick, slots, 0);
+        PriorityQueue<long[]> queue = new PriorityQueue<long[]>((a, b) -> a[0] != b[0] ? Long.compare(a[0], b[0]) : Long.compare(a[1], b[1]));
+
+        List<long[]> out = new ArrayList<long[]>();
+
+        long now = 0;
+        int added = 0;
+        int expired = 0;
+        int wrong = 0;
+
+        while (added < items || wheel.size() > 0) {
+            // add a few, up to 3 turns on
+            for (int a = random.nextInt(4); a > 0 && added < items; a--) {
+                long[] item = { now + random.nextLong(3 * tick * slots), added++ };
+
+                wheel.add(item, item[0]);
+                queue.add(item);
+            }
+
+            now += random.nextLong(1, 2 * tick);
+
+            out.clear();
+            wheel.expire(now, out::add);
+
+            for (long[] item : out) {
+                long[] expected = queue.poll();
+
+                if (item != expected) {
+                    System.out.printf("%-8d item %d at %d, expected %d at %d\n", now, item[1], item[0], expected[1], expected[0]);
+                    wrong++;
+                } else if (item[0] / tick >= now / tick) {
+                    System.out.printf("%-8d item %d at %d is early\n", now, item[1], item[0]);
+                    wrong++;
+                }
+
+                expired++;
+            }
+
+            // anything in a tick that has passed has come out
+            if (! queue.isEmpty() && queue.peek()[0] / tick < now / tick) {
+                System.out.printf("%-8d item %d at %d is late\n", now, queue.peek()[1], queue.peek()[0]);
+                wrong++;
+            }
+        }
+
+        System.out.printf("items %d expired %d wrong %d tick %d slots %d\n", items, expired, wrong, tick, slots);
+
+        if (wrong != 0 || expired != items) {
+            System.out.println("TestTimerWheel1: FAILED");
+            System.exit(1);
+        }
+
+        System.out.println("TestTimerWheel1: OK");
+    }
+}